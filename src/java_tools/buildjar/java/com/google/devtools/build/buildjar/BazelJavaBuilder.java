@@ -16,22 +16,31 @@ package com.google.devtools.build.buildjar;
 
 import com.google.common.annotations.VisibleForTesting;
 import com.google.common.collect.ImmutableList;
+import com.google.common.io.BaseEncoding;
 import com.google.devtools.build.buildjar.javac.BlazeJavacResult;
+import com.google.devtools.build.buildjar.javac.FileManagerCache;
 import com.google.devtools.build.buildjar.javac.FormattedDiagnostic;
 import com.google.devtools.build.buildjar.javac.JavacOptions;
 import com.google.devtools.build.buildjar.javac.plugins.BlazeJavaCompilerPlugin;
 import com.google.devtools.build.buildjar.javac.plugins.dependency.DependencyModule;
 import com.google.devtools.build.buildjar.javac.plugins.errorprone.ErrorPronePlugin;
+import com.google.devtools.build.lib.worker.WorkerProtocol.Input;
 import com.google.devtools.build.lib.worker.WorkerProtocol.WorkRequest;
 import com.google.devtools.build.lib.worker.WorkerProtocol.WorkResponse;
 import java.io.IOException;
 import java.io.OutputStreamWriter;
+import java.io.PrintStream;
 import java.io.PrintWriter;
 import java.io.StringWriter;
 import java.nio.charset.Charset;
+import java.nio.file.Path;
+import java.nio.file.Paths;
 import java.util.Arrays;
+import java.util.HashMap;
 import java.util.List;
 import java.util.ListIterator;
+import java.util.Map;
+import javax.annotation.Nullable;
 
 /** The JavaBuilder main called by bazel. */
 public abstract class BazelJavaBuilder {
@@ -53,6 +62,8 @@ public abstract class BazelJavaBuilder {
   }
 
   private static int runPersistentWorker() {
+    // Keeps the class path jars javac opened across requests, as long as their digests match.
+    FileManagerCache fileManagerCache = new FileManagerCache();
     while (true) {
       try {
         WorkRequest request = WorkRequest.parseDelimitedFrom(System.in);
@@ -61,9 +72,12 @@ public abstract class BazelJavaBuilder {
           break;
         }
 
+        fileManagerCache.setInputDigests(getInputDigests(request));
         try (StringWriter sw = new StringWriter();
             PrintWriter pw = new PrintWriter(sw)) {
-          int exitCode = processRequest(request.getArgumentsList(), pw);
+          // The worker's stderr goes to its log, not to the user.
+          int exitCode =
+              processRequest(request.getArgumentsList(), pw, fileManagerCache, System.err);
           WorkResponse.newBuilder()
               .setOutput(sw.toString())
               .setExitCode(exitCode)
@@ -79,14 +93,51 @@ public abstract class BazelJavaBuilder {
     return 0;
   }
 
+  /** Returns the digests of the inputs of a work request that have one, keyed by path. */
+  private static Map<Path, String> getInputDigests(WorkRequest request) {
+    Map<Path, String> digests = new HashMap<>();
+    for (Input input : request.getInputsList()) {
+      if (!input.getDigest().isEmpty()) {
+        digests.put(
+            Paths.get(input.getPath()),
+            BaseEncoding.base16().encode(input.getDigest().toByteArray()));
+      }
+    }
+    return digests;
+  }
+
   public static int processRequest(List<String> args, PrintWriter err) {
+    return processRequest(args, err, null, null);
+  }
+
+  /**
+   * Processes a single request.
+   *
+   * @param fileManagerCache where to keep javac's file manager for later requests, if anywhere
+   * @param log where to report how much the classpath of the compilation was reduced, if anywhere
+   */
+  private static int processRequest(
+      List<String> args,
+      PrintWriter err,
+      @Nullable FileManagerCache fileManagerCache,
+      @Nullable PrintStream log) {
     try {
       JavaLibraryBuildRequest build = parse(args);
-      try (SimpleJavaLibraryBuilder builder =
+      ReducedClasspathJavaLibraryBuilder reducedClasspathBuilder =
           build.getDependencyModule().reduceClasspath()
-              ? new ReducedClasspathJavaLibraryBuilder()
-              : new SimpleJavaLibraryBuilder()) {
+              ? new ReducedClasspathJavaLibraryBuilder(fileManagerCache)
+              : null;
+      try (SimpleJavaLibraryBuilder builder =
+          reducedClasspathBuilder != null
+              ? reducedClasspathBuilder
+              : new SimpleJavaLibraryBuilder(fileManagerCache)) {
         BlazeJavacResult result = builder.run(build);
+        if (log != null && reducedClasspathBuilder != null) {
+          String report = reducedClasspathBuilder.getClasspathReport();
+          if (report != null) {
+            log.println(build.getDependencyModule().getTargetLabel() + ": " + report);
+          }
+        }
         for (FormattedDiagnostic d : result.diagnostics()) {
           err.write(d.getFormatted() + "\n");
         }
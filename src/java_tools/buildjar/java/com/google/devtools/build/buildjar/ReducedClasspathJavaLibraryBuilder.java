@@ -14,11 +14,26 @@
 
 package com.google.devtools.build.buildjar;
 
+import static com.google.common.collect.ImmutableList.toImmutableList;
+
+import com.google.common.annotations.VisibleForTesting;
 import com.google.common.collect.ImmutableList;
 import com.google.devtools.build.buildjar.javac.BlazeJavacResult;
+import com.google.devtools.build.buildjar.javac.FileManagerCache;
 import com.google.devtools.build.buildjar.javac.FormattedDiagnostic;
 import com.google.devtools.build.buildjar.javac.JavacRunner;
+import com.sun.tools.javac.code.Kinds.KindName;
+import com.sun.tools.javac.util.JCDiagnostic;
 import java.io.IOException;
+import java.util.Enumeration;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.TimeUnit;
+import java.util.regex.Pattern;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipFile;
+import javax.annotation.Nullable;
 
 /**
  * A variant of SimpleJavaLibraryBuilder that attempts to reduce the compile-time classpath right
@@ -26,10 +41,35 @@ import java.io.IOException;
  * enabled via the --reduce_classpath flag, only when Blaze runs with --experimental_java_classpath.
  *
  * <p>A fall-back mechanism detects whether javac fails because the classpath is incorrectly
- * discarding required entries, and re-attempts to compile with the full classpath.
+ * discarding required entries. It first re-attempts to compile with only the jars of the full
+ * classpath that provide the missing symbols, and then with the full classpath.
  */
 public class ReducedClasspathJavaLibraryBuilder extends SimpleJavaLibraryBuilder {
 
+  /** The number of times to add the jars with missing symbols before using the full classpath. */
+  private static final int MAX_NARROW_RETRIES = 2;
+
+  /**
+   * Matches the diagnostic arguments that may name a missing class or package by its qualified
+   * name. Simple names are left out: a name like {@code Builder} is found in almost every jar.
+   */
+  private static final Pattern QUALIFIED_NAME = Pattern.compile("[\\w$]+(\\.[\\w$]+)+");
+
+  private int fullClasspathSize;
+  private int reducedClasspathSize;
+  private int addedClasspathEntries;
+  private boolean fellBack;
+  private long javacNanos;
+  private long fallBackNanos;
+
+  public ReducedClasspathJavaLibraryBuilder() {
+    this(null);
+  }
+
+  public ReducedClasspathJavaLibraryBuilder(@Nullable FileManagerCache fileManagerCache) {
+    super(fileManagerCache);
+  }
+
   /**
    * Attempts to minimize the compile-time classpath before invoking javac, falling back to a
    * regular compile.
@@ -47,15 +87,36 @@ public class ReducedClasspathJavaLibraryBuilder extends SimpleJavaLibraryBuilder
       compressedClasspath =
           build.getDependencyModule().computeStrictClasspath(build.getClassPath());
     }
+    fullClasspathSize = build.getClassPath().size();
+    reducedClasspathSize = compressedClasspath.size();
 
     // Compile!
+    long start = System.nanoTime();
     BlazeJavacResult result =
         javacRunner.invokeJavac(build.toBlazeJavacArguments(compressedClasspath));
 
-    // If javac errored out because of missing entries on the classpath, give it another try.
+    // If javac errored out because of missing entries on the classpath, add the jars that provide
+    // them, if the diagnostics name them by their qualified names.
+    for (int i = 0; i < MAX_NARROW_RETRIES && shouldFallBack(result); i++) {
+      ImmutableList<String> widenedClasspath =
+          widenClasspath(
+              compressedClasspath, build.getClassPath(), missingNames(result.diagnostics()));
+      if (widenedClasspath.size() == compressedClasspath.size()) {
+        break;
+      }
+      addedClasspathEntries += widenedClasspath.size() - compressedClasspath.size();
+      compressedClasspath = widenedClasspath;
+
+      prepareSourceCompilation(build);
+      result = javacRunner.invokeJavac(build.toBlazeJavacArguments(compressedClasspath));
+    }
+
+    // If that didn't help, give it another try with the full classpath.
     // TODO(bazel-team): check performance impact of additional retries.
     if (shouldFallBack(result)) {
       // TODO(cushon): warn for transitive classpath fallback
+      fellBack = true;
+      fallBackNanos = System.nanoTime() - start;
 
       // Reset output directories
       prepareSourceCompilation(build);
@@ -63,18 +124,125 @@ public class ReducedClasspathJavaLibraryBuilder extends SimpleJavaLibraryBuilder
       // Fall back to the regular compile, but add extra checks to catch transitive uses
       result = javacRunner.invokeJavac(build.toBlazeJavacArguments(build.getClassPath()));
     }
+    javacNanos = System.nanoTime() - start;
     return result;
   }
 
+  /**
+   * Returns a line that describes how much the classpath was reduced, and how long javac took with
+   * it, or {@code null} if javac didn't run.
+   */
+  @Nullable
+  public String getClasspathReport() {
+    if (javacNanos == 0) {
+      return null;
+    }
+    StringBuilder report =
+        new StringBuilder()
+            .append("used ")
+            .append(reducedClasspathSize)
+            .append(" of ")
+            .append(fullClasspathSize)
+            .append(" classpath entries");
+    if (addedClasspathEntries > 0) {
+      report.append(", and ").append(addedClasspathEntries).append(" for missing symbols");
+    }
+    report.append("; javac took ").append(TimeUnit.NANOSECONDS.toMillis(javacNanos)).append(" ms");
+    if (fellBack) {
+      report
+          .append(", of which ")
+          .append(TimeUnit.NANOSECONDS.toMillis(fallBackNanos))
+          .append(" ms before falling back to the full classpath");
+    }
+    return report.toString();
+  }
+
+  /**
+   * Returns the qualified names of classes and packages that javac reported as missing: the string
+   * arguments of the missing-symbol diagnostics, and of the diagnostics nested in them.
+   */
+  private static Set<String> missingNames(List<FormattedDiagnostic> diagnostics) {
+    Set<String> names = new HashSet<>();
+    for (FormattedDiagnostic diagnostic : diagnostics) {
+      if (isMissingSymbol(diagnostic.getCode())
+          && diagnostic.diagnostic instanceof JCDiagnostic) {
+        addNames((JCDiagnostic) diagnostic.diagnostic, names);
+      }
+    }
+    return names;
+  }
+
+  private static void addNames(JCDiagnostic diagnostic, Set<String> names) {
+    for (Object arg : diagnostic.getArgs()) {
+      if (arg instanceof JCDiagnostic) {
+        addNames((JCDiagnostic) arg, names);
+      } else if (arg != null
+          && !(arg instanceof KindName)
+          && QUALIFIED_NAME.matcher(arg.toString()).matches()) {
+        names.add(arg.toString());
+      }
+    }
+  }
+
+  /**
+   * Adds the entries of the full classpath that contain one of the given classes or packages to the
+   * reduced classpath, keeping the order of the full classpath. A name matches the qualified name
+   * of a class, nested classes included, or the name of a package.
+   */
+  @VisibleForTesting
+  static ImmutableList<String> widenClasspath(
+      ImmutableList<String> reducedClasspath,
+      ImmutableList<String> fullClasspath,
+      Set<String> missingNames) {
+    if (missingNames.isEmpty()) {
+      return reducedClasspath;
+    }
+    Set<String> widened = new HashSet<>(reducedClasspath);
+    for (String entry : fullClasspath) {
+      if (!widened.contains(entry) && providesAny(entry, missingNames)) {
+        widened.add(entry);
+      }
+    }
+    return fullClasspath.stream().filter(widened::contains).collect(toImmutableList());
+  }
+
+  private static boolean providesAny(String jar, Set<String> names) {
+    try (ZipFile zip = new ZipFile(jar)) {
+      for (Enumeration<? extends ZipEntry> entries = zip.entries(); entries.hasMoreElements(); ) {
+        String name = entries.nextElement().getName();
+        if (!name.endsWith(".class")) {
+          continue;
+        }
+        String className =
+            name.substring(0, name.length() - ".class".length())
+                .replace('/', '.')
+                .replace('$', '.');
+        int lastDot = className.lastIndexOf('.');
+        if (names.contains(className)
+            || (lastDot > 0 && names.contains(className.substring(0, lastDot)))) {
+          return true;
+        }
+      }
+      return false;
+    } catch (IOException e) {
+      // Not a jar we can look into, so let javac decide.
+      return true;
+    }
+  }
+
+  private static boolean isMissingSymbol(String code) {
+    return code.contains("doesnt.exist")
+        || code.contains("cant.resolve")
+        || code.contains("cant.access");
+  }
+
   private static boolean shouldFallBack(BlazeJavacResult result) {
     if (result.isOk()) {
       return false;
     }
     for (FormattedDiagnostic diagnostic : result.diagnostics()) {
       String code = diagnostic.getCode();
-      if (code.contains("doesnt.exist")
-          || code.contains("cant.resolve")
-          || code.contains("cant.access")) {
+      if (isMissingSymbol(code)) {
         return true;
       }
       // handle -Xdoclint:reference errors, which don't have a diagnostic code
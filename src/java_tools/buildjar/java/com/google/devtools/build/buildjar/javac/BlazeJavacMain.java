@@ -38,6 +38,7 @@ import java.net.URLClassLoader;
 import java.nio.file.Path;
 import java.util.Collection;
 import java.util.List;
+import javax.annotation.Nullable;
 import javax.tools.StandardLocation;
 
 /**
@@ -64,6 +65,15 @@ public class BlazeJavacMain {
   }
 
   public static BlazeJavacResult compile(BlazeJavacArguments arguments) {
+    return compile(arguments, null);
+  }
+
+  /**
+   * Compiles with the given arguments, reusing the file manager of earlier compilations, and the
+   * class path jar indexes it holds, from the given cache if possible.
+   */
+  public static BlazeJavacResult compile(
+      BlazeJavacArguments arguments, @Nullable FileManagerCache fileManagerCache) {
 
     List<String> javacArguments = arguments.javacOptions();
     try {
@@ -83,7 +93,20 @@ public class BlazeJavacMain {
     Listener diagnostics = new Listener(context);
     BlazeJavaCompiler compiler;
 
-    try (JavacFileManager fileManager = new ClassloaderMaskingFileManager()) {
+    JavacFileManager fileManager = null;
+    boolean cachedFileManager = false;
+    try {
+      if (fileManagerCache != null) {
+        fileManager = fileManagerCache.get(arguments, ClassloaderMaskingFileManager::new);
+        cachedFileManager = fileManager != null;
+      }
+      if (cachedFileManager) {
+        // Forget the locations of an earlier compilation that setLocations may leave unset.
+        fileManager.setLocation(StandardLocation.PLATFORM_CLASS_PATH, null);
+        fileManager.setLocation(StandardLocation.SOURCE_OUTPUT, null);
+      } else {
+        fileManager = new ClassloaderMaskingFileManager();
+      }
       JavacTask task =
           JavacTool.create()
               .getTask(
@@ -108,6 +131,19 @@ public class BlazeJavacMain {
       t.printStackTrace(errWriter);
       ok = false;
     } finally {
+      if (fileManager != null) {
+        try {
+          if (cachedFileManager) {
+            // Keep the opened jars for the next compilation, but nothing else from this one.
+            fileManager.flush();
+          } else {
+            fileManager.close();
+          }
+        } catch (IOException e) {
+          e.printStackTrace(errWriter);
+          ok = false;
+        }
+      }
       compiler = (BlazeJavaCompiler) JavaCompiler.instance(context);
       if (ok) {
         // There could be situations where we incorrectly skip Error Prone and the compilation
@@ -0,0 +1,164 @@
+// Copyright 2017 The Bazel Authors. All rights reserved.
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//    http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package com.google.devtools.build.buildjar.javac;
+
+import com.google.common.annotations.VisibleForTesting;
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.ImmutableMap;
+import com.google.common.collect.Iterables;
+import com.sun.tools.javac.file.JavacFileManager;
+import java.io.Closeable;
+import java.io.IOException;
+import java.nio.file.Path;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.function.Supplier;
+import javax.annotation.Nullable;
+
+/**
+ * Keeps a {@link JavacFileManager} across the compilations of a persistent JavaBuilder worker, so
+ * that the indexes of the class path jars it opened are only read once.
+ *
+ * <p>The file manager is dropped as soon as a work request has a new digest for a search path
+ * entry it may have opened, or when a compilation uses different javac options. Compilations with a
+ * search path entry whose digest is not in the work request get a file manager of their own.
+ *
+ * <p>Not thread-safe; the worker handles one request at a time.
+ */
+public final class FileManagerCache implements Closeable {
+
+  /**
+   * The number of distinct search path entries a file manager may have seen before it is dropped.
+   * Each jar it opened holds an open file and its central directory.
+   */
+  private static final int MAX_PATHS = 4000;
+
+  private final int maxPaths;
+
+  /** The digests of the inputs of the current work request, keyed by path. */
+  private Map<Path, String> inputDigests = ImmutableMap.of();
+
+  /** The digests of the search path entries the cached file manager may have opened. */
+  private final Map<Path, String> seenDigests = new HashMap<>();
+
+  @Nullable private JavacFileManager fileManager;
+  @Nullable private ImmutableList<String> fileManagerOptions;
+  private int reuses;
+
+  public FileManagerCache() {
+    this(MAX_PATHS);
+  }
+
+  @VisibleForTesting
+  FileManagerCache(int maxPaths) {
+    this.maxPaths = maxPaths;
+  }
+
+  /**
+   * Sets the digests of the inputs of a new work request, which are checked against the ones of
+   * earlier requests by the compilations for this request.
+   *
+   * @param inputDigests the digests of the inputs of the request, keyed by path
+   */
+  public void setInputDigests(Map<Path, String> inputDigests) {
+    this.inputDigests = ImmutableMap.copyOf(inputDigests);
+  }
+
+  /**
+   * Returns the cached file manager for a compilation, creating it if necessary, or {@code null}
+   * if a search path entry of the compilation has no digest in the current work request.
+   */
+  @Nullable
+  JavacFileManager get(BlazeJavacArguments arguments, Supplier<JavacFileManager> factory)
+      throws IOException {
+    Map<Path, String> searchPathDigests = new HashMap<>();
+    for (Path path :
+        Iterables.concat(
+            arguments.classPath(),
+            arguments.bootClassPath(),
+            arguments.sourcePath(),
+            arguments.processorPath())) {
+      String digest = inputDigests.get(path);
+      if (digest == null) {
+        return null;
+      }
+      searchPathDigests.put(path, digest);
+    }
+    // Check all inputs, not only the search path of this compilation: a stale jar is still open in
+    // the file manager, and may be read again through the Class-Path of another jar.
+    boolean changed = false;
+    for (Map.Entry<Path, String> input : inputDigests.entrySet()) {
+      String seen = seenDigests.get(input.getKey());
+      if (seen != null && !seen.equals(input.getValue())) {
+        changed = true;
+      }
+    }
+    ImmutableList<String> options = fileManagerOptions(arguments.javacOptions());
+    if (changed || !options.equals(fileManagerOptions)) {
+      closeFileManager();
+    }
+    seenDigests.putAll(searchPathDigests);
+    if (seenDigests.size() > maxPaths) {
+      closeFileManager();
+      seenDigests.putAll(searchPathDigests);
+    }
+    if (fileManager == null) {
+      fileManager = factory.get();
+      fileManagerOptions = options;
+    } else {
+      reuses++;
+    }
+    return fileManager;
+  }
+
+  /**
+   * Returns the javac options without the list of annotation processors to run, which differs
+   * between compilations but doesn't affect the file manager.
+   */
+  private static ImmutableList<String> fileManagerOptions(List<String> javacOptions) {
+    ImmutableList.Builder<String> options = ImmutableList.builder();
+    for (Iterator<String> it = javacOptions.iterator(); it.hasNext(); ) {
+      String option = it.next();
+      if (option.equals("-processor") && it.hasNext()) {
+        it.next();
+      } else {
+        options.add(option);
+      }
+    }
+    return options.build();
+  }
+
+  /** Returns how many compilations reused an existing file manager. */
+  public int getReuses() {
+    return reuses;
+  }
+
+  private void closeFileManager() throws IOException {
+    if (fileManager != null) {
+      fileManager.close();
+      fileManager = null;
+      fileManagerOptions = null;
+    }
+    seenDigests.clear();
+  }
+
+  @Override
+  public void close() throws IOException {
+    closeFileManager();
+    inputDigests = ImmutableMap.of();
+  }
+}
@@ -0,0 +1,108 @@
+// Copyright 2017 The Bazel Authors. All rights reserved.
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//    http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package com.google.devtools.build.buildjar;
+
+import static com.google.common.truth.Truth.assertThat;
+
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.ImmutableSet;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.file.Path;
+import java.util.jar.JarOutputStream;
+import java.util.zip.ZipEntry;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+import org.junit.runner.RunWith;
+import org.junit.runners.JUnit4;
+
+/** Tests for {@link ReducedClasspathJavaLibraryBuilder}. */
+@RunWith(JUnit4.class)
+public class ReducedClasspathJavaLibraryBuilderTest {
+
+  @Rule public TemporaryFolder temp = new TemporaryFolder();
+
+  private String a;
+  private String b;
+  private String c;
+  private ImmutableList<String> fullClasspath;
+
+  private String writeJar(String name, String... entries) throws IOException {
+    Path jar = temp.getRoot().toPath().resolve(name);
+    try (JarOutputStream out = new JarOutputStream(new FileOutputStream(jar.toFile()))) {
+      for (String entry : entries) {
+        out.putNextEntry(new ZipEntry(entry));
+        out.closeEntry();
+      }
+    }
+    return jar.toString();
+  }
+
+  @Before
+  public void setUp() throws IOException {
+    a = writeJar("a.jar", "a/A.class");
+    b = writeJar("b.jar", "b/B.class", "b/B$Inner.class", "META-INF/MANIFEST.MF");
+    c = writeJar("c.jar", "c/sub/C.class");
+    fullClasspath = ImmutableList.of(c, b, a);
+  }
+
+  @Test
+  public void testAddsJarWithMissingClass() {
+    assertThat(
+            ReducedClasspathJavaLibraryBuilder.widenClasspath(
+                ImmutableList.of(a), fullClasspath, ImmutableSet.of("b.B")))
+        .containsExactly(b, a)
+        .inOrder();
+    assertThat(
+            ReducedClasspathJavaLibraryBuilder.widenClasspath(
+                ImmutableList.of(a), fullClasspath, ImmutableSet.of("b.B.Inner")))
+        .containsExactly(b, a)
+        .inOrder();
+  }
+
+  @Test
+  public void testIgnoresSimpleNames() {
+    // Simple names, like the one of the nested class b.B$Inner, are too ambiguous to look for.
+    ImmutableList<String> reduced = ImmutableList.of(a);
+    assertThat(
+            ReducedClasspathJavaLibraryBuilder.widenClasspath(
+                reduced, fullClasspath, ImmutableSet.of("C", "Inner")))
+        .isEqualTo(reduced);
+  }
+
+  @Test
+  public void testAddsJarWithMissingPackage() {
+    assertThat(
+            ReducedClasspathJavaLibraryBuilder.widenClasspath(
+                ImmutableList.of(a), fullClasspath, ImmutableSet.of("c.sub", "b.B")))
+        .containsExactly(c, b, a)
+        .inOrder();
+  }
+
+  @Test
+  public void testUnknownNames() {
+    ImmutableList<String> reduced = ImmutableList.of(a);
+    assertThat(
+            ReducedClasspathJavaLibraryBuilder.widenClasspath(
+                reduced, fullClasspath, ImmutableSet.of("d.D", "c", "MANIFEST")))
+        .isEqualTo(reduced);
+    assertThat(
+            ReducedClasspathJavaLibraryBuilder.widenClasspath(
+                reduced, fullClasspath, ImmutableSet.<String>of()))
+        .isSameAs(reduced);
+  }
+}
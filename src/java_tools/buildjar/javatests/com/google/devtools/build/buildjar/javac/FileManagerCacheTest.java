@@ -0,0 +1,100 @@
+// Copyright 2017 The Bazel Authors. All rights reserved.
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//    http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package com.google.devtools.build.buildjar.javac;
+
+import static com.google.common.truth.Truth.assertThat;
+import static java.nio.charset.StandardCharsets.UTF_8;
+
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.ImmutableMap;
+import com.sun.tools.javac.file.JavacFileManager;
+import com.sun.tools.javac.util.Context;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.function.Supplier;
+import org.junit.After;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.junit.runners.JUnit4;
+
+/** Tests for {@link FileManagerCache}. */
+@RunWith(JUnit4.class)
+public class FileManagerCacheTest {
+
+  private static final Path A = Paths.get("a.jar");
+  private static final Path B = Paths.get("b.jar");
+  private static final Path C = Paths.get("c.jar");
+
+  private final Supplier<JavacFileManager> factory =
+      () -> new JavacFileManager(new Context(), false, UTF_8);
+  private FileManagerCache cache = new FileManagerCache();
+
+  @After
+  public void tearDown() throws Exception {
+    cache.close();
+  }
+
+  private static BlazeJavacArguments arguments(String option, Path... classPath) {
+    return BlazeJavacArguments.builder()
+        .classPath(ImmutableList.copyOf(classPath))
+        .classOutput(Paths.get("classes"))
+        .javacOptions(ImmutableList.of(option))
+        .build();
+  }
+
+  @Test
+  public void testReusesFileManagerForSameDigests() throws Exception {
+    cache.setInputDigests(ImmutableMap.of(A, "1", B, "1"));
+    JavacFileManager first = cache.get(arguments("-g", A, B), factory);
+
+    // Unrelated inputs, like source files, may change.
+    cache.setInputDigests(ImmutableMap.of(A, "1", B, "1", Paths.get("Foo.java"), "2"));
+    assertThat(cache.get(arguments("-g", A), factory)).isSameAs(first);
+    assertThat(cache.getReuses()).isEqualTo(1);
+  }
+
+  @Test
+  public void testDropsFileManagerWhenSearchPathEntryChanges() throws Exception {
+    cache.setInputDigests(ImmutableMap.of(A, "1", B, "1"));
+    JavacFileManager first = cache.get(arguments("-g", A, B), factory);
+
+    // b.jar isn't on the class path now, but the file manager may still hold it.
+    cache.setInputDigests(ImmutableMap.of(A, "1", B, "2"));
+    assertThat(cache.get(arguments("-g", A), factory)).isNotSameAs(first);
+    assertThat(cache.getReuses()).isEqualTo(0);
+  }
+
+  @Test
+  public void testDropsFileManagerWhenOptionsChange() throws Exception {
+    cache.setInputDigests(ImmutableMap.of(A, "1"));
+    JavacFileManager first = cache.get(arguments("-g", A), factory);
+    assertThat(cache.get(arguments("-g:none", A), factory)).isNotSameAs(first);
+  }
+
+  @Test
+  public void testNoFileManagerWithoutDigest() throws Exception {
+    cache.setInputDigests(ImmutableMap.of(A, "1"));
+    assertThat(cache.get(arguments("-g", A, C), factory)).isNull();
+  }
+
+  @Test
+  public void testDropsFileManagerAboveMaxPaths() throws Exception {
+    cache = new FileManagerCache(2);
+    cache.setInputDigests(ImmutableMap.of(A, "1", B, "1", C, "1"));
+    JavacFileManager first = cache.get(arguments("-g", A, B), factory);
+    assertThat(cache.get(arguments("-g", A, B), factory)).isSameAs(first);
+    assertThat(cache.get(arguments("-g", C), factory)).isNotSameAs(first);
+  }
+}
@@ -18,6 +18,7 @@ import static com.google.devtools.build.singlejar.ZipCombiner.DOS_EPOCH;
 
 import com.google.devtools.build.singlejar.DefaultJarEntryFilter.PathFilter;
 import com.google.devtools.build.singlejar.ZipCombiner.OutputMode;
+import com.google.devtools.build.singlejar.ZipCombiner.ZipOpener;
 import java.io.ByteArrayInputStream;
 import java.io.ByteArrayOutputStream;
 import java.io.File;
@@ -46,6 +47,7 @@ public class SingleJar {
   private static final String BUILD_DATA_FILENAME = "build-data.properties";
 
   private final SimpleFileSystem fileSystem;
+  private final ZipOpener zipOpener;
 
   /** The input jar files we want to combine into the output jar. */
   private final List<String> inputJars = new ArrayList<>();
@@ -89,9 +91,17 @@ public class SingleJar {
   /** The (optional) native executable that will be prepended to this JAR. */
   private String launcherBin = null;
 
+  /** The number of threads to read the input jars with. */
+  private int threads = 1;
+
   // Only visible for testing.
   protected SingleJar(SimpleFileSystem fileSystem) {
+    this(fileSystem, ZipCombiner.DEFAULT_ZIP_OPENER);
+  }
+
+  SingleJar(SimpleFileSystem fileSystem, ZipOpener zipOpener) {
     this.fileSystem = fileSystem;
+    this.zipOpener = zipOpener;
   }
 
   /**
@@ -180,7 +190,7 @@ public class SingleJar {
     ZipCombiner combiner = null;
     try {
       combiner = new ZipCombiner(outputMode, createEntryFilter(normalize, allowedPaths),
-          fileSystem.getOutputStream(outputJar));
+          fileSystem.getOutputStream(outputJar), zipOpener);
       if (launcherBin != null) {
         combiner.prependExecutable(fileSystem.getInputStream(launcherBin));
       }
@@ -235,10 +245,11 @@ public class SingleJar {
       }
 
       // Copy the jars into the jar file.
+      List<File> jars = new ArrayList<>();
       for (String inputJar : inputJars) {
-        File jar = fileSystem.getFile(inputJar);
-        combiner.addZip(jar);
+        jars.add(fileSystem.getFile(inputJar));
       }
+      combiner.addZips(jars, threads);
 
       // Close the output file. If something goes wrong here, delete the file.
       combiner.close();
@@ -348,6 +359,14 @@ public class SingleJar {
       } else if (arg.equals("--java_launcher")) {
         launcherBin = getArgument(args, i, arg);
         i++;
+      } else if (arg.equals("--threads")) {
+        String value = getArgument(args, i, arg);
+        try {
+          threads = Integer.parseInt(value);
+        } catch (NumberFormatException e) {
+          throw new IOException("--threads: not a number: '" + value + "'");
+        }
+        i++;
       } else {
         throw new IOException("unknown option : '" + arg + "'");
       }
@@ -390,7 +409,11 @@ public class SingleJar {
   }
 
   static int singleRun(String[] args) throws IOException {
-    SingleJar singlejar = new SingleJar(new JavaIoFileSystem());
+    return singleRun(args, ZipCombiner.DEFAULT_ZIP_OPENER);
+  }
+
+  static int singleRun(String[] args, ZipOpener zipOpener) throws IOException {
+    SingleJar singlejar = new SingleJar(new JavaIoFileSystem(), zipOpener);
     return singlejar.run(Arrays.asList(args));
   }
 
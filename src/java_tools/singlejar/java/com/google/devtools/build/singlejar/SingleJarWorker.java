@@ -14,18 +14,33 @@
 
 package com.google.devtools.build.singlejar;
 
+import com.google.devtools.build.lib.worker.WorkerProtocol.Input;
 import com.google.devtools.build.lib.worker.WorkerProtocol.WorkRequest;
 import com.google.devtools.build.lib.worker.WorkerProtocol.WorkResponse;
+import com.google.devtools.build.singlejar.ZipCombiner.ZipOpener;
+import com.google.protobuf.ByteString;
 import java.io.ByteArrayOutputStream;
 import java.io.IOException;
 import java.io.PrintStream;
 import java.nio.charset.StandardCharsets;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
 
 /**
  * A blaze worker to run {@link SingleJar} in a warm JVM process.
+ *
+ * <p>The worker keeps the central directories of the input jars in a {@link ZipIndexCache}, so that
+ * it only scans the inputs that changed since an earlier request.
  */
 public class SingleJarWorker {
 
+  /**
+   * The number of zip entries whose central directory records are kept across requests. Each takes
+   * a few hundred bytes of heap.
+   */
+  private static final long MAX_CACHED_ZIP_ENTRIES = 500000;
+
   public static void main(String[] args) {
     new SingleJarWorker().runWorker();
   }
@@ -33,6 +48,8 @@ public class SingleJarWorker {
   private PrintStream originalStdout;
   private PrintStream originalSterr;
   private ByteArrayOutputStream stdoutAndStderr;
+  private final ZipIndexCache zipIndexCache = new ZipIndexCache(MAX_CACHED_ZIP_ENTRIES);
+  private int requestCount;
 
   protected void runWorker() {
     trapOutputs();
@@ -58,13 +75,41 @@ public class SingleJarWorker {
       WorkRequest workRequest = WorkRequest.parseDelimitedFrom(System.in);
 
       String[] args = workRequest.getArgumentsList().toArray(new String[0]);
-
-      int returnCode = runSingleJar(args);
+      Map<String, String> digests = new HashMap<>();
+      for (Input input : workRequest.getInputsList()) {
+        if (!input.getDigest().isEmpty()) {
+          digests.put(input.getPath(), toHex(input.getDigest()));
+        }
+      }
+      ZipIndexCache.Opener zipOpener = zipIndexCache.newOpener(digests);
+
+      long startTime = System.nanoTime();
+      int returnCode = runSingleJar(args, zipOpener);
+      logTiming(startTime, zipOpener);
 
       outputResult(returnCode);
     }
   }
 
+  /** Writes how long a request took, and how much the cache helped, to the log of the worker. */
+  private void logTiming(long startTime, ZipIndexCache.Opener zipOpener) {
+    requestCount++;
+    originalSterr.printf(
+        "Request %d took %d ms; read %d input jar indexes, took %d from the cache%n",
+        requestCount,
+        TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - startTime),
+        zipOpener.getMisses(),
+        zipOpener.getHits());
+  }
+
+  private static String toHex(ByteString digest) {
+    StringBuilder hex = new StringBuilder(2 * digest.size());
+    for (int i = 0; i < digest.size(); i++) {
+      hex.append(String.format("%02x", digest.byteAt(i)));
+    }
+    return hex.toString();
+  }
+
   private void outputResult(int returnCode) throws IOException {
     WorkResponse.newBuilder()
         .setExitCode(returnCode)
@@ -79,9 +124,9 @@ public class SingleJarWorker {
     System.setOut(new PrintStream(stdoutAndStderr, true));
   }
 
-  private int runSingleJar(String[] args) {
+  private int runSingleJar(String[] args, ZipOpener zipOpener) {
     try {
-      return singleRun(args);
+      return singleRun(args, zipOpener);
     } catch (IOException e) {
       // Some IO failures are okay no need to quit the worker
       System.err.println("SingleJar threw exception : " + e.getMessage());
@@ -95,7 +140,7 @@ public class SingleJarWorker {
     }
   }
 
-  protected int singleRun(String[] args) throws Exception {
-    return SingleJar.singleRun(args);
+  protected int singleRun(String[] args, ZipOpener zipOpener) throws Exception {
+    return SingleJar.singleRun(args, zipOpener);
   }
 }
@@ -32,11 +32,22 @@ import java.io.ByteArrayOutputStream;
 import java.io.File;
 import java.io.IOException;
 import java.io.InputStream;
+import java.io.InterruptedIOException;
 import java.io.OutputStream;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
 import java.util.Date;
+import java.util.Deque;
 import java.util.HashMap;
+import java.util.List;
 import java.util.Map;
 import java.util.Map.Entry;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
 import java.util.concurrent.atomic.AtomicBoolean;
 import java.util.zip.CRC32;
 import java.util.zip.Deflater;
@@ -92,6 +103,23 @@ public class ZipCombiner implements AutoCloseable {
     FORCE_STORED,
   }
 
+  /**
+   * Opens the ZIP files given to {@link #addZip} and {@link #addZips}. Must be thread-safe, as
+   * {@link #addZips} opens ZIP files on several threads.
+   */
+  public interface ZipOpener {
+    ZipReader open(File zipFile) throws IOException;
+  }
+
+  /** A {@link ZipOpener} that reads the central directory of each ZIP file as it opens it. */
+  public static final ZipOpener DEFAULT_ZIP_OPENER =
+      new ZipOpener() {
+        @Override
+        public ZipReader open(File zipFile) throws IOException {
+          return new ZipReader(zipFile);
+        }
+      };
+
   /**
    * The type of action to take for a ZIP file entry.
    */
@@ -203,6 +231,25 @@ public class ZipCombiner implements AutoCloseable {
     }
   }
 
+  /**
+   * An entry of an input ZIP file that {@link #addZips} selected for the combined ZIP file. The
+   * data is read, and converted to the output compression, on a worker thread.
+   */
+  private static final class SelectedEntry {
+    private final ZipFileEntry entry;
+    private final EntryAction action;
+    /** The entry to write, or null if the action is MERGE. */
+    @Nullable private final ZipFileEntry outEntry;
+    /** The data to write, or the uncompressed data if the action is MERGE. */
+    private byte[] data;
+
+    SelectedEntry(ZipFileEntry entry, EntryAction action, @Nullable ZipFileEntry outEntry) {
+      this.entry = entry;
+      this.action = action;
+      this.outEntry = outEntry;
+    }
+  }
+
   private final class FilterCallback implements StrategyCallback {
     private String filename;
     private final AtomicBoolean called = new AtomicBoolean();
@@ -262,6 +309,7 @@ public class ZipCombiner implements AutoCloseable {
 
   private final OutputMode mode;
   private final ZipEntryFilter entryFilter;
+  private final ZipOpener zipOpener;
   private final FilterCallback callback;
   private final ZipWriter out;
 
@@ -270,21 +318,36 @@ public class ZipCombiner implements AutoCloseable {
 
   /**
    * Creates a {@link ZipCombiner} for combining ZIP files using the specified {@link OutputMode},
-   * {@link ZipEntryFilter}, and destination {@link OutputStream}.
+   * {@link ZipEntryFilter}, destination {@link OutputStream}, and {@link ZipOpener}.
    *
    * @param mode the compression preference for the output ZIP file
    * @param entryFilter the filter to use when adding ZIP files to the combined output
    * @param out the {@link OutputStream} for writing the combined ZIP file
+   * @param zipOpener the {@link ZipOpener} to open the ZIP files to add with
    */
-  public ZipCombiner(OutputMode mode, ZipEntryFilter entryFilter, OutputStream out) {
+  public ZipCombiner(
+      OutputMode mode, ZipEntryFilter entryFilter, OutputStream out, ZipOpener zipOpener) {
     this.mode = mode;
     this.entryFilter = entryFilter;
+    this.zipOpener = zipOpener;
     this.callback = new FilterCallback();
     this.out = new ZipWriter(new BufferedOutputStream(out), UTF_8);
     this.entries = new HashMap<>();
     this.actions = new HashMap<>();
   }
 
+  /**
+   * Creates a {@link ZipCombiner} for combining ZIP files using the specified {@link OutputMode},
+   * {@link ZipEntryFilter}, and destination {@link OutputStream}.
+   *
+   * @param mode the compression preference for the output ZIP file
+   * @param entryFilter the filter to use when adding ZIP files to the combined output
+   * @param out the {@link OutputStream} for writing the combined ZIP file
+   */
+  public ZipCombiner(OutputMode mode, ZipEntryFilter entryFilter, OutputStream out) {
+    this(mode, entryFilter, out, DEFAULT_ZIP_OPENER);
+  }
+
   /**
    * Creates a {@link ZipCombiner} for combining ZIP files using the specified
    * {@link ZipEntryFilter}, and destination {@link OutputStream}. Uses the DONT_CARE
@@ -428,7 +491,7 @@ public class ZipCombiner implements AutoCloseable {
    *     combined ZIP file
    */
   public void addZip(File zipFile) throws IOException {
-    try (ZipReader zip = new ZipReader(zipFile)) {
+    try (ZipReader zip = zipOpener.open(zipFile)) {
       for (ZipFileEntry entry : zip.entries()) {
         String filename = entry.getName();
         EntryAction action = getAction(filename);
@@ -452,6 +515,183 @@ public class ZipCombiner implements AutoCloseable {
     }
   }
 
+  /**
+   * Adds the contents of several ZIP files to the combined ZIP file, in order, like calling {@link
+   * #addZip} for each of them.
+   *
+   * <p>With more than one thread, the ZIP files are opened and their entries read and converted to
+   * the output compression on a thread pool, a few ZIP files ahead of the one being written.
+   * Entries whose compression does not change are still copied without inflating them. The {@link
+   * ZipEntryFilter} and any {@link CustomMergeStrategy} are only called from the calling thread, in
+   * the same order as with {@link #addZip}. The selected entries of up to {@code threads} ZIP files
+   * are held in memory at a time.
+   *
+   * @param zipFiles the ZIP files to add to the combined ZIP file
+   * @param threads the number of threads to read the ZIP files with
+   * @throws IOException if there is an error reading a ZIP file or writing entries to the combined
+   *     ZIP file
+   */
+  public void addZips(List<File> zipFiles, int threads) throws IOException {
+    if (threads <= 1) {
+      for (File zipFile : zipFiles) {
+        addZip(zipFile);
+      }
+      return;
+    }
+
+    ExecutorService executor = Executors.newFixedThreadPool(threads);
+    List<Future<ZipReader>> openedZips = new ArrayList<>();
+    Deque<Future<List<SelectedEntry>>> readEntries = new ArrayDeque<>();
+    boolean success = false;
+    try {
+      for (int i = 0; i < zipFiles.size(); i++) {
+        while (openedZips.size() < zipFiles.size() && openedZips.size() <= i + threads) {
+          final File zipFile = zipFiles.get(openedZips.size());
+          openedZips.add(
+              executor.submit(
+                  new Callable<ZipReader>() {
+                    @Override
+                    public ZipReader call() throws IOException {
+                      return zipOpener.open(zipFile);
+                    }
+                  }));
+        }
+        final ZipReader zip = getUninterruptibly(openedZips.get(i));
+        openedZips.set(i, null);
+        final List<SelectedEntry> selected = selectEntries(zip);
+        readEntries.add(
+            executor.submit(
+                new Callable<List<SelectedEntry>>() {
+                  @Override
+                  public List<SelectedEntry> call() throws IOException {
+                    try {
+                      return readSelectedEntries(zip, selected);
+                    } finally {
+                      zip.close();
+                    }
+                  }
+                }));
+        if (readEntries.size() > threads) {
+          writeSelectedEntries(getUninterruptibly(readEntries.remove()));
+        }
+      }
+      while (!readEntries.isEmpty()) {
+        writeSelectedEntries(getUninterruptibly(readEntries.remove()));
+      }
+      success = true;
+    } finally {
+      // Tasks that are still queued close the ZIP files they read.
+      executor.shutdown();
+      if (!success) {
+        closeOpenedZips(executor, openedZips);
+      }
+    }
+  }
+
+  /**
+   * Decides what to do with each entry of a ZIP file, and records the names that will be taken in
+   * the combined ZIP file, as {@link #addZip} does while it writes the entries.
+   */
+  private List<SelectedEntry> selectEntries(ZipReader zip) throws IOException {
+    List<SelectedEntry> selected = new ArrayList<>();
+    for (ZipFileEntry entry : zip.entries()) {
+      String filename = entry.getName();
+      EntryAction action = getAction(filename);
+      switch (action.getType()) {
+        case SKIP:
+          break;
+        case COPY:
+        case RENAME:
+          ZipFileEntry outEntry = getOutputEntry(entry, action);
+          entries.put(outEntry.getName(), outEntry);
+          selected.add(new SelectedEntry(entry, action, outEntry));
+          break;
+        case MERGE:
+          entries.put(filename, null);
+          selected.add(new SelectedEntry(entry, action, null));
+          break;
+      }
+    }
+    return selected;
+  }
+
+  /** Reads the data of the selected entries. Runs on a worker thread of {@link #addZips}. */
+  private List<SelectedEntry> readSelectedEntries(ZipReader zip, List<SelectedEntry> selected)
+      throws IOException {
+    for (SelectedEntry selectedEntry : selected) {
+      InputStream in;
+      if (selectedEntry.outEntry == null) {
+        in = zip.getRawInputStream(selectedEntry.entry);
+        if (selectedEntry.entry.getMethod() == Compression.DEFLATED) {
+          in = new InflaterInputStream(in, getInflater());
+        }
+      } else {
+        in = getOutputData(zip, selectedEntry.entry, selectedEntry.outEntry);
+      }
+      ByteArrayOutputStream data = new ByteArrayOutputStream();
+      copyStream(in, data);
+      selectedEntry.data = data.toByteArray();
+    }
+    return selected;
+  }
+
+  /** Writes or merges the selected entries of a ZIP file, once their data has been read. */
+  private void writeSelectedEntries(List<SelectedEntry> selected) throws IOException {
+    for (SelectedEntry selectedEntry : selected) {
+      InputStream data = new ByteArrayInputStream(selectedEntry.data);
+      if (selectedEntry.outEntry == null) {
+        EntryAction action = selectedEntry.action;
+        action.getStrategy().merge(data, action.getMergeBuffer());
+      } else {
+        writeEntry(selectedEntry.outEntry, data);
+      }
+    }
+  }
+
+  /** Closes the ZIP files that {@link #addZips} opened but did not get to read, after a failure. */
+  private static void closeOpenedZips(
+      ExecutorService executor, List<Future<ZipReader>> openedZips) {
+    try {
+      executor.awaitTermination(Long.MAX_VALUE, TimeUnit.SECONDS);
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+      return;
+    }
+    for (Future<ZipReader> openedZip : openedZips) {
+      if (openedZip == null) {
+        continue;
+      }
+      try {
+        openedZip.get().close();
+      } catch (ExecutionException | InterruptedException | IOException e) {
+        // There's already an exception in progress - this won't add any additional information.
+      }
+    }
+  }
+
+  /**
+   * Returns the result of a task of {@link #addZips}, rethrowing the {@link IOException} it may
+   * have thrown.
+   */
+  private static <T> T getUninterruptibly(Future<T> future) throws IOException {
+    try {
+      return future.get();
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+      throw new InterruptedIOException("Interrupted while combining ZIP files");
+    } catch (ExecutionException e) {
+      Throwable cause = e.getCause();
+      if (cause instanceof IOException) {
+        throw (IOException) cause;
+      } else if (cause instanceof RuntimeException) {
+        throw (RuntimeException) cause;
+      } else if (cause instanceof Error) {
+        throw (Error) cause;
+      }
+      throw new IllegalStateException(cause);
+    }
+  }
+
   /** Returns the action to take for a file of the given filename. */
   private EntryAction getAction(String filename) throws IOException {
     // If this filename has not been encountered before (no entry for filename) or this filename
@@ -512,6 +752,15 @@ public class ZipCombiner implements AutoCloseable {
    */
   private void writeEntry(ZipReader zip, ZipFileEntry entry, EntryAction action)
       throws IOException {
+    ZipFileEntry outEntry = getOutputEntry(entry, action);
+    writeEntry(outEntry, getOutputData(zip, entry, outEntry));
+  }
+
+  /**
+   * Returns the output entry for the specified input {@link ZipFileEntry}, with the name and date
+   * from the specified {@link EntryAction} applied.
+   */
+  private static ZipFileEntry getOutputEntry(ZipFileEntry entry, EntryAction action) {
     checkArgument(action.getType() != ActionType.SKIP,
         "Cannot write a zip entry whose action is of type SKIP.");
 
@@ -525,7 +774,15 @@ public class ZipCombiner implements AutoCloseable {
     if (action.getDate() != null) {
       outEntry.setTime(action.getDate().getTime());
     }
+    return outEntry;
+  }
 
+  /**
+   * Returns the data to write for the output entry from the input entry, performing inflation or
+   * deflation as needed, and sets the compression of the output entry accordingly.
+   */
+  private InputStream getOutputData(ZipReader zip, ZipFileEntry entry, ZipFileEntry outEntry)
+      throws IOException {
     InputStream data;
     if (mode == OutputMode.FORCE_DEFLATE && entry.getMethod() != Compression.DEFLATED) {
       // The output mode is deflate, but the entry compression is not. Create a deflater stream
@@ -546,7 +803,7 @@ public class ZipCombiner implements AutoCloseable {
       // Entry compression agrees with output mode; use the raw file data as is.
       data = zip.getRawInputStream(entry);
     }
-    writeEntry(outEntry, data);
+    return data;
   }
 
   /**
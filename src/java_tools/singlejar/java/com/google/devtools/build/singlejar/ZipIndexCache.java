@@ -0,0 +1,117 @@
+// Copyright 2017 The Bazel Authors. All rights reserved.
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//    http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package com.google.devtools.build.singlejar;
+
+import com.google.devtools.build.singlejar.ZipCombiner.ZipOpener;
+import com.google.devtools.build.zip.ZipFileData;
+import com.google.devtools.build.zip.ZipReader;
+import java.io.File;
+import java.io.IOException;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Keeps the parsed central directories of input ZIP files across the requests of a {@link
+ * SingleJarWorker}, so that only the inputs that changed since an earlier request are scanned.
+ *
+ * <p>Central directories are keyed by the digest of the file contents, as given in the work
+ * request. The least recently used are dropped once they hold more than a given number of ZIP file
+ * entries in total.
+ */
+final class ZipIndexCache {
+
+  private final long maxEntries;
+
+  // Guarded by this.
+  private final LinkedHashMap<String, ZipFileData> cache =
+      new LinkedHashMap<>(16, 0.75f, /*accessOrder=*/ true);
+  private long cachedEntries;
+
+  /**
+   * @param maxEntries the number of ZIP file entries above which the least recently used central
+   *     directories are dropped
+   */
+  ZipIndexCache(long maxEntries) {
+    this.maxEntries = maxEntries;
+  }
+
+  /**
+   * Returns a {@link ZipOpener} for a single request, which uses the cache for ZIP files whose
+   * digest is known.
+   *
+   * @param digests the digests of the inputs of the request, keyed by path
+   */
+  Opener newOpener(Map<String, String> digests) {
+    return new Opener(digests);
+  }
+
+  private synchronized ZipFileData get(String digest) {
+    return cache.get(digest);
+  }
+
+  private synchronized void put(String digest, ZipFileData zipData) {
+    ZipFileData old = cache.put(digest, zipData);
+    if (old != null) {
+      cachedEntries -= old.getNumEntries();
+    }
+    cachedEntries += zipData.getNumEntries();
+    Iterator<ZipFileData> eldest = cache.values().iterator();
+    while (cachedEntries > maxEntries && eldest.hasNext()) {
+      cachedEntries -= eldest.next().getNumEntries();
+      eldest.remove();
+    }
+  }
+
+  /** A {@link ZipOpener} for the inputs of one request, which counts how often the cache hit. */
+  final class Opener implements ZipOpener {
+    private final Map<String, String> digests;
+    private final AtomicInteger hits = new AtomicInteger();
+    private final AtomicInteger misses = new AtomicInteger();
+
+    private Opener(Map<String, String> digests) {
+      this.digests = digests;
+    }
+
+    @Override
+    public ZipReader open(File zipFile) throws IOException {
+      String digest = digests.get(zipFile.getPath());
+      if (digest == null) {
+        misses.incrementAndGet();
+        return new ZipReader(zipFile);
+      }
+      ZipFileData zipData = get(digest);
+      if (zipData != null) {
+        hits.incrementAndGet();
+        return new ZipReader(zipFile, zipData);
+      }
+      misses.incrementAndGet();
+      ZipReader zip = new ZipReader(zipFile);
+      put(digest, zip.getZipData());
+      return zip;
+    }
+
+    /** Returns the number of ZIP files whose central directory came from the cache. */
+    int getHits() {
+      return hits.get();
+    }
+
+    /** Returns the number of ZIP files whose central directory had to be read. */
+    int getMisses() {
+      return misses.get();
+    }
+  }
+}
@@ -28,7 +28,7 @@ import javax.annotation.Nullable;
  * A representation of a ZIP file. Contains the file comment, encoding, and entries. Also contains
  * internal information about the structure and location of ZIP file parts. 
  */
-class ZipFileData {
+public class ZipFileData {
   private final Charset charset;
   private String comment;
 
@@ -94,6 +94,32 @@ public class ZipReader implements Closeable, AutoCloseable {
     readCentralDirectory(strictEntries);
   }
 
+  /**
+   * Opens a zip file for raw access, using a central directory that was read earlier by another
+   * {@link ZipReader} from a file with the same contents, instead of reading it again.
+   *
+   * @param file the zip file
+   * @param zipData the central directory of the zip file, as returned by {@link #getZipData()};
+   *     it must not be modified afterwards
+   * @throws IOException if an I/O error has occurred
+   */
+  public ZipReader(File file, ZipFileData zipData) throws IOException {
+    if (file == null || zipData == null) {
+      throw new NullPointerException();
+    }
+    this.file = file;
+    this.in = new RandomAccessFile(file, "r");
+    this.zipData = zipData;
+  }
+
+  /**
+   * Returns the parsed central directory of the zip file, which can be given to {@link
+   * #ZipReader(File, ZipFileData)} to open the same contents again.
+   */
+  public ZipFileData getZipData() {
+    return zipData;
+  }
+
   /**
    * Returns the zip file's name.
    */
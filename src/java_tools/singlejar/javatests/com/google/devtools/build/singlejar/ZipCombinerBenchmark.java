@@ -0,0 +1,106 @@
+// Copyright 2017 The Bazel Authors. All rights reserved.
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//    http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package com.google.devtools.build.singlejar;
+
+import com.google.devtools.build.singlejar.ZipCombiner.OutputMode;
+import java.io.BufferedOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+import java.util.zip.CRC32;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipOutputStream;
+
+/**
+ * Measures how long {@link ZipCombiner} takes to combine many input jars into a deploy jar, with
+ * {@link ZipCombiner#addZips} on one thread and on several.
+ *
+ * <p>Usage: {@code ZipCombinerBenchmark [<input jars> [<entries per jar> [<entry size>
+ * [<threads>]]]]}. The defaults produce a deploy jar of about 500MB. Half of the entries of each
+ * input jar are stored, the other half deflated, so every output mode has work to do.
+ */
+public final class ZipCombinerBenchmark {
+
+  public static void main(String[] args) throws Exception {
+    int jarCount = args.length > 0 ? Integer.parseInt(args[0]) : 1000;
+    int entriesPerJar = args.length > 1 ? Integer.parseInt(args[1]) : 100;
+    int entrySize = args.length > 2 ? Integer.parseInt(args[2]) : 5 * 1024;
+    int threads =
+        args.length > 3 ? Integer.parseInt(args[3]) : Runtime.getRuntime().availableProcessors();
+
+    File dir = Files.createTempDirectory("zipcombiner").toFile();
+    List<File> jars = new ArrayList<>();
+    Random random = new Random(42);
+    for (int i = 0; i < jarCount; i++) {
+      File jar = new File(dir, "input" + i + ".jar");
+      writeJar(jar, i, entriesPerJar, entrySize, random);
+      jars.add(jar);
+    }
+
+    File output = new File(dir, "deploy.jar");
+    System.out.printf("%15s %10s %10s %12s%n", "mode", "threads", "wall (ms)", "output (MB)");
+    for (OutputMode mode : OutputMode.values()) {
+      for (int n : new int[] {1, threads}) {
+        long start = System.nanoTime();
+        try (ZipCombiner combiner =
+            new ZipCombiner(mode, new CopyEntryFilter(), new FileOutputStream(output))) {
+          combiner.addZips(jars, n);
+        }
+        System.out.printf(
+            "%15s %10d %10d %12d%n",
+            mode,
+            n,
+            TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start),
+            output.length() >> 20);
+      }
+    }
+
+    for (File file : dir.listFiles()) {
+      file.delete();
+    }
+    dir.delete();
+  }
+
+  /** Writes a jar of class-file-sized entries with somewhat compressible contents. */
+  private static void writeJar(File jar, int index, int entries, int entrySize, Random random)
+      throws IOException {
+    try (ZipOutputStream out =
+        new ZipOutputStream(new BufferedOutputStream(new FileOutputStream(jar)))) {
+      for (int i = 0; i < entries; i++) {
+        byte[] content = new byte[entrySize];
+        for (int j = 0; j < content.length; j++) {
+          content[j] = (byte) ('a' + random.nextInt(16));
+        }
+        ZipEntry entry = new ZipEntry("com/example/p" + index + "/C" + i + ".class");
+        if (i % 2 == 0) {
+          CRC32 crc = new CRC32();
+          crc.update(content);
+          entry.setMethod(ZipEntry.STORED);
+          entry.setSize(content.length);
+          entry.setCompressedSize(content.length);
+          entry.setCrc(crc.getValue());
+        }
+        out.putNextEntry(entry);
+        out.write(content);
+        out.closeEntry();
+      }
+    }
+  }
+}
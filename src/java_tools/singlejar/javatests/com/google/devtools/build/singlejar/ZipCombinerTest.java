@@ -779,6 +779,49 @@ public class ZipCombinerTest {
         .isEqualTo(y.getFlags() | (1 << 3) | (1 << 11));
   }
 
+  private byte[] combineZips(OutputMode mode, List<File> zips, int threads) throws IOException {
+    MockZipEntryFilter mockFilter = new MockZipEntryFilter();
+    mockFilter.behavior.put("hello.txt", new ConcatenateStrategy());
+    mockFilter.behavior.put("hello2.txt", COPY_PLACEHOLDER);
+    mockFilter.renameMap.putAll("hello2.txt", Arrays.asList("hello3.txt", "hello4.txt"));
+    ByteArrayOutputStream out = new ByteArrayOutputStream();
+    try (ZipCombiner zipCombiner = new ZipCombiner(mode, mockFilter, out)) {
+      zipCombiner.addZips(zips, threads);
+    }
+    return out.toByteArray();
+  }
+
+  @Test
+  public void testAddZipsInParallel() throws IOException {
+    List<File> zips = new ArrayList<>();
+    for (int i = 0; i < 20; i++) {
+      ZipFactory factory = new ZipFactory();
+      factory.addFile("hello.txt", "Hello " + i + "!", i % 2 == 0);
+      factory.addFile("hello2.txt", "Hello World 2!", i % 3 == 0);
+      factory.addFile("file" + i + ".txt", "File " + i, i % 5 != 0);
+      factory.addFile("common.txt", "Common " + i, i % 2 == 1);
+      zips.add(writeInputStreamToFile(factory.toInputStream()));
+    }
+    for (OutputMode mode : OutputMode.values()) {
+      byte[] expected = combineZips(mode, zips, 1);
+      assertThat(combineZips(mode, zips, 4)).isEqualTo(expected);
+    }
+  }
+
+  @Test
+  public void testAddZipsInParallelBadZipFile() throws IOException {
+    List<File> zips = new ArrayList<>();
+    for (int i = 0; i < 10; i++) {
+      zips.add(sampleZip());
+    }
+    zips.add(writeInputStreamToFile(new ByteArrayInputStream(new byte[] {1, 2, 3, 4})));
+    ByteArrayOutputStream out = new ByteArrayOutputStream();
+    try (ZipCombiner zipCombiner = new ZipCombiner(out)) {
+      thrown.expect(ZipException.class);
+      zipCombiner.addZips(zips, 4);
+    }
+  }
+
   /**
    * Ensures that the code that grows the central directory and the code that patches it is not
    * obviously broken.
@@ -0,0 +1,115 @@
+// Copyright 2017 The Bazel Authors. All rights reserved.
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//    http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package com.google.devtools.build.singlejar;
+
+import static com.google.common.truth.Truth.assertThat;
+import static java.nio.charset.StandardCharsets.UTF_8;
+
+import com.google.common.collect.ImmutableMap;
+import com.google.common.io.ByteStreams;
+import com.google.devtools.build.zip.ZipReader;
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.util.Map;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+import org.junit.runner.RunWith;
+import org.junit.runners.JUnit4;
+
+/** Tests for {@link ZipIndexCache}. */
+@RunWith(JUnit4.class)
+public class ZipIndexCacheTest {
+  @Rule public TemporaryFolder tmp = new TemporaryFolder();
+
+  private File writeZip(String name, int entries) throws IOException {
+    ZipFactory factory = new ZipFactory();
+    for (int i = 0; i < entries; i++) {
+      factory.addFile("file" + i + ".txt", name + " " + i);
+    }
+    File zip = tmp.newFile(name);
+    Files.write(zip.toPath(), factory.toByteArray());
+    return zip;
+  }
+
+  private static String readEntry(ZipReader zip, String name) throws IOException {
+    return new String(ByteStreams.toByteArray(zip.getInputStream(zip.getEntry(name))), UTF_8);
+  }
+
+  @Test
+  public void testReusesCentralDirectoryForSameDigest() throws IOException {
+    File a = writeZip("a.jar", 2);
+    File b = writeZip("b.jar", 2);
+    ZipIndexCache cache = new ZipIndexCache(100);
+
+    ZipIndexCache.Opener first =
+        cache.newOpener(ImmutableMap.of(a.getPath(), "digest-a", b.getPath(), "digest-b"));
+    first.open(a).close();
+    first.open(b).close();
+    assertThat(first.getMisses()).isEqualTo(2);
+    assertThat(first.getHits()).isEqualTo(0);
+
+    // b.jar changed, so only its central directory is read again.
+    Map<String, String> digests =
+        ImmutableMap.of(a.getPath(), "digest-a", b.getPath(), "digest-b2");
+    ZipIndexCache.Opener second = cache.newOpener(digests);
+    try (ZipReader zip = second.open(a)) {
+      assertThat(zip.size()).isEqualTo(2);
+      assertThat(readEntry(zip, "file1.txt")).isEqualTo("a.jar 1");
+    }
+    second.open(b).close();
+    assertThat(second.getHits()).isEqualTo(1);
+    assertThat(second.getMisses()).isEqualTo(1);
+  }
+
+  @Test
+  public void testInputsWithoutDigestAreNotCached() throws IOException {
+    File a = writeZip("a.jar", 1);
+    ZipIndexCache cache = new ZipIndexCache(100);
+    cache.newOpener(ImmutableMap.<String, String>of()).open(a).close();
+
+    ZipIndexCache.Opener opener = cache.newOpener(ImmutableMap.<String, String>of());
+    opener.open(a).close();
+    assertThat(opener.getHits()).isEqualTo(0);
+    assertThat(opener.getMisses()).isEqualTo(1);
+  }
+
+  @Test
+  public void testEvictsLeastRecentlyUsed() throws IOException {
+    File a = writeZip("a.jar", 3);
+    File b = writeZip("b.jar", 3);
+    File c = writeZip("c.jar", 3);
+    Map<String, String> digests =
+        ImmutableMap.of(a.getPath(), "digest-a", b.getPath(), "digest-b", c.getPath(), "digest-c");
+    ZipIndexCache cache = new ZipIndexCache(6);
+
+    ZipIndexCache.Opener opener = cache.newOpener(digests);
+    opener.open(a).close();
+    opener.open(b).close();
+    // Touch a, so that b is the least recently used.
+    opener.open(a).close();
+    // Holding c as well would make 9 entries; b is dropped.
+    opener.open(c).close();
+    assertThat(opener.getHits()).isEqualTo(1);
+
+    opener = cache.newOpener(digests);
+    opener.open(a).close();
+    opener.open(c).close();
+    assertThat(opener.getHits()).isEqualTo(2);
+    opener.open(b).close();
+    assertThat(opener.getMisses()).isEqualTo(1);
+  }
+}
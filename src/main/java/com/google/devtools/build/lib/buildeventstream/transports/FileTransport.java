@@ -11,81 +11,168 @@
 // WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
 // See the License for the specific language governing permissions and
 // limitations under the License.
-
 package com.google.devtools.build.lib.buildeventstream.transports;
 
 import static com.google.common.base.Preconditions.checkNotNull;
 import static com.google.common.base.Preconditions.checkState;
 
 import com.google.common.annotations.VisibleForTesting;
+import com.google.common.util.concurrent.Futures;
 import com.google.common.util.concurrent.ListenableFuture;
+import com.google.common.util.concurrent.ListeningExecutorService;
+import com.google.common.util.concurrent.MoreExecutors;
 import com.google.common.util.concurrent.SettableFuture;
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
+import com.google.devtools.build.lib.buildeventstream.ArtifactGroupNamer;
 import com.google.devtools.build.lib.buildeventstream.BuildEvent;
+import com.google.devtools.build.lib.buildeventstream.BuildEventConverters;
+import com.google.devtools.build.lib.buildeventstream.BuildEventStreamProtos;
 import com.google.devtools.build.lib.buildeventstream.BuildEventTransport;
+import com.google.devtools.build.lib.buildeventstream.PathConverter;
 import java.io.IOException;
 import java.nio.ByteBuffer;
 import java.nio.channels.AsynchronousFileChannel;
 import java.nio.channels.CompletionHandler;
 import java.nio.file.Paths;
 import java.nio.file.StandardOpenOption;
-import java.util.concurrent.Future;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
 import java.util.logging.Level;
 import java.util.logging.Logger;
 
 /**
  * Non-blocking file transport.
  *
- * <p>Implementors of this class need to implement {@link #sendBuildEvent(BuildEvent)} which
- * serializes the build event and writes it to file using {@link #writeData(byte[])}.
+ * <p>Implementors of this class need to implement {@link #serializeEvent} which serializes the
+ * protocol buffer representation of a build event to the bytes written to the file.
+ *
+ * <p>Build events are converted to protocol buffers on the calling thread, so that they are named
+ * consistently with the {@link ArtifactGroupNamer} at the time they are sent. Serializing them is
+ * left to a small pool of threads shared by all file transports, so that large events (e.g. huge
+ * sets of files in the JSON format) don't hold up the caller.
+ *
+ * <p>Serialized events are written in the order in which they were sent, using an {@link
+ * AsynchronousFileChannel}. Only one write is in flight at any time; the events that have been
+ * serialized by the time it completes are coalesced into the next write, of at most {@link
+ * #MAX_WRITE_BYTES} bytes. At most {@link #MAX_PENDING_EVENTS} events may be waiting to be
+ * serialized or written; once that many are pending, {@link #sendBuildEvent} blocks until earlier
+ * events have been written.
+ *
+ * <p>The future returned by {@link #close()} may only be completed once all pending events have
+ * been written (or dropped after an error).
  */
 abstract class FileTransport implements BuildEventTransport {
 
-  /**
-   * We use an {@link AsynchronousFileChannel} to perform non-blocking writes to a file. It get's
-   * tricky when it comes to {@link #close()}, as we may only complete the returned future when
-   * all writes have completed (succeeded or failed). Thus, we use a field
-   * {@link #outstandingWrites} to keep track of the number of writes that have not completed yet.
-   * It's simply incremented before a new write and decremented after a write has completed. When
-   * it's {@code 0} it's safe to complete the close future.
-   */
-
   private static final Logger log = Logger.getLogger(FileTransport.class.getName());
 
+  @VisibleForTesting static final int MAX_PENDING_EVENTS = 1000;
+  private static final int MAX_WRITE_BYTES = 1 << 20;
+  private static final int SERIALIZATION_THREADS =
+      Math.min(4, Runtime.getRuntime().availableProcessors());
+  // Shared by all file transports. Idle threads time out, so the pool doesn't keep threads alive
+  // in the server between builds.
+  private static final ListeningExecutorService SERIALIZATION_POOL =
+      MoreExecutors.listeningDecorator(newSerializationPool());
+
   @VisibleForTesting
   final AsynchronousFileChannel ch;
+  private final PathConverter pathConverter;
   private final WriteCompletionHandler completionHandler = new WriteCompletionHandler();
+  // Events that have been sent but not written yet, in the order they were sent.
+  private final Queue<ListenableFuture<byte[]>> pendingEvents = new ConcurrentLinkedQueue<>();
+  // Bounds the number of pending events, including the ones in the write that's in flight.
+  private final Semaphore pendingEventPermits = new Semaphore(MAX_PENDING_EVENTS);
   // The offset in the file to begin the next write at.
   private long writeOffset;
-  // Number of writes that haven't completed yet.
-  private long outstandingWrites;
+  // Whether a write is in flight, and the number of events in it.
+  private boolean writing;
+  private int eventsInWrite;
   // The future returned by close()
-  private SettableFuture<Void> closeFuture;
+  private volatile SettableFuture<Void> closeFuture;
 
-  FileTransport(String path) {
+  // Statistics, logged when the transport is closed.
+  private final AtomicLong backpressureNanos = new AtomicLong();
+  private int maxPendingEvents;
+  private long eventsWritten;
+  private long writes;
+
+  FileTransport(String path, PathConverter pathConverter) {
     try {
       ch = AsynchronousFileChannel.open(Paths.get(path), StandardOpenOption.CREATE,
           StandardOpenOption.TRUNCATE_EXISTING, StandardOpenOption.WRITE);
     } catch (IOException e) {
       throw new RuntimeException(e);
     }
+    this.pathConverter = pathConverter;
   }
 
-  synchronized void writeData(byte[] data) {
-    checkNotNull(data);
-    if (!ch.isOpen()) {
-      @SuppressWarnings({"unused", "nullness"})
-      Future<?> possiblyIgnoredError = close();
-      return;
-    }
+  private static ThreadPoolExecutor newSerializationPool() {
+    ThreadPoolExecutor pool =
+        new ThreadPoolExecutor(
+            SERIALIZATION_THREADS,
+            SERIALIZATION_THREADS,
+            10,
+            TimeUnit.SECONDS,
+            new LinkedBlockingQueue<Runnable>(),
+            new ThreadFactoryBuilder()
+                .setNameFormat("file-transport-serializer %d")
+                .setDaemon(true)
+                .build());
+    pool.allowCoreThreadTimeOut(true);
+    return pool;
+  }
+
+  /**
+   * Returns the bytes to be written to the file for {@code protoEvent}. Called concurrently from
+   * multiple threads.
+   */
+  abstract byte[] serializeEvent(BuildEventStreamProtos.BuildEvent protoEvent) throws IOException;
+
+  @Override
+  public void sendBuildEvent(BuildEvent event, final ArtifactGroupNamer namer) {
+    checkNotNull(event);
     if (closing()) {
       return;
     }
+    BuildEventConverters converters =
+        new BuildEventConverters() {
+          @Override
+          public PathConverter pathConverter() {
+            return pathConverter;
+          }
 
-    outstandingWrites++;
-
-    ch.write(ByteBuffer.wrap(data), writeOffset, null, completionHandler);
+          @Override
+          public ArtifactGroupNamer artifactGroupNamer() {
+            return namer;
+          }
+        };
+    final BuildEventStreamProtos.BuildEvent protoEvent = event.asStreamProto(converters);
 
-    writeOffset += data.length;
+    if (!pendingEventPermits.tryAcquire()) {
+      long startNanos = System.nanoTime();
+      pendingEventPermits.acquireUninterruptibly();
+      backpressureNanos.addAndGet(System.nanoTime() - startNanos);
+    }
+    synchronized (this) {
+      if (closing()) {
+        pendingEventPermits.release();
+        return;
+      }
+      ListenableFuture<byte[]> serializedEvent =
+          SERIALIZATION_POOL.submit(() -> serializeEvent(protoEvent));
+      pendingEvents.add(serializedEvent);
+      maxPendingEvents =
+          Math.max(maxPendingEvents, MAX_PENDING_EVENTS - pendingEventPermits.availablePermits());
+      serializedEvent.addListener(this::maybeWrite, MoreExecutors.directExecutor());
+    }
   }
 
   @Override
@@ -94,21 +181,92 @@ abstract class FileTransport implements BuildEventTransport {
       return closeFuture;
     }
     closeFuture = SettableFuture.create();
+    maybeWrite();
+    return closeFuture;
+  }
+
+  /**
+   * Writes the serialized events at the head of {@link #pendingEvents}, unless a write is already
+   * in flight, and completes closing the transport once everything has been written.
+   */
+  private synchronized void maybeWrite() {
+    if (writing) {
+      return;
+    }
+    if (!ch.isOpen()) {
+      // There is no point in keeping the events around if they can't be written.
+      discardPendingEvents();
+      if (!closing()) {
+        closeFuture = SettableFuture.create();
+      }
+    }
 
-    if (writesComplete()) {
-      doClose();
+    List<byte[]> batch = new ArrayList<>();
+    int batchBytes = 0;
+    ListenableFuture<byte[]> next;
+    while ((next = pendingEvents.peek()) != null && next.isDone()) {
+      byte[] data = getSerializedEvent(next);
+      if (!batch.isEmpty() && batchBytes + data.length > MAX_WRITE_BYTES) {
+        break;
+      }
+      pendingEvents.remove();
+      batch.add(data);
+      batchBytes += data.length;
     }
 
-    return closeFuture;
+    if (batch.isEmpty()) {
+      if (closing() && pendingEvents.isEmpty() && !closeFuture.isDone()) {
+        doClose();
+      }
+      return;
+    }
+
+    ByteBuffer buffer = ByteBuffer.allocate(batchBytes);
+    for (byte[] data : batch) {
+      buffer.put(data);
+    }
+    buffer.flip();
+    writing = true;
+    eventsInWrite = batch.size();
+    writes++;
+    ch.write(buffer, writeOffset, buffer, completionHandler);
+  }
+
+  private static byte[] getSerializedEvent(ListenableFuture<byte[]> serializedEvent) {
+    try {
+      return Futures.getDone(serializedEvent);
+    } catch (ExecutionException e) {
+      // Skip the event, but keep the stream going.
+      log.log(Level.SEVERE, e.getCause().getMessage(), e.getCause());
+      return new byte[0];
+    }
+  }
+
+  private void discardPendingEvents() {
+    while (pendingEvents.poll() != null) {
+      pendingEventPermits.release();
+    }
   }
 
   private void doClose() {
     try {
-      ch.force(true);
-      ch.close();
+      // The channel is already closed if a write failed because it was closed.
+      if (ch.isOpen()) {
+        ch.force(true);
+        ch.close();
+      }
     } catch (IOException e) {
       log.log(Level.SEVERE, e.getMessage(), e);
     } finally {
+      log.info(
+          String.format(
+              "%s wrote %d events in %d writes; at most %d events were pending and senders "
+                  + "were blocked for %d ms",
+              name(),
+              eventsWritten,
+              writes,
+              maxPendingEvents,
+              TimeUnit.NANOSECONDS.toMillis(backpressureNanos.get())));
       closeFuture.set(null);
     }
   }
@@ -117,39 +275,57 @@ abstract class FileTransport implements BuildEventTransport {
     return closeFuture != null;
   }
 
-  private boolean writesComplete() {
-    return outstandingWrites == 0;
+  /** Returns the total time senders spent waiting for earlier events to be written. */
+  @VisibleForTesting
+  long getBackpressureNanos() {
+    return backpressureNanos.get();
+  }
+
+  /** Returns the largest number of events that were pending at any one time. */
+  @VisibleForTesting
+  synchronized int getMaxPendingEvents() {
+    return maxPendingEvents;
   }
 
   /**
    * Handler that's notified when a write completes.
    */
-  private final class WriteCompletionHandler implements CompletionHandler<Integer, Void> {
+  private final class WriteCompletionHandler implements CompletionHandler<Integer, ByteBuffer> {
 
     @Override
-    public void completed(Integer result, Void attachment) {
-      countWriteAndTryClose();
+    public void completed(Integer result, ByteBuffer buffer) {
+      synchronized (FileTransport.this) {
+        checkState(writing);
+        writeOffset += result;
+        if (buffer.hasRemaining()) {
+          // Partial write; write the rest before moving on to the next batch.
+          ch.write(buffer, writeOffset, buffer, this);
+          return;
+        }
+        eventsWritten += eventsInWrite;
+        finishWrite();
+      }
     }
 
     @Override
-    public void failed(Throwable exc, Void attachment) {
+    public void failed(Throwable exc, ByteBuffer buffer) {
       log.log(Level.SEVERE, exc.getMessage(), exc);
-      countWriteAndTryClose();
-      // There is no point in trying to continue. Close the transport.
-      @SuppressWarnings({"unused", "nullness"})
-      Future<?> possiblyIgnoredError = close();
-    }
-
-    private void countWriteAndTryClose() {
       synchronized (FileTransport.this) {
-        checkState(outstandingWrites > 0);
-
-        outstandingWrites--;
-
-        if (closing() && writesComplete()) {
-          doClose();
+        checkState(writing);
+        // There is no point in trying to continue. Close the transport.
+        discardPendingEvents();
+        if (!closing()) {
+          closeFuture = SettableFuture.create();
         }
+        finishWrite();
       }
     }
+
+    private void finishWrite() {
+      writing = false;
+      pendingEventPermits.release(eventsInWrite);
+      eventsInWrite = 0;
+      maybeWrite();
+    }
   }
 }
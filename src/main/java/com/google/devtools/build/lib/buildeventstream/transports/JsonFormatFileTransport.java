@@ -14,9 +14,7 @@
 
 package com.google.devtools.build.lib.buildeventstream.transports;
 
-import com.google.devtools.build.lib.buildeventstream.ArtifactGroupNamer;
-import com.google.devtools.build.lib.buildeventstream.BuildEvent;
-import com.google.devtools.build.lib.buildeventstream.BuildEventConverters;
+import com.google.devtools.build.lib.buildeventstream.BuildEventStreamProtos;
 import com.google.devtools.build.lib.buildeventstream.BuildEventTransport;
 import com.google.devtools.build.lib.buildeventstream.PathConverter;
 import com.google.protobuf.InvalidProtocolBufferException;
@@ -29,11 +27,8 @@ import java.io.IOException;
  */
 public final class JsonFormatFileTransport extends FileTransport {
 
-  private final PathConverter pathConverter;
-
   JsonFormatFileTransport(String path, PathConverter pathConverter) throws IOException {
-    super(path);
-    this.pathConverter = pathConverter;
+    super(path, pathConverter);
   }
 
   @Override
@@ -42,28 +37,16 @@ public final class JsonFormatFileTransport extends FileTransport {
   }
 
   @Override
-  public synchronized void sendBuildEvent(BuildEvent event, final ArtifactGroupNamer namer) {
-    BuildEventConverters converters =
-        new BuildEventConverters() {
-          @Override
-          public PathConverter pathConverter() {
-            return pathConverter;
-          }
-
-          @Override
-          public ArtifactGroupNamer artifactGroupNamer() {
-            return namer;
-          }
-        };
+  byte[] serializeEvent(BuildEventStreamProtos.BuildEvent protoEvent) {
     String protoJsonRepresentation;
     try {
-      protoJsonRepresentation = JsonFormat.printer().print(event.asStreamProto(converters)) + "\n";
+      protoJsonRepresentation = JsonFormat.printer().print(protoEvent) + "\n";
     } catch (InvalidProtocolBufferException e) {
       // We don't expect any unknown Any fields in our protocol buffer. Nevertheless, handle
       // the exception gracefully and, at least, return valid JSON with an id field.
       protoJsonRepresentation =
           "{\"id\" : \"unknown\", \"exception\" : \"InvalidProtocolBufferException\"}\n";
     }
-    writeData(protoJsonRepresentation.getBytes());
+    return protoJsonRepresentation.getBytes();
   }
 }
@@ -14,9 +14,7 @@
 
 package com.google.devtools.build.lib.buildeventstream.transports;
 
-import com.google.devtools.build.lib.buildeventstream.ArtifactGroupNamer;
-import com.google.devtools.build.lib.buildeventstream.BuildEvent;
-import com.google.devtools.build.lib.buildeventstream.BuildEventConverters;
+import com.google.devtools.build.lib.buildeventstream.BuildEventStreamProtos;
 import com.google.devtools.build.lib.buildeventstream.BuildEventTransport;
 import com.google.devtools.build.lib.buildeventstream.PathConverter;
 import com.google.protobuf.TextFormat;
@@ -30,11 +28,8 @@ import java.io.IOException;
  */
 public final class TextFormatFileTransport extends FileTransport {
 
-  private final PathConverter pathConverter;
-
   TextFormatFileTransport(String path, PathConverter pathConverter) throws IOException {
-    super(path);
-    this.pathConverter = pathConverter;
+    super(path, pathConverter);
   }
 
   @Override
@@ -43,21 +38,9 @@ public final class TextFormatFileTransport extends FileTransport {
   }
 
   @Override
-  public synchronized void sendBuildEvent(BuildEvent event, final ArtifactGroupNamer namer) {
-    BuildEventConverters converters =
-        new BuildEventConverters() {
-          @Override
-          public PathConverter pathConverter() {
-            return pathConverter;
-          }
-
-          @Override
-          public ArtifactGroupNamer artifactGroupNamer() {
-            return namer;
-          }
-        };
-    String protoTextRepresentation = TextFormat.printToString(event.asStreamProto(converters));
+  byte[] serializeEvent(BuildEventStreamProtos.BuildEvent protoEvent) {
+    String protoTextRepresentation = TextFormat.printToString(protoEvent);
     String line = "event {\n" + protoTextRepresentation + "}\n\n";
-    writeData(line.getBytes());
+    return line.getBytes();
   }
 }
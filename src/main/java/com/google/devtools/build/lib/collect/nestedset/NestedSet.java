@@ -16,9 +16,12 @@ package com.google.devtools.build.lib.collect.nestedset;
 import static java.util.stream.Collectors.joining;
 
 import com.google.common.base.Function;
+import com.google.common.cache.Cache;
+import com.google.common.cache.CacheBuilder;
 import com.google.common.collect.ImmutableList;
 import com.google.common.collect.ImmutableSet;
 import com.google.devtools.build.lib.collect.CompactHashSet;
+import com.google.devtools.build.lib.concurrent.BlazeInterners;
 import java.util.AbstractCollection;
 import java.util.Arrays;
 import java.util.Collection;
@@ -44,6 +47,26 @@ public final class NestedSet<E> implements Iterable<E> {
   private static final byte[] LEAF_MEMO = {};
   private static final Object[] EMPTY_CHILDREN = {};
 
+  // Sets flattening to fewer elements than this are cheap enough to replay that caching them is
+  // not worth the lookup.
+  private static final int MIN_CACHED_FLATTENED_SIZE = 256;
+  private static final long MAX_FLATTENED_CACHE_WEIGHT = 1 << 21;
+
+  /**
+   * The flattened form of recently expanded large sets. Hot callers (command lines, runfiles)
+   * expand the same sets over and over; with this they share one list instead of replaying the
+   * memo each time. Keys are weak and compared by identity, so the cache never keeps a set alive,
+   * and the total number of cached elements is bounded. Every analysis and execution thread
+   * expands sets, so the cache is striped like the interners rather than Guava's default of four.
+   */
+  private static final Cache<NestedSet<?>, ImmutableList<?>> flattenedCache =
+      CacheBuilder.newBuilder()
+          .concurrencyLevel(BlazeInterners.concurrencyLevel())
+          .weakKeys()
+          .maximumWeight(MAX_FLATTENED_CACHE_WEIGHT)
+          .weigher((NestedSet<?> set, ImmutableList<?> flattened) -> flattened.size())
+          .build();
+
   /**
    * Construct an empty NestedSet.  Should only be called by Order's class initializer.
    */
@@ -53,6 +76,19 @@ public final class NestedSet<E> implements Iterable<E> {
     this.memo = LEAF_MEMO;
   }
 
+  /**
+   * Construct a NestedSet with a single element and no transitive members. Equivalent to, but
+   * cheaper than, passing a one-element {@code direct} set to the general constructor.
+   */
+  NestedSet(Order order, E element) {
+    if (element instanceof Object[]) {
+      throw new IllegalArgumentException("cannot store Object[] in NestedSet");
+    }
+    this.order = order;
+    this.children = element;
+    this.memo = LEAF_MEMO;
+  }
+
   NestedSet(Order order, Set<E> direct, Set<NestedSet<E>> transitive) {
     this.order = order;
 
@@ -100,7 +136,8 @@ public final class NestedSet<E> implements Iterable<E> {
         }
         alreadyInserted = direct;
       } else if ((pass == 1) == preorder && !transitive.isEmpty()) {
-        CompactHashSet<E> hoisted = CompactHashSet.create();
+        // Only allocated once we come across a singleton subset.
+        CompactHashSet<E> hoisted = null;
         for (NestedSet<E> subset : transitiveOrder) {
           Object c = subset.children;
           if (c instanceof Object[]) {
@@ -111,12 +148,15 @@ public final class NestedSet<E> implements Iterable<E> {
             children[n++] = a;
             leaf = false;
           } else {
+            if (hoisted == null) {
+              hoisted = CompactHashSet.create();
+            }
             if (!alreadyInserted.contains((E) c) && hoisted.add((E) c)) {
               children[n++] = c;
             }
           }
         }
-        alreadyInserted = hoisted;
+        alreadyInserted = hoisted != null ? hoisted : ImmutableSet.<E>of();
       }
     }
 
@@ -270,24 +310,41 @@ public final class NestedSet<E> implements Iterable<E> {
   /**
    * Implementation of {@link #toList}.  Uses one of three strategies based on the value of
    * {@code this.memo}: wrap our direct items in a list, call {@link #lockedExpand} to perform
-   * the initial {@link #walk}, or call {@link #replay} if we have a nontrivial memo.
+   * the initial {@link #walk}, or call {@link #replay} if we have a nontrivial memo. Large
+   * results are kept in {@link #flattenedCache}.
    */
   private ImmutableList<E> expand() {
     // This value is only set in the constructor, so safe to test here with no lock.
     if (memo == LEAF_MEMO) {
       return ImmutableList.<E>copyOf(new ArraySharingCollection<E>((Object[]) children));
     }
+    // Every element of a set takes a bit of its memo, so only sets expanded before to a memo of at
+    // least MIN_CACHED_FLATTENED_SIZE bits can be in the cache. A stale read of the memo here only
+    // costs a lookup or a replay.
+    byte[] currentMemo = memo;
+    ImmutableList<E> flattened = null;
+    if (currentMemo != null && currentMemo.length >= MIN_CACHED_FLATTENED_SIZE / 8) {
+      flattened = (ImmutableList<E>) flattenedCache.getIfPresent(this);
+      if (flattened != null) {
+        return flattened;
+      }
+    }
     CompactHashSet<E> members = lockedExpand();
     if (members != null) {
-      return ImmutableList.copyOf(members);
+      flattened = ImmutableList.copyOf(members);
+    } else {
+      Object[] children = (Object[]) this.children;
+      // TODO:  We could record the exact size (inside memo, or by making order an int with two
+      // bits for Order.ordinal()) and avoid an array copy here.  It's not directly visible in
+      // profiles but it would reduce garbage generated.
+      ImmutableList.Builder<E> output = ImmutableList.builder();
+      replay(output, children, memo, 0);
+      flattened = output.build();
     }
-    Object[] children = (Object[]) this.children;
-    // TODO:  We could record the exact size (inside memo, or by making order an int with two bits
-    // for Order.ordinal()) and avoid an array copy here.  It's not directly visible in profiles but
-    // it would reduce garbage generated.
-    ImmutableList.Builder<E> output = ImmutableList.builder();
-    replay(output, children, memo, 0);
-    return output.build();
+    if (flattened.size() >= MIN_CACHED_FLATTENED_SIZE) {
+      flattenedCache.put(this, flattened);
+    }
+    return flattened;
   }
 
   // Hack to share our internal array with ImmutableList/ImmutableSet, or avoid
@@ -16,11 +16,13 @@ package com.google.devtools.build.lib.collect.nestedset;
 import static com.google.common.collect.Iterables.getOnlyElement;
 
 import com.google.common.collect.ImmutableList;
+import com.google.common.collect.ImmutableSet;
 import com.google.common.collect.Iterables;
 import com.google.common.collect.MapMaker;
 import com.google.devtools.build.lib.collect.CompactHashSet;
 import com.google.devtools.build.lib.util.Preconditions;
 import com.google.errorprone.annotations.DoNotCall;
+import java.util.Collection;
 import java.util.concurrent.ConcurrentMap;
 
 /**
@@ -34,8 +36,10 @@ import java.util.concurrent.ConcurrentMap;
 public final class NestedSetBuilder<E> {
 
   private final Order order;
-  private final CompactHashSet<E> items = CompactHashSet.create();
-  private final CompactHashSet<NestedSet<? extends E>> transitiveSets = CompactHashSet.create();
+  // Both sets are only allocated once something is added to them: most builders end up holding
+  // just a handful of direct members or a single transitive set.
+  private CompactHashSet<E> items;
+  private CompactHashSet<NestedSet<? extends E>> transitiveSets;
 
   public NestedSetBuilder(Order order) {
     this.order = order;
@@ -43,7 +47,7 @@ public final class NestedSetBuilder<E> {
 
   /** Returns whether the set to be built is empty. */
   public boolean isEmpty() {
-    return items.isEmpty() && transitiveSets.isEmpty();
+    return (items == null || items.isEmpty()) && transitiveSets == null;
   }
 
   /**
@@ -59,6 +63,9 @@ public final class NestedSetBuilder<E> {
    */
   public NestedSetBuilder<E> add(E element) {
     Preconditions.checkNotNull(element);
+    if (items == null) {
+      items = CompactHashSet.create();
+    }
     items.add(element);
     return this;
   }
@@ -77,6 +84,17 @@ public final class NestedSetBuilder<E> {
    */
   public NestedSetBuilder<E> addAll(Iterable<? extends E> elements) {
     Preconditions.checkNotNull(elements);
+    if (items == null) {
+      if (elements instanceof Collection) {
+        int size = ((Collection<?>) elements).size();
+        if (size == 0) {
+          return this;
+        }
+        items = CompactHashSet.createWithExpectedSize(size);
+      } else {
+        items = CompactHashSet.create();
+      }
+    }
     Iterables.addAll(items, elements);
     return this;
   }
@@ -118,6 +136,9 @@ public final class NestedSetBuilder<E> {
         order.isCompatible(subset.getOrder()),
         "Order mismatch: %s != %s", subset.getOrder().getSkylarkName(), order.getSkylarkName());
     if (!subset.isEmpty()) {
+      if (transitiveSets == null) {
+        transitiveSets = CompactHashSet.create();
+      }
       transitiveSets.add(subset);
     }
     return this;
@@ -136,19 +157,25 @@ public final class NestedSetBuilder<E> {
     if (isEmpty()) {
       return order.emptySet();
     }
+    if (transitiveSets == null && items.size() == 1) {
+      return new NestedSet<E>(order, getOnlyElement(items));
+    }
 
     // This cast is safe because NestedSets are immutable -- we will never try to add an element to
     // these nested sets, only to retrieve elements from them. Thus, treating them as NestedSet<E>
     // is safe.
     CompactHashSet<NestedSet<E>> transitiveSetsCast =
         (CompactHashSet<NestedSet<E>>) (CompactHashSet<?>) transitiveSets;
-    if (items.isEmpty() && (transitiveSetsCast.size() == 1)) {
+    if ((items == null || items.isEmpty()) && (transitiveSetsCast.size() == 1)) {
       NestedSet<E> candidate = getOnlyElement(transitiveSetsCast);
       if (candidate.getOrder().equals(order)) {
         return candidate;
       }
     }
-    return new NestedSet<E>(order, items, transitiveSetsCast);
+    return new NestedSet<E>(
+        order,
+        items != null ? items : ImmutableSet.<E>of(),
+        transitiveSetsCast != null ? transitiveSetsCast : ImmutableSet.<NestedSet<E>>of());
   }
 
   private static final ConcurrentMap<ImmutableList<?>, NestedSet<?>> immutableListCache =
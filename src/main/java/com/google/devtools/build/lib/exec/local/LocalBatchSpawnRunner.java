@@ -0,0 +1,322 @@
+// Copyright 2017 The Bazel Authors. All rights reserved.
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//    http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+package com.google.devtools.build.lib.exec.local;
+
+import static java.nio.charset.StandardCharsets.ISO_8859_1;
+
+import com.google.common.annotations.VisibleForTesting;
+import com.google.common.collect.ImmutableList;
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
+import com.google.devtools.build.lib.actions.ExecException;
+import com.google.devtools.build.lib.actions.Spawn;
+import com.google.devtools.build.lib.actions.Spawns;
+import com.google.devtools.build.lib.concurrent.ThreadSafety.ThreadSafe;
+import com.google.devtools.build.lib.exec.SpawnResult;
+import com.google.devtools.build.lib.exec.SpawnResult.Status;
+import com.google.devtools.build.lib.exec.SpawnRunner;
+import com.google.devtools.build.lib.shell.ShellUtils;
+import com.google.devtools.build.lib.shell.Subprocess;
+import com.google.devtools.build.lib.shell.SubprocessBuilder;
+import com.google.devtools.build.lib.shell.SubprocessBuilder.StreamAction;
+import com.google.devtools.build.lib.util.NetUtil;
+import com.google.devtools.build.lib.util.OS;
+import com.google.devtools.build.lib.util.Preconditions;
+import com.google.devtools.build.lib.util.io.FileOutErr;
+import com.google.devtools.build.lib.vfs.Path;
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.OutputStream;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Deque;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.regex.Pattern;
+import javax.annotation.Nullable;
+
+/**
+ * A spawn runner that runs spawns with selected mnemonics through a small pool of long-lived shell
+ * helpers, one spawn at a time per helper. Each spawn then costs a fork of a small shell instead
+ * of a subprocess of the server, a process-wrapper and a {@link
+ * com.google.devtools.build.lib.actions.ResourceManager} acquisition. All other spawns are passed
+ * on to a delegate.
+ *
+ * <p>The number of helpers bounds how many batched spawns run at the same time, in place of the
+ * resource manager. Every helper runs under a process-wrapper, which kills the helper and the
+ * spawn it is running when a spawn times out or is interrupted; the helper is then replaced.
+ * Unlike with {@link LocalSpawnRunner}, processes that a spawn leaves behind are not killed, and
+ * an executable that cannot be started shows up as exit code 127.
+ */
+@ThreadSafe
+public final class LocalBatchSpawnRunner implements SpawnRunner {
+  /** Put into the result queue of a helper when the helper exits. */
+  private static final int HELPER_EXITED = -1;
+
+  private final Path execRoot;
+  private final ImmutableList<String> helperCommand;
+  private final Pattern batchMnemonics;
+  @Nullable private final Pattern allowedLocalAction;
+  private final String productName;
+  private final LocalEnvProvider localEnvProvider;
+  private final SpawnRunner delegate;
+  private final String hostName;
+  private final Semaphore helperPermits;
+  private final ExecutorService readerPool =
+      Executors.newCachedThreadPool(
+          new ThreadFactoryBuilder()
+              .setNameFormat("local-batch-helper-reader-%d")
+              .setDaemon(true)
+              .build());
+
+  // Guarded by this.
+  private final Deque<Helper> idleHelpers = new ArrayDeque<>();
+  private boolean closed;
+
+  /**
+   * Returns whether spawns can be batched on the local machine, which needs the process-wrapper
+   * in the execroot.
+   */
+  public static boolean isSupported(Path execRoot) {
+    OS localOs = OS.getCurrent();
+    return localOs != OS.WINDOWS && LocalSpawnRunner.getProcessWrapper(execRoot, localOs).exists();
+  }
+
+  public LocalBatchSpawnRunner(
+      Path execRoot,
+      LocalExecutionOptions localExecutionOptions,
+      String productName,
+      LocalEnvProvider localEnvProvider,
+      SpawnRunner delegate) {
+    this(
+        execRoot,
+        ImmutableList.of(
+            LocalSpawnRunner.getProcessWrapper(execRoot, OS.getCurrent()).getPathString(),
+            "--timeout=0",
+            "--kill_delay=" + localExecutionOptions.localSigkillGraceSeconds,
+            "--",
+            "/bin/sh"),
+        localExecutionOptions,
+        productName,
+        localEnvProvider,
+        delegate);
+  }
+
+  @VisibleForTesting
+  LocalBatchSpawnRunner(
+      Path execRoot,
+      ImmutableList<String> helperCommand,
+      LocalExecutionOptions localExecutionOptions,
+      String productName,
+      LocalEnvProvider localEnvProvider,
+      SpawnRunner delegate) {
+    this.execRoot = execRoot;
+    this.helperCommand = helperCommand;
+    this.batchMnemonics = Preconditions.checkNotNull(localExecutionOptions.localBatchMnemonics);
+    this.allowedLocalAction = localExecutionOptions.allowedLocalAction;
+    this.productName = productName;
+    this.localEnvProvider = localEnvProvider;
+    this.delegate = Preconditions.checkNotNull(delegate);
+    this.hostName = NetUtil.findShortHostName();
+    this.helperPermits = new Semaphore(localExecutionOptions.localBatchHelpers);
+  }
+
+  @Override
+  public SpawnResult exec(Spawn spawn, SpawnExecutionPolicy policy)
+      throws InterruptedException, IOException, ExecException {
+    if (!shouldBatch(spawn)) {
+      return delegate.exec(spawn, policy);
+    }
+    policy.report(ProgressStatus.SCHEDULING);
+    helperPermits.acquire();
+    try {
+      policy.report(ProgressStatus.EXECUTING);
+      policy.lockOutputFiles();
+      Helper helper = takeHelper();
+      boolean reuseHelper = false;
+      try {
+        SpawnResult result = helper.run(spawn, policy);
+        reuseHelper = result.status() == Status.SUCCESS;
+        return result;
+      } finally {
+        if (reuseHelper) {
+          returnHelper(helper);
+        } else {
+          helper.close();
+        }
+      }
+    } finally {
+      helperPermits.release();
+    }
+  }
+
+  /** Kills all helper processes. Spawns that are running are killed when they finish. */
+  public void close() {
+    List<Helper> helpers;
+    synchronized (this) {
+      closed = true;
+      helpers = new ArrayList<>(idleHelpers);
+      idleHelpers.clear();
+    }
+    for (Helper helper : helpers) {
+      helper.close();
+    }
+    readerPool.shutdown();
+  }
+
+  private boolean shouldBatch(Spawn spawn) {
+    String mnemonic = spawn.getResourceOwner().getMnemonic();
+    if (!batchMnemonics.matcher(mnemonic).matches()
+        || (allowedLocalAction != null && !allowedLocalAction.matcher(mnemonic).matches())
+        || Spawns.shouldPrefetchInputsForLocalExecution(spawn)) {
+      // The delegate rejects or prefetches for these.
+      return false;
+    }
+    // env(1) would take such an executable for a variable assignment or an option.
+    String executable = spawn.getArguments().get(0);
+    if (executable.contains("=") || executable.startsWith("-")) {
+      return false;
+    }
+    synchronized (this) {
+      return !closed;
+    }
+  }
+
+  private Helper takeHelper() throws IOException {
+    synchronized (this) {
+      Helper helper = idleHelpers.poll();
+      if (helper != null) {
+        return helper;
+      }
+    }
+    return new Helper();
+  }
+
+  private void returnHelper(Helper helper) {
+    synchronized (this) {
+      if (!closed) {
+        idleHelpers.push(helper);
+        return;
+      }
+    }
+    helper.close();
+  }
+
+  private static String getPathOrDevNull(Path path) {
+    return path == null ? "/dev/null" : path.getPathString();
+  }
+
+  /**
+   * A shell that reads spawns from its stdin, runs each with its output redirected to files, and
+   * writes the exit code of each to its stdout, one per line.
+   */
+  private final class Helper {
+    private final Subprocess process;
+    private final BlockingQueue<Integer> exitCodes = new LinkedBlockingQueue<>();
+
+    Helper() throws IOException {
+      process =
+          new SubprocessBuilder()
+              .setArgv(helperCommand)
+              .setWorkingDirectory(execRoot.getPathFile())
+              .setStderr(StreamAction.DISCARD)
+              .start();
+      readerPool.execute(
+          new Runnable() {
+            @Override
+            public void run() {
+              readExitCodes();
+            }
+          });
+    }
+
+    private void readExitCodes() {
+      try (BufferedReader reader =
+          new BufferedReader(new InputStreamReader(process.getInputStream(), ISO_8859_1))) {
+        String line;
+        while ((line = reader.readLine()) != null) {
+          exitCodes.add(Integer.parseInt(line.trim()));
+        }
+      } catch (IOException | NumberFormatException e) {
+        // Either way, the helper is of no further use.
+      }
+      exitCodes.add(HELPER_EXITED);
+    }
+
+    SpawnResult run(Spawn spawn, SpawnExecutionPolicy policy)
+        throws InterruptedException, IOException {
+      String command = getCommand(spawn, policy.getFileOutErr());
+      long startTime = System.currentTimeMillis();
+      OutputStream stdin = process.getOutputStream();
+      stdin.write(command.getBytes(ISO_8859_1));
+      stdin.flush();
+
+      long timeoutMillis = policy.getTimeoutMillis();
+      Integer exitCode =
+          timeoutMillis > 0
+              ? exitCodes.poll(timeoutMillis, TimeUnit.MILLISECONDS)
+              : exitCodes.take();
+      long wallTime = System.currentTimeMillis() - startTime;
+      if (exitCode == null) {
+        return new SpawnResult.Builder()
+            .setStatus(Status.TIMEOUT)
+            .setExitCode(LocalSpawnRunner.POSIX_TIMEOUT_EXIT_CODE)
+            .setExecutorHostname(hostName)
+            .setWallTimeMillis(wallTime)
+            .build();
+      }
+      if (exitCode == HELPER_EXITED) {
+        throw new IOException("Local batch helper exited while running a spawn");
+      }
+      return new SpawnResult.Builder()
+          .setStatus(Status.SUCCESS)
+          .setExitCode(exitCode)
+          .setExecutorHostname(hostName)
+          .setWallTimeMillis(wallTime)
+          .build();
+    }
+
+    /** Returns the shell command that runs the spawn and prints its exit code. */
+    private String getCommand(Spawn spawn, FileOutErr outErr) throws IOException {
+      StringBuilder command = new StringBuilder("/usr/bin/env -i");
+      Map<String, String> env =
+          localEnvProvider.rewriteLocalEnv(spawn.getEnvironment(), execRoot, productName);
+      for (Map.Entry<String, String> entry : env.entrySet()) {
+        command.append(' ').append(ShellUtils.shellEscape(entry.getKey() + "=" + entry.getValue()));
+      }
+      for (String arg : spawn.getArguments()) {
+        command.append(' ').append(ShellUtils.shellEscape(arg));
+      }
+      command
+          .append(" </dev/null >")
+          .append(ShellUtils.shellEscape(getPathOrDevNull(outErr.getOutputPath())))
+          .append(" 2>")
+          .append(ShellUtils.shellEscape(getPathOrDevNull(outErr.getErrorPath())))
+          .append("; echo $?\n");
+      return command.toString();
+    }
+
+    /** Kills the helper, and the spawn it is running, if any. */
+    void close() {
+      process.destroy();
+      process.close();
+    }
+  }
+}
@@ -51,4 +51,38 @@ public class LocalExecutionOptions extends OptionsBase {
             + "all actions are allowed to execute locally"
   )
   public Pattern allowedLocalAction;
+
+  @Option(
+    name = "experimental_local_batch_mnemonics",
+    category = "strategy",
+    documentationCategory = OptionDocumentationCategory.UNCATEGORIZED,
+    effectTags = {OptionEffectTag.UNKNOWN},
+    converter = Converters.RegexPatternConverter.class,
+    defaultValue = "null",
+    help =
+        "If set, local actions whose mnemonic matches this regex are run through a pool of "
+            + "long-lived helper processes instead of a process-wrapper each. Meant for actions "
+            + "that do very little work, where starting the process dominates."
+  )
+  public Pattern localBatchMnemonics;
+
+  @Option(
+    name = "experimental_local_batch_helpers",
+    category = "strategy",
+    documentationCategory = OptionDocumentationCategory.UNCATEGORIZED,
+    effectTags = {OptionEffectTag.UNKNOWN},
+    converter = LocalBatchHelpersConverter.class,
+    defaultValue = "4",
+    help =
+        "The number of helper processes used for --experimental_local_batch_mnemonics, and so "
+            + "the number of such actions that can run at the same time."
+  )
+  public int localBatchHelpers;
+
+  /** Converter for the --experimental_local_batch_helpers option. */
+  public static class LocalBatchHelpersConverter extends Converters.RangeConverter {
+    public LocalBatchHelpersConverter() {
+      super(1, Integer.MAX_VALUE);
+    }
+  }
 }
@@ -20,7 +20,6 @@ import static java.util.logging.Level.SEVERE;
 import com.google.common.base.Joiner;
 import com.google.common.base.Predicates;
 import com.google.common.collect.Iterables;
-import com.google.common.io.ByteStreams;
 import com.google.devtools.build.lib.actions.ActionExecutionMetadata;
 import com.google.devtools.build.lib.actions.ResourceManager;
 import com.google.devtools.build.lib.actions.ResourceManager.ResourceHandle;
@@ -41,6 +40,7 @@ import com.google.devtools.build.lib.util.OsUtils;
 import com.google.devtools.build.lib.util.Preconditions;
 import com.google.devtools.build.lib.util.io.FileOutErr;
 import com.google.devtools.build.lib.vfs.Path;
+import java.io.File;
 import java.io.IOException;
 import java.io.OutputStream;
 import java.util.ArrayList;
@@ -61,7 +61,7 @@ public final class LocalSpawnRunner implements SpawnRunner {
   private static final Joiner SPACE_JOINER = Joiner.on(' ');
   private static final String UNHANDLED_EXCEPTION_MSG = "Unhandled exception running a local spawn";
   private static final int LOCAL_EXEC_ERROR = -1;
-  private static final int POSIX_TIMEOUT_EXIT_CODE = /*SIGNAL_BASE=*/128 + /*SIGALRM=*/14;
+  static final int POSIX_TIMEOUT_EXIT_CODE = /*SIGNAL_BASE=*/128 + /*SIGALRM=*/14;
 
   private final Logger logger;
 
@@ -81,7 +81,7 @@ public final class LocalSpawnRunner implements SpawnRunner {
   private final String productName;
   private final LocalEnvProvider localEnvProvider;
 
-  private static Path getProcessWrapper(Path execRoot, OS localOs) {
+  static Path getProcessWrapper(Path execRoot, OS localOs) {
     return execRoot.getRelative("_bin/process-wrapper" + OsUtils.executableExtension(localOs));
   }
 
@@ -252,8 +252,8 @@ public final class LocalSpawnRunner implements SpawnRunner {
 
       int timeoutSeconds = (int) (policy.getTimeoutMillis() / 1000);
       Command cmd;
-      OutputStream stdOut = ByteStreams.nullOutputStream();
-      OutputStream stdErr = ByteStreams.nullOutputStream();
+      OutputStream stdOut = null;
+      OutputStream stdErr = null;
       if (useProcessWrapper) {
         List<String> cmdLine = new ArrayList<>();
         cmdLine.add(processWrapper);
@@ -279,7 +279,14 @@ public final class LocalSpawnRunner implements SpawnRunner {
       long startTime = System.currentTimeMillis();
       CommandResult result;
       try {
-        result = cmd.execute(Command.NO_INPUT, Command.NO_OBSERVER, stdOut, stdErr, true);
+        if (useProcessWrapper) {
+          // The process-wrapper writes the output of the spawn to files itself, so its own output
+          // can go to /dev/null instead of through pipes, which would each need a thread to read.
+          result =
+              cmd.execute(Command.NO_INPUT, Command.NO_OBSERVER, (File) null, (File) null, true);
+        } else {
+          result = cmd.execute(Command.NO_INPUT, Command.NO_OBSERVER, stdOut, stdErr, true);
+        }
         if (Thread.currentThread().isInterrupted()) {
           throw new InterruptedException();
         }
@@ -31,6 +31,7 @@ import java.util.ArrayList;
 import java.util.Collection;
 import java.util.HashMap;
 import java.util.HashSet;
+import java.util.LinkedHashSet;
 import java.util.List;
 import java.util.Map;
 import java.util.Set;
@@ -185,12 +186,48 @@ public class GlobCache {
     globCache.put(Pair.of(pattern, excludeDirectories), result);
   }
 
+  /**
+   * Starts globbing all of {@code patterns} that are not cached yet, in a single filesystem
+   * traversal, and caches the future result of each of them.
+   *
+   * <p>Evaluating the patterns together lets patterns with a common prefix (e.g. the includes and
+   * excludes of a single glob() call) share the directory reads and matching for that prefix.
+   */
+  private void startGlobsUnsortedAsync(Iterable<String> patterns, boolean excludeDirs)
+      throws BadGlobException {
+    Set<String> uncachedPatterns = new LinkedHashSet<>();
+    for (String pattern : patterns) {
+      if (!globCache.containsKey(Pair.of(pattern, excludeDirs))) {
+        checkGlobPattern(pattern);
+        uncachedPatterns.add(pattern);
+      }
+    }
+    if (uncachedPatterns.size() < 2) {
+      // Nothing to share; getGlobUnsortedAsync() will start the glob if needed.
+      return;
+    }
+    if (maxDirectoriesToEagerlyVisit > -1
+        && !globalStarted.getAndSet(true)) {
+      packageDirectory.prefetchPackageAsync(maxDirectoriesToEagerlyVisit);
+    }
+    Map<String, Future<List<Path>>> futures =
+        newGlobBuilder(excludeDirs).addPatterns(uncachedPatterns).globAsyncByPattern(true);
+    for (Map.Entry<String, Future<List<Path>>> entry : futures.entrySet()) {
+      setGlobPaths(entry.getKey(), excludeDirs, entry.getValue());
+    }
+  }
+
   /**
    * Actually execute a glob against the filesystem.  Otherwise similar to
    * getGlob().
    */
   @VisibleForTesting
   Future<List<Path>> safeGlobUnsorted(String pattern, boolean excludeDirs) throws BadGlobException {
+    checkGlobPattern(pattern);
+    return newGlobBuilder(excludeDirs).addPattern(pattern).globAsync(true);
+  }
+
+  private static void checkGlobPattern(String pattern) throws BadGlobException {
     // Forbidden patterns:
     if (pattern.indexOf('?') != -1) {
       throw new BadGlobException("glob pattern '" + pattern + "' contains forbidden '?' wildcard");
@@ -200,13 +237,14 @@ public class GlobCache {
     if (error != null) {
       throw new BadGlobException(error + " (in glob pattern '" + pattern + "')");
     }
+  }
+
+  private UnixGlob.Builder newGlobBuilder(boolean excludeDirs) {
     return UnixGlob.forPath(packageDirectory)
-        .addPattern(pattern)
         .setExcludeDirectories(excludeDirs)
         .setDirectoryFilter(childDirectoryPredicate)
         .setThreadPool(globExecutor)
-        .setFilesystemCalls(syscalls)
-        .globAsync(true);
+        .setFilesystemCalls(syscalls);
   }
 
   /**
@@ -238,6 +276,7 @@ public class GlobCache {
     // Start globbing all patterns in parallel. The getGlob() calls below will
     // block on an individual pattern's results, but the other globs can
     // continue in the background.
+    startGlobsUnsortedAsync(Iterables.concat(includes, excludes), excludeDirs);
     for (String pattern : Iterables.concat(includes, excludes)) {
       @SuppressWarnings("unused") 
       Future<?> possiblyIgnoredError = getGlobUnsortedAsync(pattern, excludeDirs);
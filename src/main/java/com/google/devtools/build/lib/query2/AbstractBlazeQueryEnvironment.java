@@ -25,6 +25,7 @@ import com.google.devtools.build.lib.events.ExtendedEventHandler;
 import com.google.devtools.build.lib.packages.DependencyFilter;
 import com.google.devtools.build.lib.packages.Target;
 import com.google.devtools.build.lib.query2.engine.AbstractQueryEnvironment;
+import com.google.devtools.build.lib.query2.engine.Callback;
 import com.google.devtools.build.lib.query2.engine.KeyExtractor;
 import com.google.devtools.build.lib.query2.engine.OutputFormatterCallback;
 import com.google.devtools.build.lib.query2.engine.QueryEnvironment;
@@ -33,10 +34,13 @@ import com.google.devtools.build.lib.query2.engine.QueryException;
 import com.google.devtools.build.lib.query2.engine.QueryExpression;
 import com.google.devtools.build.lib.query2.engine.QueryUtil;
 import com.google.devtools.build.lib.query2.engine.QueryUtil.AggregateAllCallback;
+import com.google.devtools.build.lib.query2.engine.QueryUtil.UniquifierImpl;
 import com.google.devtools.build.lib.query2.engine.ThreadSafeOutputFormatterCallback;
+import com.google.devtools.build.lib.query2.engine.Uniquifier;
 import com.google.devtools.build.lib.query2.engine.VariableContext;
 import com.google.devtools.build.lib.util.Preconditions;
 import java.io.IOException;
+import java.util.ArrayList;
 import java.util.Collection;
 import java.util.LinkedHashSet;
 import java.util.List;
@@ -49,6 +53,10 @@ import java.util.logging.Logger;
  * QueryEnvironment as possible while remaining mostly agnostic as to the objects being stored.
  */
 public abstract class AbstractBlazeQueryEnvironment<T> extends AbstractQueryEnvironment<T> {
+  // 10k is likely a good balance between using batch efficiently and not blowing up memory.
+  // TODO(janakr): Unify with RecursivePackageProviderBackedTargetPatternResolver's constant.
+  static final int BATCH_CALLBACK_SIZE = 10000;
+
   protected ErrorSensingEventHandler eventHandler;
   protected final boolean keepGoing;
   protected final boolean strictScope;
@@ -301,4 +309,79 @@ public abstract class AbstractBlazeQueryEnvironment<T> extends AbstractQueryEnvi
       return element.getLabel();
     }
   }
+
+  /**
+   * Wraps a {@link Callback} and guarantees that all calls to the original will have at least
+   * {@code batchThreshold} {@link Target}s, except for the final such call.
+   *
+   * <p>Retains fewer than {@code batchThreshold} {@link Target}s at a time.
+   *
+   * <p>After this object's {@link #process} has been called for the last time, {#link
+   * #processLastPending} must be called to "flush" any remaining {@link Target}s through to the
+   * original.
+   *
+   * <p>This callback may be called from multiple threads concurrently. At most one thread will call
+   * the wrapped {@code callback} concurrently.
+   */
+  // TODO(nharmata): For queries with less than {@code batchThreshold} results, this batching
+  // strategy probably hurts performance since we can only start formatting results once the entire
+  // query is finished.
+  protected static class BatchStreamedCallback extends ThreadSafeOutputFormatterCallback<Target>
+      implements Callback<Target> {
+
+    // TODO(nharmata): Now that we know the wrapped callback is ThreadSafe, there's no correctness
+    // concern that requires the prohibition of concurrent uses of the callback; the only concern is
+    // memory. We should have a threshold for when to invoke the callback with a batch, and also a
+    // separate, larger, bound on the number of targets being processed at the same time.
+    private final ThreadSafeOutputFormatterCallback<Target> callback;
+    private final Uniquifier<Target> uniquifier;
+    private final Object pendingLock = new Object();
+    private List<Target> pending = new ArrayList<>();
+    private int batchThreshold;
+
+    protected BatchStreamedCallback(
+        ThreadSafeOutputFormatterCallback<Target> callback,
+        int batchThreshold,
+        int concurrencyLevel) {
+      this.callback = callback;
+      this.batchThreshold = batchThreshold;
+      this.uniquifier = new UniquifierImpl<>(TargetKeyExtractor.INSTANCE, concurrencyLevel);
+    }
+
+    @Override
+    public void start() throws IOException {
+      callback.start();
+    }
+
+    @Override
+    public void processOutput(Iterable<Target> partialResult)
+        throws IOException, InterruptedException {
+      ImmutableList<Target> uniquifiedTargets = uniquifier.unique(partialResult);
+      synchronized (pendingLock) {
+        Preconditions.checkNotNull(pending, "Reuse of the callback is not allowed");
+        pending.addAll(uniquifiedTargets);
+        if (pending.size() >= batchThreshold) {
+          callback.processOutput(pending);
+          pending = new ArrayList<>();
+        }
+      }
+    }
+
+    @Override
+    public void close(boolean failFast) throws IOException, InterruptedException {
+      if (!failFast) {
+        processLastPending();
+      }
+      callback.close(failFast);
+    }
+
+    private void processLastPending() throws IOException, InterruptedException {
+      synchronized (pendingLock) {
+        if (!pending.isEmpty()) {
+          callback.processOutput(pending);
+          pending = null;
+        }
+      }
+    }
+  }
 }
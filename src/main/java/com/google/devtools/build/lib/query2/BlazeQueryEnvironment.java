@@ -16,13 +16,16 @@ package com.google.devtools.build.lib.query2;
 import static com.google.common.collect.ImmutableSet.toImmutableSet;
 
 import com.google.common.base.Predicate;
+import com.google.common.base.Throwables;
 import com.google.common.collect.ImmutableList;
+import com.google.common.collect.Lists;
 import com.google.common.collect.Maps;
 import com.google.devtools.build.lib.cmdline.Label;
 import com.google.devtools.build.lib.cmdline.LabelSyntaxException;
 import com.google.devtools.build.lib.cmdline.PackageIdentifier;
 import com.google.devtools.build.lib.cmdline.ResolvedTargets;
 import com.google.devtools.build.lib.cmdline.TargetParsingException;
+import com.google.devtools.build.lib.concurrent.NamedForkJoinPool;
 import com.google.devtools.build.lib.concurrent.ThreadSafety.ThreadSafe;
 import com.google.devtools.build.lib.events.ExtendedEventHandler;
 import com.google.devtools.build.lib.graph.Digraph;
@@ -62,12 +65,20 @@ import java.util.LinkedHashSet;
 import java.util.List;
 import java.util.Map;
 import java.util.Set;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ForkJoinTask;
+import java.util.function.Consumer;
 
 /**
  * The environment of a Blaze query. Not thread-safe.
  */
 public class BlazeQueryEnvironment extends AbstractBlazeQueryEnvironment<Target> {
   private static final int MAX_DEPTH_FULL_SCAN_LIMIT = 20;
+  // Frontiers smaller than this are expanded on the calling thread, since handing them to the
+  // pool costs more than walking their edges.
+  private static final int PARALLEL_VISITATION_BATCH_SIZE = 1000;
   private final Map<String, Set<Target>> resolvedTargetPatterns = new HashMap<>();
   private final TargetPatternEvaluator targetPatternEvaluator;
   private final TransitivePackageLoader transitivePackageLoader;
@@ -76,6 +87,10 @@ public class BlazeQueryEnvironment extends AbstractBlazeQueryEnvironment<Target>
   private final ErrorPrintingTargetEdgeErrorObserver errorObserver;
   private final LabelVisitor labelVisitor;
   protected final int loadingPhaseThreads;
+  private boolean evaluatingQuery;
+  // Created on the first frontier larger than PARALLEL_VISITATION_BATCH_SIZE and shut down at the
+  // end of evaluateQuery, so small queries (e.g. those of genquery) never start any threads.
+  private ForkJoinPool visitationPool;
 
   private final BlazeTargetAccessor accessor = new BlazeTargetAccessor(this);
 
@@ -117,7 +132,24 @@ public class BlazeQueryEnvironment extends AbstractBlazeQueryEnvironment<Target>
       ThreadSafeOutputFormatterCallback<Target> callback)
           throws QueryException, InterruptedException, IOException {
     resolvedTargetPatterns.clear();
-    QueryEvalResult queryEvalResult = super.evaluateQuery(expr, callback);
+    evaluatingQuery = true;
+    QueryEvalResult queryEvalResult;
+    try {
+      // Results are uniquified and handed to the original callback in batches, so that streaming
+      // formatters can write them out while evaluation is still in progress instead of only after
+      // the whole result set has been accumulated. Query operators are evaluated one at a time;
+      // only the graph visitations within an operator use the visitation pool.
+      queryEvalResult =
+          super.evaluateQuery(
+              expr,
+              new BatchStreamedCallback(callback, BATCH_CALLBACK_SIZE, /*concurrencyLevel=*/ 1));
+    } finally {
+      evaluatingQuery = false;
+      if (visitationPool != null) {
+        visitationPool.shutdownNow();
+        visitationPool = null;
+      }
+    }
     return new DigraphQueryEvalResult<>(
         queryEvalResult.getSuccess(), queryEvalResult.isEmpty(), graph);
   }
@@ -222,30 +254,101 @@ public class BlazeQueryEnvironment extends AbstractBlazeQueryEnvironment<Target>
   }
 
   @Override
-  public Collection<Target> getFwdDeps(Iterable<Target> targets) {
+  public Collection<Target> getFwdDeps(Iterable<Target> targets) throws InterruptedException {
     ThreadSafeMutableSet<Target> result = createThreadSafeMutableSet();
-    for (Target target : targets) {
-      result.addAll(getTargetsFromNodes(getNode(target).getSuccessors()));
-    }
+    forEachNeighbor(
+        new ArrayList<>(getNodes(targets)),
+        /*reverse=*/ false,
+        node -> result.add(node.getLabel()));
     return result;
   }
 
   @Override
-  public Collection<Target> getReverseDeps(Iterable<Target> targets) {
+  public Collection<Target> getReverseDeps(Iterable<Target> targets) throws InterruptedException {
     ThreadSafeMutableSet<Target> result = createThreadSafeMutableSet();
-    for (Target target : targets) {
-      result.addAll(getTargetsFromNodes(getNode(target).getPredecessors()));
-    }
+    forEachNeighbor(
+        new ArrayList<>(getNodes(targets)),
+        /*reverse=*/ true,
+        node -> result.add(node.getLabel()));
     return result;
   }
 
   @Override
   public ThreadSafeMutableSet<Target> getTransitiveClosure(
-      ThreadSafeMutableSet<Target> targetNodes) {
+      ThreadSafeMutableSet<Target> targetNodes) throws InterruptedException {
     for (Target node : targetNodes) {
       checkBuilt(node);
     }
-    return getTargetsFromNodes(graph.getFwdReachable(getNodes(targetNodes)));
+    ThreadSafeMutableSet<Target> result = createThreadSafeMutableSet();
+    Uniquifier<Target> uniquifier =
+        new UniquifierImpl<>(TargetKeyExtractor.INSTANCE, loadingPhaseThreads);
+    List<Node<Target>> frontier = new ArrayList<>();
+    for (Node<Target> node : getNodes(targetNodes)) {
+      if (uniquifier.unique(node.getLabel())) {
+        frontier.add(node);
+      }
+    }
+    while (!frontier.isEmpty()) {
+      for (Node<Target> node : frontier) {
+        result.add(node.getLabel());
+      }
+      ConcurrentLinkedQueue<Node<Target>> next = new ConcurrentLinkedQueue<>();
+      forEachNeighbor(
+          frontier,
+          /*reverse=*/ false,
+          node -> {
+            if (uniquifier.unique(node.getLabel())) {
+              next.add(node);
+            }
+          });
+      frontier = new ArrayList<>(next);
+    }
+    return result;
+  }
+
+  /**
+   * Calls {@code visitor} on the successors (or, if {@code reverse}, the predecessors) of each of
+   * {@code nodes}, possibly more than once per neighbor.
+   *
+   * <p>Large inputs are split into batches that are visited concurrently on the visitation pool,
+   * so {@code visitor} must be thread-safe. The graph must not be modified until this returns.
+   */
+  private void forEachNeighbor(
+      List<Node<Target>> nodes, boolean reverse, Consumer<Node<Target>> visitor)
+      throws InterruptedException {
+    if (!evaluatingQuery || nodes.size() <= PARALLEL_VISITATION_BATCH_SIZE) {
+      visitNeighbors(nodes, reverse, visitor);
+      return;
+    }
+    if (visitationPool == null) {
+      visitationPool = NamedForkJoinPool.newNamedPool("blaze-query", loadingPhaseThreads);
+    }
+    ForkJoinPool pool = visitationPool;
+    List<ForkJoinTask<?>> tasks = new ArrayList<>();
+    for (List<Node<Target>> batch : Lists.partition(nodes, PARALLEL_VISITATION_BATCH_SIZE)) {
+      tasks.add(pool.submit(() -> visitNeighbors(batch, reverse, visitor)));
+    }
+    try {
+      for (ForkJoinTask<?> task : tasks) {
+        task.get();
+      }
+    } catch (ExecutionException e) {
+      Throwables.throwIfUnchecked(e.getCause());
+      throw new IllegalStateException(e.getCause());
+    } finally {
+      for (ForkJoinTask<?> task : tasks) {
+        task.cancel(/*mayInterruptIfRunning=*/ true);
+      }
+    }
+  }
+
+  private static void visitNeighbors(
+      Iterable<Node<Target>> nodes, boolean reverse, Consumer<Node<Target>> visitor) {
+    for (Node<Target> node : nodes) {
+      for (Node<Target> neighbor : reverse ? node.getPredecessors() : node.getSuccessors()) {
+        visitor.accept(neighbor);
+      }
+    }
   }
 
   /**
@@ -440,13 +543,4 @@ public class BlazeQueryEnvironment extends AbstractBlazeQueryEnvironment<Target>
   public TargetAccessor<Target> getAccessor() {
     return accessor;
   }
-
-  /** Given a set of target nodes, returns the targets. */
-  private ThreadSafeMutableSet<Target> getTargetsFromNodes(Iterable<Node<Target>> input) {
-    ThreadSafeMutableSet<Target> result = createThreadSafeMutableSet();
-    for (Node<Target> node : input) {
-      result.add(node.getLabel());
-    }
-    return result;
-  }
 }
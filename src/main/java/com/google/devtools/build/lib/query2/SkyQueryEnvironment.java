@@ -139,9 +139,6 @@ import java.util.logging.Logger;
  */
 public class SkyQueryEnvironment extends AbstractBlazeQueryEnvironment<Target>
     implements StreamableQueryEnvironment<Target> {
-  // 10k is likely a good balance between using batch efficiently and not blowing up memory.
-  // TODO(janakr): Unify with RecursivePackageProviderBackedTargetPatternResolver's constant.
-  static final int BATCH_CALLBACK_SIZE = 10000;
   protected static final int DEFAULT_THREAD_COUNT = Runtime.getRuntime().availableProcessors();
   private static final int MAX_QUERY_EXPRESSION_LOG_CHARS = 1000;
   private static final Logger LOG = Logger.getLogger(SkyQueryEnvironment.class.getName());
@@ -408,7 +405,8 @@ public class SkyQueryEnvironment extends AbstractBlazeQueryEnvironment<Target>
     //
     // This flushes the batched callback prior to constructing the QueryEvalResult in the unlikely
     // case of a race between the original callback and the eventHandler.
-    BatchStreamedCallback batchCallback = new BatchStreamedCallback(callback, BATCH_CALLBACK_SIZE);
+    BatchStreamedCallback batchCallback =
+        new BatchStreamedCallback(callback, BATCH_CALLBACK_SIZE, DEFAULT_THREAD_COUNT);
     return super.evaluateQuery(expr, batchCallback);
   }
 
@@ -1181,80 +1179,6 @@ public class SkyQueryEnvironment extends AbstractBlazeQueryEnvironment<Target>
     }
   }
 
-  /**
-   * Wraps a {@link Callback} and guarantees that all calls to the original will have at least
-   * {@code batchThreshold} {@link Target}s, except for the final such call.
-   *
-   * <p>Retains fewer than {@code batchThreshold} {@link Target}s at a time.
-   *
-   * <p>After this object's {@link #process} has been called for the last time, {#link
-   * #processLastPending} must be called to "flush" any remaining {@link Target}s through to the
-   * original.
-   *
-   * <p>This callback may be called from multiple threads concurrently. At most one thread will call
-   * the wrapped {@code callback} concurrently.
-   */
-  // TODO(nharmata): For queries with less than {@code batchThreshold} results, this batching
-  // strategy probably hurts performance since we can only start formatting results once the entire
-  // query is finished.
-  private static class BatchStreamedCallback extends ThreadSafeOutputFormatterCallback<Target>
-      implements Callback<Target> {
-
-    // TODO(nharmata): Now that we know the wrapped callback is ThreadSafe, there's no correctness
-    // concern that requires the prohibition of concurrent uses of the callback; the only concern is
-    // memory. We should have a threshold for when to invoke the callback with a batch, and also a
-    // separate, larger, bound on the number of targets being processed at the same time.
-    private final ThreadSafeOutputFormatterCallback<Target> callback;
-    private final Uniquifier<Target> uniquifier =
-        new UniquifierImpl<>(TargetKeyExtractor.INSTANCE, DEFAULT_THREAD_COUNT);
-    private final Object pendingLock = new Object();
-    private List<Target> pending = new ArrayList<>();
-    private int batchThreshold;
-
-    private BatchStreamedCallback(
-        ThreadSafeOutputFormatterCallback<Target> callback,
-        int batchThreshold) {
-      this.callback = callback;
-      this.batchThreshold = batchThreshold;
-    }
-
-    @Override
-    public void start() throws IOException {
-      callback.start();
-    }
-
-    @Override
-    public void processOutput(Iterable<Target> partialResult)
-        throws IOException, InterruptedException {
-      ImmutableList<Target> uniquifiedTargets = uniquifier.unique(partialResult);
-      synchronized (pendingLock) {
-        Preconditions.checkNotNull(pending, "Reuse of the callback is not allowed");
-        pending.addAll(uniquifiedTargets);
-        if (pending.size() >= batchThreshold) {
-          callback.processOutput(pending);
-          pending = new ArrayList<>();
-        }
-      }
-    }
-
-    @Override
-    public void close(boolean failFast) throws IOException, InterruptedException {
-      if (!failFast) {
-        processLastPending();
-      }
-      callback.close(failFast);
-    }
-
-    private void processLastPending() throws IOException, InterruptedException {
-      synchronized (pendingLock) {
-        if (!pending.isEmpty()) {
-          callback.processOutput(pending);
-          pending = null;
-        }
-      }
-    }
-  }
-
   @ThreadSafe
   @Override
   public QueryTaskFuture<Void> getAllRdepsUnboundedParallel(
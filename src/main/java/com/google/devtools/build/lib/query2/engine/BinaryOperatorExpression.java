@@ -187,6 +187,11 @@ public class BinaryOperatorExpression extends QueryExpression {
     return mapper.map(this);
   }
 
+  @Override
+  public <T> T accept(QueryExpressionVisitor<T> visitor) {
+    return visitor.visit(this);
+  }
+
   @Override
   public String toString() {
     StringBuilder result = new StringBuilder();
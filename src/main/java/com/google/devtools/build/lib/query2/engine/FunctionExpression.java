@@ -64,6 +64,11 @@ public class FunctionExpression extends QueryExpression {
     return mapper.map(this);
   }
 
+  @Override
+  public <T> T accept(QueryExpressionVisitor<T> visitor) {
+    return visitor.visit(this);
+  }
+
   @Override
   public String toString() {
     return function.getName()
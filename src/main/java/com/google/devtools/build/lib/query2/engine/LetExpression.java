@@ -24,7 +24,7 @@ import java.util.regex.Pattern;
  *
  * <pre>expr ::= LET WORD = expr IN expr</pre>
  */
-class LetExpression extends QueryExpression {
+public class LetExpression extends QueryExpression {
 
   private static final String VAR_NAME_PATTERN = "[a-zA-Z_][a-zA-Z0-9_]*$";
 
@@ -57,11 +57,11 @@ class LetExpression extends QueryExpression {
     return varName;
   }
 
-  QueryExpression getVarExpr() {
+  public QueryExpression getVarExpr() {
     return varExpr;
   }
 
-  QueryExpression getBodyExpr() {
+  public QueryExpression getBodyExpr() {
     return bodyExpr;
   }
 
@@ -95,6 +95,11 @@ class LetExpression extends QueryExpression {
     return mapper.map(this);
   }
 
+  @Override
+  public <T> T accept(QueryExpressionVisitor<T> visitor) {
+    return visitor.visit(this);
+  }
+
   @Override
   public String toString() {
     return "let " + varName + " = " + varExpr + " in " + bodyExpr;
@@ -14,6 +14,7 @@
 package com.google.devtools.build.lib.query2.engine;
 
 import com.google.devtools.build.lib.concurrent.ThreadSafety.ThreadSafe;
+import com.google.devtools.build.lib.query2.engine.QueryEnvironment.QueryFunction;
 import com.google.devtools.build.lib.query2.engine.QueryEnvironment.QueryTaskFuture;
 import java.util.Collection;
 
@@ -55,6 +56,14 @@ public abstract class QueryExpression {
     return QueryParser.parse(query, env);
   }
 
+  /**
+   * Scan and parse the specified query expression, which may only use the given functions.
+   */
+  public static QueryExpression parse(String query, Iterable<QueryFunction> functions)
+      throws QueryException {
+    return QueryParser.parse(query, functions);
+  }
+
   protected QueryExpression() {}
 
   /**
@@ -84,6 +93,9 @@ public abstract class QueryExpression {
   /* Implementations should just be {@code return mapper.map(this)}. */
   public abstract QueryExpression getMapped(QueryExpressionMapper mapper);
 
+  /* Implementations should just be {@code return visitor.visit(this)}. */
+  public abstract <T> T accept(QueryExpressionVisitor<T> visitor);
+
   /**
    * Returns this query expression pretty-printed.
    */
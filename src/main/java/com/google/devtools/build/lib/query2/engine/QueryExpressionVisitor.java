@@ -0,0 +1,34 @@
+// Copyright 2017 The Bazel Authors. All rights reserved.
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//    http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+package com.google.devtools.build.lib.query2.engine;
+
+/**
+ * Visits a {@link QueryExpression} without transforming it.
+ *
+ * <p>For each subclass of {@link QueryExpression}, there's a corresponding {@link #visit}
+ * overload, called by {@link QueryExpression#accept}. Unlike {@link QueryExpressionMapper}, there
+ * is no default traversal: implementations decide which subexpressions to visit, and in what
+ * context.
+ */
+public interface QueryExpressionVisitor<T> {
+  T visit(TargetLiteral targetLiteral);
+
+  T visit(BinaryOperatorExpression binaryOperatorExpression);
+
+  T visit(FunctionExpression functionExpression);
+
+  T visit(LetExpression letExpression);
+
+  T visit(SetExpression setExpression);
+}
@@ -56,7 +56,15 @@ final class QueryParser {
    * Scan and parse the specified query expression.
    */
   static QueryExpression parse(String query, QueryEnvironment<?> env) throws QueryException {
-    QueryParser parser = new QueryParser(Lexer.scan(query), env);
+    return parse(query, env.getFunctions());
+  }
+
+  /**
+   * Scan and parse the specified query expression, which may only use the given functions.
+   */
+  static QueryExpression parse(String query, Iterable<QueryFunction> functions)
+      throws QueryException {
+    QueryParser parser = new QueryParser(Lexer.scan(query), functions);
     QueryExpression expr = parser.parseExpression();
     if (parser.token.kind != TokenKind.EOF) {
       throw new QueryException("unexpected token '" + parser.token
@@ -65,12 +73,9 @@ final class QueryParser {
     return expr;
   }
 
-  private QueryParser(List<Lexer.Token> tokens, QueryEnvironment<?> env) {
-    // TODO(bazel-team): We only need QueryEnvironment#getFunctions, consider refactoring users of
-    // QueryParser#parse to instead just pass in the set of functions to make testing, among other
-    // things, simpler.
+  private QueryParser(List<Lexer.Token> tokens, Iterable<QueryFunction> functions) {
     this.functions = new HashMap<>();
-    for (QueryFunction queryFunction : env.getFunctions()) {
+    for (QueryFunction queryFunction : functions) {
       this.functions.put(queryFunction.getName(), queryFunction);
     }
     this.tokens = tokens;
@@ -38,7 +38,7 @@ import java.util.List;
  *
  * <pre>expr ::= SET '(' WORD * ')'</pre>
  */
-class SetExpression extends QueryExpression {
+public class SetExpression extends QueryExpression {
 
   private final List<TargetLiteral> words;
 
@@ -46,6 +46,10 @@ class SetExpression extends QueryExpression {
     this.words = words;
   }
 
+  public List<TargetLiteral> getWords() {
+    return words;
+  }
+
   @Override
   public <T> QueryTaskFuture<Void> eval(
       QueryEnvironment<T> env, VariableContext<T> context, Callback<T> callback) {
@@ -68,6 +72,11 @@ class SetExpression extends QueryExpression {
     return mapper.map(this);
   }
 
+  @Override
+  public <T> T accept(QueryExpressionVisitor<T> visitor) {
+    return visitor.visit(this);
+  }
+
   @Override
   public String toString() {
     return "set(" + Joiner.on(' ').join(words) + ")";
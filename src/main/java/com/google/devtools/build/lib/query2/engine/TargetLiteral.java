@@ -84,6 +84,11 @@ public final class TargetLiteral extends QueryExpression {
     return mapper.map(this);
   }
 
+  @Override
+  public <T> T accept(QueryExpressionVisitor<T> visitor) {
+    return visitor.visit(this);
+  }
+
   @Override
   public String toString() {
     // Keep predicate consistent with Lexer.scanWord!
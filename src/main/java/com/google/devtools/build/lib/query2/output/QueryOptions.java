@@ -51,7 +51,8 @@ public class QueryOptions extends OptionsBase {
     effectTags = {OptionEffectTag.UNKNOWN},
     help =
         "The format in which the query results should be printed. Allowed values are: "
-            + "label, label_kind, minrank, maxrank, package, location, graph, xml, proto, record."
+            + "label, label_kind, minrank, maxrank, package, location, graph, xml, proto, "
+            + "streamed_proto, record."
   )
   public String outputFormat;
 
@@ -273,6 +274,22 @@ public class QueryOptions extends OptionsBase {
   )
   public List<String> universeScope;
 
+  @Option(
+    name = "infer_universe_scope",
+    defaultValue = "false",
+    category = "query",
+    documentationCategory = OptionDocumentationCategory.UNCATEGORIZED,
+    effectTags = {OptionEffectTag.UNKNOWN},
+    help =
+        "If set and --universe_scope is unset, the universe scope is inferred from the query "
+            + "expression: the universe arguments of its rdeps() calls, followed by its other "
+            + "target patterns that are not already below one of those universes. Together with "
+            + "--order_output=no this lets queries such as rdeps(), allpaths() and somepath() be "
+            + "answered from the server's incrementally maintained dependency graph, instead of "
+            + "loading the universe and building a new graph on every invocation."
+  )
+  public boolean inferUniverseScope;
+
   @Option(
     name = "relative_locations",
     defaultValue = "false",
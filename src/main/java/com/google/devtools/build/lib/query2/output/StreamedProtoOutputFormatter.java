@@ -0,0 +1,49 @@
+// Copyright 2017 The Bazel Authors. All rights reserved.
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//    http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+package com.google.devtools.build.lib.query2.output;
+
+import com.google.devtools.build.lib.packages.Target;
+import com.google.devtools.build.lib.query2.engine.OutputFormatterCallback;
+import java.io.IOException;
+import java.io.OutputStream;
+
+/**
+ * An output formatter that writes each target of the query result as a length-delimited
+ * {@code Build.Target} protocol buffer, as soon as it is produced.
+ *
+ * <p>Unlike {@link ProtoOutputFormatter}, no {@code Build.QueryResult} is accumulated, so when
+ * combined with {@code --order_output=no} the result set is never held in memory in its entirety.
+ * The output can be read back by repeatedly calling {@code Build.Target.parseDelimitedFrom()}.
+ */
+public class StreamedProtoOutputFormatter extends ProtoOutputFormatter {
+
+  @Override
+  public String getName() {
+    return "streamed_proto";
+  }
+
+  @Override
+  public OutputFormatterCallback<Target> createPostFactoStreamCallback(
+      final OutputStream out, final QueryOptions options) {
+    return new OutputFormatterCallback<Target>() {
+      @Override
+      public void processOutput(Iterable<Target> partialResult)
+          throws IOException, InterruptedException {
+        for (Target target : partialResult) {
+          toTargetProtoBuffer(target).writeDelimitedTo(out);
+        }
+      }
+    };
+  }
+}
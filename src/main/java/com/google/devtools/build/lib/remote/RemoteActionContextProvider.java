@@ -19,7 +19,6 @@ import com.google.common.collect.ImmutableList;
 import com.google.devtools.build.lib.actions.ActionContext;
 import com.google.devtools.build.lib.actions.ActionInputFileCache;
 import com.google.devtools.build.lib.actions.ResourceManager;
-import com.google.devtools.build.lib.actions.SpawnActionContext;
 import com.google.devtools.build.lib.authandtls.AuthAndTLSOptions;
 import com.google.devtools.build.lib.exec.ActionContextProvider;
 import com.google.devtools.build.lib.exec.ActionInputPrefetcher;
@@ -34,6 +33,7 @@ import com.google.devtools.build.lib.standalone.StandaloneSpawnStrategy;
 final class RemoteActionContextProvider extends ActionContextProvider {
   private final CommandEnvironment env;
   private ActionInputPrefetcher actionInputPrefetcher;
+  private StandaloneSpawnStrategy fallbackStrategy;
   private RemoteSpawnStrategy spawnStrategy;
 
   RemoteActionContextProvider(CommandEnvironment env) {
@@ -47,7 +47,7 @@ final class RemoteActionContextProvider extends ActionContextProvider {
     ExecutionOptions executionOptions = env.getOptions().getOptions(ExecutionOptions.class);
     LocalExecutionOptions localExecutionOptions =
         env.getOptions().getOptions(LocalExecutionOptions.class);
-    SpawnActionContext fallbackStrategy =
+    fallbackStrategy =
         new StandaloneSpawnStrategy(
             env.getExecRoot(),
             actionInputPrefetcher,
@@ -75,5 +75,9 @@ final class RemoteActionContextProvider extends ActionContextProvider {
       spawnStrategy.close();
       spawnStrategy = null;
     }
+    if (fallbackStrategy != null) {
+      fallbackStrategy.close();
+      fallbackStrategy = null;
+    }
   }
 }
@@ -19,6 +19,7 @@ import com.google.common.base.Joiner;
 import com.google.common.base.Predicates;
 import com.google.common.base.Throwables;
 import com.google.common.base.Verify;
+import com.google.common.cache.Cache;
 import com.google.common.cache.CacheBuilder;
 import com.google.common.cache.CacheLoader;
 import com.google.common.cache.LoadingCache;
@@ -35,6 +36,7 @@ import com.google.devtools.build.lib.events.ExtendedEventHandler;
 import com.google.devtools.build.lib.events.ExtendedEventHandler.Postable;
 import com.google.devtools.build.lib.events.PrintingEventHandler;
 import com.google.devtools.build.lib.events.Reporter;
+import com.google.devtools.build.lib.events.StoredEventHandler;
 import com.google.devtools.build.lib.runtime.commands.ProjectFileSupport;
 import com.google.devtools.build.lib.runtime.proto.InvocationPolicyOuterClass.InvocationPolicy;
 import com.google.devtools.build.lib.util.AbruptExitException;
@@ -63,8 +65,10 @@ import java.util.Collection;
 import java.util.HashSet;
 import java.util.LinkedHashSet;
 import java.util.List;
+import java.util.Objects;
 import java.util.Set;
 import java.util.logging.Level;
+import java.util.logging.Logger;
 import javax.annotation.Nullable;
 
 /**
@@ -74,6 +78,7 @@ import javax.annotation.Nullable;
  * the runtime state (BlazeRuntime) to the commands.
  */
 public class BlazeCommandDispatcher {
+  private static final Logger LOG = Logger.getLogger(BlazeCommandDispatcher.class.getName());
 
   /**
    * What to do if the command lock is not available.
@@ -95,6 +100,8 @@ public class BlazeCommandDispatcher {
 
   private static final ImmutableList<String> HELP_COMMAND = ImmutableList.of("help");
 
+  private static final int PARSED_OPTIONS_CACHE_SIZE = 8;
+
   private static final ImmutableSet<String> ALL_HELP_OPTIONS =
       ImmutableSet.of("--help", "-help", "-h");
 
@@ -125,6 +132,12 @@ public class BlazeCommandDispatcher {
   private String shutdownReason = null;
   private OutputStream logOutputStream = null;
   private Level lastLogVerbosityLevel = null;
+  /**
+   * Options parsed for recent command lines. Clients usually run the same few command lines over
+   * and over, so a handful of entries suffices.
+   */
+  private final Cache<ParsedOptionsKey, ParsedOptions> parsedOptionsCache =
+      CacheBuilder.newBuilder().maximumSize(PARSED_OPTIONS_CACHE_SIZE).build();
   private final LoadingCache<BlazeCommand, OpaqueOptionsData> optionsDataCache =
       CacheBuilder.newBuilder().build(
           new CacheLoader<BlazeCommand, OpaqueOptionsData>() {
@@ -289,7 +302,7 @@ public class BlazeCommandDispatcher {
       return ExitCode.COMMAND_LINE_ERROR.getNumericExitCode();
     }
 
-
+    CommandPhaseTimer phaseTimer = new CommandPhaseTimer(runtime.getClock());
     long waitTimeInMs = 0;
     synchronized (commandLock) {
       boolean warningPrinted = false;
@@ -318,6 +331,7 @@ public class BlazeCommandDispatcher {
       Verify.verify(currentClientDescription == null);
       currentClientDescription = clientDescription;
     }
+    phaseTimer.finishPhase("lock wait");
 
     try {
       if (shutdownReason != null) {
@@ -325,7 +339,7 @@ public class BlazeCommandDispatcher {
         return ExitCode.LOCAL_ENVIRONMENTAL_ERROR.getNumericExitCode();
       }
       return execExclusively(originalCommandLine, invocationPolicy, args, outErr, firstContactTime,
-          commandName, command, waitTimeInMs);
+          commandName, command, waitTimeInMs, phaseTimer);
     } catch (ShutdownBlazeServerException e) {
       shutdownReason = "explicitly by client " + currentClientDescription;
       throw e;
@@ -334,6 +348,12 @@ public class BlazeCommandDispatcher {
         currentClientDescription = null;
         commandLock.notify();
       }
+      LOG.info(
+          String.format(
+              "Command '%s' dispatched in %d ms after first client contact: %s",
+              commandName,
+              runtime.getClock().currentTimeMillis() - firstContactTime,
+              phaseTimer));
     }
   }
 
@@ -345,7 +365,8 @@ public class BlazeCommandDispatcher {
       long firstContactTime,
       String commandName,
       BlazeCommand command,
-      long waitTimeInMs)
+      long waitTimeInMs,
+      CommandPhaseTimer phaseTimer)
       throws ShutdownBlazeServerException {
     Command commandAnnotation = command.getClass().getAnnotation(Command.class);
 
@@ -373,6 +394,7 @@ public class BlazeCommandDispatcher {
         exitCausingException = e;
       }
     }
+    phaseTimer.finishPhase("module setup");
     if (exitCausingException != null) {
       return exitCausingException.getExitCode().getNumericExitCode();
     }
@@ -399,24 +421,6 @@ public class BlazeCommandDispatcher {
     // rc file.
     List<String> rcfileNotes = new ArrayList<>();
     try {
-      OptionsParser optionsParser = createOptionsParser(command);
-      // TODO(ulfjack): env.getWorkingDirectory isn't set correctly at this point in the code - it's
-      // initialized to the workspace root, which usually works.
-      parseArgsAndConfigs(
-          env.getWorkspace(), env.getWorkingDirectory(), optionsParser, commandAnnotation, args,
-          rcfileNotes, eventHandler);
-      // Allow the command to edit the options.
-      command.editOptions(optionsParser);
-      // Migration of --watchfs to a command option.
-      // TODO(ulfjack): Get rid of the startup option and drop this code.
-      if (runtime.getStartupOptionsProvider().getOptions(BlazeServerStartupOptions.class).watchFS) {
-        try {
-          optionsParser.parse("--watchfs");
-        } catch (OptionsParsingException e) {
-          // This should never happen.
-          throw new IllegalStateException(e);
-        }
-      }
       // Merge the invocation policy that is user-supplied, from the command line, and any
       // invocation policy that was added by a module. The module one goes 'first,' so the user
       // one has priority.
@@ -425,14 +429,16 @@ public class BlazeCommandDispatcher {
               .mergeFrom(runtime.getModuleInvocationPolicy())
               .mergeFrom(invocationPolicy)
               .build();
-      InvocationPolicyEnforcer optionsPolicyEnforcer = new InvocationPolicyEnforcer(combinedPolicy);
-      // Enforce the invocation policy. It is intentional that this is the last step in preparing
-      // the options. The invocation policy is used in security-critical contexts, and may be used
-      // as a last resort to override flags. That means that the policy can override flags set in
-      // BlazeCommand.editOptions, so the code needs to be safe regardless of the actual flag
-      // values. At the time of this writing, editOptions was only used as a convenience feature or
-      // to improve the user experience, but not required for safety or correctness.
-      optionsPolicyEnforcer.enforce(optionsParser, commandName);
+      OptionsParser optionsParser =
+          parseOptions(
+              command,
+              commandAnnotation,
+              commandName,
+              args,
+              combinedPolicy,
+              env,
+              rcfileNotes,
+              eventHandler);
       // Print warnings for odd options usage
       for (String warning : optionsParser.getWarnings()) {
         eventHandler.handle(Event.warn(warning));
@@ -448,6 +454,8 @@ public class BlazeCommandDispatcher {
       }
       eventHandler.handle(Event.error(e.getMessage()));
       return ExitCode.COMMAND_LINE_ERROR.getNumericExitCode();
+    } finally {
+      phaseTimer.finishPhase("options parsing");
     }
 
     // Setup log filtering
@@ -550,8 +558,10 @@ public class BlazeCommandDispatcher {
         env.getSkyframeExecutor().injectExtraPrecomputedValues(module.getPrecomputedValues());
       }
 
+      phaseTimer.finishPhase("command setup");
       ExitCode outcome = command.exec(env, options);
       outcome = env.precompleteCommand(outcome);
+      phaseTimer.finishPhase("command execution");
       numericExitCode = outcome.getNumericExitCode();
       return numericExitCode;
     } catch (ShutdownBlazeServerException e) {
@@ -579,6 +589,78 @@ public class BlazeCommandDispatcher {
         releaseHandler(ansiAllowingHandler, eventHandlerOptions);
       }
       env.getTimestampGranularityMonitor().waitForTimestampGranularity(outErr);
+      phaseTimer.finishPhase("completion");
+    }
+  }
+
+  /**
+   * Parses the options for a command, or returns a parser reused from an earlier invocation of the
+   * same command line.
+   *
+   * <p>The result of parsing only depends on the key of {@link #parsedOptionsCache}, so identical
+   * invocations (e.g. repeated builds in an edit-build loop) can share it. The returned parser must
+   * not be modified; {@link OptionsParser#getOptions} returns a fresh copy on every call, so the
+   * options a command sees cannot leak into later commands. The notes and events produced while
+   * parsing are recorded, and added to {@code rcfileNotes} and replayed on {@code eventHandler}
+   * for every invocation, whether or not the parser is reused.
+   */
+  private OptionsParser parseOptions(
+      BlazeCommand command,
+      Command commandAnnotation,
+      String commandName,
+      List<String> args,
+      InvocationPolicy invocationPolicy,
+      CommandEnvironment env,
+      List<String> rcfileNotes,
+      ExtendedEventHandler eventHandler)
+      throws OptionsParsingException {
+    ParsedOptionsKey key =
+        new ParsedOptionsKey(command, args, invocationPolicy, env.getWorkingDirectory());
+    ParsedOptions cached = parsedOptionsCache.getIfPresent(key);
+    if (cached != null) {
+      rcfileNotes.addAll(cached.rcfileNotes);
+      cached.parseEvents.replayOn(eventHandler);
+      return cached.optionsParser;
+    }
+
+    StoredEventHandler parseEvents = new StoredEventHandler();
+    try {
+      OptionsParser optionsParser = createOptionsParser(command);
+      // TODO(ulfjack): env.getWorkingDirectory isn't set correctly at this point in the code - it's
+      // initialized to the workspace root, which usually works.
+      parseArgsAndConfigs(
+          env.getWorkspace(), env.getWorkingDirectory(), optionsParser, commandAnnotation, args,
+          rcfileNotes, parseEvents);
+      // Allow the command to edit the options.
+      command.editOptions(optionsParser);
+      // Migration of --watchfs to a command option.
+      // TODO(ulfjack): Get rid of the startup option and drop this code.
+      if (runtime.getStartupOptionsProvider().getOptions(BlazeServerStartupOptions.class).watchFS) {
+        try {
+          optionsParser.parse("--watchfs");
+        } catch (OptionsParsingException e) {
+          // This should never happen.
+          throw new IllegalStateException(e);
+        }
+      }
+      InvocationPolicyEnforcer optionsPolicyEnforcer =
+          new InvocationPolicyEnforcer(invocationPolicy);
+      // Enforce the invocation policy. It is intentional that this is the last step in preparing
+      // the options. The invocation policy is used in security-critical contexts, and may be used
+      // as a last resort to override flags. That means that the policy can override flags set in
+      // BlazeCommand.editOptions, so the code needs to be safe regardless of the actual flag
+      // values. At the time of this writing, editOptions was only used as a convenience feature or
+      // to improve the user experience, but not required for safety or correctness.
+      optionsPolicyEnforcer.enforce(optionsParser, commandName);
+      // Project files are read from disk, so options that use them must be parsed every time.
+      if (ProjectFileSupport.getTargets(runtime.getProjectFileProvider(), optionsParser).size()
+          == optionsParser.getResidue().size()) {
+        parsedOptionsCache.put(
+            key, new ParsedOptions(optionsParser, ImmutableList.copyOf(rcfileNotes), parseEvents));
+      }
+      return optionsParser;
+    } finally {
+      parseEvents.replayOn(eventHandler);
     }
   }
 
@@ -862,6 +944,62 @@ public class BlazeCommandDispatcher {
     logOutputStream = null;
   }
 
+  /** Everything the result of parsing the options of a command line depends on. */
+  private static final class ParsedOptionsKey {
+    private final BlazeCommand command;
+    private final ImmutableList<String> args;
+    private final InvocationPolicy invocationPolicy;
+    private final Path workingDirectory;
+
+    ParsedOptionsKey(
+        BlazeCommand command,
+        List<String> args,
+        InvocationPolicy invocationPolicy,
+        Path workingDirectory) {
+      this.command = command;
+      this.args = ImmutableList.copyOf(args);
+      this.invocationPolicy = invocationPolicy;
+      this.workingDirectory = workingDirectory;
+    }
+
+    @Override
+    public boolean equals(Object obj) {
+      if (this == obj) {
+        return true;
+      }
+      if (!(obj instanceof ParsedOptionsKey)) {
+        return false;
+      }
+      ParsedOptionsKey other = (ParsedOptionsKey) obj;
+      return command == other.command
+          && args.equals(other.args)
+          && invocationPolicy.equals(other.invocationPolicy)
+          && workingDirectory.equals(other.workingDirectory);
+    }
+
+    @Override
+    public int hashCode() {
+      return Objects.hash(System.identityHashCode(command), args, invocationPolicy,
+          workingDirectory);
+    }
+  }
+
+  /** A parser reused across command invocations, with the output of parsing its options. */
+  private static final class ParsedOptions {
+    private final OptionsParser optionsParser;
+    private final ImmutableList<String> rcfileNotes;
+    private final StoredEventHandler parseEvents;
+
+    ParsedOptions(
+        OptionsParser optionsParser,
+        ImmutableList<String> rcfileNotes,
+        StoredEventHandler parseEvents) {
+      this.optionsParser = optionsParser;
+      this.rcfileNotes = rcfileNotes;
+      this.parseEvents = parseEvents;
+    }
+  }
+
   /**
    * A printing event handler that also stores posts.
    */
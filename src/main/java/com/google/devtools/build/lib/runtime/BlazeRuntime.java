@@ -56,6 +56,7 @@ import com.google.devtools.build.lib.shell.JavaSubprocessFactory;
 import com.google.devtools.build.lib.shell.Subprocess;
 import com.google.devtools.build.lib.shell.SubprocessBuilder;
 import com.google.devtools.build.lib.unix.UnixFileSystem;
+import com.google.devtools.build.lib.unix.UnixSubprocessFactory;
 import com.google.devtools.build.lib.util.AbruptExitException;
 import com.google.devtools.build.lib.util.BlazeClock;
 import com.google.devtools.build.lib.util.Clock;
@@ -146,6 +147,7 @@ public final class BlazeRuntime {
   private final SubscriberExceptionHandler eventBusExceptionHandler;
   private final String productName;
   private final PathConverter pathToUriConverter;
+  private final StartupTaskRecorder startupTaskRecorder;
 
   // Workspace state (currently exactly one workspace per server)
   private BlazeWorkspace workspace;
@@ -167,7 +169,8 @@ public final class BlazeRuntime {
       InvocationPolicy moduleInvocationPolicy,
       Iterable<BlazeCommand> commands,
       String productName,
-      PathConverter pathToUriConverter) {
+      PathConverter pathToUriConverter,
+      StartupTaskRecorder startupTaskRecorder) {
     // Server state
     this.blazeModules = blazeModules;
     overrideCommands(commands);
@@ -193,6 +196,7 @@ public final class BlazeRuntime {
         new CommandNameCacheImpl(getCommandMap()));
     this.productName = productName;
     this.pathToUriConverter = pathToUriConverter;
+    this.startupTaskRecorder = startupTaskRecorder;
   }
 
   public BlazeWorkspace initWorkspace(BlazeDirectories directories, BinTools binTools)
@@ -200,10 +204,15 @@ public final class BlazeRuntime {
     Preconditions.checkState(this.workspace == null);
     WorkspaceBuilder builder = new WorkspaceBuilder(directories, binTools);
     for (BlazeModule module : blazeModules) {
-      module.workspaceInit(this, directories, builder);
+      try (StartupTaskRecorder.RunningTask task =
+          startupTaskRecorder.start(module, "workspaceInit")) {
+        module.workspaceInit(this, directories, builder);
+      }
+    }
+    try (StartupTaskRecorder.RunningTask task = startupTaskRecorder.start("Workspace creation")) {
+      this.workspace = builder.build(
+          this, packageFactory, ruleClassProvider, getProductName(), eventBusExceptionHandler);
     }
-    this.workspace = builder.build(
-        this, packageFactory, ruleClassProvider, getProductName(), eventBusExceptionHandler);
     return workspace;
   }
 
@@ -377,6 +386,8 @@ public final class BlazeRuntime {
           ProfilePhase.LAUNCH.description);
       profiler.logSimpleTaskDuration(execStartTimeNanos, 0, ProfilerTask.PHASE,
           ProfilePhase.INIT.description);
+      // If this command started the server, account for the server startup in its profile.
+      startupTaskRecorder.writeTo(profiler, execStartTimeNanos - startupTimeNanos);
     }
 
     if (options.memoryProfilePath != null) {
@@ -805,8 +816,14 @@ public final class BlazeRuntime {
   }
 
   private static Subprocess.Factory subprocessFactoryImplementation() {
-    if (!"0".equals(System.getProperty("io.bazel.EnableJni")) && OS.getCurrent() == OS.WINDOWS) {
+    boolean jniEnabled = !"0".equals(System.getProperty("io.bazel.EnableJni"));
+    if (jniEnabled && OS.getCurrent() == OS.WINDOWS) {
       return WindowsSubprocessFactory.INSTANCE;
+    } else if (jniEnabled
+        && OS.isPosixCompatible()
+        && "1".equals(System.getProperty("io.bazel.EnableNativeSubprocesses"))) {
+      // Experimental; enabled with --host_jvm_args=-Dio.bazel.EnableNativeSubprocesses=1.
+      return UnixSubprocessFactory.INSTANCE;
     } else {
       return JavaSubprocessFactory.INSTANCE;
     }
@@ -891,9 +908,14 @@ public final class BlazeRuntime {
   private static BlazeRuntime newRuntime(Iterable<BlazeModule> blazeModules, List<String> args,
       Runnable abruptShutdownHandler)
       throws AbruptExitException, OptionsParsingException {
+    StartupTaskRecorder startupTaskRecorder = new StartupTaskRecorder(BlazeClock.instance());
+    startupTaskRecorder.recordJvmStartup();
     OptionsProvider options = parseOptions(blazeModules, args);
     for (BlazeModule module : blazeModules) {
-      module.globalInit(options);
+      try (StartupTaskRecorder.RunningTask task =
+          startupTaskRecorder.start(module, "globalInit")) {
+        module.globalInit(options);
+      }
     }
 
     BlazeServerStartupOptions startupOptions = options.getOptions(BlazeServerStartupOptions.class);
@@ -951,6 +973,7 @@ public final class BlazeRuntime {
         .setStartupOptionsProvider(options)
         .setClock(clock)
         .setAbruptShutdownHandler(abruptShutdownHandler)
+        .setStartupTaskRecorder(startupTaskRecorder)
         // TODO(bazel-team): Make BugReportingExceptionHandler the default.
         // See bug "Make exceptions in EventBus subscribers fatal"
         .setEventBusExceptionHandler(
@@ -987,6 +1010,7 @@ public final class BlazeRuntime {
 
     AutoProfiler.setClock(runtime.getClock());
     BugReport.setRuntime(runtime);
+    LOG.info(startupTaskRecorder.toString());
     return runtime;
   }
 
@@ -1097,6 +1121,7 @@ public final class BlazeRuntime {
     private SubscriberExceptionHandler eventBusExceptionHandler = new RemoteExceptionHandler();
     private UUID instanceId;
     private String productName;
+    private StartupTaskRecorder startupTaskRecorder;
 
     public BlazeRuntime build() throws AbruptExitException {
       Preconditions.checkNotNull(productName);
@@ -1104,26 +1129,43 @@ public final class BlazeRuntime {
       Preconditions.checkNotNull(startupOptionsProvider);
       Clock clock = (this.clock == null) ? BlazeClock.instance() : this.clock;
       UUID instanceId =  (this.instanceId == null) ? UUID.randomUUID() : this.instanceId;
+      StartupTaskRecorder startupTaskRecorder =
+          (this.startupTaskRecorder == null)
+              ? new StartupTaskRecorder(clock)
+              : this.startupTaskRecorder;
 
       Preconditions.checkNotNull(clock);
 
       for (BlazeModule module : blazeModules) {
-        module.blazeStartup(startupOptionsProvider,
-            BlazeVersionInfo.instance(), instanceId, serverDirectories, clock);
+        try (StartupTaskRecorder.RunningTask task =
+            startupTaskRecorder.start(module, "blazeStartup")) {
+          module.blazeStartup(startupOptionsProvider,
+              BlazeVersionInfo.instance(), instanceId, serverDirectories, clock);
+        }
       }
       ServerBuilder serverBuilder = new ServerBuilder();
       serverBuilder.addQueryOutputFormatters(OutputFormatter.getDefaultFormatters());
       for (BlazeModule module : blazeModules) {
-        module.serverInit(startupOptionsProvider, serverBuilder);
+        try (StartupTaskRecorder.RunningTask task =
+            startupTaskRecorder.start(module, "serverInit")) {
+          module.serverInit(startupOptionsProvider, serverBuilder);
+        }
       }
 
       ConfiguredRuleClassProvider.Builder ruleClassBuilder =
           new ConfiguredRuleClassProvider.Builder();
       for (BlazeModule module : blazeModules) {
-        module.initializeRuleClasses(ruleClassBuilder);
+        try (StartupTaskRecorder.RunningTask task =
+            startupTaskRecorder.start(module, "initializeRuleClasses")) {
+          module.initializeRuleClasses(ruleClassBuilder);
+        }
       }
 
-      ConfiguredRuleClassProvider ruleClassProvider = ruleClassBuilder.build();
+      ConfiguredRuleClassProvider ruleClassProvider;
+      try (StartupTaskRecorder.RunningTask task =
+          startupTaskRecorder.start("Rule class provider creation")) {
+        ruleClassProvider = ruleClassBuilder.build();
+      }
 
       Package.Builder.Helper packageBuilderHelper = null;
       for (BlazeModule module : blazeModules) {
@@ -1180,7 +1222,8 @@ public final class BlazeRuntime {
           serverBuilder.getInvocationPolicy(),
           serverBuilder.getCommands(),
           productName,
-          serverBuilder.getPathToUriConverter());
+          serverBuilder.getPathToUriConverter(),
+          startupTaskRecorder);
     }
 
     public Builder setProductName(String productName) {
@@ -1213,6 +1256,11 @@ public final class BlazeRuntime {
       return this;
     }
 
+    public Builder setStartupTaskRecorder(StartupTaskRecorder startupTaskRecorder) {
+      this.startupTaskRecorder = startupTaskRecorder;
+      return this;
+    }
+
     public Builder setInstanceId(UUID id) {
       instanceId = id;
       return this;
@@ -58,10 +58,13 @@ import com.google.devtools.build.lib.events.EventHandler;
 import com.google.devtools.build.lib.events.Reporter;
 import com.google.devtools.build.lib.rules.extra.ExtraAction;
 import com.google.devtools.build.lib.util.Pair;
+import java.util.ArrayDeque;
 import java.util.ArrayList;
 import java.util.Collection;
+import java.util.Deque;
 import java.util.HashMap;
 import java.util.HashSet;
+import java.util.Iterator;
 import java.util.List;
 import java.util.Map;
 import java.util.Set;
@@ -118,6 +121,14 @@ public class BuildEventStreamer implements EventHandler {
     String getErr();
   }
 
+  /**
+   * Names the nested sets of artifacts reported in the stream.
+   *
+   * <p>Each node of a nested set is named, and announced in a {@link NamedArtifactGroup}, once per
+   * stream; the announcement refers to the children of the node by their names. The size of the
+   * stream is thus proportional to the number of distinct nodes reported, rather than to the total
+   * size of the reported sets.
+   */
   private static class CountingArtifactGroupNamer implements ArtifactGroupNamer {
     private final Map<Object, Long> reportedArtifactNames = new HashMap<>();
     private long nextArtifactName;
@@ -317,15 +328,45 @@ public class BuildEventStreamer implements EventHandler {
     }
   }
 
+  /**
+   * Announce all nodes of the given set that have not been announced yet, children before their
+   * parents.
+   */
   private void maybeReportArtifactSet(NestedSetView<Artifact> view) {
     String name = artifactGroupNamer.maybeName(view);
     if (name == null) {
       return;
     }
-    for (NestedSetView<Artifact> transitive : view.transitives()) {
-      maybeReportArtifactSet(transitive);
+    // Nested sets can be deep (e.g., the classpath of a long chain of libraries), so traverse
+    // them iteratively.
+    Deque<UnannouncedArtifactGroup> stack = new ArrayDeque<>();
+    stack.push(new UnannouncedArtifactGroup(view, name));
+    while (!stack.isEmpty()) {
+      UnannouncedArtifactGroup group = stack.peek();
+      if (group.transitives.hasNext()) {
+        NestedSetView<Artifact> transitive = group.transitives.next();
+        String transitiveName = artifactGroupNamer.maybeName(transitive);
+        if (transitiveName != null) {
+          stack.push(new UnannouncedArtifactGroup(transitive, transitiveName));
+        }
+      } else {
+        stack.pop();
+        post(new NamedArtifactGroup(group.name, group.view));
+      }
+    }
+  }
+
+  /** A newly named nested set, whose transitive members are being announced. */
+  private static final class UnannouncedArtifactGroup {
+    private final NestedSetView<Artifact> view;
+    private final String name;
+    private final Iterator<NestedSetView<Artifact>> transitives;
+
+    UnannouncedArtifactGroup(NestedSetView<Artifact> view, String name) {
+      this.view = view;
+      this.name = name;
+      this.transitives = view.transitives().iterator();
     }
-    post(new NamedArtifactGroup(name, view));
   }
 
   private void maybeReportArtifactSet(NestedSet<Artifact> set) {
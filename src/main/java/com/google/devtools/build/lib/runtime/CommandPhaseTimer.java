@@ -0,0 +1,75 @@
+// Copyright 2017 The Bazel Authors. All rights reserved.
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//    http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+package com.google.devtools.build.lib.runtime;
+
+import com.google.common.collect.ImmutableList;
+import com.google.devtools.build.lib.util.Clock;
+import com.google.devtools.build.lib.util.Pair;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Records the wall time spent in each phase of dispatching a command, from the moment the server
+ * receives it until the exit code is returned to the client.
+ *
+ * <p>The profiler is only started part-way through a command, so it does not account for the
+ * time spent waiting for the command lock, in module setup or in options parsing; this class
+ * covers the whole dispatch, so the latency of (no-op) commands can be attributed to its phases.
+ *
+ * <p>Phases are consecutive: each call to {@link #finishPhase} closes a phase that started when
+ * the previous one finished, or when the timer was created. Not thread-safe.
+ */
+final class CommandPhaseTimer {
+  private final Clock clock;
+  private final long startNanos;
+  private long phaseStartNanos;
+  private final List<Pair<String, Long>> phaseNanos = new ArrayList<>();
+
+  CommandPhaseTimer(Clock clock) {
+    this.clock = clock;
+    this.startNanos = clock.nanoTime();
+    this.phaseStartNanos = startNanos;
+  }
+
+  /** Ends the current phase, attributing the time since the end of the last one to it. */
+  void finishPhase(String name) {
+    long now = clock.nanoTime();
+    phaseNanos.add(Pair.of(name, now - phaseStartNanos));
+    phaseStartNanos = now;
+  }
+
+  /** Returns the names and durations in milliseconds of the phases finished so far, in order. */
+  ImmutableList<Pair<String, Long>> getPhaseMillis() {
+    ImmutableList.Builder<Pair<String, Long>> result = ImmutableList.builder();
+    for (Pair<String, Long> phase : phaseNanos) {
+      result.add(Pair.of(phase.first, TimeUnit.NANOSECONDS.toMillis(phase.second)));
+    }
+    return result.build();
+  }
+
+  /** Returns the total duration in milliseconds of the phases finished so far. */
+  long getTotalMillis() {
+    return TimeUnit.NANOSECONDS.toMillis(phaseStartNanos - startNanos);
+  }
+
+  @Override
+  public String toString() {
+    StringBuilder result = new StringBuilder();
+    for (Pair<String, Long> phase : getPhaseMillis()) {
+      result.append(phase.first).append(' ').append(phase.second).append(" ms, ");
+    }
+    return result.append("total ").append(getTotalMillis()).append(" ms").toString();
+  }
+}
@@ -0,0 +1,159 @@
+// Copyright 2017 The Bazel Authors. All rights reserved.
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//    http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+package com.google.devtools.build.lib.runtime;
+
+import com.google.common.annotations.VisibleForTesting;
+import com.google.common.collect.ImmutableList;
+import com.google.devtools.build.lib.profiler.Profiler;
+import com.google.devtools.build.lib.profiler.ProfilerTask;
+import com.google.devtools.build.lib.util.Clock;
+import java.lang.management.ManagementFactory;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import java.util.function.LongSupplier;
+
+/**
+ * Records how long each step of server startup takes and how many classes it loads, e.g. the
+ * initialization of every {@link BlazeModule} and the creation of the workspace.
+ *
+ * <p>The profiler is only started by a command, after the server is up. The recorded steps are
+ * added to the profile of the first command that covers them, which is the command that started
+ * the server, so that its profile accounts for the whole time the client waited.
+ */
+public final class StartupTaskRecorder {
+
+  /** A completed startup step. */
+  @VisibleForTesting
+  static final class Task {
+    final String description;
+    final long startNanos;
+    final long durationNanos;
+    final long loadedClasses;
+
+    Task(String description, long startNanos, long durationNanos, long loadedClasses) {
+      this.description = description;
+      this.startNanos = startNanos;
+      this.durationNanos = durationNanos;
+      this.loadedClasses = loadedClasses;
+    }
+
+    @Override
+    public String toString() {
+      return String.format(
+          "%s: %d ms, %d classes loaded",
+          description, TimeUnit.NANOSECONDS.toMillis(durationNanos), loadedClasses);
+    }
+  }
+
+  /** A startup step in progress; closing it records the step. */
+  public final class RunningTask implements AutoCloseable {
+    private final String description;
+    private final long startNanos;
+    private final long startLoadedClasses;
+
+    private RunningTask(String description) {
+      this.description = description;
+      this.startLoadedClasses = loadedClassCount.getAsLong();
+      this.startNanos = clock.nanoTime();
+    }
+
+    @Override
+    public void close() {
+      long durationNanos = clock.nanoTime() - startNanos;
+      record(
+          new Task(
+              description,
+              startNanos,
+              durationNanos,
+              loadedClassCount.getAsLong() - startLoadedClasses));
+    }
+  }
+
+  private final Clock clock;
+  private final LongSupplier loadedClassCount;
+  private final List<Task> tasks = new ArrayList<>();
+
+  public StartupTaskRecorder(Clock clock) {
+    this(clock, ManagementFactory.getClassLoadingMXBean()::getTotalLoadedClassCount);
+  }
+
+  @VisibleForTesting
+  StartupTaskRecorder(Clock clock, LongSupplier loadedClassCount) {
+    this.clock = clock;
+    this.loadedClassCount = loadedClassCount;
+  }
+
+  /** Starts recording a startup step with the given description. */
+  public RunningTask start(String description) {
+    return new RunningTask(description);
+  }
+
+  /**
+   * Starts recording the initialization step {@code step} (e.g. "serverInit") of {@code module}.
+   */
+  public RunningTask start(BlazeModule module, String step) {
+    return new RunningTask(module.getClass().getName() + "." + step);
+  }
+
+  /**
+   * Records the time from the start of the JVM until now, together with the classes loaded in that
+   * time; call this first thing in {@code main}.
+   */
+  public void recordJvmStartup() {
+    long uptimeNanos =
+        TimeUnit.MILLISECONDS.toNanos(ManagementFactory.getRuntimeMXBean().getUptime());
+    long now = clock.nanoTime();
+    record(new Task("JVM startup", now - uptimeNanos, uptimeNanos, loadedClassCount.getAsLong()));
+  }
+
+  private synchronized void record(Task task) {
+    tasks.add(task);
+  }
+
+  @VisibleForTesting
+  synchronized ImmutableList<Task> getTasks() {
+    return ImmutableList.copyOf(tasks);
+  }
+
+  /**
+   * Adds the recorded steps that started after the start of the profile at {@code
+   * profileStartNanos} to it, if the profiler is running. Steps are only ever offered to one
+   * profile, since later commands do not cover them.
+   */
+  synchronized void writeTo(Profiler profiler, long profileStartNanos) {
+    if (!profiler.isActive()) {
+      return;
+    }
+    for (Task task : tasks) {
+      if (task.startNanos >= profileStartNanos) {
+        profiler.logSimpleTaskDuration(
+            task.startNanos,
+            task.durationNanos,
+            ProfilerTask.INFO,
+            String.format("%s (%d classes loaded)", task.description, task.loadedClasses));
+      }
+    }
+    tasks.clear();
+  }
+
+  @Override
+  public synchronized String toString() {
+    StringBuilder result = new StringBuilder("Server startup steps:");
+    for (Task task : tasks) {
+      result.append("\n  ").append(task);
+    }
+    return result.toString();
+  }
+}
@@ -18,18 +18,31 @@ import static com.google.devtools.build.lib.packages.Rule.ALL_LABELS;
 import com.google.common.annotations.VisibleForTesting;
 import com.google.common.base.Joiner;
 import com.google.common.collect.ImmutableList;
+import com.google.common.collect.Iterables;
 import com.google.devtools.build.lib.analysis.NoBuildEvent;
 import com.google.devtools.build.lib.analysis.NoBuildRequestFinishedEvent;
+import com.google.devtools.build.lib.cmdline.TargetParsingException;
+import com.google.devtools.build.lib.cmdline.TargetPattern;
 import com.google.devtools.build.lib.events.Event;
 import com.google.devtools.build.lib.packages.Target;
 import com.google.devtools.build.lib.pkgcache.PackageCacheOptions;
 import com.google.devtools.build.lib.query2.AbstractBlazeQueryEnvironment;
+import com.google.devtools.build.lib.query2.engine.BinaryOperatorExpression;
+import com.google.devtools.build.lib.query2.engine.FunctionExpression;
+import com.google.devtools.build.lib.query2.engine.LetExpression;
+import com.google.devtools.build.lib.query2.engine.QueryEnvironment;
+import com.google.devtools.build.lib.query2.engine.QueryEnvironment.Argument;
+import com.google.devtools.build.lib.query2.engine.QueryEnvironment.ArgumentType;
 import com.google.devtools.build.lib.query2.engine.QueryEnvironment.Setting;
 import com.google.devtools.build.lib.query2.engine.QueryEvalResult;
 import com.google.devtools.build.lib.query2.engine.QueryException;
 import com.google.devtools.build.lib.query2.engine.QueryExpression;
+import com.google.devtools.build.lib.query2.engine.QueryExpressionVisitor;
 import com.google.devtools.build.lib.query2.engine.QueryUtil;
 import com.google.devtools.build.lib.query2.engine.QueryUtil.AggregateAllOutputFormatterCallback;
+import com.google.devtools.build.lib.query2.engine.RdepsFunction;
+import com.google.devtools.build.lib.query2.engine.SetExpression;
+import com.google.devtools.build.lib.query2.engine.TargetLiteral;
 import com.google.devtools.build.lib.query2.engine.ThreadSafeOutputFormatterCallback;
 import com.google.devtools.build.lib.query2.output.OutputFormatter;
 import com.google.devtools.build.lib.query2.output.OutputFormatter.StreamedFormatter;
@@ -50,6 +63,8 @@ import java.io.IOException;
 import java.io.OutputStream;
 import java.nio.channels.ClosedByInterruptException;
 import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.LinkedHashSet;
 import java.util.List;
 import java.util.Set;
 
@@ -132,21 +147,41 @@ public final class QueryCommand implements BlazeCommand {
     Set<Setting> settings = queryOptions.toSettings();
     boolean streamResults = QueryOutputUtils.shouldStreamResults(queryOptions, formatter);
     QueryEvalResult result;
+    List<String> universeScope = queryOptions.universeScope;
+    QueryExpression expr = null;
+    if (queryOptions.inferUniverseScope && universeScope.isEmpty() && streamResults) {
+      // Parsing only needs the query functions, so the universe can be inferred before the query
+      // environment is created.
+      try {
+        expr =
+            QueryExpression.parse(
+                query,
+                Iterables.concat(
+                    QueryEnvironment.DEFAULT_QUERY_FUNCTIONS, runtime.getQueryFunctions()));
+      } catch (QueryException e) {
+        env.getReporter()
+            .handle(Event.error(null, "Error while parsing '" + query + "': " + e.getMessage()));
+        return ExitCode.COMMAND_LINE_ERROR;
+      }
+      universeScope =
+          inferUniverseScope(expr, env.getRelativeWorkingDirectory().getPathString());
+    }
     AbstractBlazeQueryEnvironment<Target> queryEnv =
         newQueryEnvironment(
           env,
           queryOptions.keepGoing,
           !streamResults,
-          queryOptions.universeScope,
+          universeScope,
           queryOptions.loadingPhaseThreads,
           settings);
-    QueryExpression expr;
-    try {
-      expr = QueryExpression.parse(query, queryEnv);
-    } catch (QueryException e) {
-      env.getReporter()
-          .handle(Event.error(null, "Error while parsing '" + query + "': " + e.getMessage()));
-      return ExitCode.COMMAND_LINE_ERROR;
+    if (expr == null) {
+      try {
+        expr = QueryExpression.parse(query, queryEnv);
+      } catch (QueryException e) {
+        env.getReporter()
+            .handle(Event.error(null, "Error while parsing '" + query + "': " + e.getMessage()));
+        return ExitCode.COMMAND_LINE_ERROR;
+      }
     }
 
     try {
@@ -248,6 +283,119 @@ public final class QueryCommand implements BlazeCommand {
     return exitCode;
   }
 
+  /**
+   * Returns the universe scope to evaluate {@code expr} in: the universes of its rdeps calls,
+   * followed by the other target patterns it mentions. The latter are left out when they are
+   * already below a {@code //dir/...} universe, so that a plain {@code rdeps(//dir/..., x)} gets
+   * exactly its own universe, as if it was passed with --universe_scope.
+   */
+  private static ImmutableList<String> inferUniverseScope(QueryExpression expr, String offset) {
+    UniverseScopeCollector collector = new UniverseScopeCollector();
+    expr.accept(collector);
+    TargetPattern.Parser parser = new TargetPattern.Parser(offset);
+    List<TargetPattern> rdepsUniverses = new ArrayList<>();
+    for (String pattern : collector.rdepsUniversePatterns) {
+      try {
+        rdepsUniverses.add(parser.parse(pattern));
+      } catch (TargetParsingException e) {
+        // Reported when the query is evaluated.
+      }
+    }
+    Set<String> universeScope = new LinkedHashSet<>(collector.rdepsUniversePatterns);
+    for (String pattern : collector.otherPatterns) {
+      if (!isBelowAny(parser, pattern, rdepsUniverses)) {
+        universeScope.add(pattern);
+      }
+    }
+    return ImmutableList.copyOf(universeScope);
+  }
+
+  private static boolean isBelowAny(
+      TargetPattern.Parser parser, String pattern, List<TargetPattern> universes) {
+    TargetPattern targetPattern;
+    try {
+      targetPattern = parser.parse(pattern);
+    } catch (TargetParsingException e) {
+      return false;
+    }
+    for (TargetPattern universe : universes) {
+      if (universe.getType() != TargetPattern.Type.TARGETS_BELOW_DIRECTORY) {
+        continue;
+      }
+      switch (targetPattern.getType()) {
+        case SINGLE_TARGET:
+        case TARGETS_IN_PACKAGE:
+          if (universe.containsAllTransitiveSubdirectoriesForTBD(
+              targetPattern.getDirectoryForTargetOrTargetsInPackage())) {
+            return true;
+          }
+          break;
+        case TARGETS_BELOW_DIRECTORY:
+          if (universe.containsDirectoryOfTBDForTBD(targetPattern)) {
+            return true;
+          }
+          break;
+        default:
+          break;
+      }
+    }
+    return false;
+  }
+
+  /**
+   * Sorts the target patterns of a query expression into the universes of its rdeps calls and
+   * all others.
+   */
+  private static class UniverseScopeCollector implements QueryExpressionVisitor<Void> {
+    private final Set<String> rdepsUniversePatterns = new LinkedHashSet<>();
+    private final Set<String> otherPatterns = new LinkedHashSet<>();
+
+    @Override
+    public Void visit(TargetLiteral targetLiteral) {
+      targetLiteral.collectTargetPatterns(otherPatterns);
+      return null;
+    }
+
+    @Override
+    public Void visit(BinaryOperatorExpression binaryOperatorExpression) {
+      for (QueryExpression operand : binaryOperatorExpression.getOperands()) {
+        operand.accept(this);
+      }
+      return null;
+    }
+
+    @Override
+    public Void visit(FunctionExpression functionExpression) {
+      List<Argument> args = functionExpression.getArgs();
+      int firstArg = 0;
+      if (functionExpression.getFunction() instanceof RdepsFunction) {
+        args.get(0).getExpression().collectTargetPatterns(rdepsUniversePatterns);
+        firstArg = 1;
+      }
+      for (Argument arg : args.subList(firstArg, args.size())) {
+        if (arg.getType() == ArgumentType.EXPRESSION) {
+          arg.getExpression().accept(this);
+        }
+      }
+      return null;
+    }
+
+    @Override
+    public Void visit(LetExpression letExpression) {
+      letExpression.getVarExpr().accept(this);
+      letExpression.getBodyExpr().accept(this);
+      return null;
+    }
+
+    @Override
+    public Void visit(SetExpression setExpression) {
+      for (TargetLiteral word : setExpression.getWords()) {
+        word.accept(this);
+      }
+      return null;
+    }
+  }
+
   /**
    * When Blaze is used with --color=no or not in a tty a ansi characters filter is set so that
    * we don't print fancy colors in non-supporting terminal outputs. But query output, specifically
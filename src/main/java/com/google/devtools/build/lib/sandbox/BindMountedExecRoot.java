@@ -0,0 +1,169 @@
+// Copyright 2017 The Bazel Authors. All rights reserved.
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+// http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package com.google.devtools.build.lib.sandbox;
+
+import com.google.common.collect.ImmutableSet;
+import com.google.common.collect.ImmutableSortedMap;
+import com.google.common.io.Files;
+import com.google.devtools.build.lib.vfs.Dirent;
+import com.google.devtools.build.lib.vfs.FileSystemUtils;
+import com.google.devtools.build.lib.vfs.Path;
+import com.google.devtools.build.lib.vfs.PathFragment;
+import com.google.devtools.build.lib.vfs.Symlinks;
+import java.io.IOException;
+import java.util.Collection;
+import java.util.HashSet;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * Creates an execRoot for a Spawn that exposes the execRoot of the build through bind mounts,
+ * instead of creating a symlink per input like {@link SymlinkedExecRoot}. Only works with the
+ * Linux sandbox, which performs the mounts.
+ *
+ * <p>For every entry at the top level of the execRoot, an empty file or directory is created in the
+ * sandboxed execRoot, for the entry to be mounted upon read-only. The parent directories of the
+ * outputs are made writable inside the sandbox, so the Spawn writes its outputs in place and they
+ * need not be moved out afterwards. Setting up the sandbox thus takes time proportional to the
+ * number of top-level entries of the execRoot and of outputs, not to the number of inputs.
+ *
+ * <p>Unlike with {@link SymlinkedExecRoot}, the Spawn can read files that are not among its
+ * inputs, and can write into its output directories, as with the standalone strategy.
+ *
+ * <p>Only inputs that are found at their own paths in the execRoot are exposed by the mounts; use
+ * {@link #exposesInputs} to check that before using this class for a Spawn.
+ */
+final class BindMountedExecRoot implements SandboxExecRoot {
+
+  private final Path sandboxExecRoot;
+  private final Path execRoot;
+  private ImmutableSortedMap<Path, Path> bindMounts = ImmutableSortedMap.of();
+  private ImmutableSet<Path> outputDirs = ImmutableSet.of();
+
+  /**
+   * @param sandboxExecRoot the directory in which the Spawn runs
+   * @param execRoot the execRoot of the build, which is mounted into {@code sandboxExecRoot}
+   */
+  BindMountedExecRoot(Path sandboxExecRoot, Path execRoot) {
+    this.sandboxExecRoot = sandboxExecRoot;
+    this.execRoot = execRoot;
+  }
+
+  /**
+   * Returns whether mounting {@code execRoot} exposes all of {@code inputs} at their paths.
+   *
+   * <p>This is not the case for empty files that are to be created for the Spawn, nor for inputs
+   * that are mapped to a path where the execRoot has nothing, like the files of runfiles trees that
+   * were not created (e.g. with {@code --nobuild_runfile_links}), or where it has a stale entry
+   * from an earlier build. Only the inputs that are not mapped to their own paths in the execRoot
+   * are looked up in the file system: both paths must resolve to the same file.
+   */
+  static boolean exposesInputs(Path execRoot, Map<PathFragment, Path> inputs) {
+    for (Map.Entry<PathFragment, Path> input : inputs.entrySet()) {
+      if (input.getValue() == null) {
+        return false;
+      }
+      Path mounted = execRoot.getRelative(input.getKey());
+      if (input.getValue().equals(mounted)) {
+        continue;
+      }
+      try {
+        if (!mounted.resolveSymbolicLinks().equals(input.getValue().resolveSymbolicLinks())) {
+          return false;
+        }
+      } catch (IOException e) {
+        // Missing or dangling, so the Spawn would not find the input there.
+        return false;
+      }
+    }
+    return true;
+  }
+
+  @Override
+  public void createFileSystem(
+      Map<PathFragment, Path> inputs, Collection<PathFragment> outputs, Set<Path> writableDirs)
+      throws IOException {
+    if (sandboxExecRoot.exists(Symlinks.NOFOLLOW)) {
+      FileSystemUtils.deleteTree(sandboxExecRoot);
+    }
+    FileSystemUtils.createDirectoryAndParents(sandboxExecRoot);
+
+    // Directories that are to be written into must exist in the execRoot before it is listed, so
+    // that they are mounted as part of it.
+    Set<Path> createdDirs = new HashSet<>();
+    ImmutableSet.Builder<Path> outputDirs = ImmutableSet.builder();
+    for (PathFragment output : outputs) {
+      PathFragment outputDir = output.getParentDirectory();
+      FileSystemUtils.createDirectoryAndParentsWithCache(
+          createdDirs, execRoot.getRelative(outputDir));
+      outputDirs.add(sandboxExecRoot.getRelative(outputDir));
+    }
+    for (Path writableDir : writableDirs) {
+      if (writableDir.startsWith(sandboxExecRoot)) {
+        FileSystemUtils.createDirectoryAndParentsWithCache(
+            createdDirs, execRoot.getRelative(writableDir.relativeTo(sandboxExecRoot)));
+      }
+    }
+
+    ImmutableSortedMap.Builder<Path, Path> bindMounts = ImmutableSortedMap.naturalOrder();
+    for (Dirent dirent : execRoot.readdir(Symlinks.FOLLOW)) {
+      Path target = sandboxExecRoot.getChild(dirent.getName());
+      if (dirent.getType() == Dirent.Type.DIRECTORY) {
+        target.createDirectory();
+      } else if (dirent.getType() == Dirent.Type.FILE) {
+        FileSystemUtils.createEmptyFile(target);
+      } else {
+        // Dangling symlinks and special files cannot be mounted.
+        continue;
+      }
+      bindMounts.put(target, execRoot.getChild(dirent.getName()));
+    }
+    this.bindMounts = bindMounts.build();
+    this.outputDirs = outputDirs.build();
+  }
+
+  /**
+   * Returns the paths in the sandboxed execRoot to mount the entries of the execRoot upon, mapped
+   * to the entries. Valid after {@link #createFileSystem}.
+   */
+  ImmutableSortedMap<Path, Path> getBindMounts() {
+    return bindMounts;
+  }
+
+  /**
+   * Returns the directories in the sandboxed execRoot that the outputs are written to, which must
+   * be writable inside the sandbox. Valid after {@link #createFileSystem}.
+   */
+  ImmutableSet<Path> getOutputDirs() {
+    return outputDirs;
+  }
+
+  /**
+   * Moves the outputs that were not written in place to {@code execRoot}; that is, only outputs at
+   * the top level of the execRoot.
+   */
+  @Override
+  public void copyOutputs(Path execRoot, Collection<PathFragment> outputs) throws IOException {
+    for (PathFragment output : outputs) {
+      if (output.segmentCount() > 1) {
+        continue;
+      }
+      Path source = sandboxExecRoot.getRelative(output);
+      if (source.exists(Symlinks.NOFOLLOW)) {
+        Files.move(source.getPathFile(), execRoot.getRelative(output).getPathFile());
+      }
+    }
+  }
+}
@@ -21,6 +21,7 @@ import com.google.common.io.ByteStreams;
 import com.google.devtools.build.lib.runtime.CommandEnvironment;
 import com.google.devtools.build.lib.shell.Command;
 import com.google.devtools.build.lib.shell.CommandException;
+import com.google.devtools.build.lib.util.io.FileOutErr;
 import com.google.devtools.build.lib.vfs.Path;
 import java.io.BufferedWriter;
 import java.io.File;
@@ -91,6 +92,7 @@ final class DarwinSandboxRunner extends SandboxRunner {
       CommandEnvironment cmdEnv,
       List<String> arguments,
       Map<String, String> env,
+      FileOutErr outErr,
       int timeout,
       boolean allowNetwork,
       boolean useFakeHostname,
@@ -106,6 +108,13 @@ final class DarwinSandboxRunner extends SandboxRunner {
     return new Command(commandLineArgs.toArray(new String[0]), env, sandboxExecRoot.getPathFile());
   }
 
+  @Override
+  protected boolean writesOutErrFiles() {
+    // The files of the FileOutErr are not writable inside the sandbox, so the process-wrapper
+    // cannot open them.
+    return false;
+  }
+
   private void writeConfig(boolean allowNetwork) throws IOException {
     try (PrintWriter out =
         new PrintWriter(
@@ -28,12 +28,12 @@ import com.google.devtools.build.lib.exec.SpawnInputExpander;
 import com.google.devtools.build.lib.exec.apple.XCodeLocalEnvProvider;
 import com.google.devtools.build.lib.exec.local.LocalEnvProvider;
 import com.google.devtools.build.lib.runtime.CommandEnvironment;
+import com.google.devtools.build.lib.sandbox.SandboxDirectoryPool.SandboxDirectory;
 import com.google.devtools.build.lib.shell.Command;
 import com.google.devtools.build.lib.shell.CommandException;
 import com.google.devtools.build.lib.shell.CommandResult;
 import com.google.devtools.build.lib.util.OS;
 import com.google.devtools.build.lib.vfs.FileSystem;
-import com.google.devtools.build.lib.vfs.FileSystemUtils;
 import com.google.devtools.build.lib.vfs.Path;
 import com.google.devtools.build.lib.vfs.PathFragment;
 import java.io.IOException;
@@ -54,7 +54,6 @@ public class DarwinSandboxedStrategy extends SandboxStrategy {
   }
 
   private final Path execRoot;
-  private final boolean sandboxDebug;
   private final boolean verboseFailures;
   private final String productName;
   private final SpawnInputExpander spawnInputExpander;
@@ -71,6 +70,7 @@ public class DarwinSandboxedStrategy extends SandboxStrategy {
       CommandEnvironment cmdEnv,
       BuildRequest buildRequest,
       Path sandboxBase,
+      SandboxTreeDeleter treeDeleter,
       boolean verboseFailures,
       String productName,
       ImmutableSet<Path> alwaysWritableDirs) {
@@ -78,10 +78,10 @@ public class DarwinSandboxedStrategy extends SandboxStrategy {
         cmdEnv,
         buildRequest,
         sandboxBase,
+        treeDeleter,
         verboseFailures,
         buildRequest.getOptions(SandboxOptions.class));
     this.execRoot = cmdEnv.getExecRoot();
-    this.sandboxDebug = buildRequest.getOptions(SandboxOptions.class).sandboxDebug;
     this.verboseFailures = verboseFailures;
     this.productName = productName;
     this.alwaysWritableDirs = alwaysWritableDirs;
@@ -93,6 +93,7 @@ public class DarwinSandboxedStrategy extends SandboxStrategy {
       CommandEnvironment cmdEnv,
       BuildRequest buildRequest,
       Path sandboxBase,
+      SandboxTreeDeleter treeDeleter,
       boolean verboseFailures,
       String productName)
       throws IOException {
@@ -100,6 +101,7 @@ public class DarwinSandboxedStrategy extends SandboxStrategy {
         cmdEnv,
         buildRequest,
         sandboxBase,
+        treeDeleter,
         verboseFailures,
         productName,
         getAlwaysWritableDirs(cmdEnv.getDirectories().getFileSystem()));
@@ -171,8 +173,12 @@ public class DarwinSandboxedStrategy extends SandboxStrategy {
         .post(ActionStatusMessage.runningStrategy(spawn.getResourceOwner(), "darwin-sandbox"));
     SandboxHelpers.reportSubcommand(actionExecutionContext, spawn);
 
-    // Each invocation of "exec" gets its own sandbox.
-    Path sandboxPath = getSandboxRoot();
+    Map<PathFragment, Path> inputs =
+        SandboxHelpers.getInputFiles(spawnInputExpander, execRoot, spawn, actionExecutionContext);
+
+    // Each invocation of "exec" gets its own sandbox, possibly left behind by an earlier one.
+    SandboxDirectory sandboxDirectory = acquireSandboxDirectory(spawn, inputs);
+    Path sandboxPath = sandboxDirectory.getPath();
     Path sandboxExecRoot = sandboxPath.getRelative("execroot").getRelative(execRoot.getBaseName());
 
     Map<String, String> spawnEnvironment =
@@ -182,13 +188,10 @@ public class DarwinSandboxedStrategy extends SandboxStrategy {
     ImmutableSet<Path> extraWritableDirs = getWritableDirs(sandboxExecRoot, spawnEnvironment);
     writableDirs.addAll(extraWritableDirs);
 
-    SymlinkedExecRoot symlinkedExecRoot = new SymlinkedExecRoot(sandboxExecRoot);
+    SymlinkedExecRoot symlinkedExecRoot =
+        new SymlinkedExecRoot(sandboxExecRoot, sandboxDirectory.getInputs());
     ImmutableSet<PathFragment> outputs = SandboxHelpers.getOutputFiles(spawn);
-    symlinkedExecRoot.createFileSystem(
-        SandboxHelpers.getInputFiles(
-            spawnInputExpander, this.execRoot, spawn, actionExecutionContext),
-        outputs,
-        writableDirs);
+    createSandboxExecRoot(spawn, symlinkedExecRoot, inputs, outputs, writableDirs);
 
     // This will add the resolved versions of the spawn-dependant writable paths (e.g. its execroot
     // or TEST_TMPDIR) to the set, now that they have been created by the SymlinkedExecRoot.
@@ -199,6 +202,7 @@ public class DarwinSandboxedStrategy extends SandboxStrategy {
     DarwinSandboxRunner runner =
         new DarwinSandboxRunner(
             sandboxPath, sandboxExecRoot, writableDirs, getInaccessiblePaths(), verboseFailures);
+    boolean completed = false;
     try {
       runSpawn(
           spawn,
@@ -208,20 +212,9 @@ public class DarwinSandboxedStrategy extends SandboxStrategy {
           outputs,
           runner,
           writeOutputFiles);
+      completed = true;
     } finally {
-      if (!sandboxDebug) {
-        try {
-          FileSystemUtils.deleteTree(sandboxPath);
-        } catch (IOException e) {
-          // This usually means that the Spawn itself exited, but still has children running that
-          // we couldn't wait for, which now block deletion of the sandbox directory. On Linux this
-          // should never happen, as we use PID namespaces and where they are not available the
-          // subreaper feature to make sure all children have been reliably killed before returning,
-          // but on other OS this might not always work. The SandboxModule will try to delete them
-          // again when the build is all done, at which point it hopefully works, so let's just go
-          // on here.
-        }
-      }
+      releaseSandboxDirectory(spawn, sandboxPath, inputs, completed);
     }
   }
 }
@@ -20,6 +20,7 @@ import com.google.devtools.build.lib.runtime.CommandEnvironment;
 import com.google.devtools.build.lib.shell.Command;
 import com.google.devtools.build.lib.shell.CommandException;
 import com.google.devtools.build.lib.util.OsUtils;
+import com.google.devtools.build.lib.util.io.FileOutErr;
 import com.google.devtools.build.lib.vfs.Path;
 import com.google.devtools.build.lib.vfs.PathFragment;
 import java.io.File;
@@ -101,6 +102,7 @@ final class LinuxSandboxRunner extends SandboxRunner {
       CommandEnvironment cmdEnv,
       List<String> spawnArguments,
       Map<String, String> env,
+      FileOutErr outErr,
       int timeout,
       boolean allowNetwork,
       boolean useFakeHostname,
@@ -109,6 +111,12 @@ final class LinuxSandboxRunner extends SandboxRunner {
     List<String> commandLineArgs = new ArrayList<>();
     commandLineArgs.add(getLinuxSandbox(cmdEnv).getPathString());
 
+    // Write the output of the sandbox and the spawn to the files of the FileOutErr.
+    commandLineArgs.add("-l");
+    commandLineArgs.add(outErr.getOutputPath().getPathString());
+    commandLineArgs.add("-L");
+    commandLineArgs.add(outErr.getErrorPath().getPathString());
+
     if (sandboxDebug) {
       commandLineArgs.add("-D");
     }
@@ -28,6 +28,7 @@ import com.google.devtools.build.lib.analysis.BlazeDirectories;
 import com.google.devtools.build.lib.buildtool.BuildRequest;
 import com.google.devtools.build.lib.exec.SpawnInputExpander;
 import com.google.devtools.build.lib.runtime.CommandEnvironment;
+import com.google.devtools.build.lib.sandbox.SandboxDirectoryPool.SandboxDirectory;
 import com.google.devtools.build.lib.util.OS;
 import com.google.devtools.build.lib.vfs.FileSystem;
 import com.google.devtools.build.lib.vfs.FileSystemUtils;
@@ -63,6 +64,7 @@ public class LinuxSandboxedStrategy extends SandboxStrategy {
       CommandEnvironment cmdEnv,
       BuildRequest buildRequest,
       Path sandboxBase,
+      SandboxTreeDeleter treeDeleter,
       boolean verboseFailures,
       Path inaccessibleHelperFile,
       Path inaccessibleHelperDir) {
@@ -70,6 +72,7 @@ public class LinuxSandboxedStrategy extends SandboxStrategy {
         cmdEnv,
         buildRequest,
         sandboxBase,
+        treeDeleter,
         verboseFailures,
         buildRequest.getOptions(SandboxOptions.class));
     this.sandboxOptions = buildRequest.getOptions(SandboxOptions.class);
@@ -85,6 +88,7 @@ public class LinuxSandboxedStrategy extends SandboxStrategy {
       CommandEnvironment cmdEnv,
       BuildRequest buildRequest,
       Path sandboxBase,
+      SandboxTreeDeleter treeDeleter,
       boolean verboseFailures)
       throws IOException {
     Path inaccessibleHelperFile = sandboxBase.getRelative("inaccessibleHelperFile");
@@ -103,6 +107,7 @@ public class LinuxSandboxedStrategy extends SandboxStrategy {
         cmdEnv,
         buildRequest,
         sandboxBase,
+        treeDeleter,
         verboseFailures,
         inaccessibleHelperFile,
         inaccessibleHelperDir);
@@ -119,50 +124,62 @@ public class LinuxSandboxedStrategy extends SandboxStrategy {
         .post(ActionStatusMessage.runningStrategy(spawn.getResourceOwner(), "linux-sandbox"));
     SandboxHelpers.reportSubcommand(actionExecutionContext, spawn);
 
-    // Each invocation of "exec" gets its own sandbox.
-    Path sandboxPath = getSandboxRoot();
+    Map<PathFragment, Path> inputs =
+        SandboxHelpers.getInputFiles(spawnInputExpander, execRoot, spawn, actionExecutionContext);
+
+    // Each invocation of "exec" gets its own sandbox, possibly left behind by an earlier one.
+    SandboxDirectory sandboxDirectory = acquireSandboxDirectory(spawn, inputs);
+    Path sandboxPath = sandboxDirectory.getPath();
     Path sandboxExecRoot = sandboxPath.getRelative("execroot").getRelative(execRoot.getBaseName());
 
     Set<Path> writableDirs = getWritableDirs(sandboxExecRoot, spawn.getEnvironment());
-    SymlinkedExecRoot symlinkedExecRoot = new SymlinkedExecRoot(sandboxExecRoot);
     ImmutableSet<PathFragment> outputs = SandboxHelpers.getOutputFiles(spawn);
-    symlinkedExecRoot.createFileSystem(
-        SandboxHelpers.getInputFiles(spawnInputExpander, execRoot, spawn, actionExecutionContext),
-        outputs,
-        writableDirs);
+    SandboxExecRoot spawnExecRoot;
+    SortedMap<Path, Path> bindMounts = Maps.newTreeMap();
+    // Inputs that the execRoot doesn't have, like empty files and runfiles trees that were not
+    // created, need symlinks.
+    if (sandboxOptions.sandboxBindMountExecRoot
+        && BindMountedExecRoot.exposesInputs(execRoot, inputs)) {
+      BindMountedExecRoot bindMountedExecRoot = new BindMountedExecRoot(sandboxExecRoot, execRoot);
+      createSandboxExecRoot(spawn, bindMountedExecRoot, inputs, outputs, writableDirs);
+      bindMounts.putAll(bindMountedExecRoot.getBindMounts());
+      writableDirs =
+          ImmutableSet.<Path>builder()
+              .addAll(writableDirs)
+              .addAll(bindMountedExecRoot.getOutputDirs())
+              .build();
+      spawnExecRoot = bindMountedExecRoot;
+    } else {
+      SymlinkedExecRoot symlinkedExecRoot =
+          new SymlinkedExecRoot(sandboxExecRoot, sandboxDirectory.getInputs());
+      createSandboxExecRoot(spawn, symlinkedExecRoot, inputs, outputs, writableDirs);
+      spawnExecRoot = symlinkedExecRoot;
+    }
+    // The map is sorted, so the entries of the execRoot are mounted before any mounts below them.
+    bindMounts.putAll(getReadOnlyBindMounts(blazeDirs, sandboxExecRoot));
 
     SandboxRunner runner =
         new LinuxSandboxRunner(
             sandboxExecRoot,
             writableDirs,
             getTmpfsPaths(),
-            getReadOnlyBindMounts(blazeDirs, sandboxExecRoot),
+            bindMounts,
             verboseFailures,
             sandboxOptions.sandboxDebug);
 
+    boolean completed = false;
     try {
       runSpawn(
           spawn,
           actionExecutionContext,
           spawn.getEnvironment(),
-          symlinkedExecRoot,
+          spawnExecRoot,
           outputs,
           runner,
           writeOutputFiles);
+      completed = true;
     } finally {
-      if (!sandboxOptions.sandboxDebug) {
-        try {
-          FileSystemUtils.deleteTree(sandboxPath);
-        } catch (IOException e) {
-          // This usually means that the Spawn itself exited, but still has children running that
-          // we couldn't wait for, which now block deletion of the sandbox directory. On Linux this
-          // should never happen, as we use PID namespaces and where they are not available the
-          // subreaper feature to make sure all children have been reliably killed before returning,
-          // but on other OS this might not always work. The SandboxModule will try to delete them
-          // again when the build is all done, at which point it hopefully works, so let's just go
-          // on here.
-        }
-      }
+      releaseSandboxDirectory(spawn, sandboxPath, inputs, completed);
     }
   }
 
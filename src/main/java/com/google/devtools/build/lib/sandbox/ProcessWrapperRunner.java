@@ -17,6 +17,7 @@ package com.google.devtools.build.lib.sandbox;
 import com.google.devtools.build.lib.runtime.CommandEnvironment;
 import com.google.devtools.build.lib.shell.Command;
 import com.google.devtools.build.lib.util.OsUtils;
+import com.google.devtools.build.lib.util.io.FileOutErr;
 import com.google.devtools.build.lib.vfs.Path;
 import com.google.devtools.build.lib.vfs.PathFragment;
 import java.util.ArrayList;
@@ -54,17 +55,20 @@ final class ProcessWrapperRunner extends SandboxRunner {
       CommandEnvironment cmdEnv,
       List<String> spawnArguments,
       Map<String, String> env,
+      FileOutErr outErr,
       int timeout,
       boolean allowNetwork,
       boolean useFakeHostname,
       boolean useFakeUsername) {
     List<String> commandLineArgs = getCommandLine(cmdEnv, spawnArguments, timeout);
+    commandLineArgs.add(1, "--stdout=" + outErr.getOutputPath().getPathString());
+    commandLineArgs.add(2, "--stderr=" + outErr.getErrorPath().getPathString());
     return new Command(commandLineArgs.toArray(new String[0]), env, sandboxExecRoot.getPathFile());
   }
 
   static List<String> getCommandLine(
       CommandEnvironment cmdEnv, List<String> spawnArguments, int timeout) {
-    List<String> commandLineArgs = new ArrayList<>(5 + spawnArguments.size());
+    List<String> commandLineArgs = new ArrayList<>(7 + spawnArguments.size());
     commandLineArgs.add(getProcessWrapper(cmdEnv).getPathString());
     commandLineArgs.add("--timeout=" + timeout);
     commandLineArgs.add("--kill_delay=5"); /* give some time to print stacktraces and whatnot. */
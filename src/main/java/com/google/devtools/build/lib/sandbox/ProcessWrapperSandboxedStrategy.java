@@ -26,8 +26,8 @@ import com.google.devtools.build.lib.exec.SpawnInputExpander;
 import com.google.devtools.build.lib.exec.apple.XCodeLocalEnvProvider;
 import com.google.devtools.build.lib.exec.local.LocalEnvProvider;
 import com.google.devtools.build.lib.runtime.CommandEnvironment;
+import com.google.devtools.build.lib.sandbox.SandboxDirectoryPool.SandboxDirectory;
 import com.google.devtools.build.lib.util.OS;
-import com.google.devtools.build.lib.vfs.FileSystemUtils;
 import com.google.devtools.build.lib.vfs.Path;
 import com.google.devtools.build.lib.vfs.PathFragment;
 import java.io.IOException;
@@ -57,12 +57,14 @@ public class ProcessWrapperSandboxedStrategy extends SandboxStrategy {
       CommandEnvironment cmdEnv,
       BuildRequest buildRequest,
       Path sandboxBase,
+      SandboxTreeDeleter treeDeleter,
       boolean verboseFailures,
       String productName) {
     super(
         cmdEnv,
         buildRequest,
         sandboxBase,
+        treeDeleter,
         verboseFailures,
         buildRequest.getOptions(SandboxOptions.class));
     this.sandboxOptions = buildRequest.getOptions(SandboxOptions.class);
@@ -88,23 +90,25 @@ public class ProcessWrapperSandboxedStrategy extends SandboxStrategy {
                 spawn.getResourceOwner(), "processwrapper-sandbox"));
     SandboxHelpers.reportSubcommand(actionExecutionContext, spawn);
 
-    // Each invocation of "exec" gets its own sandbox.
-    Path sandboxPath = getSandboxRoot();
+    Map<PathFragment, Path> inputs =
+        SandboxHelpers.getInputFiles(spawnInputExpander, execRoot, spawn, actionExecutionContext);
+
+    // Each invocation of "exec" gets its own sandbox, possibly left behind by an earlier one.
+    SandboxDirectory sandboxDirectory = acquireSandboxDirectory(spawn, inputs);
+    Path sandboxPath = sandboxDirectory.getPath();
     Path sandboxExecRoot = sandboxPath.getRelative("execroot").getRelative(execRoot.getBaseName());
 
     Map<String, String> spawnEnvironment =
         localEnvProvider.rewriteLocalEnv(spawn.getEnvironment(), execRoot, productName);
 
     Set<Path> writableDirs = getWritableDirs(sandboxExecRoot, spawn.getEnvironment());
-    SymlinkedExecRoot symlinkedExecRoot = new SymlinkedExecRoot(sandboxExecRoot);
+    SymlinkedExecRoot symlinkedExecRoot =
+        new SymlinkedExecRoot(sandboxExecRoot, sandboxDirectory.getInputs());
     ImmutableSet<PathFragment> outputs = SandboxHelpers.getOutputFiles(spawn);
-    symlinkedExecRoot.createFileSystem(
-        SandboxHelpers.getInputFiles(
-            spawnInputExpander, this.execRoot, spawn, actionExecutionContext),
-        outputs,
-        writableDirs);
+    createSandboxExecRoot(spawn, symlinkedExecRoot, inputs, outputs, writableDirs);
 
     SandboxRunner runner = new ProcessWrapperRunner(sandboxExecRoot, verboseFailures);
+    boolean completed = false;
     try {
       runSpawn(
           spawn,
@@ -114,20 +118,9 @@ public class ProcessWrapperSandboxedStrategy extends SandboxStrategy {
           outputs,
           runner,
           writeOutputFiles);
+      completed = true;
     } finally {
-      if (!sandboxOptions.sandboxDebug) {
-        try {
-          FileSystemUtils.deleteTree(sandboxPath);
-        } catch (IOException e) {
-          // This usually means that the Spawn itself exited, but still has children running that
-          // we couldn't wait for, which now block deletion of the sandbox directory. On Linux this
-          // should never happen, as we use PID namespaces and where they are not available the
-          // subreaper feature to make sure all children have been reliably killed before returning,
-          // but on other OS this might not always work. The SandboxModule will try to delete them
-          // again when the build is all done, at which point it hopefully works, so let's just go
-          // on here.
-        }
-      }
+      releaseSandboxDirectory(spawn, sandboxPath, inputs, completed);
     }
   }
 }
@@ -34,7 +34,11 @@ final class SandboxActionContextProvider extends ActionContextProvider {
   }
 
   public static SandboxActionContextProvider create(
-      CommandEnvironment cmdEnv, BuildRequest buildRequest, Path sandboxBase) throws IOException {
+      CommandEnvironment cmdEnv,
+      BuildRequest buildRequest,
+      Path sandboxBase,
+      SandboxTreeDeleter treeDeleter)
+      throws IOException {
     ImmutableList.Builder<ActionContext> contexts = ImmutableList.builder();
 
     boolean verboseFailures = buildRequest.getOptions(ExecutionOptions.class).verboseFailures;
@@ -45,20 +49,21 @@ final class SandboxActionContextProvider extends ActionContextProvider {
     if (ProcessWrapperSandboxedStrategy.isSupported(cmdEnv)) {
       contexts.add(
           new ProcessWrapperSandboxedStrategy(
-              cmdEnv, buildRequest, sandboxBase, verboseFailures, productName));
+              cmdEnv, buildRequest, sandboxBase, treeDeleter, verboseFailures, productName));
     }
 
     // This is the preferred sandboxing strategy on Linux.
     if (LinuxSandboxedStrategy.isSupported(cmdEnv)) {
       contexts.add(
-          LinuxSandboxedStrategy.create(cmdEnv, buildRequest, sandboxBase, verboseFailures));
+          LinuxSandboxedStrategy.create(
+              cmdEnv, buildRequest, sandboxBase, treeDeleter, verboseFailures));
     }
 
     // This is the preferred sandboxing strategy on macOS.
     if (DarwinSandboxedStrategy.isSupported(cmdEnv)) {
       contexts.add(
           DarwinSandboxedStrategy.create(
-              cmdEnv, buildRequest, sandboxBase, verboseFailures, productName));
+              cmdEnv, buildRequest, sandboxBase, treeDeleter, verboseFailures, productName));
     }
 
     return new SandboxActionContextProvider(contexts.build());
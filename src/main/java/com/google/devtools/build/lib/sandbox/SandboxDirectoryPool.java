@@ -0,0 +1,108 @@
+// Copyright 2017 The Bazel Authors. All rights reserved.
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+// http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package com.google.devtools.build.lib.sandbox;
+
+import com.google.common.collect.ArrayListMultimap;
+import com.google.common.collect.ListMultimap;
+import com.google.devtools.build.lib.vfs.Path;
+import com.google.devtools.build.lib.vfs.PathFragment;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import javax.annotation.Nullable;
+
+/**
+ * Sandbox directories of finished spawns, kept to be reused by later spawns.
+ *
+ * <p>Populating the execRoot of a spawn with many inputs (e.g. a C++ compile with thousands of
+ * headers) costs one symlink per input. Spawns with the same mnemonic usually share most of their
+ * inputs, so starting from the directory of an earlier one only costs the symlinks that differ; see
+ * {@link SymlinkedExecRoot}. Of the idle directories for a mnemonic, the one whose inputs overlap
+ * most with those of the new spawn is used.
+ *
+ * <p>Directories are only ever used by one spawn at a time, so the pool never holds more of them
+ * than spawns ran concurrently. Thread-safe.
+ */
+final class SandboxDirectoryPool {
+
+  /** A sandbox directory, and the inputs its execRoot was last populated with. */
+  static final class SandboxDirectory {
+    private final Path path;
+    private final Map<PathFragment, Path> inputs;
+
+    SandboxDirectory(Path path, Map<PathFragment, Path> inputs) {
+      this.path = path;
+      this.inputs = inputs;
+    }
+
+    Path getPath() {
+      return path;
+    }
+
+    Map<PathFragment, Path> getInputs() {
+      return inputs;
+    }
+  }
+
+  /**
+   * How many of the most recently used idle directories are compared against the inputs of a new
+   * spawn. Comparing costs a hash lookup per input for each candidate.
+   */
+  private static final int MAX_CANDIDATES = 4;
+
+  private final ListMultimap<String, SandboxDirectory> idleDirectories =
+      ArrayListMultimap.create();
+
+  /**
+   * Removes and returns the idle directory for spawns with the given mnemonic whose inputs overlap
+   * most with {@code inputs}, or returns null if there is none.
+   */
+  @Nullable
+  synchronized SandboxDirectory take(String mnemonic, Map<PathFragment, Path> inputs) {
+    List<SandboxDirectory> candidates = idleDirectories.get(mnemonic);
+    if (candidates.isEmpty()) {
+      return null;
+    }
+    int best = candidates.size() - 1;
+    int bestOverlap = -1;
+    for (int i = candidates.size() - 1; i >= Math.max(0, candidates.size() - MAX_CANDIDATES); i--) {
+      int overlap = overlap(inputs, candidates.get(i).getInputs());
+      if (overlap > bestOverlap) {
+        best = i;
+        bestOverlap = overlap;
+      }
+    }
+    return candidates.remove(best);
+  }
+
+  /** Makes a directory available for reuse by a later spawn with the given mnemonic. */
+  synchronized void put(String mnemonic, SandboxDirectory directory) {
+    idleDirectories.put(mnemonic, directory);
+  }
+
+  /** Returns the number of inputs that map to the same file in both {@code a} and {@code b}. */
+  private static int overlap(Map<PathFragment, Path> a, Map<PathFragment, Path> b) {
+    if (a.size() > b.size()) {
+      return overlap(b, a);
+    }
+    int overlap = 0;
+    for (Map.Entry<PathFragment, Path> entry : a.entrySet()) {
+      if (entry.getValue() != null && Objects.equals(entry.getValue(), b.get(entry.getKey()))) {
+        overlap++;
+      }
+    }
+    return overlap;
+  }
+}
@@ -32,8 +32,15 @@ import java.io.IOException;
  * This module provides the Sandbox spawn strategy.
  */
 public final class SandboxModule extends BlazeModule {
+  /**
+   * How many sandbox directories may be waiting for background deletion before actions delete
+   * their own.
+   */
+  private static final int MAX_TREE_DELETE_BACKLOG = 1000;
+
   private Path sandboxBase;
   private boolean shouldCleanupSandboxBase;
+  private SandboxTreeDeleter treeDeleter;
 
   @Override
   public Iterable<Class<? extends OptionsBase>> getCommandOptions(Command command) {
@@ -62,10 +69,16 @@ public final class SandboxModule extends BlazeModule {
     // out the contents of the generated sandbox directories.
     shouldCleanupSandboxBase = !sandboxOptions.sandboxDebug;
 
+    treeDeleter =
+        new SandboxTreeDeleter(
+            sandboxBase.getRelative("_trash"),
+            sandboxOptions.sandboxAsyncTreeDeleteThreads,
+            MAX_TREE_DELETE_BACKLOG);
+
     try {
       FileSystemUtils.createDirectoryAndParents(sandboxBase);
       builder.addActionContextProvider(
-          SandboxActionContextProvider.create(cmdEnv, request, sandboxBase));
+          SandboxActionContextProvider.create(cmdEnv, request, sandboxBase, treeDeleter));
     } catch (IOException e) {
       throw new IllegalStateException(e);
     }
@@ -76,6 +89,12 @@ public final class SandboxModule extends BlazeModule {
   public void afterCommand() {
     super.afterCommand();
 
+    if (treeDeleter != null) {
+      // Must not race with the deletion of the sandbox base below.
+      treeDeleter.shutdown();
+      treeDeleter = null;
+    }
+
     if (sandboxBase != null) {
       if (shouldCleanupSandboxBase) {
         try {
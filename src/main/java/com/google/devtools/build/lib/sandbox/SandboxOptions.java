@@ -105,6 +105,48 @@ public class SandboxOptions extends OptionsBase {
   )
   public String sandboxBase;
 
+  @Option(
+    name = "experimental_sandbox_bind_mount_execroot",
+    defaultValue = "false",
+    category = "strategy",
+    documentationCategory = OptionDocumentationCategory.UNCATEGORIZED,
+    effectTags = {OptionEffectTag.UNKNOWN},
+    help =
+        "With the Linux sandbox, mount the execution root into the sandbox read-only instead of "
+            + "creating a symlink for each input, and let actions write their outputs in place. "
+            + "This makes sandbox setup independent of the number of inputs, but actions can see "
+            + "files that are not among their inputs. Actions with inputs that are not in the "
+            + "execution root, like empty files or runfiles trees that were not created, still get "
+            + "a symlink for each input."
+  )
+  public boolean sandboxBindMountExecRoot;
+
+  @Option(
+    name = "experimental_sandbox_async_tree_delete_threads",
+    defaultValue = "0",
+    category = "strategy",
+    documentationCategory = OptionDocumentationCategory.UNCATEGORIZED,
+    effectTags = {OptionEffectTag.UNKNOWN},
+    help =
+        "If greater than 0, the sandbox directories of finished actions are moved aside and "
+            + "deleted by this many background threads, instead of by the action itself. This lets "
+            + "actions release their local resources sooner when their sandboxes are large."
+  )
+  public int sandboxAsyncTreeDeleteThreads;
+
+  @Option(
+    name = "experimental_reuse_sandbox_directories",
+    defaultValue = "false",
+    category = "strategy",
+    documentationCategory = OptionDocumentationCategory.UNCATEGORIZED,
+    effectTags = {OptionEffectTag.UNKNOWN},
+    help =
+        "Keep the sandbox directories of finished actions and reuse them for later actions with "
+            + "the same mnemonic, only updating the input symlinks that differ. This can save a "
+            + "lot of time for actions with many inputs, like C++ compiles with many headers."
+  )
+  public boolean reuseSandboxDirectories;
+
   @Option(
     name = "sandbox_fake_hostname",
     defaultValue = "false",
@@ -23,7 +23,8 @@ import com.google.devtools.build.lib.shell.CommandException;
 import com.google.devtools.build.lib.shell.KillableObserver;
 import com.google.devtools.build.lib.shell.TerminationStatus;
 import com.google.devtools.build.lib.util.CommandFailureUtils;
-import com.google.devtools.build.lib.util.io.OutErr;
+import com.google.devtools.build.lib.util.io.FileOutErr;
+import java.io.File;
 import java.io.IOException;
 import java.util.Arrays;
 import java.util.List;
@@ -47,7 +48,7 @@ abstract class SandboxRunner {
    * @param cmdEnv - the current command environment.
    * @param arguments - arguments of spawn to run inside the sandbox.
    * @param environment - environment variables to pass to the spawn.
-   * @param outErr - error output to capture sandbox's and command's stderr.
+   * @param outErr - the files to write the output of the sandbox and the command to.
    * @param timeout - after how many seconds should the process be killed.
    * @param allowNetwork - whether networking should be allowed for the process.
    * @param sandboxDebug - whether debugging message should be printed.
@@ -58,7 +59,7 @@ abstract class SandboxRunner {
       CommandEnvironment cmdEnv,
       List<String> arguments,
       Map<String, String> environment,
-      OutErr outErr,
+      FileOutErr outErr,
       int timeout,
       boolean allowNetwork,
       boolean sandboxDebug,
@@ -72,6 +73,7 @@ abstract class SandboxRunner {
               cmdEnv,
               arguments,
               environment,
+              outErr,
               timeout,
               allowNetwork,
               useFakeHostname,
@@ -82,11 +84,19 @@ abstract class SandboxRunner {
 
     TerminationStatus status = null;
     try {
+      // The output goes to files rather than through pipes, which would each need a thread to
+      // read them.
+      File stdout = null;
+      File stderr = null;
+      if (!writesOutErrFiles()) {
+        stdout = outErr.getOutputPath().getPathFile();
+        stderr = outErr.getErrorPath().getPathFile();
+      }
       cmd.execute(
           /* stdin */ new byte[] {},
           getCommandObserver(timeout),
-          outErr.getOutputStream(),
-          outErr.getErrorStream(),
+          stdout,
+          stderr,
           /* killSubprocessOnInterrupt */ true);
     } catch (CommandException e) {
       boolean timedOut = false;
@@ -126,6 +136,7 @@ abstract class SandboxRunner {
    * @param cmdEnv - the current command environment.
    * @param arguments - arguments of spawn to run inside the sandbox.
    * @param environment - environment variables to pass to the spawn.
+   * @param outErr - the files to write the output to, if {@link #writesOutErrFiles}.
    * @param timeout - after how many seconds should the process be killed.
    * @param allowNetwork - whether networking should be allowed for the process.
    * @param useFakeHostname - whether the hostname should be set to 'localhost' inside the sandbox.
@@ -135,12 +146,22 @@ abstract class SandboxRunner {
       CommandEnvironment cmdEnv,
       List<String> arguments,
       Map<String, String> environment,
+      FileOutErr outErr,
       int timeout,
       boolean allowNetwork,
       boolean useFakeHostname,
       boolean useFakeUsername)
       throws IOException;
 
+  /**
+   * Returns whether the command returned by {@link #getCommand} opens the files of the {@link
+   * FileOutErr} and writes its output there itself. Otherwise, the {@link #run} method redirects
+   * the output of the command to those files.
+   */
+  protected boolean writesOutErrFiles() {
+    return true;
+  }
+
   /**
    * Returns a {@link KillableObserver} that the {@link #run} method will use when executing the
    * command returned by {@link #getCommand}.
@@ -14,6 +14,7 @@
 
 package com.google.devtools.build.lib.sandbox;
 
+import com.google.common.collect.ImmutableMap;
 import com.google.common.collect.ImmutableSet;
 import com.google.common.eventbus.EventBus;
 import com.google.devtools.build.lib.actions.ActionExecutionContext;
@@ -30,8 +31,11 @@ import com.google.devtools.build.lib.actions.UserExecException;
 import com.google.devtools.build.lib.buildtool.BuildRequest;
 import com.google.devtools.build.lib.events.Event;
 import com.google.devtools.build.lib.events.EventHandler;
+import com.google.devtools.build.lib.profiler.AutoProfiler;
+import com.google.devtools.build.lib.profiler.ProfilerTask;
 import com.google.devtools.build.lib.runtime.CommandEnvironment;
-import com.google.devtools.build.lib.util.io.OutErr;
+import com.google.devtools.build.lib.sandbox.SandboxDirectoryPool.SandboxDirectory;
+import com.google.devtools.build.lib.util.io.FileOutErr;
 import com.google.devtools.build.lib.vfs.FileSystem;
 import com.google.devtools.build.lib.vfs.Path;
 import com.google.devtools.build.lib.vfs.PathFragment;
@@ -50,17 +54,21 @@ abstract class SandboxStrategy implements SandboxedSpawnActionContext {
   private final boolean verboseFailures;
   private final SandboxOptions sandboxOptions;
   private final ImmutableSet<Path> inaccessiblePaths;
+  private final SandboxDirectoryPool directoryPool;
+  private final SandboxTreeDeleter treeDeleter;
 
   public SandboxStrategy(
       CommandEnvironment cmdEnv,
       BuildRequest buildRequest,
       Path sandboxBase,
+      SandboxTreeDeleter treeDeleter,
       boolean verboseFailures,
       SandboxOptions sandboxOptions) {
     this.cmdEnv = cmdEnv;
     this.buildRequest = buildRequest;
     this.execRoot = cmdEnv.getExecRoot();
     this.sandboxBase = sandboxBase;
+    this.treeDeleter = treeDeleter;
     this.verboseFailures = verboseFailures;
     this.sandboxOptions = sandboxOptions;
 
@@ -77,6 +85,12 @@ abstract class SandboxStrategy implements SandboxedSpawnActionContext {
       }
     }
     this.inaccessiblePaths = inaccessiblePaths.build();
+    // Reused directories are cleaned before each spawn, which would destroy the state that
+    // --sandbox_debug wants to keep around.
+    this.directoryPool =
+        sandboxOptions.reuseSandboxDirectories && !sandboxOptions.sandboxDebug
+            ? new SandboxDirectoryPool()
+            : null;
   }
 
   /** Executes the given {@code spawn}. */
@@ -126,7 +140,7 @@ abstract class SandboxStrategy implements SandboxedSpawnActionContext {
       throws ExecException, InterruptedException {
     EventHandler eventHandler = actionExecutionContext.getEventHandler();
     ExecException execException = null;
-    OutErr outErr = actionExecutionContext.getFileOutErr();
+    FileOutErr outErr = actionExecutionContext.getFileOutErr();
     try {
       runner.run(
           cmdEnv,
@@ -183,6 +197,70 @@ abstract class SandboxStrategy implements SandboxedSpawnActionContext {
             .toString());
   }
 
+  /**
+   * Returns the sandbox directory to be used for a single action with the given inputs: with
+   * --experimental_reuse_sandbox_directories, the idle directory of an earlier action with the same
+   * mnemonic and the most inputs in common, otherwise a new one from {@link #getSandboxRoot}.
+   */
+  protected SandboxDirectory acquireSandboxDirectory(Spawn spawn, Map<PathFragment, Path> inputs)
+      throws IOException {
+    if (directoryPool != null) {
+      SandboxDirectory directory = directoryPool.take(spawn.getMnemonic(), inputs);
+      if (directory != null) {
+        return directory;
+      }
+    }
+    return new SandboxDirectory(getSandboxRoot(), ImmutableMap.<PathFragment, Path>of());
+  }
+
+  /**
+   * Creates the execRoot of a sandbox directory returned by {@link #acquireSandboxDirectory},
+   * recording the time it takes in the profile.
+   */
+  protected void createSandboxExecRoot(
+      Spawn spawn,
+      SandboxExecRoot sandboxExecRoot,
+      Map<PathFragment, Path> inputs,
+      Set<PathFragment> outputs,
+      Set<Path> writableDirs)
+      throws IOException {
+    try (AutoProfiler p =
+        AutoProfiler.profiled(spawn.getResourceOwner(), ProfilerTask.SANDBOX_SETUP)) {
+      sandboxExecRoot.createFileSystem(inputs, outputs, writableDirs);
+    }
+  }
+
+  /**
+   * Releases a sandbox directory after its action ran. The directory is kept for reuse only if the
+   * action completed; after a failure or interruption it may still be in use by leftover
+   * processes, so it is deleted like it would be without reuse. Deletion may continue in the
+   * background; see {@link SandboxTreeDeleter}.
+   *
+   * @param inputs the inputs the execRoot of the directory was populated with
+   * @param completed whether the action ran to completion
+   */
+  protected void releaseSandboxDirectory(
+      Spawn spawn, Path sandboxPath, Map<PathFragment, Path> inputs, boolean completed) {
+    if (sandboxOptions.sandboxDebug) {
+      return;
+    }
+    if (directoryPool != null && completed) {
+      directoryPool.put(spawn.getMnemonic(), new SandboxDirectory(sandboxPath, inputs));
+      return;
+    }
+    try {
+      treeDeleter.deleteTree(sandboxPath);
+    } catch (IOException e) {
+      // This usually means that the Spawn itself exited, but still has children running that
+      // we couldn't wait for, which now block deletion of the sandbox directory. On Linux this
+      // should never happen, as we use PID namespaces and where they are not available the
+      // subreaper feature to make sure all children have been reliably killed before returning,
+      // but on other OS this might not always work. The SandboxModule will try to delete them
+      // again when the build is all done, at which point it hopefully works, so let's just go
+      // on here.
+    }
+  }
+
   /**
    * Gets the list of directories that the spawn will assume to be writable.
    *
@@ -0,0 +1,118 @@
+// Copyright 2017 The Bazel Authors. All rights reserved.
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+// http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package com.google.devtools.build.lib.sandbox;
+
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
+import com.google.devtools.build.lib.concurrent.ExecutorUtil;
+import com.google.devtools.build.lib.vfs.FileSystemUtils;
+import com.google.devtools.build.lib.vfs.Path;
+import java.io.IOException;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import javax.annotation.Nullable;
+
+/**
+ * Deletes the sandbox directories of finished spawns.
+ *
+ * <p>Deleting a directory with thousands of input symlinks can take longer than the spawn itself,
+ * and the action thread holds on to its local resources until it is done. With background threads,
+ * a directory is instead renamed into a trash directory, which is a single system call, and then
+ * deleted by one of the threads. If more directories are waiting to be deleted than {@code
+ * maxBacklog}, the action thread deletes its directory itself, so that deletion cannot fall
+ * arbitrarily behind and fill up the disk.
+ *
+ * <p>Thread-safe.
+ */
+final class SandboxTreeDeleter {
+
+  private final Path trashBase;
+  @Nullable private final ThreadPoolExecutor executor;
+  private final AtomicInteger trashCounter = new AtomicInteger();
+
+  /**
+   * @param trashBase the directory to move directories to before deleting them; must be on the
+   *     same file system as the directories
+   * @param threads the number of background threads, or 0 to delete directories synchronously
+   * @param maxBacklog the number of directories that may be waiting to be deleted
+   */
+  SandboxTreeDeleter(Path trashBase, int threads, int maxBacklog) {
+    this.trashBase = trashBase;
+    if (threads > 0) {
+      this.executor =
+          new ThreadPoolExecutor(
+              threads,
+              threads,
+              0L,
+              TimeUnit.SECONDS,
+              new ArrayBlockingQueue<Runnable>(maxBacklog),
+              new ThreadFactoryBuilder()
+                  .setNameFormat("sandbox-tree-deleter-%d")
+                  .setDaemon(true)
+                  .build(),
+              new ThreadPoolExecutor.CallerRunsPolicy());
+    } else {
+      this.executor = null;
+    }
+  }
+
+  /**
+   * Deletes {@code directory} and everything below it. Returns as soon as the directory is gone
+   * from its original location, which may be before it is actually deleted.
+   *
+   * @throws IOException if the directory could not be deleted synchronously
+   */
+  void deleteTree(Path directory) throws IOException {
+    if (executor == null) {
+      FileSystemUtils.deleteTree(directory);
+      return;
+    }
+
+    final Path trash = trashBase.getChild(Integer.toString(trashCounter.incrementAndGet()));
+    try {
+      FileSystemUtils.createDirectoryAndParents(trashBase);
+      directory.renameTo(trash);
+    } catch (IOException e) {
+      // Renaming fails if the directory is on another file system or still in use, in which case
+      // it has to be deleted where it is.
+      FileSystemUtils.deleteTree(directory);
+      return;
+    }
+    executor.execute(
+        new Runnable() {
+          @Override
+          public void run() {
+            try {
+              FileSystemUtils.deleteTree(trash);
+            } catch (IOException e) {
+              // Left for SandboxModule to delete together with the sandbox base.
+            }
+          }
+        });
+  }
+
+  /**
+   * Stops the background threads, waiting for the deletions in progress to finish. Directories that
+   * are still waiting to be deleted are left in the trash directory.
+   */
+  void shutdown() {
+    if (executor != null) {
+      if (ExecutorUtil.uninterruptibleShutdownNow(executor)) {
+        Thread.currentThread().interrupt();
+      }
+    }
+  }
+}
@@ -14,8 +14,10 @@
 
 package com.google.devtools.build.lib.sandbox;
 
+import com.google.common.collect.ImmutableMap;
 import com.google.common.io.Files;
 import com.google.devtools.build.lib.util.Preconditions;
+import com.google.devtools.build.lib.vfs.Dirent;
 import com.google.devtools.build.lib.vfs.FileStatus;
 import com.google.devtools.build.lib.vfs.FileSystemUtils;
 import com.google.devtools.build.lib.vfs.Path;
@@ -31,13 +33,29 @@ import java.util.Set;
 /**
  * Creates an execRoot for a Spawn that contains input files as symlinks to their original
  * destination.
+ *
+ * <p>The execRoot may be a directory that was populated for an earlier Spawn. Files that are not
+ * inputs of the new Spawn are then deleted, and only the symlinks that differ are recreated.
  */
 public final class SymlinkedExecRoot implements SandboxExecRoot {
 
   private final Path sandboxExecRoot;
+  private final Map<PathFragment, Path> previousInputs;
 
   public SymlinkedExecRoot(Path sandboxExecRoot) {
+    this(sandboxExecRoot, ImmutableMap.<PathFragment, Path>of());
+  }
+
+  /**
+   * Creates an execRoot in a directory that was last populated with {@code previousInputs}.
+   *
+   * <p>Symlinks for inputs that point to the same file as before are assumed to be intact and are
+   * kept without being read back, so {@code previousInputs} must be exactly what was passed to
+   * {@link #createFileSystem} for the directory.
+   */
+  public SymlinkedExecRoot(Path sandboxExecRoot, Map<PathFragment, Path> previousInputs) {
     this.sandboxExecRoot = sandboxExecRoot;
+    this.previousInputs = previousInputs;
   }
 
   @Override
@@ -45,30 +63,42 @@ public final class SymlinkedExecRoot implements SandboxExecRoot {
       Map<PathFragment, Path> inputs, Collection<PathFragment> outputs, Set<Path> writableDirs)
       throws IOException {
     Set<Path> createdDirs = new HashSet<>();
-    cleanFileSystem(inputs.keySet());
+    Set<PathFragment> unchangedInputs = cleanFileSystem(inputs);
     FileSystemUtils.createDirectoryAndParentsWithCache(createdDirs, sandboxExecRoot);
-    createParentDirectoriesForInputs(createdDirs, inputs.keySet());
-    createInputs(inputs);
+    createParentDirectoriesForInputs(createdDirs, inputs.keySet(), unchangedInputs);
+    createInputs(inputs, unchangedInputs);
     createWritableDirectories(createdDirs, writableDirs);
     createDirectoriesForOutputs(createdDirs, outputs);
   }
 
-  private void cleanFileSystem(Set<PathFragment> allowedFiles) throws IOException {
+  /**
+   * Deletes everything but the inputs from the execRoot, and returns the inputs whose symlinks were
+   * created for the previous inputs and are still up to date.
+   */
+  private Set<PathFragment> cleanFileSystem(Map<PathFragment, Path> inputs) throws IOException {
+    Set<PathFragment> unchangedInputs = new HashSet<>();
     if (sandboxExecRoot.exists(Symlinks.NOFOLLOW)) {
-      deleteExceptAllowedFiles(sandboxExecRoot, allowedFiles);
+      deleteExceptAllowedFiles(sandboxExecRoot, inputs, unchangedInputs);
     }
+    return unchangedInputs;
   }
 
-  private void deleteExceptAllowedFiles(Path root, Set<PathFragment> allowedFiles)
+  private void deleteExceptAllowedFiles(
+      Path root, Map<PathFragment, Path> inputs, Set<PathFragment> unchangedInputs)
       throws IOException {
-    for (Path p : root.getDirectoryEntries()) {
-      FileStatus stat = p.stat(Symlinks.NOFOLLOW);
-      if (!stat.isDirectory()) {
-        if (!allowedFiles.contains(p.relativeTo(sandboxExecRoot))) {
+    for (Dirent dirent : root.readdir(Symlinks.NOFOLLOW)) {
+      Path p = root.getChild(dirent.getName());
+      if (dirent.getType() != Dirent.Type.DIRECTORY) {
+        PathFragment relativePath = p.relativeTo(sandboxExecRoot);
+        if (!inputs.containsKey(relativePath)) {
           p.delete();
+        } else if (dirent.getType() == Dirent.Type.SYMLINK
+            && inputs.get(relativePath) != null
+            && inputs.get(relativePath).equals(previousInputs.get(relativePath))) {
+          unchangedInputs.add(relativePath);
         }
       } else {
-        deleteExceptAllowedFiles(p, allowedFiles);
+        deleteExceptAllowedFiles(p, inputs, unchangedInputs);
         if (p.readdir(Symlinks.NOFOLLOW).isEmpty()) {
           p.delete();
         }
@@ -88,9 +118,14 @@ public final class SymlinkedExecRoot implements SandboxExecRoot {
    * directories, too, because we'll get an IOException with EEXIST if inputs happen to be nested
    * once we start creating the symlinks for all inputs.
    */
-  private void createParentDirectoriesForInputs(Set<Path> createdDirs, Set<PathFragment> inputs)
+  private void createParentDirectoriesForInputs(
+      Set<Path> createdDirs, Set<PathFragment> inputs, Set<PathFragment> unchangedInputs)
       throws IOException {
     for (PathFragment inputPath : inputs) {
+      if (unchangedInputs.contains(inputPath)) {
+        // The parent directory exists, or the symlink wouldn't.
+        continue;
+      }
       Path dir = sandboxExecRoot.getRelative(inputPath).getParentDirectory();
       Preconditions.checkArgument(
           dir.startsWith(sandboxExecRoot), "Bad relative path: '%s'", inputPath);
@@ -98,9 +133,13 @@ public final class SymlinkedExecRoot implements SandboxExecRoot {
     }
   }
 
-  private void createInputs(Map<PathFragment, Path> inputs) throws IOException {
+  private void createInputs(Map<PathFragment, Path> inputs, Set<PathFragment> unchangedInputs)
+      throws IOException {
     // All input files are relative to the execroot.
     for (Entry<PathFragment, Path> entry : inputs.entrySet()) {
+      if (unchangedInputs.contains(entry.getKey())) {
+        continue;
+      }
       Path key = sandboxExecRoot.getRelative(entry.getKey());
       FileStatus keyStat = key.statNullable(Symlinks.NOFOLLOW);
       if (keyStat != null) {
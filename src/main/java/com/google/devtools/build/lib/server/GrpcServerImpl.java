@@ -21,7 +21,6 @@ import com.google.common.collect.ImmutableSet;
 import com.google.common.net.InetAddresses;
 import com.google.common.util.concurrent.ThreadFactoryBuilder;
 import com.google.common.util.concurrent.Uninterruptibles;
-import com.google.devtools.build.lib.concurrent.ThreadSafety.Immutable;
 import com.google.devtools.build.lib.runtime.BlazeCommandDispatcher.LockingMode;
 import com.google.devtools.build.lib.runtime.CommandExecutor;
 import com.google.devtools.build.lib.runtime.proto.InvocationPolicyOuterClass.InvocationPolicy;
@@ -54,13 +53,13 @@ import java.io.StringWriter;
 import java.net.InetSocketAddress;
 import java.nio.charset.Charset;
 import java.security.SecureRandom;
+import java.util.ArrayDeque;
 import java.util.ArrayList;
 import java.util.Collections;
 import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
 import java.util.UUID;
-import java.util.concurrent.Exchanger;
 import java.util.concurrent.ExecutionException;
 import java.util.concurrent.ExecutorService;
 import java.util.concurrent.Executors;
@@ -173,45 +172,47 @@ public class GrpcServerImpl implements RPCServer {
     SEND,
   }
 
-  /**
-   * Sent back and forth between threads wanting to write to the client stream and the stream
-   * handler thread.
-   */
-  @Immutable
-  private static final class SinkThreadItem {
-    private final boolean success;
-    private final RunResponse message;
-
-    private SinkThreadItem(boolean success, RunResponse message) {
-      this.success = success;
-      this.message = message;
-    }
-  }
-
   /**
    * A class that handles communicating through a gRPC interface for a streaming rpc call.
    *
    * <p>It can do four things:
-   * <li>Send a response message over the wire. If the channel is ready, it's sent immediately, if
-   *     it's not, blocks until it is. Note that there can always be only one thread in {@link
-   *     #offer(RunResponse)} because it's synchronized. This results in the associated streams
-   *     blocking if gRPC is not ready, which is how we implement pushback.
-   * <li>Be notified that gRPC is ready. If there is a pending message, it is then sent.
+   * <li>Send a response message over the wire. Messages are queued and sent by the streamer
+   *     thread; if gRPC is not ready or too much output is queued already, {@link
+   *     #offer(RunResponse)} blocks until the message was sent. This results in the associated
+   *     streams blocking, which is how we implement pushback. Output messages that queue up while
+   *     a message is being sent are coalesced into a single message.
+   * <li>Be notified that gRPC is ready. If there are pending messages, they are then sent.
    * <li>Be notified that the client disconnected. In this case, an {@link IOException} is reported
    *     and the thread from which the stream was written to is interrupted so that the server
    *     becomes free as soon as possible.
-   * <li>Processing can be terminated. It is reported whether the client disconnected before.
+   * <li>Processing can be terminated, once all pending messages have been sent. It is reported
+   *     whether the client disconnected before.
    */
   @VisibleForTesting
   static class GrpcSink {
+    /** The maximum size of output sent in a single message when coalescing messages. */
+    @VisibleForTesting static final int MAX_COALESCED_BYTES = 64 * 1024;
+    /** The amount of queued output above which {@link #offer} waits for it to be sent. */
+    private static final int MAX_PENDING_BYTES = 1024 * 1024;
+
     private final LinkedBlockingQueue<SinkThreadAction> actionQueue;
-    private final Exchanger<SinkThreadItem> exchanger;
     private final ServerCallStreamObserver<RunResponse> observer;
     private final Future<?> future;
     private final AtomicReference<Thread> commandThread = new AtomicReference<>();
+    private final AtomicBoolean cancelled = new AtomicBoolean(false);
     private final AtomicBoolean disconnected = new AtomicBoolean(false);
     private final AtomicLong receivedEventCount = new AtomicLong(0);
 
+    // Messages offered but not sent yet, and the number of output bytes in them. Guarded by this.
+    private final ArrayDeque<RunResponse> pendingMessages = new ArrayDeque<>();
+    private long pendingBytes;
+    // The number of messages offered, sent and dropped so far. As messages are sent in order and
+    // only dropped once the client disconnected, message n was sent iff n <= sentMessages.
+    // Guarded by this.
+    private long offeredMessages;
+    private long sentMessages;
+    private long droppedMessages;
+
     @VisibleForTesting
     GrpcSink(
         final String rpcCommandName,
@@ -220,7 +221,6 @@ public class GrpcServerImpl implements RPCServer {
       // This queue is intentionally unbounded: we always act on it fairly quickly so filling up
       // RAM is not a concern but we don't want to block in the gRPC cancel/onready handlers.
       this.actionQueue = new LinkedBlockingQueue<>();
-      this.exchanger = new Exchanger<>();
       this.observer = observer;
       this.observer.setOnCancelHandler(() -> {
           Thread commandThread = GrpcSink.this.commandThread.get();
@@ -234,6 +234,9 @@ public class GrpcServerImpl implements RPCServer {
             commandThread.interrupt();
           }
 
+          // Make offer() fail right away. The streamer thread drops the pending messages once it
+          // gets to the DISCONNECT action.
+          cancelled.set(true);
           actionQueue.offer(SinkThreadAction.DISCONNECT);
         });
       this.observer.setOnReadyHandler(() -> actionQueue.offer(SinkThreadAction.READY));
@@ -257,14 +260,33 @@ public class GrpcServerImpl implements RPCServer {
     /**
      * Sends an item to the client.
      *
-     * @return true if the item was sent successfully, false if the connection to the client was
-     *     lost
+     * @return true if the item was sent or queued for sending successfully, false if the
+     *     connection to the client was lost
      */
     @VisibleForTesting
     synchronized boolean offer(RunResponse item) {
-      SinkThreadItem queueItem = new SinkThreadItem(false, item);
+      if (cancelled.get() || disconnected()) {
+        return false;
+      }
+      long sequenceNumber = ++offeredMessages;
+      pendingMessages.add(item);
+      pendingBytes += outputSize(item);
       actionQueue.offer(SinkThreadAction.SEND);
-      return exchange(queueItem, false).success;
+
+      boolean interrupted = false;
+      while (sentMessages + droppedMessages < sequenceNumber
+          && !disconnected()
+          && (!observer.isReady() || pendingBytes > MAX_PENDING_BYTES)) {
+        try {
+          wait();
+        } catch (InterruptedException e) {
+          interrupted = true;
+        }
+      }
+      if (interrupted) {
+        Thread.currentThread().interrupt();
+      }
+      return sequenceNumber <= sentMessages || !disconnected();
     }
 
     private boolean disconnected() {
@@ -286,83 +308,126 @@ public class GrpcServerImpl implements RPCServer {
       return disconnected();
     }
 
-    private SinkThreadItem exchange(SinkThreadItem item, boolean swallowInterrupts) {
-      boolean interrupted = false;
-      SinkThreadItem result;
-      while (true) {
-        try {
-          result = exchanger.exchange(item);
-          break;
-        } catch (InterruptedException e) {
-          interrupted = true;
-        }
-      }
+    private static int outputSize(RunResponse message) {
+      return message.getStandardOutput().size() + message.getStandardError().size();
+    }
 
-      if (interrupted && !swallowInterrupts) {
-        Thread.currentThread().interrupt();
+    private static ByteString output(RunResponse message) {
+      return message.getStandardOutput().isEmpty()
+          ? message.getStandardError()
+          : message.getStandardOutput();
+    }
+
+    /** Whether {@code next} only carries more output of the same kind as {@code first}. */
+    private static boolean canCoalesce(RunResponse first, RunResponse next) {
+      return !first.getFinished()
+          && !next.getFinished()
+          && first.getExitCode() == next.getExitCode()
+          && first.getStandardOutput().isEmpty() == next.getStandardOutput().isEmpty()
+          && first.getStandardError().isEmpty() == next.getStandardError().isEmpty()
+          && first.getStandardOutput().isEmpty() != first.getStandardError().isEmpty()
+          && first.getCommandIdBytes().equals(next.getCommandIdBytes())
+          && first.getCookieBytes().equals(next.getCookieBytes());
+    }
+
+    /**
+     * Removes the next message to send from the queue, coalescing it with the messages after it if
+     * possible. Returns null if there is nothing to send.
+     */
+    private synchronized RunResponse takePendingMessage() {
+      RunResponse first = pendingMessages.poll();
+      if (first == null) {
+        return null;
+      }
+      int count = 1;
+      int bytes = outputSize(first);
+      // Concatenating ByteStrings doesn't copy the data.
+      ByteString output = output(first);
+      RunResponse next;
+      while ((next = pendingMessages.peek()) != null
+          && canCoalesce(first, next)
+          && bytes + outputSize(next) <= MAX_COALESCED_BYTES) {
+        pendingMessages.remove();
+        count++;
+        bytes += outputSize(next);
+        output = output.concat(output(next));
+      }
+      sentMessages += count;
+      pendingBytes -= bytes;
+      notifyAll();
+      if (count == 1) {
+        return first;
       }
+      RunResponse.Builder coalesced = first.toBuilder();
+      if (first.getStandardOutput().isEmpty()) {
+        coalesced.setStandardError(output);
+      } else {
+        coalesced.setStandardOutput(output);
+      }
+      return coalesced.build();
+    }
 
-      return result;
+    private synchronized void dropPendingMessages() {
+      droppedMessages += pendingMessages.size();
+      pendingBytes = 0;
+      pendingMessages.clear();
+      notifyAll();
     }
 
-    private void sendPendingItem() {
-      SinkThreadItem item = exchange(new SinkThreadItem(true, null), true);
-      try {
-        observer.onNext(item.message);
-      } catch (StatusRuntimeException e) {
-        // The RPC was cancelled e.g. by the client terminating unexpectedly. We'll eventually get
-        // notified about this and interrupt the command thread, but in the meantime, we can just
-        // ignore the error; the client is dead, so there isn't anyone to talk to so swallowing the
-        // output is fine.
-        log.info(String.format("Client cancelled command for streamer thread %s",
-            Thread.currentThread().getName()));
+    private synchronized boolean hasPendingMessages() {
+      return !pendingMessages.isEmpty();
+    }
+
+    /** Sends pending messages for as long as gRPC is ready to take them. */
+    private void sendPendingMessages() {
+      RunResponse message;
+      while (observer.isReady() && (message = takePendingMessage()) != null) {
+        try {
+          observer.onNext(message);
+        } catch (StatusRuntimeException e) {
+          // The RPC was cancelled e.g. by the client terminating unexpectedly. We'll eventually
+          // get notified about this and interrupt the command thread, but in the meantime, we can
+          // just ignore the error; the client is dead, so there isn't anyone to talk to so
+          // swallowing the output is fine.
+          log.info(String.format("Client cancelled command for streamer thread %s",
+              Thread.currentThread().getName()));
+        }
       }
     }
 
     /** Main function of the streamer thread. */
     private void call() {
-      boolean itemPending = false;
+      boolean finishing = false;
 
       while (true) {
-        SinkThreadAction action;
-        action = Uninterruptibles.takeUninterruptibly(actionQueue);
+        if (disconnected()) {
+          dropPendingMessages();
+        } else {
+          sendPendingMessages();
+        }
+        if (finishing && !hasPendingMessages()) {
+          // Reset the interrupted bit so that it doesn't stay set for the next command that is
+          // handled by this thread
+          Thread.interrupted();
+          return;
+        }
+
+        SinkThreadAction action = Uninterruptibles.takeUninterruptibly(actionQueue);
         receivedEventCount.incrementAndGet();
         switch (action) {
           case FINISH:
-            if (itemPending) {
-              exchange(new SinkThreadItem(false, null), true);
-              itemPending = false;
-            }
-
-            // Reset the interrupted bit so that it doesn't stay set for the next command that is
-            // handled by this thread
-            Thread.interrupted();
-            return;
-
-          case READY:
-            if (itemPending) {
-              sendPendingItem();
-              itemPending = false;
-            }
+            // Send the messages still pending first.
+            finishing = true;
             break;
 
           case DISCONNECT:
             log.info("Client disconnected for stream thread " + Thread.currentThread().getName());
             disconnected.set(true);
-            if (itemPending) {
-              exchange(new SinkThreadItem(false, null), true);
-              itemPending = false;
-            }
             break;
 
+          case READY:
           case SEND:
-            if (disconnected()) {
-              exchange(new SinkThreadItem(false, null), true);
-            } else if (observer.isReady()) {
-              sendPendingItem();
-            } else {
-              itemPending = true;
-            }
+            break;
         }
       }
     }
@@ -373,12 +438,11 @@ public class GrpcServerImpl implements RPCServer {
    *
    * <p>Note that wraping this class with a {@code Channel} can cause a deadlock if there is an
    * {@link OutputStream} in between that synchronizes both on {@code #close()} and {@code #write()}
-   * because then if an interrupt happens in {@link GrpcSink#exchange(SinkThreadItem, boolean)},
-   * the thread on which {@code interrupt()} was called will wait until the {@code Channel} closes
-   * itself while holding a lock for interrupting the thread on which {@code #exchange()} is
-   * being executed and that thread will hold a lock that is needed for the {@code Channel} to be
-   * closed and call {@code interrupt()} in {@code #exchange()}, which will in turn try to acquire
-   * the interrupt lock.
+   * because then if an interrupt happens in {@link GrpcSink#offer(RunResponse)}, the thread on
+   * which {@code interrupt()} was called will wait until the {@code Channel} closes itself while
+   * holding a lock for interrupting the thread on which {@code #offer()} is being executed and that
+   * thread will hold a lock that is needed for the {@code Channel} to be closed and call {@code
+   * interrupt()} in {@code #offer()}, which will in turn try to acquire the interrupt lock.
    */
   @VisibleForTesting
   static class RpcOutputStream extends OutputStream {
@@ -424,12 +424,15 @@ public final class Command {
   /**
    * Execute this command with given input to stdin; this stream is closed when the process
    * terminates, and exceptions raised when closing this stream are ignored. This call blocks until
-   * the process completes or an error occurs. The caller provides {@link OutputStream} instances
-   * into which the process writes its stdout/stderr output; these streams are <em>not</em> closed
-   * when the process terminates. The given {@link KillableObserver} may also terminate the process
-   * early while running.
+   * the process completes or an error occurs. The process writes its stdout/stderr output directly
+   * into the given files, which are replaced if they exist. The given {@link KillableObserver} may
+   * also terminate the process early while running.
    *
    * <p>If stdOut or stdErr is {@code null}, it will be redirected to /dev/null.
+   *
+   * <p>Unlike the variants that take {@link OutputStream}s, this does not need a thread per output
+   * stream to read the output of the process while it runs, so it should be preferred when many
+   * processes run concurrently and their output ends up in files anyway.
    */
   public CommandResult execute(
       final byte[] stdinInput,
@@ -452,7 +455,11 @@ public final class Command {
       subprocessBuilder.setStderr(stdErr);
     }
     return doExecute(
-            new ByteArrayInputSource(stdinInput), observer, null, killSubprocessOnInterrupt, false)
+            new ByteArrayInputSource(stdinInput),
+            observer,
+            Consumers.createRedirectedConsumers(),
+            killSubprocessOnInterrupt,
+            false)
         .get();
   }
 
@@ -34,6 +34,8 @@ import java.util.logging.Logger;
  * discarding ({@link #createDiscardingConsumers()},
  * accumulating ({@link #createAccumulatingConsumers()},
  * and streaming ({@link #createStreamingConsumers(OutputStream, OutputStream)}).
+ * If the subprocess writes its output to files itself, there is nothing to
+ * consume ({@link #createRedirectedConsumers()}), and no threads are used.
  */
 class Consumers {
 
@@ -50,6 +52,11 @@ class Consumers {
                                new DiscardingConsumer());
   }
 
+  static OutErrConsumers createRedirectedConsumers() {
+    return new OutErrConsumers(new RedirectedConsumer(),
+                               new RedirectedConsumer());
+  }
+
   static OutErrConsumers createAccumulatingConsumers() {
     return new OutErrConsumers(new AccumulatingConsumer(),
                                new AccumulatingConsumer());
@@ -198,6 +205,35 @@ class Consumers {
     }
   }
 
+  /**
+   * This consumer is used when the output of the subprocess was redirected to
+   * a file or to /dev/null when it was started, so that no pipe exists to be
+   * read from. It consumes nothing and, unlike the other consumers, does not
+   * occupy a thread while the subprocess runs.
+   */
+  private static class RedirectedConsumer implements OutputConsumer {
+    @Override
+    public ByteArrayOutputStream getAccumulatedOut() {
+      return CommandResult.NO_OUTPUT_COLLECTED;
+    }
+
+    @Override
+    public void logConsumptionStrategy() {
+      log.finer("Output was redirected by the subprocess factory");
+    }
+
+    @Override
+    public void registerInput(InputStream in, boolean closeConsumer) {
+      silentClose(in);
+    }
+
+    @Override
+    public void cancel() {}
+
+    @Override
+    public void waitForCompletion() {}
+  }
+
   /**
    * A mixin that makes consumers active - this is where we kick of
    * multithreading ({@link #registerInput(InputStream, boolean)}), cancel actions
@@ -68,6 +68,7 @@ public class StandaloneActionContextProvider extends ActionContextProvider {
 
   private final CommandEnvironment env;
   private ActionInputPrefetcher actionInputPrefetcher;
+  private StandaloneSpawnStrategy spawnStrategy;
 
   public StandaloneActionContextProvider(CommandEnvironment env) {
     this.env = env;
@@ -95,18 +96,28 @@ public class StandaloneActionContextProvider extends ActionContextProvider {
     // Order of strategies passed to builder is significant - when there are many strategies that
     // could potentially be used and a spawnActionContext doesn't specify which one it wants, the
     // last one from strategies list will be used
-    return ImmutableList.of(
+    spawnStrategy =
         new StandaloneSpawnStrategy(
             env.getExecRoot(),
             actionInputPrefetcher,
             localExecutionOptions,
             executionOptions.verboseFailures,
             env.getRuntime().getProductName(),
-            ResourceManager.instance()),
+            ResourceManager.instance());
+    return ImmutableList.of(
+        spawnStrategy,
         new DummyIncludeScanningContext(),
         new SpawnGccStrategy(),
         testStrategy,
         new ExclusiveTestStrategy(testStrategy),
         new FileWriteStrategy());
   }
+
+  @Override
+  public void executionPhaseEnding() {
+    if (spawnStrategy != null) {
+      spawnStrategy.close();
+      spawnStrategy = null;
+    }
+  }
 }
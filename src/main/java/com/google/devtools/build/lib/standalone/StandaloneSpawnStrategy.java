@@ -30,9 +30,11 @@ import com.google.devtools.build.lib.exec.SpawnExecException;
 import com.google.devtools.build.lib.exec.SpawnInputExpander;
 import com.google.devtools.build.lib.exec.SpawnResult;
 import com.google.devtools.build.lib.exec.SpawnResult.Status;
+import com.google.devtools.build.lib.exec.SpawnRunner;
 import com.google.devtools.build.lib.exec.SpawnRunner.ProgressStatus;
 import com.google.devtools.build.lib.exec.SpawnRunner.SpawnExecutionPolicy;
 import com.google.devtools.build.lib.exec.apple.XCodeLocalEnvProvider;
+import com.google.devtools.build.lib.exec.local.LocalBatchSpawnRunner;
 import com.google.devtools.build.lib.exec.local.LocalEnvProvider;
 import com.google.devtools.build.lib.exec.local.LocalExecutionOptions;
 import com.google.devtools.build.lib.exec.local.LocalSpawnRunner;
@@ -44,6 +46,7 @@ import com.google.devtools.build.lib.vfs.Path;
 import com.google.devtools.build.lib.vfs.PathFragment;
 import java.io.IOException;
 import java.util.SortedMap;
+import javax.annotation.Nullable;
 
 /**
  * Strategy that uses subprocessing to execute a process.
@@ -51,7 +54,8 @@ import java.util.SortedMap;
 @ExecutionStrategy(name = { "standalone", "local" }, contextType = SpawnActionContext.class)
 public class StandaloneSpawnStrategy implements SpawnActionContext {
   private final boolean verboseFailures;
-  private final LocalSpawnRunner localSpawnRunner;
+  private final SpawnRunner localSpawnRunner;
+  @Nullable private final LocalBatchSpawnRunner batchSpawnRunner;
 
   public StandaloneSpawnStrategy(
       Path execRoot, ActionInputPrefetcher actionInputPrefetcher,
@@ -61,13 +65,30 @@ public class StandaloneSpawnStrategy implements SpawnActionContext {
     LocalEnvProvider localEnvProvider = OS.getCurrent() == OS.DARWIN
         ? new XCodeLocalEnvProvider()
         : LocalEnvProvider.UNMODIFIED;
-    this.localSpawnRunner = new LocalSpawnRunner(
+    LocalSpawnRunner localSpawnRunner = new LocalSpawnRunner(
         execRoot,
         actionInputPrefetcher,
         localExecutionOptions,
         resourceManager,
         productName,
         localEnvProvider);
+    if (localExecutionOptions.localBatchMnemonics != null
+        && LocalBatchSpawnRunner.isSupported(execRoot)) {
+      this.batchSpawnRunner =
+          new LocalBatchSpawnRunner(
+              execRoot, localExecutionOptions, productName, localEnvProvider, localSpawnRunner);
+      this.localSpawnRunner = batchSpawnRunner;
+    } else {
+      this.batchSpawnRunner = null;
+      this.localSpawnRunner = localSpawnRunner;
+    }
+  }
+
+  /** Stops the helper processes of --experimental_local_batch_mnemonics, if any. */
+  public void close() {
+    if (batchSpawnRunner != null) {
+      batchSpawnRunner.close();
+    }
   }
 
   /**
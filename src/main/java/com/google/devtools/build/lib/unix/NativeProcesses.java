@@ -0,0 +1,74 @@
+// Copyright 2017 The Bazel Authors. All rights reserved.
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+// http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package com.google.devtools.build.lib.unix;
+
+import com.google.devtools.build.lib.UnixJniLoader;
+import java.io.IOException;
+
+/**
+ * Native methods for starting and managing processes, used by {@link UnixSubprocessFactory}.
+ *
+ * <p>Strings are passed as byte arrays in the encoding they should have on the command line.
+ */
+final class NativeProcesses {
+
+  private NativeProcesses() {}
+
+  static {
+    if (!"0".equals(System.getProperty("io.bazel.EnableJni"))) {
+      UnixJniLoader.loadJni();
+    }
+  }
+
+  /**
+   * Starts a process with vfork(2) and execve(2). The child does not copy the page tables of the
+   * JVM, so this takes the same time regardless of the size of the heap.
+   *
+   * @param path the path of the executable
+   * @param argv the arguments, including argv[0]
+   * @param env the environment as {@code NAME=value} entries, or null to inherit it
+   * @param cwd the working directory, or null to inherit it
+   * @param stdoutPath the file to append stdout to, or null to read it through a pipe
+   * @param stderrPath the file to append stderr to, or null to read it through a pipe
+   * @return the pid of the process, and the file descriptors of the pipes to its stdin, stdout and
+   *     stderr; the latter two are -1 if the stream is redirected to a file
+   * @throws IOException if the process could not be started
+   */
+  static native int[] spawn(
+      byte[] path, byte[][] argv, byte[][] env, byte[] cwd, byte[] stdoutPath, byte[] stderrPath)
+      throws IOException;
+
+  /** Blocks until the process has exited, without reaping it. */
+  static native void waitForExit(int pid) throws IOException;
+
+  /**
+   * Reaps an exited process.
+   *
+   * @return the exit code, or 128 plus the number of the signal that terminated the process
+   */
+  static native int reap(int pid) throws IOException;
+
+  /** Native wrapper around POSIX kill(2). Returns whether the signal was sent. */
+  static native boolean kill(int pid, int signal);
+
+  /** Reads from a pipe. Returns the number of bytes read, or -1 at the end of the stream. */
+  static native int read(int fd, byte[] buffer, int offset, int length) throws IOException;
+
+  /** Writes all of {@code length} bytes into a pipe. */
+  static native void write(int fd, byte[] buffer, int offset, int length) throws IOException;
+
+  /** Closes a pipe. */
+  static native void close(int fd) throws IOException;
+}
@@ -0,0 +1,344 @@
+// Copyright 2017 The Bazel Authors. All rights reserved.
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+// http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package com.google.devtools.build.lib.unix;
+
+import static java.nio.charset.StandardCharsets.ISO_8859_1;
+
+import com.google.common.base.Joiner;
+import com.google.common.base.Splitter;
+import com.google.devtools.build.lib.shell.Subprocess;
+import com.google.devtools.build.lib.shell.SubprocessBuilder;
+import com.google.devtools.build.lib.shell.SubprocessBuilder.StreamAction;
+import java.io.ByteArrayInputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * A subprocess factory that starts processes through JNI with vfork(2).
+ *
+ * <p>{@link java.lang.ProcessBuilder} may fork the whole JVM, or start a helper binary first,
+ * depending on the JDK and platform. Either can dominate the time it takes to run a small action
+ * when the server has a large heap.
+ */
+public final class UnixSubprocessFactory implements Subprocess.Factory {
+
+  private static final int SIGTERM = 15;
+
+  /** The search path used by {@link ProcessBuilder} when PATH is not set. */
+  private static final String DEFAULT_PATH = ":/bin:/usr/bin";
+
+  public static final UnixSubprocessFactory INSTANCE = new UnixSubprocessFactory();
+
+  private UnixSubprocessFactory() {
+    // We are a singleton
+  }
+
+  @Override
+  public Subprocess create(SubprocessBuilder params) throws IOException {
+    if (params.getTimeoutMillis() >= 0) {
+      throw new UnsupportedOperationException("Timeouts are not supported");
+    }
+    List<String> argv = params.getArgv();
+    byte[][] nativeArgv = new byte[argv.size()][];
+    for (int i = 0; i < nativeArgv.length; i++) {
+      nativeArgv[i] = toNative(argv.get(i));
+    }
+    byte[][] nativeEnv = null;
+    if (params.getEnv() != null) {
+      nativeEnv = new byte[params.getEnv().size()][];
+      int i = 0;
+      for (Map.Entry<String, String> entry : params.getEnv().entrySet()) {
+        nativeEnv[i++] = toNative(entry.getKey() + "=" + entry.getValue());
+      }
+    }
+    File workingDirectory = params.getWorkingDirectory();
+
+    int[] process =
+        NativeProcesses.spawn(
+            toNative(findExecutable(argv.get(0))),
+            nativeArgv,
+            nativeEnv,
+            workingDirectory == null ? null : toNative(workingDirectory.getPath()),
+            getRedirectPath(params.getStdout(), params.getStdoutFile()),
+            getRedirectPath(params.getStderr(), params.getStderrFile()));
+    return new UnixSubprocess(
+        process[0], process[1], process[2], process[3], Joiner.on(' ').join(argv));
+  }
+
+  /**
+   * Looks {@code argv0} up on the PATH of the server if it is a plain file name, like {@link
+   * ProcessBuilder} does.
+   */
+  private static String findExecutable(String argv0) {
+    if (argv0.contains("/")) {
+      return argv0;
+    }
+    String path = System.getenv("PATH");
+    for (String dir : Splitter.on(':').split(path == null ? DEFAULT_PATH : path)) {
+      File candidate = new File(dir.isEmpty() ? "." : dir, argv0);
+      if (candidate.isFile() && candidate.canExecute()) {
+        return candidate.getPath();
+      }
+    }
+    // Let execve(2) produce the error.
+    return argv0;
+  }
+
+  /**
+   * Returns the file an output stream of the process is appended to, or null if it is read through
+   * a pipe. If a file redirected to exists, deletes the file first, like {@link
+   * com.google.devtools.build.lib.shell.JavaSubprocessFactory}.
+   */
+  private static byte[] getRedirectPath(StreamAction action, File file) {
+    switch (action) {
+      case DISCARD:
+        return toNative("/dev/null");
+
+      case REDIRECT:
+        if (file.exists()) {
+          file.delete();
+        }
+        return toNative(file.getPath());
+
+      case STREAM:
+        return null;
+
+      default:
+        throw new IllegalStateException();
+    }
+  }
+
+  private static byte[] toNative(String s) {
+    return s.getBytes(ISO_8859_1);
+  }
+
+  /** A subprocess started by {@link NativeProcesses#spawn}. */
+  private static final class UnixSubprocess implements Subprocess {
+
+    private static final AtomicInteger THREAD_SEQUENCE_NUMBER = new AtomicInteger(1);
+
+    // Every process we start consumes a thread here while it runs, which blocks in waitid(2), like
+    // the process reaper threads of java.lang.Process.
+    private static final ExecutorService WAITER_POOL =
+        Executors.newCachedThreadPool(
+            new ThreadFactory() {
+              @Override
+              public Thread newThread(Runnable runnable) {
+                Thread thread =
+                    new Thread(
+                        null,
+                        runnable,
+                        "Unix-Process-Waiter-Thread-" + THREAD_SEQUENCE_NUMBER.getAndIncrement(),
+                        32 * 1024);
+                thread.setDaemon(true);
+                return thread;
+              }
+            });
+
+    private final int pid;
+    private final String commandLine;
+    private final OutputStream stdinStream;
+    private final InputStream stdoutStream;
+    private final InputStream stderrStream;
+    private final CountDownLatch waitLatch = new CountDownLatch(1);
+
+    // Guarded by this; once the process is reaped, its pid may be reused and must not be killed.
+    private boolean reaped;
+    private int exitValue;
+    private IOException waitError;
+
+    UnixSubprocess(int pid, int stdinFd, int stdoutFd, int stderrFd, String commandLine) {
+      this.pid = pid;
+      this.commandLine = commandLine;
+      this.stdinStream = new PipeOutputStream(stdinFd);
+      this.stdoutStream =
+          stdoutFd == -1 ? new ByteArrayInputStream(new byte[0]) : new PipeInputStream(stdoutFd);
+      this.stderrStream =
+          stderrFd == -1 ? new ByteArrayInputStream(new byte[0]) : new PipeInputStream(stderrFd);
+      WAITER_POOL.execute(
+          new Runnable() {
+            @Override
+            public void run() {
+              waiterThreadFunc();
+            }
+          });
+    }
+
+    private void waiterThreadFunc() {
+      try {
+        NativeProcesses.waitForExit(pid);
+        synchronized (this) {
+          reaped = true;
+          exitValue = NativeProcesses.reap(pid);
+        }
+      } catch (IOException e) {
+        synchronized (this) {
+          reaped = true;
+          waitError = e;
+        }
+      }
+      waitLatch.countDown();
+    }
+
+    @Override
+    public synchronized boolean destroy() {
+      return !reaped && NativeProcesses.kill(pid, SIGTERM);
+    }
+
+    @Override
+    public synchronized int exitValue() {
+      if (!finished()) {
+        throw new IllegalThreadStateException("Process " + pid + " has not exited");
+      }
+      if (waitError != null) {
+        throw new IllegalStateException("Waiting for process " + pid + " failed", waitError);
+      }
+      return exitValue;
+    }
+
+    @Override
+    public boolean finished() {
+      return waitLatch.getCount() == 0;
+    }
+
+    @Override
+    public boolean timedout() {
+      // Not supported.
+      return false;
+    }
+
+    @Override
+    public void waitFor() throws InterruptedException {
+      waitLatch.await();
+    }
+
+    @Override
+    public OutputStream getOutputStream() {
+      return stdinStream;
+    }
+
+    @Override
+    public InputStream getInputStream() {
+      return stdoutStream;
+    }
+
+    @Override
+    public InputStream getErrorStream() {
+      return stderrStream;
+    }
+
+    /**
+     * Kills the process if it is still running and closes its stdin. As with {@link
+     * java.lang.Process}, stdout and stderr are closed by whoever reads them; closing them here
+     * could pull the file descriptor from under a read in progress.
+     */
+    @Override
+    public void close() {
+      if (!finished()) {
+        destroy();
+      }
+      try {
+        stdinStream.close();
+      } catch (IOException e) {
+        // The pipe is gone either way.
+      }
+    }
+
+    @Override
+    public String toString() {
+      return String.format("%s:[%s]", super.toString(), commandLine);
+    }
+  }
+
+  /** Reads the stdout or stderr of a process from a pipe. */
+  private static final class PipeInputStream extends InputStream {
+    private int fd;
+
+    PipeInputStream(int fd) {
+      this.fd = fd;
+    }
+
+    @Override
+    public int read() throws IOException {
+      byte[] buf = new byte[1];
+      return read(buf, 0, 1) == 1 ? buf[0] & 0xff : -1;
+    }
+
+    @Override
+    public int read(byte[] b, int off, int len) throws IOException {
+      if (len == 0) {
+        return 0;
+      }
+      int currentFd;
+      synchronized (this) {
+        if (fd == -1) {
+          throw new IOException("Stream closed");
+        }
+        currentFd = fd;
+      }
+      // Reading blocks, so this must not hold the lock that close() needs.
+      return NativeProcesses.read(currentFd, b, off, len);
+    }
+
+    @Override
+    public synchronized void close() throws IOException {
+      if (fd != -1) {
+        int currentFd = fd;
+        fd = -1;
+        NativeProcesses.close(currentFd);
+      }
+    }
+  }
+
+  /** Writes into the stdin of a process through a pipe. */
+  private static final class PipeOutputStream extends OutputStream {
+    private int fd;
+
+    PipeOutputStream(int fd) {
+      this.fd = fd;
+    }
+
+    @Override
+    public void write(int b) throws IOException {
+      write(new byte[] {(byte) b}, 0, 1);
+    }
+
+    @Override
+    public synchronized void write(byte[] b, int off, int len) throws IOException {
+      if (fd == -1) {
+        throw new IOException("Stream closed");
+      }
+      NativeProcesses.write(fd, b, off, len);
+    }
+
+    @Override
+    public synchronized void close() throws IOException {
+      if (fd != -1) {
+        int currentFd = fd;
+        fd = -1;
+        NativeProcesses.close(currentFd);
+      }
+    }
+  }
+}
@@ -316,6 +316,7 @@ public class FileOutErr extends OutErr {
     private String error;
     private OutputFilter outputFilter;
     private boolean mightHaveOutput = false;
+    private boolean fileHandedOut = false;
 
     protected FileRecordingOutputStream(Path outputFile) {
       this.outputFile = outputFile;
@@ -331,6 +332,7 @@ public class FileOutErr extends OutErr {
       // The caller is getting a reference to the filesystem path, so conservatively assume the
       // file has been modified.
       markDirty();
+      fileHandedOut = true;
       return outputFile;
     }
 
@@ -341,7 +343,8 @@ public class FileOutErr extends OutErr {
     private OutputStream getOutputStream() throws IOException {
       // you should hold the lock before you invoke this method
       if (outputStream == null) {
-        outputStream = outputFile.getOutputStream();
+        // Don't truncate what others may have written to the file since it was handed out.
+        outputStream = outputFile.getOutputStream(/*append=*/ fileHandedOut);
         if (outputFilter != null) {
           outputStream = outputFilter.getFilteredOutputStream(outputStream);
         }
@@ -359,6 +362,7 @@ public class FileOutErr extends OutErr {
       outputStream = null;
       outputFile.delete();
       mightHaveOutput = false;
+      fileHandedOut = false;
     }
 
     @Override
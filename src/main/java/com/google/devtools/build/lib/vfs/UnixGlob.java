@@ -15,14 +15,11 @@
 package com.google.devtools.build.lib.vfs;
 
 import com.google.common.annotations.VisibleForTesting;
-import com.google.common.base.Joiner;
 import com.google.common.base.Predicate;
 import com.google.common.base.Predicates;
 import com.google.common.base.Splitter;
 import com.google.common.base.Throwables;
 import com.google.common.cache.Cache;
-import com.google.common.cache.CacheBuilder;
-import com.google.common.cache.CacheLoader;
 import com.google.common.collect.ImmutableList;
 import com.google.common.collect.Iterables;
 import com.google.common.collect.Lists;
@@ -36,17 +33,24 @@ import com.google.devtools.build.lib.profiler.Profiler;
 import com.google.devtools.build.lib.profiler.ProfilerTask;
 import com.google.devtools.build.lib.util.Preconditions;
 import java.io.IOException;
+import java.util.ArrayList;
 import java.util.Collection;
 import java.util.Collections;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
 import java.util.List;
+import java.util.Map;
 import java.util.Objects;
 import java.util.Set;
 import java.util.concurrent.ExecutionException;
 import java.util.concurrent.Future;
 import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
 import java.util.concurrent.atomic.AtomicLong;
 import java.util.concurrent.atomic.AtomicReference;
 import java.util.regex.Pattern;
+import javax.annotation.Nullable;
 
 /**
  * Implementation of a subset of UNIX-style file globbing, expanding "*" and "?" as wildcards, but
@@ -184,15 +188,16 @@ public final class UnixGlob {
     }
 
     // Common case: *.xyz
+    // The region comparisons below avoid allocating a substring of the pattern on every call.
+    int lastIndex = pattern.length() - 1;
     if (pattern.charAt(0) == '*' && pattern.lastIndexOf('*') == 0) {
-      return str.endsWith(pattern.substring(1));
+      return str.regionMatches(str.length() - lastIndex, pattern, 1, lastIndex);
     }
     // Common case: xyz*
-    int lastIndex = pattern.length() - 1;
     // The first clause of this if statement is unnecessary, but is an
     // optimization--charAt runs faster than indexOf.
     if (pattern.charAt(lastIndex) == '*' && pattern.indexOf('*') == lastIndex) {
-      return str.startsWith(pattern.substring(0, lastIndex));
+      return str.regionMatches(0, pattern, 0, lastIndex);
     }
 
     Pattern regex = patternCache == null ? null : patternCache.getIfPresent(pattern);
@@ -424,6 +429,20 @@ public final class UnixGlob {
           checkForInterrupt,
           threadPool);
     }
+
+    /**
+     * Executes the glob asynchronously, returning a separate future for the matches of each
+     * pattern. All patterns are evaluated in a single visitation, so patterns sharing a prefix
+     * share the directory reads and matching for that prefix. {@link #setThreadPool} must have
+     * been called already with a non-null argument.
+     *
+     * @param checkForInterrupt if the returned futures may throw InterruptedException.
+     */
+    public Map<String, Future<List<Path>>> globAsyncByPattern(boolean checkForInterrupt) {
+      Preconditions.checkNotNull(threadPool, "%s %s", base, patterns);
+      return new GlobVisitor(threadPool, checkForInterrupt)
+          .globAsyncByPattern(base, patterns, excludeDirectories, pathFilter, syscalls.get());
+    }
   }
 
   /**
@@ -469,6 +488,175 @@ public final class UnixGlob {
     }
   }
 
+  /**
+   * A {@link Future} for the matches of a single pattern of a glob over several patterns. It
+   * completes, and is canceled, together with the whole glob.
+   */
+  private static final class SinglePatternFuture implements Future<List<Path>> {
+    private final GlobFuture allPatterns;
+    private final Collection<Path> patternResults;
+
+    private SinglePatternFuture(GlobFuture allPatterns, Collection<Path> patternResults) {
+      this.allPatterns = allPatterns;
+      this.patternResults = patternResults;
+    }
+
+    @Override
+    public boolean cancel(boolean mayInterruptIfRunning) {
+      return allPatterns.cancel(mayInterruptIfRunning);
+    }
+
+    @Override
+    public boolean isCancelled() {
+      return allPatterns.isCancelled();
+    }
+
+    @Override
+    public boolean isDone() {
+      return allPatterns.isDone();
+    }
+
+    @Override
+    public List<Path> get() throws InterruptedException, ExecutionException {
+      allPatterns.get();
+      return ImmutableList.copyOf(patternResults);
+    }
+
+    @Override
+    public List<Path> get(long timeout, TimeUnit unit)
+        throws InterruptedException, ExecutionException, TimeoutException {
+      allPatterns.get(timeout, unit);
+      return ImmutableList.copyOf(patternResults);
+    }
+  }
+
+  /**
+   * A single pattern segment, compiled once for repeated matching against directory entries.
+   *
+   * <p>Matching is equivalent to {@link #matches(String, String, Cache)}, but the shape of the
+   * segment is classified up front, so the common {@code *}, {@code *.ext} and {@code prefix*}
+   * forms never look up or run a regular expression.
+   */
+  private static final class SegmentPattern {
+    private enum Kind {
+      ANY,
+      SUFFIX,
+      PREFIX,
+      REGEX
+    }
+
+    private final String pattern;
+    private final Kind kind;
+    @Nullable private final String fixedPart;
+    @Nullable private final Pattern regex;
+
+    private SegmentPattern(String pattern) {
+      this.pattern = pattern;
+      int lastIndex = pattern.length() - 1;
+      if (pattern.equals("*") || pattern.equals("**")) {
+        this.kind = Kind.ANY;
+        this.fixedPart = null;
+        this.regex = null;
+      } else if (pattern.charAt(0) == '*' && pattern.lastIndexOf('*') == 0) {
+        this.kind = Kind.SUFFIX;
+        this.fixedPart = pattern.substring(1);
+        this.regex = null;
+      } else if (pattern.charAt(lastIndex) == '*' && pattern.indexOf('*') == lastIndex) {
+        this.kind = Kind.PREFIX;
+        this.fixedPart = pattern.substring(0, lastIndex);
+        this.regex = null;
+      } else {
+        this.kind = Kind.REGEX;
+        this.fixedPart = null;
+        this.regex = makePatternFromWildcard(pattern);
+      }
+    }
+
+    private boolean matches(String str) {
+      if (str.isEmpty()) {
+        return false;
+      }
+      if (kind == Kind.ANY) {
+        return true;
+      }
+      // If a filename starts with '.', this char must be matched explicitly.
+      if (str.charAt(0) == '.' && pattern.charAt(0) != '.') {
+        return false;
+      }
+      switch (kind) {
+        case SUFFIX:
+          return str.endsWith(fixedPart);
+        case PREFIX:
+          return str.startsWith(fixedPart);
+        case REGEX:
+          return regex.matcher(str).matches();
+        default:
+          throw new IllegalStateException(pattern);
+      }
+    }
+  }
+
+  /**
+   * A node of the segment-level trie that all the patterns of a single glob are compiled into.
+   * Patterns with a common prefix share the nodes of that prefix, so each directory is listed and
+   * matched once per distinct prefix instead of once per pattern.
+   */
+  private static final class GlobTrieNode {
+    /** The patterns leading to this node, joined with '/'; used for debugging only. */
+    private final String prefix;
+
+    /** The segment leading to this node, if it contains wildcards other than "**". */
+    @Nullable private final SegmentPattern segmentPattern;
+
+    /**
+     * Whether this node was reached through a "**" segment, which may consume any number of
+     * further path segments.
+     */
+    private final boolean isRecursive;
+
+    /** The patterns ending at this node; paths reaching this node match them. */
+    private final List<String> patterns = new ArrayList<>();
+
+    /** The paths matching {@link #patterns}, filled in by the visitation. */
+    private final Collection<Path> results = Sets.newConcurrentHashSet();
+
+    /** The child reached through a "**" segment, if any. */
+    @Nullable private GlobTrieNode recursiveChild;
+
+    /** The children reached through segments without wildcards, which only need a stat. */
+    private final Map<String, GlobTrieNode> literalChildren = new LinkedHashMap<>();
+
+    /** The children reached through segments with wildcards, which need a readdir. */
+    private final Map<String, GlobTrieNode> wildcardChildren = new LinkedHashMap<>();
+
+    private GlobTrieNode(
+        String prefix, @Nullable SegmentPattern segmentPattern, boolean isRecursive) {
+      this.prefix = prefix;
+      this.segmentPattern = segmentPattern;
+      this.isRecursive = isRecursive;
+    }
+
+    private boolean isTerminal() {
+      return !patterns.isEmpty();
+    }
+
+    private GlobTrieNode getOrAddChild(String segment) {
+      String childPrefix = prefix.isEmpty() ? segment : prefix + "/" + segment;
+      if (GlobVisitor.isRecursivePattern(segment)) {
+        if (recursiveChild == null) {
+          recursiveChild = new GlobTrieNode(childPrefix, null, true);
+        }
+        return recursiveChild;
+      }
+      if (!segment.contains("*") && !segment.contains("?")) {
+        return literalChildren.computeIfAbsent(
+            segment, s -> new GlobTrieNode(childPrefix, null, false));
+      }
+      return wildcardChildren.computeIfAbsent(
+          segment, s -> new GlobTrieNode(childPrefix, new SegmentPattern(s), false));
+    }
+  }
+
   /**
    * GlobVisitor executes a glob using parallelism, which is useful when
    * the glob() requires many readdir() calls on high latency filesystems.
@@ -476,13 +664,7 @@ public final class UnixGlob {
   private static final class GlobVisitor {
     // These collections are used across workers and must therefore be thread-safe.
     private final Collection<Path> results = Sets.newConcurrentHashSet();
-    private final Cache<String, Pattern> cache = CacheBuilder.newBuilder().build(
-        new CacheLoader<String, Pattern>() {
-            @Override
-            public Pattern load(String wildcard) {
-              return makePatternFromWildcard(wildcard);
-            }
-          });
+    private final Map<String, Collection<Path>> resultsByPattern = new LinkedHashMap<>();
 
     private final GlobFuture result;
     private final ThreadPoolExecutor executor;
@@ -558,25 +740,28 @@ public final class UnixGlob {
 
       List<String[]> splitPatterns = checkAndSplitPatterns(patterns);
 
-      // We do a dumb loop, even though it will likely duplicate logical work (note that the
-      // physical filesystem operations are cached). In order to optimize, we would need to keep
-      // track of which patterns shared sub-patterns and which did not (for example consider the
-      // glob [*/*.java, sub/*.java, */*.txt]).
+      // All patterns are compiled into a single trie, so that patterns sharing a prefix (for
+      // example consider the glob [*/*.java, sub/*.java, */*.txt]) share the readdir() and the
+      // matching of that prefix instead of each redoing the work.
+      GlobTrieNode root = new GlobTrieNode("", null, false);
+      boolean containsRecursivePattern = false;
+      Iterator<String> patternIterator = patterns.iterator();
+      for (String[] splitPattern : splitPatterns) {
+        String pattern = patternIterator.next();
+        GlobTrieNode node = root;
+        for (String segment : splitPattern) {
+          node = node.getOrAddChild(segment);
+          containsRecursivePattern |= node.isRecursive;
+        }
+        node.patterns.add(pattern);
+        resultsByPattern.put(pattern, node.results);
+      }
+
+      GlobTaskContext context =
+          new GlobTaskContext(excludeDirectories, dirPred, syscalls, containsRecursivePattern);
       pendingOps.incrementAndGet();
       try {
-        for (String[] splitPattern : splitPatterns) {
-          boolean containsRecursivePattern = false;
-          for (String pattern : splitPattern) {
-            if (isRecursivePattern(pattern)) {
-              containsRecursivePattern = true;
-              break;
-            }
-          }
-          GlobTaskContext context = containsRecursivePattern
-              ? new RecursiveGlobTaskContext(splitPattern, excludeDirectories, dirPred, syscalls)
-              : new GlobTaskContext(splitPattern, excludeDirectories, dirPred, syscalls);
-          context.queueGlob(base, baseStat.isDirectory(), 0);
-        }
+        context.queueGlob(base, baseStat.isDirectory(), root);
       } finally {
         decrementAndCheckDone();
       }
@@ -584,15 +769,40 @@ public final class UnixGlob {
       return result;
     }
 
+    /**
+     * Same as {@link #globAsync}, except that it returns a separate {@link Future} for the matches
+     * of each pattern. The patterns are still evaluated together in a single visitation.
+     */
+    Map<String, Future<List<Path>>> globAsyncByPattern(
+        Path base,
+        Collection<String> patterns,
+        boolean excludeDirectories,
+        Predicate<Path> dirPred,
+        FilesystemCalls syscalls) {
+      Future<List<Path>> allPatterns =
+          globAsync(base, patterns, excludeDirectories, dirPred, syscalls);
+      Map<String, Future<List<Path>>> futures = new LinkedHashMap<>();
+      for (String pattern : patterns) {
+        Collection<Path> patternResults = resultsByPattern.get(pattern);
+        if (patternResults == null) {
+          // The glob completed without a visitation, see #globAsync.
+          futures.put(pattern, allPatterns);
+        } else {
+          futures.put(pattern, new SinglePatternFuture(result, patternResults));
+        }
+      }
+      return futures;
+    }
+
     /** Should only be called by link {@GlobTaskContext}. */
-    private void queueGlob(final Path base, final boolean baseIsDir, final int idx,
+    private void queueGlob(final Path base, final boolean baseIsDir, final GlobTrieNode node,
         final GlobTaskContext context) {
       enqueue(new Runnable() {
         @Override
         public void run() {
           Profiler.instance().startTask(ProfilerTask.VFS_GLOB, this);
           try {
-            reallyGlob(base, baseIsDir, idx, context);
+            reallyGlob(base, baseIsDir, node, context);
           } catch (IOException e) {
             failure.set(e);
           } finally {
@@ -603,9 +813,9 @@ public final class UnixGlob {
         @Override
         public String toString() {
           return String.format(
-                  "%s glob(include=[%s], exclude_directories=%s)",
+                  "%s glob(include=[\"%s/...\"], exclude_directories=%s)",
                   base.getPathString(),
-                  "\"" + Joiner.on("\", \"").join(context.patternParts) + "\"",
+                  node.prefix,
                   context.excludeDirectories);
         }
       });
@@ -656,88 +866,74 @@ public final class UnixGlob {
       }
     }
 
-    /** A context for evaluating all the subtasks of a single top-level glob task. */
+    private void addResult(Path path, GlobTrieNode node) {
+      results.add(path);
+      node.results.add(path);
+    }
+
+    /**
+     * A context for evaluating all the subtasks of a single top-level glob task.
+     *
+     * <p>If any of the patterns is recursive, subtasks are deduped. Our naive implementation of
+     * recursive patterns means there are multiple ways to enqueue the same logical subtask.
+     */
     private class GlobTaskContext {
-      private final String[] patternParts;
       private final boolean excludeDirectories;
       private final Predicate<Path> dirPred;
       private final FilesystemCalls syscalls;
+      @Nullable private final Set<GlobTask> visitedGlobSubTasks;
 
       GlobTaskContext(
-          String[] patternParts,
           boolean excludeDirectories,
           Predicate<Path> dirPred,
-          FilesystemCalls syscalls) {
-        this.patternParts = patternParts;
+          FilesystemCalls syscalls,
+          boolean containsRecursivePattern) {
         this.excludeDirectories = excludeDirectories;
         this.dirPred = dirPred;
         this.syscalls = syscalls;
+        this.visitedGlobSubTasks =
+            containsRecursivePattern ? Sets.<GlobTask>newConcurrentHashSet() : null;
       }
 
-      protected void queueGlob(Path base, boolean baseIsDir, int patternIdx) {
-        GlobVisitor.this.queueGlob(base, baseIsDir, patternIdx, this);
+      protected void queueGlob(Path base, boolean baseIsDir, GlobTrieNode node) {
+        if (visitedGlobSubTasks != null && !visitedGlobSubTasks.add(new GlobTask(base, node))) {
+          // This is not a unique glob task. For example of how duplicates can arise, consider:
+          //   glob(['**/**'])
+          // Every subdirectory can be reached both by recursing into it while matching the first
+          // '**' and then matching the second '**' against nothing, and by matching the first
+          // '**' against nothing and then recursing into it while matching the second '**'.
+          return;
+        }
+        GlobVisitor.this.queueGlob(base, baseIsDir, node, this);
       }
     }
 
-    /**
-     * A special implementation of {@link GlobTaskContext} that dedupes glob subtasks. Our naive
-     * implementation of recursive patterns means there are multiple ways to enqueue the same
-     * logical subtask.
-     */
-    private class RecursiveGlobTaskContext extends GlobTaskContext {
+    private static final class GlobTask {
+      private final Path base;
+      private final GlobTrieNode node;
 
-      private class GlobTask {
-        private final Path base;
-        private final int patternIdx;
-
-        private GlobTask(Path base, int patternIdx) {
-          this.base = base;
-          this.patternIdx = patternIdx;
-        }
-
-        @Override
-        public boolean equals(Object obj) {
-          if (!(obj instanceof GlobTask)) {
-            return false;
-          }
-          GlobTask other = (GlobTask) obj;
-          return base.equals(other.base) && patternIdx == other.patternIdx;
-        }
-
-        @Override
-        public int hashCode() {
-          return Objects.hash(base, patternIdx);
-        }
+      private GlobTask(Path base, GlobTrieNode node) {
+        this.base = base;
+        this.node = node;
       }
 
-      private final Set<GlobTask> visitedGlobSubTasks = Sets.newConcurrentHashSet();
-
-      private RecursiveGlobTaskContext(
-          String[] patternParts,
-          boolean excludeDirectories,
-          Predicate<Path> dirPred,
-          FilesystemCalls syscalls) {
-        super(patternParts, excludeDirectories, dirPred, syscalls);
+      @Override
+      public boolean equals(Object obj) {
+        if (!(obj instanceof GlobTask)) {
+          return false;
+        }
+        GlobTask other = (GlobTask) obj;
+        return base.equals(other.base) && node == other.node;
       }
 
       @Override
-      protected void queueGlob(Path base, boolean baseIsDir, int patternIdx) {
-        if (visitedGlobSubTasks.add(new GlobTask(base, patternIdx))) {
-          // This is a unique glob task. For example of how duplicates can arise, consider:
-          //   glob(['**/foo.txt'])
-          // with the only file being
-          //   a/foo.txt
-          //
-          // there are two ways to reach a/foo.txt: one by recursively globbing 'foo.txt' in the
-          // subdirectory 'a', and another other by recursively globbing '**/foo.txt' in the
-          // subdirectory 'a'.
-          super.queueGlob(base, baseIsDir, patternIdx);
-        }
+      public int hashCode() {
+        return Objects.hash(base, System.identityHashCode(node));
       }
     }
 
     /**
-     * Expressed in Haskell:
+     * Expressed in Haskell, where {@code xs} ranges over the segments leaving the trie node:
      * <pre>
      *  reallyGlob base []     = { base }
      *  reallyGlob base [x:xs] = union { reallyGlob(f, xs) | f results "base/x" }
@@ -746,18 +942,16 @@ public final class UnixGlob {
     private void reallyGlob(
         Path base,
         boolean baseIsDir,
-        int idx,
+        GlobTrieNode node,
         GlobTaskContext context) throws IOException {
       if (baseIsDir && !context.dirPred.apply(base)) {
         return;
       }
 
-      if (idx == context.patternParts.length) { // Base case.
+      if (node.isTerminal()) { // Base case.
         if (!(context.excludeDirectories && baseIsDir)) {
-          results.add(base);
+          addResult(base, node);
         }
-
-        return;
       }
 
       if (!baseIsDir) {
@@ -765,26 +959,26 @@ public final class UnixGlob {
         return;
       }
 
-      final String pattern = context.patternParts[idx];
-
       // ** is special: it can match nothing at all.
       // For example, x/** matches x, **/y matches y, and x/**/y matches x/y.
-      final boolean isRecursivePattern = isRecursivePattern(pattern);
-      if (isRecursivePattern) {
-        context.queueGlob(base, baseIsDir, idx + 1);
+      if (node.recursiveChild != null) {
+        context.queueGlob(base, baseIsDir, node.recursiveChild);
       }
 
-      if (!pattern.contains("*") && !pattern.contains("?")) {
-        // We do not need to do a readdir in this case, just a stat.
-        Path child = base.getChild(pattern);
+      for (Map.Entry<String, GlobTrieNode> literalChild : node.literalChildren.entrySet()) {
+        // We do not need to do a readdir for this segment, just a stat.
+        Path child = base.getChild(literalChild.getKey());
         FileStatus status = context.syscalls.statIfFound(child, Symlinks.FOLLOW);
         if (status == null || (!status.isDirectory() && !status.isFile())) {
           // The file is a dangling symlink, fifo, does not exist, etc.
-          return;
+          continue;
         }
 
         boolean childIsDir = status.isDirectory();
-        context.queueGlob(child, childIsDir, idx + 1);
+        context.queueGlob(child, childIsDir, literalChild.getValue());
+      }
+
+      if (!node.isRecursive && node.wildcardChildren.isEmpty()) {
         return;
       }
 
@@ -800,20 +994,24 @@ public final class UnixGlob {
         String text = dent.getName();
         Path child = base.getChild(text);
 
-        if (isRecursivePattern) {
+        if (node.isRecursive) {
           // Recurse without shifting the pattern.
           if (childIsDir) {
-            context.queueGlob(child, childIsDir, idx);
+            context.queueGlob(child, childIsDir, node);
+          } else if (node.isTerminal()) {
+            // The "**" consumes the file name. Instead of using an async call, just repeat the
+            // base case above.
+            addResult(child, node);
           }
         }
-        if (matches(pattern, text, cache)) {
-          // Recurse and consume one segment of the pattern.
-          if (childIsDir) {
-            context.queueGlob(child, childIsDir, idx + 1);
-          } else {
-            // Instead of using an async call, just repeat the base case above.
-            if (idx + 1 == context.patternParts.length) {
-              results.add(child);
+        for (GlobTrieNode wildcardChild : node.wildcardChildren.values()) {
+          if (wildcardChild.segmentPattern.matches(text)) {
+            // Recurse and consume one segment of the pattern.
+            if (childIsDir) {
+              context.queueGlob(child, childIsDir, wildcardChild);
+            } else if (wildcardChild.isTerminal()) {
+              // Instead of using an async call, just repeat the base case above.
+              addResult(child, wildcardChild);
             }
           }
         }
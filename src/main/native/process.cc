@@ -14,8 +14,24 @@
 
 #include <jni.h>
 
+#include <dirent.h>
+#include <errno.h>
+#include <fcntl.h>
+#include <pthread.h>
+#include <signal.h>
+#include <stdlib.h>
+#include <sys/syscall.h>
+#include <sys/types.h>
+#include <sys/wait.h>
 #include <unistd.h>
 
+#include <string>
+#include <vector>
+
+#include "src/main/native/unix_jni.h"
+
+extern char **environ;
+
 /*
  * Class:     com.google.devtools.build.lib.unix.ProcessUtils
  * Method:    getgid
@@ -45,3 +61,425 @@ extern "C" JNIEXPORT jint JNICALL
 Java_com_google_devtools_build_lib_unix_ProcessUtils_getuid(JNIEnv *env, jclass clazz) {
   return getuid();
 }
+
+namespace {
+
+// Copies a Java byte array into a string.
+std::string ToString(JNIEnv *env, jbyteArray bytes) {
+  jsize length = env->GetArrayLength(bytes);
+  std::string result(length, '\0');
+  env->GetByteArrayRegion(bytes, 0, length,
+                          reinterpret_cast<jbyte *>(&result[0]));
+  return result;
+}
+
+// Copies a Java array of byte arrays into a vector of strings.
+std::vector<std::string> ToStrings(JNIEnv *env, jobjectArray array) {
+  jsize length = env->GetArrayLength(array);
+  std::vector<std::string> result;
+  result.reserve(length);
+  for (jsize i = 0; i < length; i++) {
+    jbyteArray element =
+        static_cast<jbyteArray>(env->GetObjectArrayElement(array, i));
+    result.push_back(ToString(env, element));
+    env->DeleteLocalRef(element);
+  }
+  return result;
+}
+
+// Returns a NULL-terminated array of pointers into the given strings, as
+// expected by execve(2).
+std::vector<char *> ToPointers(std::vector<std::string> *strings) {
+  std::vector<char *> result;
+  result.reserve(strings->size() + 1);
+  for (std::string &s : *strings) {
+    result.push_back(&s[0]);
+  }
+  result.push_back(nullptr);
+  return result;
+}
+
+bool SetCloseOnExec(int fd) {
+  int flags = fcntl(fd, F_GETFD);
+  return flags != -1 && fcntl(fd, F_SETFD, flags | FD_CLOEXEC) != -1;
+}
+
+// Like pipe(2), but with both ends close-on-exec. pipe2(2) is Linux-only.
+bool CreatePipe(int fds[2]) {
+  if (pipe(fds) == -1) {
+    return false;
+  }
+  if (!SetCloseOnExec(fds[0]) || !SetCloseOnExec(fds[1])) {
+    int error = errno;
+    close(fds[0]);
+    close(fds[1]);
+    errno = error;
+    return false;
+  }
+  return true;
+}
+
+void CloseIfOpen(int fd) {
+  if (fd != -1) {
+    close(fd);
+  }
+}
+
+#if defined(__linux__) && defined(SYS_close_range)
+#ifndef CLOSE_RANGE_CLOEXEC
+#define CLOSE_RANGE_CLOEXEC (1U << 2)
+#endif
+#endif
+
+#ifdef __linux__
+// Marks the file descriptors listed in /proc/self/fd above stderr
+// close-on-exec. Returns false if they could not be listed. Only makes system
+// calls, reading the directory with getdents64(2) into a buffer on the stack,
+// as opendir(3) would allocate.
+bool CloseListedFdsOnExec() {
+  int dir_fd = open("/proc/self/fd", O_RDONLY | O_DIRECTORY | O_CLOEXEC);
+  if (dir_fd == -1) {
+    return false;
+  }
+  alignas(struct dirent64) char buffer[4096];
+  long bytes;
+  while ((bytes = syscall(SYS_getdents64, dir_fd, buffer, sizeof(buffer))) >
+         0) {
+    for (long offset = 0; offset < bytes;) {
+      struct dirent64 *entry =
+          reinterpret_cast<struct dirent64 *>(buffer + offset);
+      offset += entry->d_reclen;
+      int fd = 0;
+      const char *digit = entry->d_name;
+      if (*digit < '0' || *digit > '9') {
+        continue;  // "." and ".."
+      }
+      for (; *digit >= '0' && *digit <= '9'; digit++) {
+        fd = fd * 10 + (*digit - '0');
+      }
+      if (fd > STDERR_FILENO && fd != dir_fd) {
+        fcntl(fd, F_SETFD, FD_CLOEXEC);
+      }
+    }
+  }
+  close(dir_fd);
+  return bytes == 0;
+}
+#endif
+
+// Marks all file descriptors above stderr close-on-exec, so that the child
+// does not inherit the ones the JVM opened without the flag. Runs in the
+// child, so it only makes system calls. The child lists its own descriptors,
+// since other threads of the parent may open and close theirs meanwhile.
+// Walking up to max_fd, the result of sysconf(_SC_OPEN_MAX) taken in the
+// parent, is the last resort: HotSpot raises the soft RLIMIT_NOFILE to the
+// hard limit, which can be a million descriptors.
+void CloseOtherFdsOnExec(long max_fd) {
+#if defined(__linux__) && defined(SYS_close_range)
+  // Available since Linux 5.11; older kernels fail with ENOSYS or EINVAL.
+  if (syscall(SYS_close_range, STDERR_FILENO + 1, ~0U, CLOSE_RANGE_CLOEXEC) ==
+      0) {
+    return;
+  }
+#endif
+#ifdef __linux__
+  if (CloseListedFdsOnExec()) {
+    return;
+  }
+#endif
+  for (long fd = STDERR_FILENO + 1; fd < max_fd; fd++) {
+    fcntl(fd, F_SETFD, FD_CLOEXEC);
+  }
+}
+
+// Resets the handlers of all signals the parent catches to the default, so
+// that no handler of the JVM runs in the child once signals are unblocked.
+// Ignored signals stay ignored, as they would across execve(2).
+void ResetSignalHandlers() {
+  struct sigaction default_action = {};
+  default_action.sa_handler = SIG_DFL;
+  for (int sig = 1; sig < NSIG; sig++) {
+    struct sigaction action;
+    if (sig == SIGKILL || sig == SIGSTOP ||
+        sigaction(sig, nullptr, &action) == -1) {
+      continue;
+    }
+    if (action.sa_handler != SIG_DFL && action.sa_handler != SIG_IGN) {
+      sigaction(sig, &default_action, nullptr);
+    }
+  }
+}
+
+// Sends errno to the parent through error_fd and exits the child.
+void ReportChildError(int error_fd) {
+  int error = errno;
+  while (write(error_fd, &error, sizeof(error)) == -1 && errno == EINTR) {
+  }
+  _exit(127);
+}
+
+// Runs in the child between vfork(2) and execve(2). As the child shares the
+// memory of the parent, this must not change any state of the parent, nor
+// allocate. All signals are blocked when it starts.
+void ExecChild(const char *path, char **argv, char **envp, const char *cwd,
+               int stdin_fd, int stdout_fd, int stderr_fd, int error_fd,
+               long max_fd) {
+  if (dup2(stdin_fd, STDIN_FILENO) == -1 ||
+      dup2(stdout_fd, STDOUT_FILENO) == -1 ||
+      dup2(stderr_fd, STDERR_FILENO) == -1) {
+    ReportChildError(error_fd);
+  }
+  if (cwd != nullptr && chdir(cwd) == -1) {
+    ReportChildError(error_fd);
+  }
+  CloseOtherFdsOnExec(max_fd);
+  ResetSignalHandlers();
+  sigset_t signals;
+  sigemptyset(&signals);
+  sigprocmask(SIG_SETMASK, &signals, nullptr);
+  execve(path, argv, envp);
+  ReportChildError(error_fd);
+}
+
+// Opens the file that a redirected output stream of the child is appended
+// to.
+int OpenRedirect(JNIEnv *env, jbyteArray java_path) {
+  std::string path = ToString(env, java_path);
+  int fd = open(path.c_str(), O_WRONLY | O_CREAT | O_APPEND, 0666);
+  if (fd == -1) {
+    PostFileException(env, errno, path.c_str());
+  } else if (!SetCloseOnExec(fd)) {
+    PostFileException(env, errno, path.c_str());
+    close(fd);
+    fd = -1;
+  }
+  return fd;
+}
+
+}  // namespace
+
+/*
+ * Class:     com.google.devtools.build.lib.unix.NativeProcesses
+ * Method:    spawn
+ * Signature: ([B[[B[[B[B[B[B)[I
+ *
+ * Starts a process with vfork(2) and execve(2). Returns its pid followed by
+ * the file descriptors of the pipes to its stdin, stdout and stderr; the
+ * latter two are -1 if stdout_path or stderr_path are given.
+ */
+extern "C" JNIEXPORT jintArray JNICALL
+Java_com_google_devtools_build_lib_unix_NativeProcesses_spawn(
+    JNIEnv *env, jclass clazz, jbyteArray java_path, jobjectArray java_argv,
+    jobjectArray java_envp, jbyteArray java_cwd, jbyteArray java_stdout_path,
+    jbyteArray java_stderr_path) {
+  // Everything the child needs is prepared here, as it must not allocate.
+  std::string path = ToString(env, java_path);
+  std::vector<std::string> argv_strings = ToStrings(env, java_argv);
+  std::vector<char *> argv = ToPointers(&argv_strings);
+  std::vector<std::string> envp_strings;
+  std::vector<char *> envp;
+  char **envp_pointer = environ;
+  if (java_envp != nullptr) {
+    envp_strings = ToStrings(env, java_envp);
+    envp = ToPointers(&envp_strings);
+    envp_pointer = envp.data();
+  }
+  std::string cwd;
+  if (java_cwd != nullptr) {
+    cwd = ToString(env, java_cwd);
+  }
+
+  int stdin_pipe[2] = {-1, -1};
+  int stdout_pipe[2] = {-1, -1};
+  int stderr_pipe[2] = {-1, -1};
+  int error_pipe[2] = {-1, -1};
+  if (!CreatePipe(stdin_pipe) || !CreatePipe(error_pipe)) {
+    PostException(env, errno, "pipe");
+  } else if (java_stdout_path != nullptr) {
+    stdout_pipe[1] = OpenRedirect(env, java_stdout_path);
+  } else if (!CreatePipe(stdout_pipe)) {
+    PostException(env, errno, "pipe");
+  }
+  if (!env->ExceptionCheck()) {
+    if (java_stderr_path != nullptr) {
+      stderr_pipe[1] = OpenRedirect(env, java_stderr_path);
+    } else if (!CreatePipe(stderr_pipe)) {
+      PostException(env, errno, "pipe");
+    }
+  }
+
+  long max_fd = sysconf(_SC_OPEN_MAX);
+  pid_t pid = -1;
+  if (!env->ExceptionCheck()) {
+    // Block all signals, so that no handler of the JVM runs in the child
+    // before it has reset them.
+    sigset_t all_signals;
+    sigset_t old_signals;
+    sigfillset(&all_signals);
+    pthread_sigmask(SIG_SETMASK, &all_signals, &old_signals);
+    pid = vfork();
+    if (pid == 0) {
+      ExecChild(path.c_str(), argv.data(), envp_pointer,
+                java_cwd != nullptr ? cwd.c_str() : nullptr, stdin_pipe[0],
+                stdout_pipe[1], stderr_pipe[1], error_pipe[1], max_fd);
+    }
+    int vfork_error = errno;
+    pthread_sigmask(SIG_SETMASK, &old_signals, nullptr);
+    if (pid == -1) {
+      PostException(env, vfork_error, "vfork");
+    }
+  }
+
+  // The ends of the child are not needed by the parent.
+  CloseIfOpen(stdin_pipe[0]);
+  CloseIfOpen(stdout_pipe[1]);
+  CloseIfOpen(stderr_pipe[1]);
+  CloseIfOpen(error_pipe[1]);
+
+  if (pid > 0) {
+    // The error pipe is closed on a successful execve(2); otherwise the child
+    // sends the errno of the call that failed before it exits.
+    int error;
+    ssize_t bytes_read;
+    while ((bytes_read = read(error_pipe[0], &error, sizeof(error))) == -1 &&
+           errno == EINTR) {
+    }
+    if (bytes_read == sizeof(error)) {
+      while (waitpid(pid, nullptr, 0) == -1 && errno == EINTR) {
+      }
+      PostException(env, error,
+                    "Cannot run program \"" + argv_strings[0] +
+                        "\": " + ErrorMessage(error));
+    }
+  }
+  CloseIfOpen(error_pipe[0]);
+
+  if (env->ExceptionCheck()) {
+    CloseIfOpen(stdin_pipe[1]);
+    CloseIfOpen(stdout_pipe[0]);
+    CloseIfOpen(stderr_pipe[0]);
+    return nullptr;
+  }
+
+  jint result[] = {pid, stdin_pipe[1], stdout_pipe[0], stderr_pipe[0]};
+  jintArray java_result = env->NewIntArray(4);
+  if (java_result != nullptr) {
+    env->SetIntArrayRegion(java_result, 0, 4, result);
+  }
+  return java_result;
+}
+
+/*
+ * Class:     com.google.devtools.build.lib.unix.NativeProcesses
+ * Method:    waitForExit
+ * Signature: (I)V
+ *
+ * Blocks until the process has exited, without reaping it.
+ */
+extern "C" JNIEXPORT void JNICALL
+Java_com_google_devtools_build_lib_unix_NativeProcesses_waitForExit(
+    JNIEnv *env, jclass clazz, jint pid) {
+  siginfo_t info;
+  while (waitid(P_PID, pid, &info, WEXITED | WNOWAIT) == -1) {
+    if (errno != EINTR) {
+      PostException(env, errno, "waitid");
+      return;
+    }
+  }
+}
+
+/*
+ * Class:     com.google.devtools.build.lib.unix.NativeProcesses
+ * Method:    reap
+ * Signature: (I)I
+ *
+ * Reaps the exited process. Returns its exit code, or 128 plus the number of
+ * the signal that terminated it, like java.lang.Process#exitValue().
+ */
+extern "C" JNIEXPORT jint JNICALL
+Java_com_google_devtools_build_lib_unix_NativeProcesses_reap(
+    JNIEnv *env, jclass clazz, jint pid) {
+  int status;
+  while (waitpid(pid, &status, 0) == -1) {
+    if (errno != EINTR) {
+      PostException(env, errno, "waitpid");
+      return -1;
+    }
+  }
+  return WIFEXITED(status) ? WEXITSTATUS(status) : 128 + WTERMSIG(status);
+}
+
+/*
+ * Class:     com.google.devtools.build.lib.unix.NativeProcesses
+ * Method:    kill
+ * Signature: (II)Z
+ */
+extern "C" JNIEXPORT jboolean JNICALL
+Java_com_google_devtools_build_lib_unix_NativeProcesses_kill(
+    JNIEnv *env, jclass clazz, jint pid, jint signal) {
+  return kill(pid, signal) == 0;
+}
+
+/*
+ * Class:     com.google.devtools.build.lib.unix.NativeProcesses
+ * Method:    read
+ * Signature: (I[BII)I
+ *
+ * Returns the number of bytes read, or -1 at the end of the stream.
+ */
+extern "C" JNIEXPORT jint JNICALL
+Java_com_google_devtools_build_lib_unix_NativeProcesses_read(
+    JNIEnv *env, jclass clazz, jint fd, jbyteArray java_buffer, jint offset,
+    jint length) {
+  std::vector<jbyte> buffer(length);
+  ssize_t bytes_read;
+  while ((bytes_read = read(fd, buffer.data(), length)) == -1) {
+    if (errno != EINTR) {
+      PostException(env, errno, "read");
+      return -1;
+    }
+  }
+  if (bytes_read == 0) {
+    return -1;
+  }
+  env->SetByteArrayRegion(java_buffer, offset, bytes_read, buffer.data());
+  return bytes_read;
+}
+
+/*
+ * Class:     com.google.devtools.build.lib.unix.NativeProcesses
+ * Method:    write
+ * Signature: (I[BII)V
+ */
+extern "C" JNIEXPORT void JNICALL
+Java_com_google_devtools_build_lib_unix_NativeProcesses_write(
+    JNIEnv *env, jclass clazz, jint fd, jbyteArray java_buffer, jint offset,
+    jint length) {
+  std::vector<jbyte> buffer(length);
+  env->GetByteArrayRegion(java_buffer, offset, length, buffer.data());
+  jint written = 0;
+  while (written < length) {
+    ssize_t result = write(fd, buffer.data() + written, length - written);
+    if (result == -1) {
+      if (errno != EINTR) {
+        PostException(env, errno, "write");
+        return;
+      }
+    } else {
+      written += result;
+    }
+  }
+}
+
+/*
+ * Class:     com.google.devtools.build.lib.unix.NativeProcesses
+ * Method:    close
+ * Signature: (I)V
+ */
+extern "C" JNIEXPORT void JNICALL
+Java_com_google_devtools_build_lib_unix_NativeProcesses_close(
+    JNIEnv *env, jclass clazz, jint fd) {
+  if (close(fd) == -1 && errno != EINTR) {
+    PostException(env, errno, "close");
+  }
+}
@@ -172,4 +172,32 @@ public class BinaryFormatFileTransportTest {
       assertThat(in.available()).isEqualTo(0);
     }
   }
+
+  @Test
+  public void testManyEventsAreWrittenInOrder() throws Exception {
+    File output = tmp.newFile();
+    BinaryFormatFileTransport transport =
+        new BinaryFormatFileTransport(output.getAbsolutePath(), pathConverter);
+
+    int numEvents = 3 * FileTransport.MAX_PENDING_EVENTS;
+    for (int i = 0; i < numEvents; i++) {
+      BuildEventStreamProtos.BuildEvent started =
+          BuildEventStreamProtos.BuildEvent.newBuilder()
+              .setStarted(BuildStarted.newBuilder().setCommand("build" + i))
+              .build();
+      when(buildEvent.asStreamProto(Matchers.<BuildEventConverters>any())).thenReturn(started);
+      transport.sendBuildEvent(buildEvent, artifactGroupNamer);
+    }
+
+    transport.close().get();
+    assertThat(transport.getMaxPendingEvents()).isAtMost(FileTransport.MAX_PENDING_EVENTS);
+    try (InputStream in = new FileInputStream(output)) {
+      for (int i = 0; i < numEvents; i++) {
+        BuildEventStreamProtos.BuildEvent event =
+            BuildEventStreamProtos.BuildEvent.parseDelimitedFrom(in);
+        assertThat(event.getStarted().getCommand()).isEqualTo("build" + i);
+      }
+      assertThat(in.available()).isEqualTo(0);
+    }
+  }
 }
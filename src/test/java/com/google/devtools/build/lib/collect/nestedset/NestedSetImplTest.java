@@ -216,6 +216,46 @@ public class NestedSetImplTest {
     }
   }
 
+  @Test
+  public void smallSets() {
+    for (Order order : Order.values()) {
+      NestedSetBuilder<String> builder = new NestedSetBuilder<>(order);
+      assertThat(builder.isEmpty()).isTrue();
+      assertThat(builder.addAll(Lists.<String>newArrayList()).isEmpty()).isTrue();
+      assertThat(builder.build()).isSameAs(order.emptySet());
+
+      NestedSet<String> singleton = builder.add("a").build();
+      assertThat(singleton.toList()).containsExactly("a");
+      assertThat(singleton.getOrder()).isEqualTo(order);
+      assertThat(singleton.shallowEquals(NestedSetBuilder.create(order, "a"))).isTrue();
+
+      NestedSet<String> pair = builder.addAll(Lists.newArrayList("b", "a")).build();
+      assertThat(pair.toList()).containsExactly("a", "b");
+      assertThat(new NestedSetBuilder<String>(order).addTransitive(singleton).add("a").build()
+          .toList()).containsExactly("a");
+    }
+  }
+
+  @Test
+  public void largeFlattenedSetsAreShared() {
+    NestedSetBuilder<Integer> inner = NestedSetBuilder.stableOrder();
+    for (int i = 0; i < 1000; i++) {
+      inner.add(i);
+    }
+    NestedSet<Integer> set =
+        NestedSetBuilder.<Integer>stableOrder().add(-1).addTransitive(inner.build()).build();
+    assertThat(set.toList()).hasSize(1001);
+    assertThat(set.toList()).isSameAs(set.toList());
+
+    NestedSet<Integer> small =
+        NestedSetBuilder.<Integer>stableOrder()
+            .add(-1)
+            .addTransitive(NestedSetBuilder.create(Order.STABLE_ORDER, 1, 2))
+            .build();
+    assertThat(small.toList()).containsExactly(1, 2, -1).inOrder();
+    assertThat(small.toList()).isEqualTo(small.toList());
+  }
+
   private NestedSet<Integer> createNestedSet(Order order, int numDirects, int numTransitives,
       Order transitiveOrder) {
     NestedSetBuilder<Integer> builder = new NestedSetBuilder<>(order);
@@ -0,0 +1,180 @@
+// Copyright 2017 The Bazel Authors. All rights reserved.
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//    http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+package com.google.devtools.build.lib.exec.local;
+
+import static com.google.common.truth.Truth.assertThat;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.verifyZeroInteractions;
+import static org.mockito.Mockito.when;
+
+import com.google.common.collect.ImmutableList;
+import com.google.devtools.build.lib.actions.ActionInput;
+import com.google.devtools.build.lib.actions.ActionInputFileCache;
+import com.google.devtools.build.lib.actions.Spawn;
+import com.google.devtools.build.lib.exec.SpawnResult;
+import com.google.devtools.build.lib.exec.SpawnResult.Status;
+import com.google.devtools.build.lib.exec.SpawnRunner;
+import com.google.devtools.build.lib.exec.SpawnRunner.ProgressStatus;
+import com.google.devtools.build.lib.exec.SpawnRunner.SpawnExecutionPolicy;
+import com.google.devtools.build.lib.exec.util.SpawnBuilder;
+import com.google.devtools.build.lib.testutil.TestUtils;
+import com.google.devtools.build.lib.util.io.FileOutErr;
+import com.google.devtools.build.lib.vfs.FileSystemUtils;
+import com.google.devtools.build.lib.vfs.Path;
+import com.google.devtools.build.lib.vfs.PathFragment;
+import com.google.devtools.build.lib.vfs.util.FileSystems;
+import com.google.devtools.common.options.Options;
+import java.io.IOException;
+import java.util.SortedMap;
+import java.util.TreeMap;
+import java.util.regex.Pattern;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.junit.runners.JUnit4;
+
+/** Tests for {@link LocalBatchSpawnRunner}. */
+@RunWith(JUnit4.class)
+public class LocalBatchSpawnRunnerTest {
+
+  private final class SpawnExecutionPolicyForTesting implements SpawnExecutionPolicy {
+    @Override
+    public void lockOutputFiles() throws InterruptedException {
+      // Do nothing.
+    }
+
+    @Override
+    public ActionInputFileCache getActionInputFileCache() {
+      return mock(ActionInputFileCache.class);
+    }
+
+    @Override
+    public long getTimeoutMillis() {
+      return timeoutMillis;
+    }
+
+    @Override
+    public FileOutErr getFileOutErr() {
+      return outErr;
+    }
+
+    @Override
+    public SortedMap<PathFragment, ActionInput> getInputMapping() {
+      return new TreeMap<>();
+    }
+
+    @Override
+    public void report(ProgressStatus state) {
+      // Do nothing.
+    }
+  }
+
+  private final SpawnRunner delegate = mock(SpawnRunner.class);
+  private final SpawnExecutionPolicy policy = new SpawnExecutionPolicyForTesting();
+  private Path execRoot;
+  private FileOutErr outErr;
+  private long timeoutMillis = 0;
+  private LocalBatchSpawnRunner runner;
+
+  @Before
+  public final void setUp() throws Exception {
+    execRoot =
+        FileSystems.getNativeFileSystem().getPath(TestUtils.tmpDir()).getRelative("execroot");
+    FileSystemUtils.deleteTree(execRoot);
+    execRoot.createDirectory();
+    outErr = new FileOutErr(execRoot.getRelative("stdout"), execRoot.getRelative("stderr"));
+
+    LocalExecutionOptions options = Options.getDefaults(LocalExecutionOptions.class);
+    options.localBatchMnemonics = Pattern.compile("Cheap");
+    options.localBatchHelpers = 1;
+    runner =
+        new LocalBatchSpawnRunner(
+            execRoot,
+            ImmutableList.of("/bin/sh"),
+            options,
+            "product-name",
+            LocalEnvProvider.UNMODIFIED,
+            delegate);
+  }
+
+  @After
+  public final void tearDown() {
+    runner.close();
+  }
+
+  private static Spawn cheapSpawn(String script) {
+    return new SpawnBuilder("/bin/sh", "-c", script).withMnemonic("Cheap").build();
+  }
+
+  private String readStdout() throws IOException {
+    return new String(FileSystemUtils.readContentAsLatin1(outErr.getOutputPath()));
+  }
+
+  @Test
+  public void testRunsSpawnInHelper() throws Exception {
+    Spawn spawn =
+        new SpawnBuilder("/bin/sh", "-c", "echo \"$FOO\" 'it''s'; pwd; echo oops >&2; exit 3")
+            .withMnemonic("Cheap")
+            .withEnvironment("FOO", "a b")
+            .build();
+    SpawnResult result = runner.exec(spawn, policy);
+
+    assertThat(result.status()).isEqualTo(Status.SUCCESS);
+    assertThat(result.exitCode()).isEqualTo(3);
+    assertThat(readStdout()).isEqualTo("a b its\n" + execRoot.getPathString() + "\n");
+    assertThat(outErr.errAsLatin1()).isEqualTo("oops\n");
+    verifyZeroInteractions(delegate);
+  }
+
+  @Test
+  public void testEnvironmentIsNotInherited() throws Exception {
+    runner.exec(cheapSpawn("echo \"${HOME:-unset}\""), policy);
+    assertThat(readStdout()).isEqualTo("unset\n");
+  }
+
+  @Test
+  public void testReusesHelper() throws Exception {
+    runner.exec(cheapSpawn("echo $PPID"), policy);
+    String firstHelper = readStdout();
+    runner.exec(cheapSpawn("echo $PPID"), policy);
+    assertThat(readStdout()).isEqualTo(firstHelper);
+  }
+
+  @Test
+  public void testTimeoutReplacesHelper() throws Exception {
+    runner.exec(cheapSpawn("echo $PPID"), policy);
+    String firstHelper = readStdout();
+
+    timeoutMillis = 100;
+    SpawnResult result = runner.exec(cheapSpawn("sleep 10"), policy);
+    assertThat(result.status()).isEqualTo(Status.TIMEOUT);
+    assertThat(result.exitCode()).isEqualTo(LocalSpawnRunner.POSIX_TIMEOUT_EXIT_CODE);
+
+    timeoutMillis = 0;
+    result = runner.exec(cheapSpawn("echo $PPID"), policy);
+    assertThat(result.status()).isEqualTo(Status.SUCCESS);
+    assertThat(readStdout()).isNotEqualTo(firstHelper);
+  }
+
+  @Test
+  public void testOtherMnemonicsGoToDelegate() throws Exception {
+    Spawn spawn = new SpawnBuilder("/bin/true").withMnemonic("Expensive").build();
+    SpawnResult expected = new SpawnResult.Builder().setStatus(Status.SUCCESS).build();
+    when(delegate.exec(spawn, policy)).thenReturn(expected);
+    assertThat(runner.exec(spawn, policy)).isSameAs(expected);
+    verify(delegate).exec(spawn, policy);
+  }
+}
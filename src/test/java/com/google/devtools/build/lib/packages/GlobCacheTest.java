@@ -187,6 +187,23 @@ public class GlobCacheTest {
         "first.txt", "second.txt", "first.js");
   }
 
+  @Test
+  public void testGlobWithSharedPrefixes() throws Exception {
+    assertThat(
+            cache.globUnsorted(
+                list("**/*.js", "foo/*.js", "*.txt"), list("foo/first.js", "**/second.*"), false))
+        .containsExactly("first.js", "first.txt", "bar/first.js");
+    assertThat(cache.getKeySet())
+        .containsExactly(
+            Pair.of("**/*.js", false),
+            Pair.of("foo/*.js", false),
+            Pair.of("*.txt", false),
+            Pair.of("foo/first.js", false),
+            Pair.of("**/second.*", false));
+    // Each pattern is also cached separately.
+    assertThat(cache.getGlobUnsorted("foo/*.js")).containsExactly("foo/first.js", "foo/second.js");
+  }
+
   @Test
   public void testRecursiveGlobDoesNotMatchSubpackage() throws Exception {
     List<String> glob = cache.getGlobUnsorted("**/*.js");
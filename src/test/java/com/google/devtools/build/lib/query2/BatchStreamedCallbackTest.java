@@ -0,0 +1,168 @@
+// Copyright 2017 The Bazel Authors. All rights reserved.
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//    http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+package com.google.devtools.build.lib.query2;
+
+import static com.google.common.truth.Truth.assertThat;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.when;
+
+import com.google.common.collect.ImmutableList;
+import com.google.devtools.build.lib.cmdline.Label;
+import com.google.devtools.build.lib.packages.Target;
+import com.google.devtools.build.lib.query2.AbstractBlazeQueryEnvironment.BatchStreamedCallback;
+import com.google.devtools.build.lib.query2.engine.ThreadSafeOutputFormatterCallback;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicInteger;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.junit.runners.JUnit4;
+
+/** Tests for {@link BatchStreamedCallback}. */
+@RunWith(JUnit4.class)
+public class BatchStreamedCallbackTest {
+
+  /** Records the batches it is called with, and fails on concurrent calls. */
+  private static class RecordingCallback extends ThreadSafeOutputFormatterCallback<Target> {
+    private final List<ImmutableList<Target>> batches = new ArrayList<>();
+    private final AtomicInteger concurrentCalls = new AtomicInteger();
+    private boolean started;
+    private boolean closed;
+
+    @Override
+    public void start() {
+      started = true;
+    }
+
+    @Override
+    public void processOutput(Iterable<Target> partialResult) {
+      assertThat(concurrentCalls.incrementAndGet()).isEqualTo(1);
+      batches.add(ImmutableList.copyOf(partialResult));
+      concurrentCalls.decrementAndGet();
+    }
+
+    @Override
+    public void close(boolean failFast) {
+      closed = true;
+    }
+
+    private List<Target> allTargets() {
+      List<Target> result = new ArrayList<>();
+      for (List<Target> batch : batches) {
+        result.addAll(batch);
+      }
+      return result;
+    }
+  }
+
+  private static Target target(String label) {
+    Target target = mock(Target.class);
+    when(target.getLabel()).thenReturn(Label.parseAbsoluteUnchecked(label));
+    return target;
+  }
+
+  @Test
+  public void testBatchesAndUniquifiesTargets() throws Exception {
+    Target a = target("//pkg:a");
+    Target b = target("//pkg:b");
+    Target c = target("//pkg:c");
+    Target d = target("//pkg:d");
+    RecordingCallback recording = new RecordingCallback();
+    BatchStreamedCallback callback =
+        new BatchStreamedCallback(recording, /*batchThreshold=*/ 3, /*concurrencyLevel=*/ 1);
+
+    callback.start();
+    assertThat(recording.started).isTrue();
+    callback.process(ImmutableList.of(a, b));
+    assertThat(recording.batches).isEmpty();
+    // A target with the same label is only passed on once.
+    callback.process(ImmutableList.of(target("//pkg:b"), c));
+    assertThat(recording.batches).containsExactly(ImmutableList.of(a, b, c));
+    callback.process(ImmutableList.of(a, d));
+    assertThat(recording.batches).hasSize(1);
+
+    callback.close(/*failFast=*/ false);
+    assertThat(recording.batches)
+        .containsExactly(ImmutableList.of(a, b, c), ImmutableList.of(d))
+        .inOrder();
+    assertThat(recording.closed).isTrue();
+  }
+
+  @Test
+  public void testDoesNotFlushOnFailFastClose() throws Exception {
+    RecordingCallback recording = new RecordingCallback();
+    BatchStreamedCallback callback =
+        new BatchStreamedCallback(recording, /*batchThreshold=*/ 3, /*concurrencyLevel=*/ 1);
+
+    callback.start();
+    callback.process(ImmutableList.of(target("//pkg:a")));
+    callback.close(/*failFast=*/ true);
+    assertThat(recording.batches).isEmpty();
+    assertThat(recording.closed).isTrue();
+  }
+
+  @Test
+  public void testConcurrentCallers() throws Exception {
+    int threads = 4;
+    int targetsPerThread = 1000;
+    List<List<Target>> targets = new ArrayList<>();
+    for (int i = 0; i < threads; i++) {
+      List<Target> targetsOfThread = new ArrayList<>();
+      for (int j = 0; j < targetsPerThread; j++) {
+        // Every thread also sees the targets of the previous one.
+        targetsOfThread.add(target("//pkg:t" + (i * targetsPerThread + j)));
+        targetsOfThread.add(target("//pkg:t" + (Math.max(i - 1, 0) * targetsPerThread + j)));
+      }
+      targets.add(targetsOfThread);
+    }
+    RecordingCallback recording = new RecordingCallback();
+    BatchStreamedCallback callback =
+        new BatchStreamedCallback(recording, /*batchThreshold=*/ 100, threads);
+
+    callback.start();
+    ExecutorService executor = Executors.newFixedThreadPool(threads);
+    try {
+      List<Future<?>> futures = new ArrayList<>();
+      for (List<Target> targetsOfThread : targets) {
+        futures.add(
+            executor.submit(
+                () -> {
+                  for (Target target : targetsOfThread) {
+                    callback.process(ImmutableList.of(target));
+                  }
+                  return null;
+                }));
+      }
+      for (Future<?> future : futures) {
+        future.get();
+      }
+    } finally {
+      executor.shutdownNow();
+    }
+    callback.close(/*failFast=*/ false);
+
+    List<Label> labels = new ArrayList<>();
+    for (Target target : recording.allTargets()) {
+      labels.add(target.getLabel());
+    }
+    assertThat(labels).containsNoDuplicates();
+    assertThat(labels).hasSize(threads * targetsPerThread);
+    for (List<Target> batch : recording.batches.subList(0, recording.batches.size() - 1)) {
+      assertThat(batch.size()).isAtLeast(100);
+    }
+  }
+}
@@ -0,0 +1,234 @@
+// Copyright 2017 The Bazel Authors. All rights reserved.
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//    http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+package com.google.devtools.build.lib.query2;
+
+import static com.google.common.truth.Truth.assertThat;
+
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.ImmutableSet;
+import com.google.common.collect.Iterables;
+import com.google.devtools.build.lib.cmdline.Label;
+import com.google.devtools.build.lib.packages.Rule;
+import com.google.devtools.build.lib.packages.Target;
+import com.google.devtools.build.lib.packages.util.PackageLoadingTestCase;
+import com.google.devtools.build.lib.query2.engine.Callback;
+import com.google.devtools.build.lib.query2.engine.QueryEnvironment;
+import com.google.devtools.build.lib.query2.engine.QueryEnvironment.Argument;
+import com.google.devtools.build.lib.query2.engine.QueryEnvironment.ArgumentType;
+import com.google.devtools.build.lib.query2.engine.QueryEnvironment.QueryFunction;
+import com.google.devtools.build.lib.query2.engine.QueryEnvironment.QueryTaskFuture;
+import com.google.devtools.build.lib.query2.engine.QueryEnvironment.Setting;
+import com.google.devtools.build.lib.query2.engine.QueryEnvironment.ThreadSafeMutableSet;
+import com.google.devtools.build.lib.query2.engine.QueryEvalResult;
+import com.google.devtools.build.lib.query2.engine.QueryExpression;
+import com.google.devtools.build.lib.query2.engine.QueryUtil;
+import com.google.devtools.build.lib.query2.engine.ThreadSafeOutputFormatterCallback;
+import com.google.devtools.build.lib.query2.engine.VariableContext;
+import java.util.ArrayList;
+import java.util.List;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.junit.runners.JUnit4;
+
+/**
+ * Tests for the graph visitations of {@link BlazeQueryEnvironment} on frontiers that are large
+ * enough to be split into batches and visited concurrently.
+ */
+@RunWith(JUnit4.class)
+public class BlazeQueryEnvironmentTest extends PackageLoadingTestCase {
+
+  // Larger than the batch size of BlazeQueryEnvironment's parallel visitation.
+  private static final int WIDTH = 1500;
+
+  /** A graph visitation of {@link QueryEnvironment} under test. */
+  private enum Visitation {
+    FWD_DEPS {
+      @Override
+      <T> Iterable<T> visit(QueryEnvironment<T> env, ThreadSafeMutableSet<T> targets)
+          throws InterruptedException {
+        return env.getFwdDeps(targets);
+      }
+    },
+    REVERSE_DEPS {
+      @Override
+      <T> Iterable<T> visit(QueryEnvironment<T> env, ThreadSafeMutableSet<T> targets)
+          throws InterruptedException {
+        return env.getReverseDeps(targets);
+      }
+    },
+    TRANSITIVE_CLOSURE {
+      @Override
+      <T> Iterable<T> visit(QueryEnvironment<T> env, ThreadSafeMutableSet<T> targets)
+          throws InterruptedException {
+        return env.getTransitiveClosure(targets);
+      }
+    };
+
+    abstract <T> Iterable<T> visit(QueryEnvironment<T> env, ThreadSafeMutableSet<T> targets)
+        throws InterruptedException;
+  }
+
+  /**
+   * A query function that applies a {@link Visitation} to the transitive closure of its argument,
+   * and records the input and the result of the visitation.
+   */
+  private static class VisitationFunction implements QueryFunction {
+    private final Visitation visitation;
+    private List<Object> input;
+    private List<Object> result;
+
+    private VisitationFunction(Visitation visitation) {
+      this.visitation = visitation;
+    }
+
+    @Override
+    public String getName() {
+      return visitation.name().toLowerCase();
+    }
+
+    @Override
+    public int getMandatoryArguments() {
+      return 1;
+    }
+
+    @Override
+    public List<ArgumentType> getArgumentTypes() {
+      return ImmutableList.of(ArgumentType.EXPRESSION);
+    }
+
+    @Override
+    public <T> QueryTaskFuture<Void> eval(
+        QueryEnvironment<T> env,
+        VariableContext<T> context,
+        QueryExpression expression,
+        List<Argument> args,
+        Callback<T> callback) {
+      QueryTaskFuture<ThreadSafeMutableSet<T>> targetsFuture =
+          QueryUtil.evalAll(env, context, args.get(0).getExpression());
+      return env.whenSucceedsCall(
+          targetsFuture,
+          () -> {
+            ThreadSafeMutableSet<T> targets = targetsFuture.getIfSuccessful();
+            env.buildTransitiveClosure(expression, targets, Integer.MAX_VALUE);
+            Iterable<T> visited = visitation.visit(env, targets);
+            input = new ArrayList<>(targets);
+            result = new ArrayList<>();
+            Iterables.addAll(result, visited);
+            callback.process(visited);
+            return null;
+          });
+    }
+  }
+
+  private final VisitationFunction fwdDeps = new VisitationFunction(Visitation.FWD_DEPS);
+  private final VisitationFunction reverseDeps = new VisitationFunction(Visitation.REVERSE_DEPS);
+  private final VisitationFunction transitiveClosure =
+      new VisitationFunction(Visitation.TRANSITIVE_CLOSURE);
+  private BlazeQueryEnvironment env;
+
+  @Before
+  public final void createWideGraph() throws Exception {
+    // //wide:top depends on WIDTH filegroups, each of which depends on //wide:leaf.
+    scratch.file(
+        "wide/BUILD",
+        "filegroup(name = 'top', srcs = [':f%d' % i for i in range(" + WIDTH + ")])",
+        "[filegroup(name = 'f%d' % i, srcs = [':leaf']) for i in range(" + WIDTH + ")]",
+        "filegroup(name = 'leaf')");
+    env =
+        new BlazeQueryEnvironment(
+            getPackageManager().newTransitiveLoader(),
+            getPackageManager(),
+            getPackageManager().newTargetPatternEvaluator(),
+            /*keepGoing=*/ false,
+            /*strictScope=*/ true,
+            /*loadingPhaseThreads=*/ 4,
+            Rule.ALL_LABELS,
+            reporter,
+            ImmutableSet.<Setting>of(),
+            ImmutableList.of(fwdDeps, reverseDeps, transitiveClosure));
+  }
+
+  private static List<Label> labels(Iterable<?> targets) {
+    List<Label> labels = new ArrayList<>();
+    for (Object target : targets) {
+      labels.add(((Target) target).getLabel());
+    }
+    return labels;
+  }
+
+  private static List<Label> middle() {
+    List<Label> labels = new ArrayList<>();
+    for (int i = 0; i < WIDTH; i++) {
+      labels.add(Label.parseAbsoluteUnchecked("//wide:f" + i));
+    }
+    return labels;
+  }
+
+  /**
+   * Evaluates {@code function} on {@code argument}, and checks that the concurrent visitation
+   * during the query returns the same targets as the sequential visitation after it.
+   *
+   * <p>Returns the labels of the targets.
+   */
+  private List<Label> evaluate(VisitationFunction function, String argument) throws Exception {
+    QueryExpression expression =
+        QueryExpression.parse(function.getName() + "(" + argument + ")", env);
+    QueryEvalResult evalResult =
+        env.evaluateQuery(
+            expression,
+            new ThreadSafeOutputFormatterCallback<Target>() {
+              @Override
+              public void processOutput(Iterable<Target> partialResult) {}
+            });
+    assertThat(evalResult.getSuccess()).isTrue();
+
+    // Outside of evaluateQuery, there is no pool to visit the graph concurrently.
+    ThreadSafeMutableSet<Target> input = env.createThreadSafeMutableSet();
+    for (Object target : function.input) {
+      input.add((Target) target);
+    }
+    List<Label> sequential = labels(function.visitation.visit(env, input));
+    List<Label> concurrent = labels(function.result);
+    assertThat(concurrent).containsNoDuplicates();
+    assertThat(concurrent).containsExactlyElementsIn(sequential);
+    return concurrent;
+  }
+
+  @Test
+  public void testFwdDeps() throws Exception {
+    List<Label> expected = new ArrayList<>(middle());
+    expected.add(Label.parseAbsoluteUnchecked("//wide:leaf"));
+    assertThat(evaluate(fwdDeps, "//wide:*")).containsExactlyElementsIn(expected);
+  }
+
+  @Test
+  public void testReverseDeps() throws Exception {
+    List<Label> expected = new ArrayList<>(middle());
+    expected.add(Label.parseAbsoluteUnchecked("//wide:top"));
+    assertThat(evaluate(reverseDeps, "//wide:*")).containsExactlyElementsIn(expected);
+  }
+
+  @Test
+  public void testTransitiveClosure() throws Exception {
+    List<Label> expected = new ArrayList<>(middle());
+    expected.add(Label.parseAbsoluteUnchecked("//wide:top"));
+    expected.add(Label.parseAbsoluteUnchecked("//wide:leaf"));
+    // The second level of the visitation is WIDTH targets wide.
+    assertThat(evaluate(transitiveClosure, "//wide:top")).containsExactlyElementsIn(expected);
+    // The first level is the whole package, including its BUILD file.
+    expected.add(Label.parseAbsoluteUnchecked("//wide:BUILD"));
+    assertThat(evaluate(transitiveClosure, "//wide:*")).containsExactlyElementsIn(expected);
+  }
+}
@@ -13,6 +13,7 @@
 // limitations under the License.
 package com.google.devtools.build.lib.runtime;
 
+import static com.google.common.truth.Truth.assertThat;
 import static com.google.common.truth.Truth.assertWithMessage;
 
 import com.google.common.collect.Collections2;
@@ -126,6 +127,30 @@ public class BlazeCommandDispatcherRcoptionsTest {
   private static class ReportAllInheritedCommand extends ReportAllCommand {
   }
 
+  @Command(
+    name = "reportnumonce",
+    options = {FooOptions.class},
+    shortDescription = "",
+    help = ""
+  )
+  private static class ReportNumOnceCommand implements BlazeCommand {
+    private int editOptionsCalls = 0;
+
+    @Override
+    public ExitCode exec(CommandEnvironment env, OptionsProvider options)
+        throws ShutdownBlazeServerException {
+      FooOptions fooOptions = options.getOptions(FooOptions.class);
+      env.getReporter().getOutErr().printOut("" + fooOptions.numOption);
+      // Changes to the options must not be seen by later commands.
+      fooOptions.numOption = -1;
+      return ExitCode.SUCCESS;
+    }
+
+    @Override
+    public void editOptions(OptionsParser optionsParser) {
+      editOptionsCalls++;
+    }
+  }
 
   private final Scratch scratch = new Scratch();
   private final RecordingOutErr outErr = new RecordingOutErr();
@@ -308,6 +333,33 @@ public class BlazeCommandDispatcherRcoptionsTest {
     }
   }
 
+  @Test
+  public void testIdenticalCommandLinesReuseParsedOptions() throws Exception {
+    ReportNumOnceCommand reportNumOnce = new ReportNumOnceCommand();
+    BlazeCommandDispatcher dispatch = new BlazeCommandDispatcher(runtime, reportNumOnce);
+    List<String> cmdLine =
+        ImmutableList.of(
+            "reportnumonce",
+            "--announce_rc",
+            "--rc_source=/home/jrluser/.blazerc",
+            "--default_override=0:common=--numoption=99");
+
+    for (int i = 0; i < 2; i++) {
+      outErr.reset();
+      dispatch.exec(cmdLine, LockingMode.ERROR_OUT, "test", outErr);
+      assertThat(outErr.outAsLatin1()).isEqualTo("99");
+      assertThat(outErr.errAsLatin1())
+          .contains("Reading options for 'reportnumonce' from /home/jrluser/.blazerc");
+    }
+    assertThat(reportNumOnce.editOptionsCalls).isEqualTo(1);
+
+    outErr.reset();
+    dispatch.exec(
+        ImmutableList.of("reportnumonce", "--numoption=42"), LockingMode.ERROR_OUT, "test", outErr);
+    assertThat(outErr.outAsLatin1()).isEqualTo("42");
+    assertThat(reportNumOnce.editOptionsCalls).isEqualTo(2);
+  }
+
   /** Options class for testing, so that defaults package has some content. */
   public static class MockFragmentOptions extends FragmentOptions {
     public MockFragmentOptions() {}
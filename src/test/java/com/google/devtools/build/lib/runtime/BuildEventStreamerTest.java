@@ -547,6 +547,65 @@ public class BuildEventStreamerTest extends FoundationTestCase {
     assertThat(reportedArtifactSets.get(0)).isEqualTo(eventProtos.get(4).getId().getNamedSet());
   }
 
+  @Test
+  public void testReportedArtifactsAreSharedAcrossEvents() throws Exception {
+    // Verify that each node of a deep graph of nested sets, as found in the classpaths of a long
+    // chain of Java libraries, is announced exactly once, and before it is referred to.
+    RecordingBuildEventTransport transport = new RecordingBuildEventTransport();
+    BuildEventStreamer streamer =
+        new BuildEventStreamer(ImmutableSet.<BuildEventTransport>of(transport), reporter);
+    streamer.buildEvent(
+        new GenericBuildEvent(
+            testId("Initial"),
+            ImmutableSet.<BuildEventId>of(ProgressEvent.INITIAL_PROGRESS_UPDATE)));
+
+    int numLibraries = 500;
+    List<NestedSet<Artifact>> classpaths = new ArrayList<>();
+    for (int i = 0; i < numLibraries; i++) {
+      NestedSetBuilder<Artifact> classpath =
+          NestedSetBuilder.<Artifact>stableOrder().add(makeArtifact("lib" + i + ".jar"));
+      for (int dep = Math.max(0, i - 3); dep < i; dep++) {
+        classpath.addTransitive(classpaths.get(dep));
+      }
+      classpaths.add(classpath.build());
+    }
+    Set<Object> distinctNodes = new HashSet<>();
+    List<NestedSetView<Artifact>> toVisit = new ArrayList<>();
+    for (NestedSet<Artifact> classpath : classpaths) {
+      toVisit.add(new NestedSetView<Artifact>(classpath));
+    }
+    while (!toVisit.isEmpty()) {
+      NestedSetView<Artifact> view = toVisit.remove(toVisit.size() - 1);
+      if (distinctNodes.add(view.identifier())) {
+        toVisit.addAll(view.transitives());
+      }
+    }
+
+    // Report the deepest classpath first, then all of them again in the opposite order.
+    for (int i = 0; i < numLibraries; i++) {
+      int lib = numLibraries - 1 - i;
+      streamer.buildEvent(
+          new GenericArtifactReportingEvent(
+              testId("lib" + lib), ImmutableSet.of(classpaths.get(lib))));
+    }
+    for (int lib = 0; lib < numLibraries; lib++) {
+      streamer.buildEvent(
+          new GenericArtifactReportingEvent(
+              testId("lib" + lib + "-again"), ImmutableSet.of(classpaths.get(lib))));
+    }
+
+    Set<NamedSetOfFilesId> announced = new HashSet<>();
+    for (BuildEventStreamProtos.BuildEvent event : transport.getEventProtos()) {
+      for (NamedSetOfFilesId referenced : event.getNamedSetOfFiles().getFileSetsList()) {
+        assertThat(announced).contains(referenced);
+      }
+      if (event.getId().getIdCase() == BuildEventStreamProtos.BuildEventId.IdCase.NAMED_SET) {
+        assertThat(announced.add(event.getId().getNamedSet())).isTrue();
+      }
+    }
+    assertThat(announced).hasSize(distinctNodes.size());
+  }
+
   @Test
   public void testStdoutReported() {
     // Verify that stdout and stderr are reported in the build-event stream on progress
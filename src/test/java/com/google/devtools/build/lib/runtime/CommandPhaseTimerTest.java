@@ -0,0 +1,58 @@
+// Copyright 2017 The Bazel Authors. All rights reserved.
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//    http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+package com.google.devtools.build.lib.runtime;
+
+import static com.google.common.truth.Truth.assertThat;
+
+import com.google.devtools.build.lib.testutil.ManualClock;
+import com.google.devtools.build.lib.util.Pair;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.junit.runners.JUnit4;
+
+/** Tests for {@link CommandPhaseTimer}. */
+@RunWith(JUnit4.class)
+public class CommandPhaseTimerTest {
+
+  @Test
+  public void phasesAreConsecutive() {
+    ManualClock clock = new ManualClock();
+    clock.advanceMillis(12345);
+    CommandPhaseTimer timer = new CommandPhaseTimer(clock);
+    clock.advanceMillis(5);
+    timer.finishPhase("lock wait");
+    timer.finishPhase("module setup");
+    clock.advanceMillis(20);
+    timer.finishPhase("options parsing");
+
+    assertThat(timer.getPhaseMillis())
+        .containsExactly(
+            Pair.of("lock wait", 5L), Pair.of("module setup", 0L), Pair.of("options parsing", 20L))
+        .inOrder();
+    assertThat(timer.getTotalMillis()).isEqualTo(25);
+    assertThat(timer.toString())
+        .isEqualTo("lock wait 5 ms, module setup 0 ms, options parsing 20 ms, total 25 ms");
+  }
+
+  @Test
+  public void timeAfterLastPhaseIsNotCounted() {
+    ManualClock clock = new ManualClock();
+    CommandPhaseTimer timer = new CommandPhaseTimer(clock);
+    assertThat(timer.toString()).isEqualTo("total 0 ms");
+    clock.advanceMillis(7);
+    timer.finishPhase("lock wait");
+    clock.advanceMillis(100);
+    assertThat(timer.getTotalMillis()).isEqualTo(7);
+  }
+}
@@ -0,0 +1,236 @@
+// Copyright 2017 The Bazel Authors. All rights reserved.
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+// http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package com.google.devtools.build.lib.runtime;
+
+import com.google.common.cache.Cache;
+import com.google.common.cache.CacheBuilder;
+import com.google.common.collect.ArrayListMultimap;
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.ListMultimap;
+import com.google.devtools.build.lib.exec.local.LocalExecutionOptions;
+import com.google.devtools.build.lib.pkgcache.PackageCacheOptions;
+import com.google.devtools.build.lib.remote.RemoteOptions;
+import com.google.devtools.build.lib.sandbox.SandboxOptions;
+import com.google.devtools.common.options.OpaqueOptionsData;
+import com.google.devtools.common.options.OptionPriority;
+import com.google.devtools.common.options.OptionsBase;
+import com.google.devtools.common.options.OptionsParser;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Measures how long it takes to get the options of a {@code build} command line whose .rc files
+ * the client has expanded into {@code --default_override} flags, when the options are parsed
+ * afresh and when the parser is reused from a cache keyed by the command line, as {@link
+ * BlazeCommandDispatcher} does.
+ *
+ * <p>Parsing follows the steps of {@code BlazeCommandDispatcher.parseArgsAndConfigs}: the command
+ * line, then the "common" and "build" sections of every .rc file, then the sections of the
+ * requested configs.
+ *
+ * <p>Usage: {@code OptionsParsingBenchmark [<parses per round> [<rounds>]]}.
+ */
+public final class OptionsParsingBenchmark {
+
+  private static final ImmutableList<Class<? extends OptionsBase>> OPTIONS_CLASSES =
+      ImmutableList.of(
+          CommonCommandOptions.class,
+          PackageCacheOptions.class,
+          LocalExecutionOptions.class,
+          RemoteOptions.class,
+          SandboxOptions.class);
+
+  private static final ImmutableList<String> COMMANDS_TO_PARSE =
+      ImmutableList.of("common", "build");
+
+  private static final ImmutableList<String> RC_FILES =
+      ImmutableList.of(
+          "/etc/bazel.bazelrc", "/home/user/workspace/tools/bazel.rc", "/home/user/.bazelrc");
+
+  public static void main(String[] args) throws Exception {
+    int parses = args.length > 0 ? Integer.parseInt(args[0]) : 10000;
+    int rounds = args.length > 1 ? Integer.parseInt(args[1]) : 5;
+
+    List<String> commandLine = createCommandLine();
+    OpaqueOptionsData optionsData = OptionsParser.getOptionsData(OPTIONS_CLASSES);
+    Cache<List<String>, OptionsParser> cache = CacheBuilder.newBuilder().maximumSize(8).build();
+    cache.put(ImmutableList.copyOf(commandLine), parse(optionsData, commandLine));
+
+    System.out.printf(
+        "%d arguments, %d of them --default_override%n",
+        commandLine.size(),
+        commandLine.stream().filter(arg -> arg.startsWith("--default_override=")).count());
+    System.out.printf("%10s %15s %15s%n", "round", "uncached (us)", "cached (us)");
+    for (int round = 1; round <= rounds; round++) {
+      long uncached = System.nanoTime();
+      for (int i = 0; i < parses; i++) {
+        getOptions(parse(optionsData, commandLine));
+      }
+      uncached = System.nanoTime() - uncached;
+
+      long cached = System.nanoTime();
+      for (int i = 0; i < parses; i++) {
+        getOptions(cache.getIfPresent(ImmutableList.copyOf(commandLine)));
+      }
+      cached = System.nanoTime() - cached;
+
+      System.out.printf(
+          "%10d %15.2f %15.2f%n", round, micros(uncached, parses), micros(cached, parses));
+    }
+  }
+
+  private static double micros(long nanos, int parses) {
+    return (double) nanos / TimeUnit.MICROSECONDS.toNanos(1) / parses;
+  }
+
+  /** Returns the arguments the client sends for {@code bazel build --config=ci //src/...}. */
+  private static List<String> createCommandLine() {
+    List<String> commandLine = new ArrayList<>();
+    for (String rcFile : RC_FILES) {
+      commandLine.add("--rc_source=" + rcFile);
+    }
+    addOverrides(
+        commandLine,
+        0,
+        "common",
+        "--package_path=%workspace%:/usr/share/bazel/packages",
+        "--show_loading_progress=false");
+    addOverrides(
+        commandLine,
+        0,
+        "build",
+        "--sandbox_tmpfs_path=/tmp",
+        "--sandbox_block_path=/home",
+        "--sandbox_block_path=/root",
+        "--sandbox_writable_path=/var/cache/ccache",
+        "--experimental_sandbox_async_tree_delete_threads=4",
+        "--local_termination_grace_seconds=30");
+    addOverrides(
+        commandLine,
+        1,
+        "build",
+        "--remote_cache=cache.example.com:443",
+        "--remote_instance_name=projects/example/instances/default",
+        "--remote_timeout=120",
+        "--remote_accept_cached",
+        "--noremote_upload_local_results",
+        "--experimental_remote_retry_max_attempts=3",
+        "--experimental_remote_retry_start_delay_millis=250",
+        "--deleted_packages=third_party/old_protobuf,third_party/old_grpc",
+        "--legacy_globbing_threads=200",
+        "--fetch=false");
+    addOverrides(
+        commandLine,
+        1,
+        "build:ci",
+        "--remote_upload_local_results",
+        "--experimental_remote_retry_max_attempts=10",
+        "--remote_local_fallback",
+        "--config=ci_sandbox");
+    addOverrides(
+        commandLine,
+        1,
+        "build:ci_sandbox",
+        "--sandbox_debug",
+        "--sandbox_fake_hostname",
+        "--sandbox_fake_username");
+    addOverrides(
+        commandLine,
+        2,
+        "build",
+        "--remote_timeout=300",
+        "--sandbox_writable_path=/home/user/.cache/bazel-tools",
+        "--tool_tag=ide");
+    for (int i = 0; i < 40; i++) {
+      commandLine.add("--client_env=VARIABLE_" + i + "=/home/user/some/value/" + i);
+    }
+    commandLine.add("--client_cwd=/home/user/workspace/src");
+    commandLine.add("--startup_time=12");
+    commandLine.add("--binary_path=/usr/bin/bazel");
+    commandLine.add("--config=ci");
+    commandLine.add("//src/...");
+    commandLine.add("//tools/...");
+    return commandLine;
+  }
+
+  private static void addOverrides(
+      List<String> commandLine, int rcFile, String command, String... options) {
+    for (String option : options) {
+      commandLine.add("--default_override=" + rcFile + ":" + command + "=" + option);
+    }
+  }
+
+  private static OptionsParser parse(OpaqueOptionsData optionsData, List<String> commandLine)
+      throws Exception {
+    OptionsParser optionsParser = OptionsParser.newOptionsParser(optionsData);
+    optionsParser.parse(OptionPriority.COMMAND_LINE, "command line options", commandLine);
+
+    CommonCommandOptions rcFileOptions = optionsParser.getOptions(CommonCommandOptions.class);
+    Map<String, ListMultimap<String, String>> optionsMap = new LinkedHashMap<>();
+    for (CommonCommandOptions.OptionOverride override : rcFileOptions.optionsOverrides) {
+      optionsMap
+          .computeIfAbsent(
+              rcFileOptions.rcSource.get(override.blazeRc), rcFile -> ArrayListMultimap.create())
+          .put(override.command, override.option);
+    }
+    parseRcFileOptions(optionsParser, optionsMap, ImmutableList.of(""));
+
+    // Fix-point iteration until all configs are loaded.
+    List<String> configsLoaded = new ArrayList<>();
+    List<String> configs = optionsParser.getOptions(CommonCommandOptions.class).configs;
+    while (!configs.equals(configsLoaded)) {
+      List<String> missingConfigs = new ArrayList<>(configs);
+      missingConfigs.removeAll(configsLoaded);
+      List<String> sections = new ArrayList<>();
+      for (String config : missingConfigs) {
+        sections.add(":" + config);
+      }
+      parseRcFileOptions(optionsParser, optionsMap, sections);
+      configsLoaded = configs;
+      configs = optionsParser.getOptions(CommonCommandOptions.class).configs;
+    }
+    return optionsParser;
+  }
+
+  private static void parseRcFileOptions(
+      OptionsParser optionsParser,
+      Map<String, ListMultimap<String, String>> optionsMap,
+      List<String> sections)
+      throws Exception {
+    for (String command : COMMANDS_TO_PARSE) {
+      for (Map.Entry<String, ListMultimap<String, String>> entry : optionsMap.entrySet()) {
+        List<String> options = new ArrayList<>();
+        for (String section : sections) {
+          options.addAll(entry.getValue().get(command + section));
+        }
+        if (!options.isEmpty()) {
+          optionsParser.parse(OptionPriority.RC_FILE, entry.getKey(), options);
+        }
+      }
+    }
+  }
+
+  /** Gets the options of every class, as the command and the modules do. */
+  private static void getOptions(OptionsParser optionsParser) {
+    for (Class<? extends OptionsBase> optionsClass : OPTIONS_CLASSES) {
+      if (optionsParser.getOptions(optionsClass) == null) {
+        throw new IllegalStateException(optionsClass.getName());
+      }
+    }
+  }
+}
@@ -0,0 +1,67 @@
+// Copyright 2017 The Bazel Authors. All rights reserved.
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//    http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+package com.google.devtools.build.lib.runtime;
+
+import static com.google.common.truth.Truth.assertThat;
+
+import com.google.devtools.build.lib.profiler.Profiler;
+import com.google.devtools.build.lib.testutil.ManualClock;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.junit.runners.JUnit4;
+
+/** Tests for {@link StartupTaskRecorder}. */
+@RunWith(JUnit4.class)
+public class StartupTaskRecorderTest {
+  private final ManualClock clock = new ManualClock();
+  private final AtomicLong loadedClasses = new AtomicLong(1000);
+  private final StartupTaskRecorder recorder =
+      new StartupTaskRecorder(clock, loadedClasses::get);
+
+  @Test
+  public void recordsDurationAndLoadedClasses() {
+    long start = clock.nanoTime();
+    try (StartupTaskRecorder.RunningTask task = recorder.start("first")) {
+      clock.advanceMillis(30);
+      loadedClasses.addAndGet(200);
+    }
+    BlazeModule module = new BlazeModule() {};
+    try (StartupTaskRecorder.RunningTask task = recorder.start(module, "serverInit")) {
+      clock.advanceMillis(5);
+    }
+
+    assertThat(recorder.getTasks()).hasSize(2);
+    StartupTaskRecorder.Task first = recorder.getTasks().get(0);
+    assertThat(first.description).isEqualTo("first");
+    assertThat(first.startNanos).isEqualTo(start);
+    assertThat(first.durationNanos).isEqualTo(TimeUnit.MILLISECONDS.toNanos(30));
+    assertThat(first.loadedClasses).isEqualTo(200);
+    StartupTaskRecorder.Task second = recorder.getTasks().get(1);
+    assertThat(second.description).endsWith(".serverInit");
+    assertThat(second.loadedClasses).isEqualTo(0);
+    assertThat(recorder.toString()).contains("first: 30 ms, 200 classes loaded");
+  }
+
+  @Test
+  public void tasksAreKeptUntilProfilerIsActive() {
+    try (StartupTaskRecorder.RunningTask task = recorder.start("first")) {
+      clock.advanceMillis(30);
+    }
+    assertThat(Profiler.instance().isActive()).isFalse();
+    recorder.writeTo(Profiler.instance(), 0);
+    assertThat(recorder.getTasks()).hasSize(1);
+  }
+}
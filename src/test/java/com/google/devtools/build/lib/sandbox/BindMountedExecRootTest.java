@@ -0,0 +1,136 @@
+// Copyright 2017 The Bazel Authors. All rights reserved.
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+// http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package com.google.devtools.build.lib.sandbox;
+
+import static com.google.common.truth.Truth.assertThat;
+
+import com.google.common.collect.ImmutableMap;
+import com.google.common.collect.ImmutableSet;
+import com.google.devtools.build.lib.vfs.FileSystemUtils;
+import com.google.devtools.build.lib.vfs.Path;
+import com.google.devtools.build.lib.vfs.PathFragment;
+import com.google.devtools.build.lib.vfs.Symlinks;
+import java.io.IOException;
+import java.util.HashMap;
+import java.util.Map;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.junit.runners.JUnit4;
+
+/** Tests for {@link BindMountedExecRoot}. */
+@RunWith(JUnit4.class)
+public class BindMountedExecRootTest extends SandboxTestCase {
+  private Path execRoot;
+  private Path sandboxExecRoot;
+
+  @Before
+  public final void setupTestDirs() throws IOException {
+    execRoot = testRoot.getRelative("execroot");
+    execRoot.createDirectory();
+    sandboxExecRoot = testRoot.getRelative("sandbox/execroot");
+  }
+
+  @Test
+  public void createFileSystem() throws Exception {
+    execRoot.getRelative("such").createDirectory();
+    FileSystemUtils.createEmptyFile(execRoot.getRelative("such/input.txt"));
+    FileSystemUtils.createEmptyFile(execRoot.getRelative("WORKSPACE"));
+    execRoot.getRelative("dangling").createSymbolicLink(PathFragment.create("nowhere"));
+
+    BindMountedExecRoot bindMountedExecRoot = new BindMountedExecRoot(sandboxExecRoot, execRoot);
+    bindMountedExecRoot.createFileSystem(
+        ImmutableMap.of(
+            PathFragment.create("such/input.txt"), execRoot.getRelative("such/input.txt")),
+        ImmutableSet.of(PathFragment.create("very/output.txt")),
+        ImmutableSet.of(sandboxExecRoot.getRelative("wow/writable")));
+
+    // The directories to write into are created in the execRoot, so that they are mounted.
+    assertThat(execRoot.getRelative("very").isDirectory()).isTrue();
+    assertThat(execRoot.getRelative("wow/writable").isDirectory()).isTrue();
+
+    // Only mount points are created in the sandbox, no symlinks for the inputs.
+    assertThat(sandboxExecRoot.getRelative("such").isDirectory(Symlinks.NOFOLLOW)).isTrue();
+    assertThat(sandboxExecRoot.getRelative("such/input.txt").exists(Symlinks.NOFOLLOW)).isFalse();
+    assertThat(sandboxExecRoot.getRelative("WORKSPACE").isFile(Symlinks.NOFOLLOW)).isTrue();
+    assertThat(sandboxExecRoot.getRelative("dangling").exists(Symlinks.NOFOLLOW)).isFalse();
+
+    assertThat(bindMountedExecRoot.getBindMounts())
+        .containsExactly(
+            sandboxExecRoot.getRelative("such"), execRoot.getRelative("such"),
+            sandboxExecRoot.getRelative("very"), execRoot.getRelative("very"),
+            sandboxExecRoot.getRelative("wow"), execRoot.getRelative("wow"),
+            sandboxExecRoot.getRelative("WORKSPACE"), execRoot.getRelative("WORKSPACE"));
+    assertThat(bindMountedExecRoot.getOutputDirs())
+        .containsExactly(sandboxExecRoot.getRelative("very"));
+  }
+
+  @Test
+  public void exposesInputsOnlyIfAllAreInExecRoot() throws Exception {
+    Path input = execRoot.getRelative("such/input.txt");
+    input.getParentDirectory().createDirectory();
+    FileSystemUtils.createEmptyFile(input);
+    PathFragment runfile = PathFragment.create("bin.runfiles/ws/such/input.txt");
+
+    assertThat(
+            BindMountedExecRoot.exposesInputs(
+                execRoot, ImmutableMap.of(PathFragment.create("such/input.txt"), input)))
+        .isTrue();
+    // Runfiles trees are only mounted if they were created in the execRoot.
+    assertThat(BindMountedExecRoot.exposesInputs(execRoot, ImmutableMap.of(runfile, input)))
+        .isFalse();
+    FileSystemUtils.createDirectoryAndParents(
+        execRoot.getRelative(runfile).getParentDirectory());
+    execRoot.getRelative(runfile).createSymbolicLink(input);
+    assertThat(BindMountedExecRoot.exposesInputs(execRoot, ImmutableMap.of(runfile, input)))
+        .isTrue();
+    // A stale entry at the mapped path hides the input.
+    Path other = execRoot.getRelative("such/other.txt");
+    FileSystemUtils.createEmptyFile(other);
+    execRoot.getRelative(runfile).delete();
+    execRoot.getRelative(runfile).createSymbolicLink(other);
+    assertThat(BindMountedExecRoot.exposesInputs(execRoot, ImmutableMap.of(runfile, input)))
+        .isFalse();
+    execRoot.getRelative(runfile).delete();
+    FileSystemUtils.createEmptyFile(execRoot.getRelative(runfile));
+    assertThat(BindMountedExecRoot.exposesInputs(execRoot, ImmutableMap.of(runfile, input)))
+        .isFalse();
+    // Empty files have to be created in the sandbox.
+    Map<PathFragment, Path> emptyFile = new HashMap<>();
+    emptyFile.put(PathFragment.create("such/empty.txt"), null);
+    assertThat(BindMountedExecRoot.exposesInputs(execRoot, emptyFile)).isFalse();
+  }
+
+  @Test
+  public void copyOutputsOnlyMovesTopLevelOutputs() throws Exception {
+    BindMountedExecRoot bindMountedExecRoot = new BindMountedExecRoot(sandboxExecRoot, execRoot);
+    ImmutableSet<PathFragment> outputs =
+        ImmutableSet.of(PathFragment.create("top.txt"), PathFragment.create("very/output.txt"));
+    bindMountedExecRoot.createFileSystem(
+        ImmutableMap.<PathFragment, Path>of(), outputs, ImmutableSet.<Path>of());
+
+    // Pretend to run the Spawn; nested outputs are written in place through the mount.
+    FileSystemUtils.createEmptyFile(sandboxExecRoot.getRelative("top.txt"));
+    FileSystemUtils.createEmptyFile(execRoot.getRelative("very/output.txt"));
+
+    Path outputBase = testRoot.getRelative("outputs");
+    outputBase.createDirectory();
+    bindMountedExecRoot.copyOutputs(outputBase, outputs);
+
+    assertThat(outputBase.getRelative("top.txt").isFile()).isTrue();
+    assertThat(sandboxExecRoot.getRelative("top.txt").exists()).isFalse();
+    assertThat(outputBase.getRelative("very").exists()).isFalse();
+  }
+}
@@ -0,0 +1,48 @@
+// Copyright 2017 The Bazel Authors. All rights reserved.
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//    http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+package com.google.devtools.build.lib.sandbox;
+
+import static com.google.common.truth.Truth.assertThat;
+
+import com.google.common.collect.ImmutableMap;
+import com.google.devtools.build.lib.sandbox.SandboxDirectoryPool.SandboxDirectory;
+import com.google.devtools.build.lib.vfs.Path;
+import com.google.devtools.build.lib.vfs.PathFragment;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.junit.runners.JUnit4;
+
+/** Tests for {@link SandboxDirectoryPool}. */
+@RunWith(JUnit4.class)
+public class SandboxDirectoryPoolTest extends SandboxTestCase {
+
+  @Test
+  public void takesDirectoryWithMostInputsInCommon() {
+    Path a = testRoot.getRelative("a");
+    Path b = testRoot.getRelative("b");
+    PathFragment x = PathFragment.create("x");
+    PathFragment y = PathFragment.create("y");
+    SandboxDirectoryPool pool = new SandboxDirectoryPool();
+    SandboxDirectory first = new SandboxDirectory(testRoot.getRelative("1"), ImmutableMap.of(x, a));
+    SandboxDirectory second =
+        new SandboxDirectory(testRoot.getRelative("2"), ImmutableMap.of(x, b, y, b));
+    pool.put("Javac", first);
+    pool.put("Javac", second);
+
+    assertThat(pool.take("CppCompile", ImmutableMap.of(x, a))).isNull();
+    assertThat(pool.take("Javac", ImmutableMap.of(x, a, y, a))).isSameAs(first);
+    assertThat(pool.take("Javac", ImmutableMap.of(x, a, y, a))).isSameAs(second);
+    assertThat(pool.take("Javac", ImmutableMap.of(x, a, y, a))).isNull();
+  }
+}
@@ -0,0 +1,177 @@
+// Copyright 2017 The Bazel Authors. All rights reserved.
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+// http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package com.google.devtools.build.lib.sandbox;
+
+import com.google.common.collect.ImmutableMap;
+import com.google.common.collect.ImmutableSet;
+import com.google.devtools.build.lib.vfs.FileSystemUtils;
+import com.google.devtools.build.lib.vfs.Path;
+import com.google.devtools.build.lib.vfs.PathFragment;
+import com.google.devtools.build.lib.vfs.util.FileSystems;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * Measures how long {@link SymlinkedExecRoot} and {@link BindMountedExecRoot} take to set up the
+ * execRoot of a Spawn with 1k, 10k and 100k inputs.
+ *
+ * <p>If the linux-sandbox binary is given, it also measures setting up the execRoot and running
+ * {@code /bin/true} in it with linux-sandbox, which includes performing the bind mounts.
+ *
+ * <p>Usage: {@code SandboxExecRootBenchmark <scratch directory> [<iterations> [<linux-sandbox>]]}
+ */
+public final class SandboxExecRootBenchmark {
+
+  private static final int[] INPUT_COUNTS = {1000, 10000, 100000};
+  private static final int FILES_PER_DIRECTORY = 100;
+  private static final ImmutableSet<PathFragment> OUTPUTS =
+      ImmutableSet.of(PathFragment.create("bazel-out/k8-fastbuild/bin/pkg/out.o"));
+
+  public static void main(String[] args) throws IOException, InterruptedException {
+    if (args.length < 1) {
+      System.err.println(
+          "Usage: SandboxExecRootBenchmark <scratch directory> [<iterations> [<linux-sandbox>]]");
+      System.exit(2);
+    }
+    Path scratch = FileSystems.getNativeFileSystem().getPath(args[0]);
+    int iterations = args.length > 1 ? Integer.parseInt(args[1]) : 5;
+    String linuxSandbox = args.length > 2 ? args[2] : null;
+
+    System.out.printf("%10s %15s %15s", "inputs", "symlinked (ms)", "bind mount (ms)");
+    if (linuxSandbox != null) {
+      System.out.printf(" %21s %21s", "symlinked + run (ms)", "bind mount + run (ms)");
+    }
+    System.out.println();
+    for (int inputCount : INPUT_COUNTS) {
+      FileSystemUtils.createDirectoryAndParents(scratch);
+      FileSystemUtils.deleteTreesBelow(scratch);
+      Path execRoot = scratch.getRelative("execroot");
+      Map<PathFragment, Path> inputs = createInputs(execRoot, inputCount);
+      Path sandboxExecRoot = scratch.getRelative("sandbox/execroot");
+      Set<Path> writableDirs = ImmutableSet.of();
+
+      long symlinkedNanos = 0;
+      long bindMountedNanos = 0;
+      long symlinkedRunNanos = 0;
+      long bindMountedRunNanos = 0;
+      for (int i = 0; i < iterations; i++) {
+        long start = System.nanoTime();
+        new SymlinkedExecRoot(sandboxExecRoot).createFileSystem(inputs, OUTPUTS, writableDirs);
+        symlinkedNanos += System.nanoTime() - start;
+        FileSystemUtils.deleteTree(sandboxExecRoot);
+
+        start = System.nanoTime();
+        new BindMountedExecRoot(sandboxExecRoot, execRoot)
+            .createFileSystem(inputs, OUTPUTS, writableDirs);
+        bindMountedNanos += System.nanoTime() - start;
+        FileSystemUtils.deleteTree(sandboxExecRoot);
+
+        if (linuxSandbox == null) {
+          continue;
+        }
+        start = System.nanoTime();
+        new SymlinkedExecRoot(sandboxExecRoot).createFileSystem(inputs, OUTPUTS, writableDirs);
+        // As in LinuxSandboxedStrategy, the sandboxed execRoot itself is writable.
+        runInSandbox(
+            linuxSandbox,
+            sandboxExecRoot,
+            ImmutableSet.of(sandboxExecRoot),
+            ImmutableMap.<Path, Path>of());
+        symlinkedRunNanos += System.nanoTime() - start;
+        FileSystemUtils.deleteTree(sandboxExecRoot);
+
+        start = System.nanoTime();
+        BindMountedExecRoot bindMountedExecRoot =
+            new BindMountedExecRoot(sandboxExecRoot, execRoot);
+        bindMountedExecRoot.createFileSystem(inputs, OUTPUTS, writableDirs);
+        runInSandbox(
+            linuxSandbox,
+            sandboxExecRoot,
+            ImmutableSet.<Path>builder()
+                .add(sandboxExecRoot)
+                .addAll(bindMountedExecRoot.getOutputDirs())
+                .build(),
+            bindMountedExecRoot.getBindMounts());
+        bindMountedRunNanos += System.nanoTime() - start;
+        FileSystemUtils.deleteTree(sandboxExecRoot);
+      }
+      System.out.printf(
+          "%10d %15.1f %15.1f",
+          inputCount,
+          symlinkedNanos / 1e6 / iterations,
+          bindMountedNanos / 1e6 / iterations);
+      if (linuxSandbox != null) {
+        System.out.printf(
+            " %21.1f %21.1f",
+            symlinkedRunNanos / 1e6 / iterations,
+            bindMountedRunNanos / 1e6 / iterations);
+      }
+      System.out.println();
+    }
+  }
+
+  /**
+   * Runs {@code /bin/true} with linux-sandbox in {@code sandboxExecRoot}, passing the writable
+   * directories and bind mounts the way {@link LinuxSandboxRunner} does.
+   */
+  private static void runInSandbox(
+      String linuxSandbox,
+      Path sandboxExecRoot,
+      Set<Path> writableDirs,
+      Map<Path, Path> bindMounts)
+      throws IOException, InterruptedException {
+    List<String> args = new ArrayList<>();
+    args.add(linuxSandbox);
+    for (Path writableDir : writableDirs) {
+      args.add("-w");
+      args.add(writableDir.getPathString());
+    }
+    for (Map.Entry<Path, Path> bindMount : bindMounts.entrySet()) {
+      args.add("-M");
+      args.add(bindMount.getValue().getPathString());
+      args.add("-m");
+      args.add(bindMount.getKey().getPathString());
+    }
+    args.add("--");
+    args.add("/bin/true");
+    Process process =
+        new ProcessBuilder(args).directory(sandboxExecRoot.getPathFile()).inheritIO().start();
+    if (process.waitFor() != 0) {
+      throw new IOException("linux-sandbox failed with exit code " + process.exitValue());
+    }
+  }
+
+  /** Creates {@code count} empty files below {@code execRoot}, spread across directories. */
+  private static Map<PathFragment, Path> createInputs(Path execRoot, int count)
+      throws IOException {
+    Map<PathFragment, Path> inputs = new LinkedHashMap<>();
+    Set<Path> createdDirs = new HashSet<>();
+    for (int i = 0; i < count; i++) {
+      PathFragment input =
+          PathFragment.create(
+              String.format("external/repo%d/pkg%d/file%d", i % 10, i / FILES_PER_DIRECTORY, i));
+      Path file = execRoot.getRelative(input);
+      FileSystemUtils.createDirectoryAndParentsWithCache(createdDirs, file.getParentDirectory());
+      FileSystemUtils.createEmptyFile(file);
+      inputs.put(input, file);
+    }
+    return inputs;
+  }
+}
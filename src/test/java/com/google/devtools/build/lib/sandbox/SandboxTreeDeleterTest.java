@@ -0,0 +1,65 @@
+// Copyright 2017 The Bazel Authors. All rights reserved.
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+// http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package com.google.devtools.build.lib.sandbox;
+
+import static com.google.common.truth.Truth.assertThat;
+
+import com.google.devtools.build.lib.vfs.FileSystemUtils;
+import com.google.devtools.build.lib.vfs.Path;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.junit.runners.JUnit4;
+
+/** Tests for {@link SandboxTreeDeleter}. */
+@RunWith(JUnit4.class)
+public class SandboxTreeDeleterTest extends SandboxTestCase {
+
+  private Path createSandbox(String name) throws Exception {
+    Path sandbox = testRoot.getRelative(name);
+    FileSystemUtils.createEmptyFile(sandbox.getRelative("execroot/such/input.txt"));
+    return sandbox;
+  }
+
+  @Test
+  public void deleteTreeSynchronously() throws Exception {
+    Path sandbox = createSandbox("sandbox");
+    Path trash = testRoot.getRelative("trash");
+
+    new SandboxTreeDeleter(trash, 0, 1).deleteTree(sandbox);
+
+    assertThat(sandbox.exists()).isFalse();
+    assertThat(trash.exists()).isFalse();
+  }
+
+  @Test
+  public void deleteTreeInBackground() throws Exception {
+    Path trash = testRoot.getRelative("trash");
+    SandboxTreeDeleter treeDeleter = new SandboxTreeDeleter(trash, 2, 1);
+    Path[] sandboxes = new Path[10];
+    for (int i = 0; i < sandboxes.length; i++) {
+      sandboxes[i] = createSandbox("sandbox" + i);
+      treeDeleter.deleteTree(sandboxes[i]);
+      // The directory is moved out of the way before deleteTree returns.
+      assertThat(sandboxes[i].exists()).isFalse();
+    }
+
+    long deadline = System.currentTimeMillis() + 10000;
+    while (!trash.getDirectoryEntries().isEmpty() && System.currentTimeMillis() < deadline) {
+      Thread.sleep(10);
+    }
+    treeDeleter.shutdown();
+    assertThat(trash.getDirectoryEntries()).isEmpty();
+  }
+}
@@ -22,7 +22,10 @@ import com.google.devtools.build.lib.vfs.FileSystemUtils;
 import com.google.devtools.build.lib.vfs.Path;
 import com.google.devtools.build.lib.vfs.PathFragment;
 import com.google.devtools.build.lib.vfs.Symlinks;
+import com.google.devtools.build.lib.vfs.inmemoryfs.InMemoryFileSystem;
 import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
 import org.junit.Before;
 import org.junit.Test;
 import org.junit.runner.RunWith;
@@ -90,6 +93,75 @@ public class SymlinkedExecRootTest extends SandboxTestCase {
     assertThat(execRoot.getRelative("wow/writable/temp.txt").exists()).isFalse();
   }
 
+  /** A file system that records the files deleted and the symlinks created in it. */
+  private static final class RecordingFileSystem extends InMemoryFileSystem {
+    private final List<PathFragment> deleted = new ArrayList<>();
+    private final List<PathFragment> createdSymlinks = new ArrayList<>();
+
+    @Override
+    protected boolean delete(Path path) throws IOException {
+      deleted.add(path.asFragment());
+      return super.delete(path);
+    }
+
+    @Override
+    protected void createSymbolicLink(Path path, PathFragment targetFragment) throws IOException {
+      createdSymlinks.add(path.asFragment());
+      super.createSymbolicLink(path, targetFragment);
+    }
+  }
+
+  @Test
+  public void reuseFileSystemWithPreviousInputs() throws Exception {
+    RecordingFileSystem fs = new RecordingFileSystem();
+    Path execRoot = fs.getPath("/execroot");
+    Path helloTxt = fs.getPath("/workspace/hello.txt");
+    Path worldTxt = fs.getPath("/workspace/world.txt");
+    FileSystemUtils.createDirectoryAndParents(helloTxt.getParentDirectory());
+    FileSystemUtils.createEmptyFile(helloTxt);
+    FileSystemUtils.createEmptyFile(worldTxt);
+    ImmutableMap<PathFragment, Path> previousInputs =
+        ImmutableMap.of(
+            PathFragment.create("such/unchanged.txt"), helloTxt,
+            PathFragment.create("such/changed.txt"), helloTxt,
+            PathFragment.create("such/removed.txt"), helloTxt,
+            PathFragment.create("gone/removed.txt"), helloTxt);
+    new SymlinkedExecRoot(execRoot)
+        .createFileSystem(previousInputs, ImmutableSet.<PathFragment>of(), ImmutableSet.<Path>of());
+    fs.deleted.clear();
+    fs.createdSymlinks.clear();
+
+    new SymlinkedExecRoot(execRoot, previousInputs)
+        .createFileSystem(
+            ImmutableMap.of(
+                PathFragment.create("such/unchanged.txt"), helloTxt,
+                PathFragment.create("such/changed.txt"), worldTxt,
+                PathFragment.create("very/new.txt"), worldTxt),
+            ImmutableSet.<PathFragment>of(),
+            ImmutableSet.<Path>of());
+
+    // Only the stale symlinks and the directory that became empty were deleted, and only the
+    // symlinks that differ were created; the unchanged symlink was left alone.
+    assertThat(fs.deleted)
+        .containsExactly(
+            execRoot.getRelative("such/changed.txt").asFragment(),
+            execRoot.getRelative("such/removed.txt").asFragment(),
+            execRoot.getRelative("gone/removed.txt").asFragment(),
+            execRoot.getRelative("gone").asFragment());
+    assertThat(fs.createdSymlinks)
+        .containsExactly(
+            execRoot.getRelative("such/changed.txt").asFragment(),
+            execRoot.getRelative("very/new.txt").asFragment());
+
+    assertThat(execRoot.getRelative("such/unchanged.txt").resolveSymbolicLinks())
+        .isEqualTo(helloTxt);
+    assertThat(execRoot.getRelative("such/changed.txt").resolveSymbolicLinks())
+        .isEqualTo(worldTxt);
+    assertThat(execRoot.getRelative("such/removed.txt").exists(Symlinks.NOFOLLOW)).isFalse();
+    assertThat(execRoot.getRelative("gone").exists(Symlinks.NOFOLLOW)).isFalse();
+    assertThat(execRoot.getRelative("very/new.txt").resolveSymbolicLinks()).isEqualTo(worldTxt);
+  }
+
   @Test
   public void copyOutputs() throws Exception {
     Path outputFile = execRoot.getRelative("very/output.txt");
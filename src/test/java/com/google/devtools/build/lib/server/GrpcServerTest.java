@@ -35,6 +35,9 @@ import io.grpc.Status;
 import io.grpc.StatusRuntimeException;
 import io.grpc.stub.ServerCallStreamObserver;
 import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
 import java.util.concurrent.CountDownLatch;
 import java.util.concurrent.ExecutorService;
 import java.util.concurrent.Executors;
@@ -163,7 +166,11 @@ public class GrpcServerTest {
   }
 
   private RunResponse runResponse() {
-    return RunResponse.newBuilder().setStandardError(ByteString.copyFromUtf8("hello")).build();
+    return stderr("hello");
+  }
+
+  private RunResponse stderr(String output) {
+    return RunResponse.newBuilder().setStandardError(ByteString.copyFromUtf8(output)).build();
   }
 
   @Test
@@ -300,6 +307,49 @@ public class GrpcServerTest {
     sender.joinAndAssertState(TestUtils.WAIT_TIMEOUT_MILLISECONDS);
   }
 
+  @Test
+  public void testCoalescesOutputQueuedWhileSending() throws Exception {
+    final CountDownLatch sendingFirstMessage = new CountDownLatch(1);
+    final CountDownLatch releaseFirstMessage = new CountDownLatch(1);
+    final List<RunResponse> messages = Collections.synchronizedList(new ArrayList<RunResponse>());
+    MockObserver observer =
+        new MockObserver() {
+          @Override
+          public void onNext(RunResponse value) {
+            messages.add(value);
+            if (messages.size() == 1) {
+              sendingFirstMessage.countDown();
+              Uninterruptibles.awaitUninterruptibly(releaseFirstMessage);
+            }
+            super.onNext(value);
+          }
+        };
+    GrpcServerImpl.GrpcSink sink = new GrpcServerImpl.GrpcSink("Dummy", observer, executor);
+
+    assertThat(sink.offer(runResponse())).isTrue();
+    sendingFirstMessage.await();
+    // While the streamer thread is busy, output is queued; consecutive output to the same stream
+    // is then sent as a single message.
+    StringBuilder expectedErr = new StringBuilder();
+    for (int i = 0; i < 5; i++) {
+      assertThat(sink.offer(stderr("line " + i + "\n"))).isTrue();
+      expectedErr.append("line " + i + "\n");
+    }
+    assertThat(
+            sink.offer(
+                RunResponse.newBuilder().setStandardOutput(ByteString.copyFromUtf8("out")).build()))
+        .isTrue();
+    assertThat(sink.offer(stderr("last line\n"))).isTrue();
+    releaseFirstMessage.countDown();
+
+    assertThat(sink.finish()).isFalse();
+    assertThat(messages).hasSize(4);
+    assertThat(messages.get(1).getStandardError().toStringUtf8())
+        .isEqualTo(expectedErr.toString());
+    assertThat(messages.get(2).getStandardOutput().toStringUtf8()).isEqualTo("out");
+    assertThat(messages.get(3).getStandardError().toStringUtf8()).isEqualTo("last line\n");
+  }
+
   @Test
   public void testRpcOutputStreamChunksLargeResponses() throws Exception {
     GrpcServerImpl.GrpcSink mockSink = mock(GrpcServerImpl.GrpcSink.class);
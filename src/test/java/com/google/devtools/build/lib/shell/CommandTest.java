@@ -16,6 +16,7 @@ package com.google.devtools.build.lib.shell;
 import static com.google.common.truth.Truth.assertThat;
 import static com.google.common.truth.Truth.assertWithMessage;
 import static com.google.devtools.build.lib.shell.TestUtil.assertArrayEquals;
+import static java.nio.charset.StandardCharsets.UTF_8;
 import static org.junit.Assert.fail;
 
 import com.google.common.collect.ImmutableMap;
@@ -27,6 +28,7 @@ import java.io.File;
 import java.io.IOException;
 import java.io.InputStream;
 import java.io.OutputStream;
+import java.nio.file.Files;
 import java.util.Collections;
 import java.util.Map;
 import java.util.logging.Level;
@@ -125,6 +127,19 @@ public class CommandTest {
     checkSuccess(command.execute(), "/\n");
   }
 
+  @Test
+  public void testRedirectToFiles() throws Exception {
+    File stdout = File.createTempFile("CommandTest", "stdout");
+    stdout.deleteOnExit();
+    final Command command =
+        new Command(new String[] {"/bin/sh", "-c", "echo foo; echo bar >&2"});
+    final CommandResult result =
+        command.execute(Command.NO_INPUT, Command.NO_OBSERVER, stdout, null, false);
+    assertThat(result.getTerminationStatus().success()).isTrue();
+    assertThat(new String(Files.readAllBytes(stdout.toPath()), UTF_8))
+        .isEqualTo("foo\n");
+  }
+
   @Test
   public void testStdin() throws Exception {
     final Command command = new Command(new String[] {"grep", "bar"});
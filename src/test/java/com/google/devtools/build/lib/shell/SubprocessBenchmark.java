@@ -0,0 +1,85 @@
+// Copyright 2017 The Bazel Authors. All rights reserved.
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+// http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package com.google.devtools.build.lib.shell;
+
+import com.google.common.io.ByteStreams;
+import java.io.File;
+import java.lang.management.ManagementFactory;
+import java.lang.management.ThreadMXBean;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Spawns many short processes concurrently through {@link Command}, once with the output read
+ * through pipes and once with the output redirected to /dev/null, and reports the wall time and the
+ * peak number of live threads of each.
+ *
+ * <p>Usage: {@code SubprocessBenchmark [<processes> [<concurrency>]]}
+ */
+public final class SubprocessBenchmark {
+
+  private static final String[] ARGV = {"/bin/true"};
+
+  public static void main(String[] args) throws Exception {
+    int processes = args.length > 0 ? Integer.parseInt(args[0]) : 5000;
+    int concurrency = args.length > 1 ? Integer.parseInt(args[1]) : 300;
+
+    System.out.printf("%10s %10s %12s%n", "output", "wall (ms)", "peak threads");
+    // Redirection goes first, as the threads that read the pipes stay around for a while after.
+    for (boolean redirect : new boolean[] {true, false}) {
+      run(processes, concurrency, redirect);
+    }
+  }
+
+  private static void run(int processes, int concurrency, final boolean redirect)
+      throws InterruptedException {
+    ThreadMXBean threads = ManagementFactory.getThreadMXBean();
+    ExecutorService executor = Executors.newFixedThreadPool(concurrency);
+    threads.resetPeakThreadCount();
+    long start = System.nanoTime();
+    for (int i = 0; i < processes; i++) {
+      executor.execute(
+          new Runnable() {
+            @Override
+            public void run() {
+              Command command = new Command(ARGV);
+              try {
+                if (redirect) {
+                  command.execute(
+                      Command.NO_INPUT, Command.NO_OBSERVER, (File) null, (File) null, false);
+                } else {
+                  command.execute(
+                      Command.NO_INPUT,
+                      Command.NO_OBSERVER,
+                      ByteStreams.nullOutputStream(),
+                      ByteStreams.nullOutputStream(),
+                      false);
+                }
+              } catch (CommandException e) {
+                throw new IllegalStateException(e);
+              }
+            }
+          });
+    }
+    executor.shutdown();
+    executor.awaitTermination(Long.MAX_VALUE, TimeUnit.SECONDS);
+    System.out.printf(
+        "%10s %10d %12d%n",
+        redirect ? "redirected" : "piped",
+        TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start),
+        threads.getPeakThreadCount());
+  }
+}
@@ -0,0 +1,80 @@
+// Copyright 2017 The Bazel Authors. All rights reserved.
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+// http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package com.google.devtools.build.lib.unix;
+
+import com.google.common.collect.ImmutableList;
+import com.google.devtools.build.lib.shell.JavaSubprocessFactory;
+import com.google.devtools.build.lib.shell.Subprocess;
+import com.google.devtools.build.lib.shell.SubprocessBuilder;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Measures how long {@link JavaSubprocessFactory} and {@link UnixSubprocessFactory} take to run
+ * /bin/true, while the heap holds increasing amounts of live data.
+ *
+ * <p>Usage: {@code SubprocessFactoryBenchmark [<spawns per heap size> [<heap sizes in MB>...]]}.
+ * Run with a large enough -Xmx.
+ */
+public final class SubprocessFactoryBenchmark {
+
+  private static final int CHUNK_BYTES = 1 << 20;
+
+  public static void main(String[] args) throws Exception {
+    int spawns = args.length > 0 ? Integer.parseInt(args[0]) : 500;
+    List<Integer> heapSizesMb = new ArrayList<>();
+    for (int i = 1; i < args.length; i++) {
+      heapSizesMb.add(Integer.parseInt(args[i]));
+    }
+    if (heapSizesMb.isEmpty()) {
+      heapSizesMb = ImmutableList.of(0, 1024, 4096);
+    }
+
+    SubprocessBuilder builder = new SubprocessBuilder().setArgv(ImmutableList.of("/bin/true"));
+    List<byte[]> heap = new ArrayList<>();
+    System.out.printf("%10s %15s %15s%n", "heap (MB)", "java (us)", "vfork (us)");
+    for (int heapSizeMb : heapSizesMb) {
+      while (heap.size() < heapSizeMb) {
+        byte[] chunk = new byte[CHUNK_BYTES];
+        // Touch every page, so that it is actually mapped.
+        for (int i = 0; i < chunk.length; i += 4096) {
+          chunk[i] = 1;
+        }
+        heap.add(chunk);
+      }
+      System.out.printf(
+          "%10d %15d %15d%n",
+          heap.size(),
+          measure(JavaSubprocessFactory.INSTANCE, builder, spawns),
+          measure(UnixSubprocessFactory.INSTANCE, builder, spawns));
+    }
+  }
+
+  /** Returns the mean time in microseconds to start a process and wait for it to exit. */
+  private static long measure(Subprocess.Factory factory, SubprocessBuilder builder, int spawns)
+      throws Exception {
+    long start = System.nanoTime();
+    for (int i = 0; i < spawns; i++) {
+      Subprocess process = factory.create(builder);
+      process.getOutputStream().close();
+      process.getInputStream().close();
+      process.getErrorStream().close();
+      process.waitFor();
+      process.close();
+    }
+    return TimeUnit.NANOSECONDS.toMicros(System.nanoTime() - start) / spawns;
+  }
+}
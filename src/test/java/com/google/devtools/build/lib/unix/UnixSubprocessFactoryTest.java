@@ -0,0 +1,144 @@
+// Copyright 2017 The Bazel Authors. All rights reserved.
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+// http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package com.google.devtools.build.lib.unix;
+
+import static com.google.common.truth.Truth.assertThat;
+import static java.nio.charset.StandardCharsets.UTF_8;
+import static org.junit.Assert.fail;
+import static org.junit.Assume.assumeTrue;
+
+import com.google.common.base.Splitter;
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.ImmutableMap;
+import com.google.common.io.ByteStreams;
+import com.google.devtools.build.lib.shell.Subprocess;
+import com.google.devtools.build.lib.shell.SubprocessBuilder;
+import com.google.devtools.build.lib.testutil.TestUtils;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.file.Files;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.junit.runners.JUnit4;
+
+/** Tests for {@link UnixSubprocessFactory}. */
+@RunWith(JUnit4.class)
+public class UnixSubprocessFactoryTest {
+
+  private static Subprocess start(SubprocessBuilder builder) throws IOException {
+    return UnixSubprocessFactory.INSTANCE.create(builder);
+  }
+
+  @Test
+  public void testStreams() throws Exception {
+    Subprocess process =
+        start(
+            new SubprocessBuilder()
+                .setArgv(ImmutableList.of("/bin/sh", "-c", "cat; echo \"$FOO\" >&2; pwd >&2"))
+                .setEnv(ImmutableMap.of("FOO", "bar"))
+                .setWorkingDirectory(new File("/")));
+    try (OutputStream stdin = process.getOutputStream()) {
+      stdin.write("hello".getBytes(UTF_8));
+    }
+    assertThat(new String(ByteStreams.toByteArray(process.getInputStream()), UTF_8))
+        .isEqualTo("hello");
+    assertThat(new String(ByteStreams.toByteArray(process.getErrorStream()), UTF_8))
+        .isEqualTo("bar\n/\n");
+    process.waitFor();
+    assertThat(process.exitValue()).isEqualTo(0);
+    process.close();
+  }
+
+  @Test
+  public void testExitValueAndPathLookup() throws Exception {
+    Subprocess process =
+        start(new SubprocessBuilder().setArgv(ImmutableList.of("sh", "-c", "exit 42")));
+    process.waitFor();
+    assertThat(process.finished()).isTrue();
+    assertThat(process.exitValue()).isEqualTo(42);
+    process.close();
+  }
+
+  @Test
+  public void testDestroy() throws Exception {
+    Subprocess process =
+        start(new SubprocessBuilder().setArgv(ImmutableList.of("/bin/sleep", "60")));
+    assertThat(process.destroy()).isTrue();
+    process.waitFor();
+    // Killed by SIGTERM.
+    assertThat(process.exitValue()).isEqualTo(128 + 15);
+    assertThat(process.destroy()).isFalse();
+    process.close();
+  }
+
+  @Test
+  public void testRedirect() throws Exception {
+    File stdout = new File(TestUtils.tmpDir(), "stdout");
+    Files.write(stdout.toPath(), "old".getBytes(UTF_8));
+    Subprocess process =
+        start(
+            new SubprocessBuilder()
+                .setArgv(ImmutableList.of("/bin/echo", "new"))
+                .setStdout(stdout)
+                .setStderr(SubprocessBuilder.StreamAction.DISCARD));
+    process.waitFor();
+    assertThat(process.exitValue()).isEqualTo(0);
+    assertThat(process.getInputStream().read()).isEqualTo(-1);
+    assertThat(new String(Files.readAllBytes(stdout.toPath()), UTF_8)).isEqualTo("new\n");
+    process.close();
+  }
+
+  @Test
+  public void testDoesNotInheritFileDescriptors() throws Exception {
+    File file = new File(TestUtils.tmpDir(), "open");
+    Files.write(file.toPath(), new byte[0]);
+    try (FileInputStream unused = new FileInputStream(file)) {
+      // ls(1) opens /dev/fd itself, as the next free descriptor.
+      Subprocess process =
+          start(new SubprocessBuilder().setArgv(ImmutableList.of("/bin/ls", "/dev/fd")));
+      String fds = new String(ByteStreams.toByteArray(process.getInputStream()), UTF_8);
+      process.waitFor();
+      assertThat(process.exitValue()).isEqualTo(0);
+      assertThat(Splitter.on('\n').omitEmptyStrings().split(fds))
+          .containsExactly("0", "1", "2", "3");
+      process.close();
+    }
+  }
+
+  @Test
+  public void testUnblocksSignals() throws Exception {
+    assumeTrue(new File("/proc/self/status").exists());
+    Subprocess process =
+        start(
+            new SubprocessBuilder()
+                .setArgv(ImmutableList.of("/bin/grep", "^SigBlk:", "/proc/self/status")));
+    String blocked = new String(ByteStreams.toByteArray(process.getInputStream()), UTF_8);
+    process.waitFor();
+    assertThat(blocked).matches("SigBlk:\\s+0+\n");
+    process.close();
+  }
+
+  @Test
+  public void testNonexistentExecutable() throws Exception {
+    try {
+      start(new SubprocessBuilder().setArgv(ImmutableList.of("/does/not/exist")));
+      fail();
+    } catch (IOException e) {
+      assertThat(e).hasMessageThat().contains("/does/not/exist");
+    }
+  }
+}
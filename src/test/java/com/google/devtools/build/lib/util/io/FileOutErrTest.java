@@ -0,0 +1,60 @@
+// Copyright 2017 The Bazel Authors. All rights reserved.
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//    http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+package com.google.devtools.build.lib.util.io;
+
+import static com.google.common.truth.Truth.assertThat;
+
+import com.google.devtools.build.lib.vfs.FileSystemUtils;
+import com.google.devtools.build.lib.vfs.Path;
+import com.google.devtools.build.lib.vfs.inmemoryfs.InMemoryFileSystem;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.junit.runners.JUnit4;
+
+/** Tests {@link FileOutErr}. */
+@RunWith(JUnit4.class)
+public class FileOutErrTest {
+
+  private final InMemoryFileSystem fileSystem = new InMemoryFileSystem();
+  private final FileOutErr outErr =
+      new FileOutErr(fileSystem.getPath("/stdout"), fileSystem.getPath("/stderr"));
+
+  @Test
+  public void recordsOutputWrittenToHandedOutFiles() throws Exception {
+    FileSystemUtils.writeContentAsLatin1(outErr.getOutputPath(), "from a subprocess\n");
+
+    assertThat(outErr.hasRecordedOutput()).isTrue();
+    assertThat(outErr.outAsLatin1()).isEqualTo("from a subprocess\n");
+  }
+
+  @Test
+  public void appendsToHandedOutFiles() throws Exception {
+    Path stderr = outErr.getErrorPath();
+    FileSystemUtils.writeContentAsLatin1(stderr, "from a subprocess\n");
+    outErr.printErr("from blaze\n");
+    outErr.getErrorStream().close();
+
+    assertThat(outErr.errAsLatin1()).isEqualTo("from a subprocess\nfrom blaze\n");
+  }
+
+  @Test
+  public void truncatesFilesNotHandedOut() throws Exception {
+    Path stdout = fileSystem.getPath("/stdout");
+    FileSystemUtils.writeContentAsLatin1(stdout, "stale\n");
+    outErr.printOut("fresh\n");
+    outErr.getOutputStream().close();
+
+    assertThat(outErr.outAsLatin1()).isEqualTo("fresh\n");
+  }
+}
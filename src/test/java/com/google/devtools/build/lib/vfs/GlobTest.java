@@ -29,6 +29,7 @@ import java.util.Collection;
 import java.util.Collections;
 import java.util.HashSet;
 import java.util.List;
+import java.util.Map;
 import java.util.Set;
 import java.util.concurrent.CancellationException;
 import java.util.concurrent.Executors;
@@ -288,6 +289,59 @@ public class GlobTest {
 
   }
 
+  @Test
+  public void testMultiplePatternsWithSharedPrefix() throws Exception {
+    FileSystemUtils.createEmptyFile(tmpPath.getRelative("foo/bar/wiz/other"));
+    assertGlobMatchesAnyOrder(
+        Lists.newArrayList("foo/bar/wiz/file", "foo/bar/wiz/*", "foo/*/wiz", "foo/**/file"),
+        "foo/bar/wiz/file", "foo/bar/wiz/other", "foo/bar/wiz", "foo/barnacle/wiz");
+  }
+
+  @Test
+  public void testMultiplePatternsReadEachDirectoryOnce() throws Exception {
+    final List<Path> readdirs = Collections.synchronizedList(new ArrayList<Path>());
+    UnixGlob.FilesystemCalls syscalls = new UnixGlob.FilesystemCalls() {
+      @Override
+      public FileStatus statIfFound(Path path, Symlinks symlinks) throws IOException {
+        return UnixGlob.DEFAULT_SYSCALLS.statIfFound(path, symlinks);
+      }
+
+      @Override
+      public Collection<Dirent> readdir(Path path, Symlinks symlinks) throws IOException {
+        readdirs.add(path);
+        return UnixGlob.DEFAULT_SYSCALLS.readdir(path, symlinks);
+      }
+    };
+
+    assertThat(
+            new UnixGlob.Builder(tmpPath)
+                .addPatterns("foo/*/wiz", "foo/*", "foo/b*")
+                .setFilesystemCalls(new AtomicReference<>(syscalls))
+                .glob())
+        .containsExactlyElementsIn(
+            resolvePaths("foo/bar", "foo/barnacle", "foo/bar/wiz", "foo/barnacle/wiz"));
+    assertThat(readdirs).containsExactly(tmpPath.getRelative("foo"));
+  }
+
+  @Test
+  public void testGlobAsyncByPattern() throws Exception {
+    ThreadPoolExecutor executor = (ThreadPoolExecutor) Executors.newFixedThreadPool(10);
+    Map<String, Future<List<Path>>> futures =
+        new UnixGlob.Builder(tmpPath)
+            .addPatterns("foo*", "foo/b*", "foo/**/file", "nope/*")
+            .setThreadPool(executor)
+            .globAsyncByPattern(true);
+    assertThat(futures.keySet()).containsExactly("foo*", "foo/b*", "foo/**/file", "nope/*");
+    assertThat(futures.get("foo*").get())
+        .containsExactlyElementsIn(resolvePaths("foo", "food", "fool"));
+    assertThat(futures.get("foo/b*").get())
+        .containsExactlyElementsIn(resolvePaths("foo/bar", "foo/barnacle"));
+    assertThat(futures.get("foo/**/file").get())
+        .containsExactlyElementsIn(resolvePaths("foo/bar/wiz/file"));
+    assertThat(futures.get("nope/*").get()).isEmpty();
+    executor.shutdownNow();
+  }
+
   private void assertGlobMatchesAnyOrder(ArrayList<String> patterns,
                                          String... paths) throws Exception {
     assertThat(resolvePaths(paths)).containsExactlyElementsIn(
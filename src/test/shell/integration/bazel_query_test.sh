@@ -96,6 +96,21 @@ EOF
   assert_contains "//visibility:public" output_public
 }
 
+function test_streamed_proto_output_is_uniquified() {
+  mkdir -p streamed
+  cat > streamed/BUILD <<EOF
+sh_library(name='one')
+sh_library(name='two')
+EOF
+
+  bazel query --output=streamed_proto --order_output=no \
+    '//streamed:one + //streamed:all + //streamed:one' > output_streamed \
+    || fail "Expected success"
+
+  assert_equals 1 "$(grep -ao '//streamed:one' output_streamed | wc -l)"
+  assert_equals 1 "$(grep -ao '//streamed:two' output_streamed | wc -l)"
+}
+
 function make_depth_tests() {
   mkdir -p depth depth2 || die "Could not create test directory"
   cat > "depth/BUILD" <<EOF
@@ -195,6 +210,68 @@ EOF
   expect_not_log "//bar:top"
 }
 
+function test_infer_universe_scope_allpaths() {
+  mkdir -p foo bar || fail "Couldn't mkdir"
+  echo "sh_library(name = 'foo', deps = ['//bar:bar'])" > foo/BUILD ||
+      fail "Couldn't write BUILD"
+  cat <<'EOF' > bar/BUILD || fail "Couldn't write BUILD"
+sh_library(name = 'bar', deps = [':dep'])
+sh_library(name = 'dep')
+sh_library(name = 'other', deps = [':dep'])
+EOF
+  bazel query --order_output=no --infer_universe_scope \
+      'allpaths(//foo:foo, //bar:dep)' >& $TEST_log || fail "Expected success"
+  expect_log "//foo:foo"
+  expect_log "//bar:bar"
+  expect_log "//bar:dep"
+  expect_not_log "//bar:other"
+}
+
+function test_infer_universe_scope_keeps_rdeps_universe() {
+  mkdir -p foo bar || fail "Couldn't mkdir"
+  echo "sh_library(name = 'foo', deps = ['//bar:bar'])" > foo/BUILD ||
+      fail "Couldn't write BUILD"
+  cat <<'EOF' > bar/BUILD || fail "Couldn't write BUILD"
+sh_library(name = 'bar', deps = [':dep'])
+sh_library(name = 'dep')
+sh_library(name = 'other', deps = [':dep'])
+EOF
+  # As without --infer_universe_scope, only the rdeps within the given universe are returned,
+  # even though the expression also mentions //bar:other.
+  bazel query --order_output=no --infer_universe_scope \
+      'rdeps(//foo:foo, //bar:dep) + (//bar:* - //bar:*)' >& $TEST_log ||
+      fail "Expected success"
+  expect_log "//foo:foo"
+  expect_log "//bar:bar"
+  expect_log "//bar:dep"
+  expect_not_log "//bar:other"
+}
+
+function test_infer_universe_scope_from_rdeps_universe() {
+  mkdir -p foo bar || fail "Couldn't mkdir"
+  echo "sh_library(name = 'foo', deps = ['//bar:bar'])" > foo/BUILD ||
+      fail "Couldn't write BUILD"
+  cat <<'EOF' > bar/BUILD || fail "Couldn't write BUILD"
+sh_library(name = 'bar', deps = [':dep'])
+sh_library(name = 'dep')
+sh_library(name = 'other', deps = [':dep'])
+EOF
+  # //bar:dep is below the universe, so //bar/... alone is the inferred universe scope.
+  bazel query --order_output=no --infer_universe_scope \
+      'rdeps(//bar/..., //bar:dep)' >& $TEST_log || fail "Expected success"
+  expect_log "//bar:bar"
+  expect_log "//bar:dep"
+  expect_log "//bar:other"
+  expect_not_log "//foo:foo"
+
+  # //foo:foo is outside the rdeps universe, so it is added to the inferred universe scope.
+  bazel query --order_output=no --infer_universe_scope \
+      'rdeps(//bar/..., //bar:dep) + //foo:foo' >& $TEST_log ||
+      fail "Expected success"
+  expect_log "//bar:other"
+  expect_log "//foo:foo"
+}
+
 # Since all targets in deps(..., n) are accessible n steps away, none should
 # have a minrank greater than n.
 function test_minrank_le_depth_bound() {
@@ -0,0 +1,117 @@
+// Copyright 2017 The Bazel Authors. All rights reserved.
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//    http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package com.google.devtools.build.bes;
+
+import static com.google.common.truth.Truth.assertThat;
+import static org.junit.Assert.fail;
+
+import com.google.common.collect.ImmutableList;
+import com.google.devtools.build.lib.buildeventstream.BuildEventStreamProtos.BuildEvent;
+import com.google.devtools.build.lib.buildeventstream.BuildEventStreamProtos.BuildEventId;
+import com.google.devtools.build.lib.buildeventstream.BuildEventStreamProtos.BuildEventId.ProgressId;
+import com.google.devtools.build.lib.buildeventstream.BuildEventStreamProtos.Progress;
+import com.google.devtools.build.lib.util.AbruptExitException;
+import com.google.devtools.build.lib.util.ExitCode;
+import io.grpc.Server;
+import io.grpc.inprocess.InProcessChannelBuilder;
+import io.grpc.inprocess.InProcessServerBuilder;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.InputStream;
+import java.util.ArrayList;
+import java.util.List;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.junit.runners.JUnit4;
+
+/** Tests for {@link BuildEventServiceLoadGenerator}. */
+@RunWith(JUnit4.class)
+public class BuildEventServiceLoadGeneratorTest {
+
+  private static final String SERVER_NAME = "BuildEventServiceLoadGeneratorTest";
+
+  private final ByteArrayOutputStream recorded = new ByteArrayOutputStream();
+  private PublishBuildEventServer service;
+  private Server server;
+
+  @Before
+  public final void startServer() throws Exception {
+    service =
+        new PublishBuildEventServer(/*rpcLatencyMillis=*/ 0, /*ackDelayMillis=*/ 0, recorded);
+    server = InProcessServerBuilder.forName(SERVER_NAME).addService(service).build().start();
+  }
+
+  @After
+  public final void stopServer() throws Exception {
+    server.shutdownNow();
+    service.shutdown();
+  }
+
+  private static ImmutableList<BuildEvent> progressEvents(int count) {
+    ImmutableList.Builder<BuildEvent> events = ImmutableList.builder();
+    for (int i = 0; i < count; i++) {
+      events.add(
+          BuildEvent.newBuilder()
+              .setId(
+                  BuildEventId.newBuilder().setProgress(ProgressId.newBuilder().setOpaqueCount(i)))
+              .setProgress(Progress.newBuilder().setStdout("line " + i + "\n"))
+              .build());
+    }
+    return events.build();
+  }
+
+  private List<BuildEvent> recordedEvents() throws Exception {
+    List<BuildEvent> events = new ArrayList<>();
+    try (InputStream in = new ByteArrayInputStream(recorded.toByteArray())) {
+      BuildEvent event;
+      while ((event = BuildEvent.parseDelimitedFrom(in)) != null) {
+        events.add(event);
+      }
+    }
+    return events;
+  }
+
+  @Test
+  public void testUploadsAllEventsInOrder() throws Exception {
+    ImmutableList<BuildEvent> events = progressEvents(100);
+    BuildEventServiceLoadGenerator generator =
+        new BuildEventServiceLoadGenerator(
+            () -> InProcessChannelBuilder.forName(SERVER_NAME).build(), events);
+
+    assertThat(generator.upload()).isGreaterThan(0L);
+    assertThat(recordedEvents()).containsExactlyElementsIn(events).inOrder();
+
+    // Each upload is a separate invocation on a new stream.
+    assertThat(generator.run(/*count=*/ 2, service)).isEqualTo(0);
+    assertThat(recordedEvents()).hasSize(3 * events.size());
+  }
+
+  @Test
+  public void testReportsFailedUploads() throws Exception {
+    BuildEventServiceLoadGenerator generator =
+        new BuildEventServiceLoadGenerator(
+            () -> InProcessChannelBuilder.forName("no such server").build(), progressEvents(1));
+
+    try {
+      generator.upload();
+      fail("Expected the upload to fail");
+    } catch (AbruptExitException expected) {
+      assertThat(expected.getExitCode()).isEqualTo(ExitCode.PUBLISH_ERROR);
+    }
+    assertThat(generator.run(/*count=*/ 1, service)).isEqualTo(1);
+  }
+}
@@ -0,0 +1,81 @@
+// Copyright 2017 The Bazel Authors. All rights reserved.
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//    http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+package com.google.devtools.build.bes;
+
+import static java.util.logging.Level.INFO;
+
+import com.google.devtools.build.lib.util.SingleLineFormatter;
+import com.google.devtools.common.options.OptionsParser;
+import io.grpc.Server;
+import io.grpc.netty.NettyServerBuilder;
+import java.io.BufferedOutputStream;
+import java.io.FileOutputStream;
+import java.io.OutputStream;
+import java.util.logging.Logger;
+
+/**
+ * A local stand-in for a build event service, to measure and tune the performance of uploading
+ * build events without a remote service.
+ *
+ * <p>By default, it serves until it is killed. With {@code --replay_file}, it instead uploads the
+ * given build events to itself through Bazel's build event service transport, reports the
+ * throughput and exits.
+ */
+public final class BuildEventService {
+  private static final Logger logger = Logger.getLogger(BuildEventService.class.getName());
+
+  public static void main(String[] args) throws Exception {
+    OptionsParser parser = OptionsParser.newOptionsParser(BuildEventServiceOptions.class);
+    parser.parseAndExitUponError(args);
+    BuildEventServiceOptions options = parser.getOptions(BuildEventServiceOptions.class);
+
+    Logger rootLog = Logger.getLogger("");
+    rootLog.getHandlers()[0].setFormatter(new SingleLineFormatter());
+
+    OutputStream recordStream = null;
+    if (options.recordFile != null) {
+      recordStream = new BufferedOutputStream(new FileOutputStream(options.recordFile));
+    }
+    PublishBuildEventServer service =
+        new PublishBuildEventServer(options.rpcLatencyMillis, options.ackDelayMillis, recordStream);
+    Server server = NettyServerBuilder.forPort(options.listenPort).addService(service).build();
+    logger.log(INFO, "Starting gRPC server on port {0,number,#}.", options.listenPort);
+    server.start();
+
+    if (options.replayFile != null) {
+      int failures;
+      try {
+        failures =
+            BuildEventServiceLoadGenerator.fromFile(options.listenPort, options.replayFile)
+                .run(options.replayCount, service);
+      } finally {
+        server.shutdown();
+        service.shutdown();
+      }
+      if (failures > 0) {
+        System.exit(1);
+      }
+      return;
+    }
+
+    Runtime.getRuntime()
+        .addShutdownHook(
+            new Thread(
+                () -> {
+                  logger.info(service.getSummary());
+                  service.shutdown();
+                }));
+    server.awaitTermination();
+  }
+}
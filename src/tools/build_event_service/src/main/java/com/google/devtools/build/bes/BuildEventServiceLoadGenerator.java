@@ -0,0 +1,200 @@
+// Copyright 2017 The Bazel Authors. All rights reserved.
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//    http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+package com.google.devtools.build.bes;
+
+import com.google.common.annotations.VisibleForTesting;
+import com.google.common.collect.ImmutableList;
+import com.google.devtools.build.lib.buildeventservice.BuildEventServiceTransport;
+import com.google.devtools.build.lib.buildeventservice.client.BuildEventServiceGrpcClient;
+import com.google.devtools.build.lib.buildeventstream.ArtifactGroupNamer;
+import com.google.devtools.build.lib.buildeventstream.BuildEvent;
+import com.google.devtools.build.lib.buildeventstream.BuildEventConverters;
+import com.google.devtools.build.lib.buildeventstream.BuildEventId;
+import com.google.devtools.build.lib.buildeventstream.BuildEventStreamProtos;
+import com.google.devtools.build.lib.cmdline.Label;
+import com.google.devtools.build.lib.runtime.BlazeModule.ModuleEnvironment;
+import com.google.devtools.build.lib.util.AbruptExitException;
+import com.google.devtools.build.lib.util.BlazeClock;
+import com.google.devtools.build.lib.vfs.Path;
+import io.grpc.ManagedChannel;
+import io.grpc.netty.NegotiationType;
+import io.grpc.netty.NettyChannelBuilder;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.Collection;
+import java.util.UUID;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Supplier;
+import java.util.logging.Logger;
+import org.joda.time.Duration;
+
+/**
+ * Uploads previously recorded build events to a build event service through Bazel's {@link
+ * BuildEventServiceTransport}, and reports the sustained upload throughput.
+ */
+final class BuildEventServiceLoadGenerator {
+  private static final Logger logger =
+      Logger.getLogger(BuildEventServiceLoadGenerator.class.getName());
+
+  private final Supplier<ManagedChannel> channels;
+  private final ImmutableList<BuildEventStreamProtos.BuildEvent> events;
+
+  @VisibleForTesting
+  BuildEventServiceLoadGenerator(
+      Supplier<ManagedChannel> channels, ImmutableList<BuildEventStreamProtos.BuildEvent> events) {
+    this.channels = channels;
+    this.events = events;
+  }
+
+  /** Reads the events from a file written by {@code --build_event_binary_file}. */
+  static BuildEventServiceLoadGenerator fromFile(int port, String path) throws IOException {
+    ImmutableList.Builder<BuildEventStreamProtos.BuildEvent> events = ImmutableList.builder();
+    try (InputStream in = new FileInputStream(path)) {
+      BuildEventStreamProtos.BuildEvent event;
+      while ((event = BuildEventStreamProtos.BuildEvent.parseDelimitedFrom(in)) != null) {
+        events.add(event);
+      }
+    }
+    return new BuildEventServiceLoadGenerator(
+        () ->
+            NettyChannelBuilder.forAddress("localhost", port)
+                .negotiationType(NegotiationType.PLAINTEXT)
+                .build(),
+        events.build());
+  }
+
+  /**
+   * Uploads the events once, as a single invocation, and returns the number of nanoseconds from
+   * sending the first event until the transport has been closed.
+   *
+   * @throws AbruptExitException if the transport failed the upload
+   */
+  long upload() throws Exception {
+    LoadGeneratorModuleEnvironment moduleEnvironment = new LoadGeneratorModuleEnvironment();
+    BuildEventServiceGrpcClient client = new BuildEventServiceGrpcClient(channels.get(), null);
+    try {
+      BuildEventServiceTransport transport =
+          new BuildEventServiceTransport(
+              client,
+              /*uploadTimeout=*/ Duration.ZERO,
+              /*bestEffortUpload=*/ false,
+              /*publishLifecycleEvents=*/ true,
+              UUID.randomUUID().toString(),
+              UUID.randomUUID().toString(),
+              moduleEnvironment,
+              BlazeClock.instance(),
+              Path::getPathString,
+              event -> logger.info(event.getMessage()),
+              /*projectId=*/ null);
+
+      // The events have been converted already, so they don't need the namer.
+      ArtifactGroupNamer namer = id -> null;
+      long startNanos = System.nanoTime();
+      for (BuildEventStreamProtos.BuildEvent event : events) {
+        transport.sendBuildEvent(new RecordedBuildEvent(event), namer);
+      }
+      transport.close().get();
+      long nanos = System.nanoTime() - startNanos;
+      moduleEnvironment.throwIfExitRequested();
+      return nanos;
+    } finally {
+      client.shutdown();
+    }
+  }
+
+  /**
+   * Uploads the events {@code count} times and logs the throughput of each successful upload.
+   * Returns the number of uploads that failed.
+   */
+  int run(int count, PublishBuildEventServer server) throws Exception {
+    logger.info(String.format("Replaying %d build events %d times.", events.size(), count));
+    int failures = 0;
+    for (int i = 0; i < count; i++) {
+      long bytesBefore = server.getStreamBytes();
+      long nanos;
+      try {
+        nanos = upload();
+      } catch (AbruptExitException e) {
+        failures++;
+        // The transport has logged the reason already.
+        logger.severe(String.format("Upload %d failed with %s.", i + 1, e.getExitCode().name()));
+        continue;
+      }
+      double seconds = nanos / (double) TimeUnit.SECONDS.toNanos(1);
+      logger.info(
+          String.format(
+              "Upload %d took %.3f s: %.1f events/s, %.1f KiB/s on the wire.",
+              i + 1,
+              seconds,
+              events.size() / seconds,
+              (server.getStreamBytes() - bytesBefore) / 1024.0 / seconds));
+    }
+    if (failures > 0) {
+      logger.severe(String.format("%d of %d uploads failed.", failures, count));
+    }
+    logger.info(server.getSummary());
+    return failures;
+  }
+
+  /** A {@link BuildEvent} that was converted to its protocol buffer representation earlier. */
+  private static final class RecordedBuildEvent implements BuildEvent {
+    private final BuildEventStreamProtos.BuildEvent event;
+
+    RecordedBuildEvent(BuildEventStreamProtos.BuildEvent event) {
+      this.event = event;
+    }
+
+    @Override
+    public BuildEventId getEventId() {
+      return BuildEventId.unknownBuildEventId(event.getId().toString());
+    }
+
+    @Override
+    public Collection<BuildEventId> getChildrenEvents() {
+      return ImmutableList.of();
+    }
+
+    @Override
+    public BuildEventStreamProtos.BuildEvent asStreamProto(BuildEventConverters converters) {
+      return event;
+    }
+  }
+
+  /**
+   * The environment of the transport, which runs outside of a Bazel server. The transport requests
+   * an exit when the upload fails.
+   */
+  private static final class LoadGeneratorModuleEnvironment implements ModuleEnvironment {
+    private volatile AbruptExitException exitRequest;
+
+    @Override
+    public Path getFileFromWorkspace(Label label) {
+      // There is no workspace to find the file in.
+      logger.warning("The build event service transport requested a workspace file: " + label);
+      return null;
+    }
+
+    @Override
+    public void exit(AbruptExitException exception) {
+      exitRequest = exception;
+    }
+
+    void throwIfExitRequested() throws AbruptExitException {
+      if (exitRequest != null) {
+        throw exitRequest;
+      }
+    }
+  }
+}
@@ -0,0 +1,88 @@
+// Copyright 2017 The Bazel Authors. All rights reserved.
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//    http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package com.google.devtools.build.bes;
+
+import com.google.devtools.common.options.Option;
+import com.google.devtools.common.options.OptionDocumentationCategory;
+import com.google.devtools.common.options.OptionsBase;
+import com.google.devtools.common.options.proto.OptionFilters.OptionEffectTag;
+
+/** Options for the local build event service. */
+public class BuildEventServiceOptions extends OptionsBase {
+  @Option(
+    name = "listen_port",
+    defaultValue = "8080",
+    category = "build_event_service",
+    documentationCategory = OptionDocumentationCategory.UNCATEGORIZED,
+    effectTags = {OptionEffectTag.UNKNOWN},
+    help = "Listening port for the netty server."
+  )
+  public int listenPort;
+
+  @Option(
+    name = "rpc_latency_ms",
+    defaultValue = "0",
+    category = "build_event_service",
+    documentationCategory = OptionDocumentationCategory.UNCATEGORIZED,
+    effectTags = {OptionEffectTag.UNKNOWN},
+    help = "Delay before responding to a lifecycle event, to simulate a remote service."
+  )
+  public int rpcLatencyMillis;
+
+  @Option(
+    name = "ack_delay_ms",
+    defaultValue = "0",
+    category = "build_event_service",
+    documentationCategory = OptionDocumentationCategory.UNCATEGORIZED,
+    effectTags = {OptionEffectTag.UNKNOWN},
+    help = "Delay between receiving an event on the build tool event stream and acknowledging it."
+  )
+  public int ackDelayMillis;
+
+  @Option(
+    name = "record_file",
+    defaultValue = "null",
+    category = "build_event_service",
+    documentationCategory = OptionDocumentationCategory.UNCATEGORIZED,
+    effectTags = {OptionEffectTag.UNKNOWN},
+    help =
+        "If set, the build events received on all streams are written to this file, in the "
+            + "format of --build_event_binary_file."
+  )
+  public String recordFile;
+
+  @Option(
+    name = "replay_file",
+    defaultValue = "null",
+    category = "build_event_service",
+    documentationCategory = OptionDocumentationCategory.UNCATEGORIZED,
+    effectTags = {OptionEffectTag.UNKNOWN},
+    help =
+        "If set, the build events in this file, written by --build_event_binary_file, are "
+            + "uploaded to the service through Bazel's build event service transport, the upload "
+            + "throughput is reported and the service exits."
+  )
+  public String replayFile;
+
+  @Option(
+    name = "replay_count",
+    defaultValue = "1",
+    category = "build_event_service",
+    documentationCategory = OptionDocumentationCategory.UNCATEGORIZED,
+    effectTags = {OptionEffectTag.UNKNOWN},
+    help = "The number of times the --replay_file is uploaded, one invocation after another."
+  )
+  public int replayCount;
+}
@@ -0,0 +1,154 @@
+// Copyright 2017 The Bazel Authors. All rights reserved.
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//    http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package com.google.devtools.build.bes;
+
+import static java.util.concurrent.TimeUnit.MILLISECONDS;
+
+import com.google.devtools.build.lib.buildeventstream.BuildEventStreamProtos;
+import com.google.devtools.build.v1.BuildEvent.EventCase;
+import com.google.devtools.build.v1.OrderedBuildEvent;
+import com.google.devtools.build.v1.PublishBuildEventGrpc.PublishBuildEventImplBase;
+import com.google.devtools.build.v1.PublishBuildToolEventStreamResponse;
+import com.google.devtools.build.v1.PublishLifecycleEventRequest;
+import com.google.protobuf.Any;
+import com.google.protobuf.Empty;
+import io.grpc.stub.StreamObserver;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+import javax.annotation.Nullable;
+
+/**
+ * A build event service that accepts everything it receives, optionally recording the build events
+ * and delaying its responses.
+ */
+final class PublishBuildEventServer extends PublishBuildEventImplBase {
+  private static final Logger logger = Logger.getLogger(PublishBuildEventServer.class.getName());
+
+  private final long rpcLatencyMillis;
+  private final long ackDelayMillis;
+  @Nullable private final OutputStream recordStream;
+  // Responses are sent from a single thread, as stream observers are not thread-safe. Responses
+  // scheduled with the same delay are sent in the order they were scheduled in.
+  private final ScheduledExecutorService responseScheduler =
+      Executors.newSingleThreadScheduledExecutor();
+
+  private final AtomicLong lifecycleEvents = new AtomicLong();
+  private final AtomicLong streams = new AtomicLong();
+  private final AtomicLong streamEvents = new AtomicLong();
+  private final AtomicLong streamBytes = new AtomicLong();
+
+  PublishBuildEventServer(
+      long rpcLatencyMillis, long ackDelayMillis, @Nullable OutputStream recordStream) {
+    this.rpcLatencyMillis = rpcLatencyMillis;
+    this.ackDelayMillis = ackDelayMillis;
+    this.recordStream = recordStream;
+  }
+
+  @Override
+  public void publishLifecycleEvent(
+      PublishLifecycleEventRequest request, final StreamObserver<Empty> responseObserver) {
+    lifecycleEvents.incrementAndGet();
+    logger.fine("Lifecycle event: " + request.getBuildEvent().getEvent().getEventCase());
+    responseScheduler.schedule(
+        () -> {
+          responseObserver.onNext(Empty.getDefaultInstance());
+          responseObserver.onCompleted();
+        },
+        rpcLatencyMillis,
+        MILLISECONDS);
+  }
+
+  @Override
+  public StreamObserver<OrderedBuildEvent> publishBuildToolEventStream(
+      final StreamObserver<PublishBuildToolEventStreamResponse> responseObserver) {
+    streams.incrementAndGet();
+    return new StreamObserver<OrderedBuildEvent>() {
+      @Override
+      public void onNext(OrderedBuildEvent event) {
+        streamEvents.incrementAndGet();
+        streamBytes.addAndGet(event.getSerializedSize());
+        if (event.getEvent().getEventCase() == EventCase.BAZEL_EVENT) {
+          record(event.getEvent().getBazelEvent());
+        }
+        final PublishBuildToolEventStreamResponse ack =
+            PublishBuildToolEventStreamResponse.newBuilder()
+                .setStreamId(event.getStreamId())
+                .setSequenceNumber(event.getSequenceNumber())
+                .build();
+        responseScheduler.schedule(
+            () -> responseObserver.onNext(ack), ackDelayMillis, MILLISECONDS);
+      }
+
+      @Override
+      public void onError(Throwable t) {
+        logger.log(Level.WARNING, "Build tool event stream failed.", t);
+      }
+
+      @Override
+      public void onCompleted() {
+        responseScheduler.schedule(responseObserver::onCompleted, ackDelayMillis, MILLISECONDS);
+      }
+    };
+  }
+
+  private void record(Any bazelEvent) {
+    if (recordStream == null) {
+      return;
+    }
+    try {
+      BuildEventStreamProtos.BuildEvent event =
+          bazelEvent.unpack(BuildEventStreamProtos.BuildEvent.class);
+      synchronized (recordStream) {
+        event.writeDelimitedTo(recordStream);
+      }
+    } catch (IOException e) {
+      logger.log(Level.WARNING, "Failed to record build event.", e);
+    }
+  }
+
+  long getStreamEvents() {
+    return streamEvents.get();
+  }
+
+  long getStreamBytes() {
+    return streamBytes.get();
+  }
+
+  /** Returns a summary of what the server received so far. */
+  String getSummary() {
+    return String.format(
+        "Received %d lifecycle events and %d events (%d bytes) on %d build tool event streams.",
+        lifecycleEvents.get(), streamEvents.get(), streamBytes.get(), streams.get());
+  }
+
+  /** Stops sending responses and closes the record file, if any. */
+  void shutdown() {
+    responseScheduler.shutdown();
+    if (recordStream != null) {
+      synchronized (recordStream) {
+        try {
+          recordStream.close();
+        } catch (IOException e) {
+          logger.log(Level.WARNING, "Failed to close the record file.", e);
+        }
+      }
+    }
+  }
+}